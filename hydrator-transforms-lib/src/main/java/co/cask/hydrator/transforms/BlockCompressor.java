@@ -0,0 +1,311 @@
+/*
+ * Copyright © 2015 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.hydrator.transforms;
+
+import com.github.luben.zstd.Zstd;
+import net.jpountz.lz4.LZ4Compressor;
+import net.jpountz.lz4.LZ4Factory;
+import net.jpountz.xxhash.XXHashFactory;
+import org.xerial.snappy.Snappy;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Compresses whole payloads into a buffer that is reused across payloads, the counterpart of
+ * {@link BlockDecompressor} and {@link InflaterStream}.
+ *
+ * <p>
+ * GZIP and ZIP payloads are deflated by a single {@link Deflater} that is reset for every payload
+ * and only released by {@link #end()}, rather than by a new deflater per payload that holds native
+ * memory until it's finalized. GZIP payloads are a single member, ZIP payloads are an archive of a
+ * single entry named {@link #ZIP_ENTRY}. LZ4 payloads are in the LZ4 frame format with independent
+ * blocks of 64KB, like lz4-java writes them. ZSTD payloads are a single frame.
+ * </p>
+ *
+ * <p>
+ * Levels are those of the compression libraries: 0 to 9 for GZIP and ZIP, 0 for the fast LZ4
+ * compressor or 1 to 17 for the high compression one, and 1 to 22 for ZSTD. SNAPPY has no levels.
+ * </p>
+ */
+public final class BlockCompressor {
+  /**
+   * Level standing for the default level of the compression type.
+   */
+  public static final int DEFAULT_LEVEL = -1;
+
+  /**
+   * Name of the entry of ZIP payloads.
+   */
+  public static final String ZIP_ENTRY = "value";
+
+  private static final int INITIAL_BUFFER_SIZE = 64 * 1024;
+  static final int ZSTD_DEFAULT_LEVEL = 3;
+  private static final int ZSTD_MAX_LEVEL = 22;
+  private static final int LZ4_MAX_LEVEL = 17;
+
+  private static final byte[] GZIP_HEADER = { 0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, 0 };
+  private static final int GZIP_TRAILER_SIZE = 8;
+
+  private static final int ZIP_LOCAL_SIGNATURE = 0x04034b50;
+  private static final int ZIP_CENTRAL_SIGNATURE = 0x02014b50;
+  private static final int ZIP_END_SIGNATURE = 0x06054b50;
+  private static final int ZIP_VERSION = 20;
+  // DOS date of 1980-01-01, the earliest a ZIP entry can have.
+  private static final int ZIP_DATE = (1 << 5) | 1;
+  private static final byte[] ZIP_NAME = ZIP_ENTRY.getBytes(StandardCharsets.US_ASCII);
+  private static final int ZIP_LOCAL_HEADER_SIZE = 30 + ZIP_NAME.length;
+  private static final int ZIP_CENTRAL_HEADER_SIZE = 46 + ZIP_NAME.length;
+  private static final int ZIP_END_SIZE = 22;
+
+  private static final int LZ4_MAGIC = 0x184D2204;
+  private static final int LZ4_BLOCK_SIZE = 64 * 1024;
+  // Version 1 with independent blocks, and a maximum block size of 64KB.
+  private static final byte LZ4_FLAGS = 0x60;
+  private static final byte LZ4_BLOCK_DESCRIPTOR = 0x40;
+  private static final int LZ4_HEADER_SIZE = 7;
+  private static final int LZ4_UNCOMPRESSED_BLOCK = 0x80000000;
+
+  private final CompDecompType type;
+  private final int level;
+  private final Deflater deflater;
+  private final CRC32 crc;
+  private final LZ4Compressor lz4;
+  private byte[] buffer = new byte[INITIAL_BUFFER_SIZE];
+
+  /**
+   * @param type compression type, not NONE.
+   * @param level compression level, or {@link #DEFAULT_LEVEL}.
+   * @throws IllegalArgumentException if the level is not a level of the compression type.
+   */
+  public BlockCompressor(CompDecompType type, int level) throws IllegalArgumentException {
+    checkLevel(type, level);
+    this.type = type;
+    this.level = level;
+    boolean deflate = type == CompDecompType.GZIP || type == CompDecompType.ZIP;
+    this.deflater = deflate ? new Deflater(level, true) : null;
+    this.crc = deflate ? new CRC32() : null;
+    if (type == CompDecompType.LZ4) {
+      this.lz4 = level <= 0 ? LZ4Factory.fastestInstance().fastCompressor()
+        : LZ4Factory.fastestInstance().highCompressor(level);
+    } else {
+      this.lz4 = null;
+    }
+  }
+
+  /**
+   * Checks the level of a compression type.
+   *
+   * @param type compression type.
+   * @param level compression level, or {@link #DEFAULT_LEVEL}.
+   * @throws IllegalArgumentException if the level is not a level of the compression type.
+   */
+  public static void checkLevel(CompDecompType type, int level) throws IllegalArgumentException {
+    if (level == DEFAULT_LEVEL) {
+      return;
+    }
+    int max;
+    int min = 0;
+    switch (type) {
+      case GZIP:
+      case ZIP:
+        max = Deflater.BEST_COMPRESSION;
+        break;
+      case LZ4:
+        max = LZ4_MAX_LEVEL;
+        break;
+      case ZSTD:
+        min = 1;
+        max = ZSTD_MAX_LEVEL;
+        break;
+      default:
+        throw new IllegalArgumentException("Compression type " + type + " has no compression levels.");
+    }
+    if (level < min || level > max) {
+      throw new IllegalArgumentException("Compression level " + level + " of " + type + " is not between " + min +
+                                           " and " + max + ".");
+    }
+  }
+
+  /**
+   * Compresses a payload into the buffer.
+   *
+   * @param payload array holding the payload.
+   * @param offset start of the payload.
+   * @param length length of the payload.
+   * @return length of the compressed payload at the start of the buffer.
+   * @throws IOException if the payload can't be compressed.
+   */
+  public int compress(byte[] payload, int offset, int length) throws IOException {
+    switch (type) {
+      case GZIP:
+        return compressGZIP(payload, offset, length);
+      case ZIP:
+        return compressZIP(payload, offset, length);
+      case LZ4:
+        return compressLZ4(payload, offset, length);
+      case SNAPPY:
+        ensureCapacity(0, Snappy.maxCompressedLength(length));
+        return Snappy.compress(payload, offset, length, buffer, 0);
+      default:
+        return compressZSTD(payload, offset, length);
+    }
+  }
+
+  /**
+   * @return buffer holding the last compressed payload.
+   */
+  public byte[] getBuffer() {
+    return buffer;
+  }
+
+  /**
+   * Releases the deflater. The compressor can't be used anymore afterwards.
+   */
+  public void end() {
+    if (deflater != null) {
+      deflater.end();
+    }
+  }
+
+  private int compressGZIP(byte[] payload, int offset, int length) {
+    System.arraycopy(GZIP_HEADER, 0, buffer, 0, GZIP_HEADER.length);
+    int end = deflate(payload, offset, length, GZIP_HEADER.length);
+    ensureCapacity(end, GZIP_TRAILER_SIZE);
+    writeInt(end, (int) crc.getValue());
+    writeInt(end + 4, length);
+    return end + GZIP_TRAILER_SIZE;
+  }
+
+  private int compressZIP(byte[] payload, int offset, int length) {
+    int end = deflate(payload, offset, length, ZIP_LOCAL_HEADER_SIZE);
+    int compressed = end - ZIP_LOCAL_HEADER_SIZE;
+    int checksum = (int) crc.getValue();
+
+    // The sizes are known once deflated, so they are in the headers rather than in a descriptor.
+    writeInt(0, ZIP_LOCAL_SIGNATURE);
+    writeShort(4, ZIP_VERSION);
+    writeShort(6, 0);
+    writeShort(8, Deflater.DEFLATED);
+    writeShort(10, 0);
+    writeShort(12, ZIP_DATE);
+    writeInt(14, checksum);
+    writeInt(18, compressed);
+    writeInt(22, length);
+    writeShort(26, ZIP_NAME.length);
+    writeShort(28, 0);
+    System.arraycopy(ZIP_NAME, 0, buffer, 30, ZIP_NAME.length);
+
+    ensureCapacity(end, ZIP_CENTRAL_HEADER_SIZE + ZIP_END_SIZE);
+    int central = end;
+    writeInt(central, ZIP_CENTRAL_SIGNATURE);
+    writeShort(central + 4, ZIP_VERSION);
+    writeShort(central + 6, ZIP_VERSION);
+    // Flags, method, time, date, checksum, sizes and name length are the same as in the local header.
+    System.arraycopy(buffer, 6, buffer, central + 8, 22);
+    Arrays.fill(buffer, central + 30, central + 46, (byte) 0);
+    System.arraycopy(ZIP_NAME, 0, buffer, central + 46, ZIP_NAME.length);
+
+    int endRecord = central + ZIP_CENTRAL_HEADER_SIZE;
+    writeInt(endRecord, ZIP_END_SIGNATURE);
+    writeShort(endRecord + 4, 0);
+    writeShort(endRecord + 6, 0);
+    writeShort(endRecord + 8, 1);
+    writeShort(endRecord + 10, 1);
+    writeInt(endRecord + 12, ZIP_CENTRAL_HEADER_SIZE);
+    writeInt(endRecord + 16, central);
+    writeShort(endRecord + 20, 0);
+    return endRecord + ZIP_END_SIZE;
+  }
+
+  /**
+   * Deflates a payload into the buffer after a header, updating the checksum of the payload.
+   *
+   * @return end of the deflated payload in the buffer.
+   */
+  private int deflate(byte[] payload, int offset, int length, int start) {
+    crc.reset();
+    crc.update(payload, offset, length);
+    deflater.reset();
+    deflater.setInput(payload, offset, length);
+    deflater.finish();
+
+    // Start with the worst case size of deflate, so the buffer is almost never grown midway.
+    ensureCapacity(start, length + (length >> 12) + (length >> 14) + (length >> 25) + 13);
+    int end = start;
+    while (!deflater.finished()) {
+      ensureCapacity(end, 1);
+      end += deflater.deflate(buffer, end, buffer.length - end);
+    }
+    return end;
+  }
+
+  private int compressLZ4(byte[] payload, int offset, int length) {
+    int blocks = (length + LZ4_BLOCK_SIZE - 1) / LZ4_BLOCK_SIZE;
+    ensureCapacity(0, LZ4_HEADER_SIZE + blocks * (4 + lz4.maxCompressedLength(LZ4_BLOCK_SIZE)) + 4);
+    writeInt(0, LZ4_MAGIC);
+    buffer[4] = LZ4_FLAGS;
+    buffer[5] = LZ4_BLOCK_DESCRIPTOR;
+    buffer[6] = (byte) (XXHashFactory.fastestInstance().hash32().hash(buffer, 4, 2, 0) >> 8);
+
+    int end = LZ4_HEADER_SIZE;
+    for (int pos = offset; pos < offset + length; pos += LZ4_BLOCK_SIZE) {
+      int size = Math.min(LZ4_BLOCK_SIZE, offset + length - pos);
+      int compressed = lz4.compress(payload, pos, size, buffer, end + 4, buffer.length - end - 4);
+      if (compressed < size) {
+        writeInt(end, compressed);
+        end += 4 + compressed;
+      } else {
+        // Blocks that don't compress are stored as they are.
+        writeInt(end, size | LZ4_UNCOMPRESSED_BLOCK);
+        System.arraycopy(payload, pos, buffer, end + 4, size);
+        end += 4 + size;
+      }
+    }
+    writeInt(end, 0);
+    return end + 4;
+  }
+
+  private int compressZSTD(byte[] payload, int offset, int length) throws IOException {
+    ensureCapacity(0, (int) Zstd.compressBound(length));
+    long compressed = Zstd.compressByteArray(buffer, 0, buffer.length, payload, offset, length,
+                                             level == DEFAULT_LEVEL ? ZSTD_DEFAULT_LEVEL : level);
+    if (Zstd.isError(compressed)) {
+      throw new IOException("ZSTD compression failed: " + Zstd.getErrorName(compressed));
+    }
+    return (int) compressed;
+  }
+
+  private void ensureCapacity(int length, int needed) {
+    if (buffer.length - length < needed) {
+      buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, length + needed));
+    }
+  }
+
+  private void writeShort(int at, int value) {
+    buffer[at] = (byte) value;
+    buffer[at + 1] = (byte) (value >>> 8);
+  }
+
+  private void writeInt(int at, int value) {
+    writeShort(at, value);
+    writeShort(at + 2, value >>> 16);
+  }
+}
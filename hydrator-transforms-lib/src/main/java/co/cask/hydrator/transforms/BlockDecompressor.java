@@ -0,0 +1,252 @@
+/*
+ * Copyright © 2015 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.hydrator.transforms;
+
+import com.github.luben.zstd.Zstd;
+import com.github.luben.zstd.ZstdInputStream;
+import net.jpountz.lz4.LZ4Exception;
+import net.jpountz.lz4.LZ4Factory;
+import net.jpountz.lz4.LZ4FrameInputStream;
+import net.jpountz.lz4.LZ4SafeDecompressor;
+import org.xerial.snappy.Snappy;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * Decompresses whole SNAPPY, LZ4 and ZSTD payloads into a buffer that is reused across payloads.
+ *
+ * <p>
+ * LZ4 payloads are in the LZ4 frame format. Frames with independent blocks, the default of the
+ * lz4 tool and of lz4-java, are decoded block by block straight into the buffer; frames with
+ * linked blocks are read through {@link LZ4FrameInputStream}. ZSTD payloads are decompressed in
+ * one call when the frame header carries the decompressed size and streamed otherwise.
+ * </p>
+ *
+ * <p>
+ * Payloads decompressing to more than the maximum size fail before the buffer grows past it, to
+ * protect the heap from payloads that decompress to a huge size. SNAPPY and ZSTD payloads that
+ * carry their decompressed size fail before anything is decompressed.
+ * </p>
+ */
+public final class BlockDecompressor {
+  /**
+   * Maximum size of decompressed payloads when there is no other limit, the largest array size.
+   */
+  public static final int UNLIMITED = Integer.MAX_VALUE - 8;
+
+  private static final int INITIAL_BUFFER_SIZE = 64 * 1024;
+
+  private static final int LZ4_MAGIC = 0x184D2204;
+  private static final int LZ4_SKIPPABLE_MAGIC = 0x184D2A50;
+  private static final int LZ4_SKIPPABLE_MASK = 0xFFFFFFF0;
+  private static final int LZ4_INDEPENDENT_BLOCKS = 0x20;
+  private static final int LZ4_BLOCK_CHECKSUM = 0x10;
+  private static final int LZ4_CONTENT_SIZE = 0x08;
+  private static final int LZ4_CONTENT_CHECKSUM = 0x04;
+  private static final int LZ4_DICTIONARY_ID = 0x01;
+  private static final int LZ4_UNCOMPRESSED_BLOCK = 0x80000000;
+
+  private final CompDecompType type;
+  private final LZ4SafeDecompressor lz4;
+  private final int maxSize;
+  private byte[] buffer;
+
+  public BlockDecompressor(CompDecompType type) {
+    this(type, UNLIMITED);
+  }
+
+  /**
+   * @param type compression type, SNAPPY, LZ4 or ZSTD.
+   * @param maxSize maximum size of decompressed payloads.
+   */
+  public BlockDecompressor(CompDecompType type, int maxSize) {
+    if (type != CompDecompType.SNAPPY && type != CompDecompType.LZ4 && type != CompDecompType.ZSTD) {
+      throw new IllegalArgumentException("Compression type " + type + " is not block compressed.");
+    }
+    if (maxSize <= 0 || maxSize > UNLIMITED) {
+      throw new IllegalArgumentException("Maximum decompressed size " + maxSize + " is not between 1 and " +
+                                           UNLIMITED + ".");
+    }
+    this.type = type;
+    this.lz4 = type == CompDecompType.LZ4 ? LZ4Factory.fastestInstance().safeDecompressor() : null;
+    this.maxSize = maxSize;
+    this.buffer = new byte[Math.min(INITIAL_BUFFER_SIZE, maxSize)];
+  }
+
+  /**
+   * Decompresses a payload into the buffer.
+   *
+   * @param payload array holding the compressed payload.
+   * @param offset start of the payload.
+   * @param length length of the payload.
+   * @return length of the decompressed payload at the start of the buffer.
+   * @throws IOException if the payload is not in the compression format, or decompresses to more
+   * than the maximum size.
+   */
+  public int decompress(byte[] payload, int offset, int length) throws IOException {
+    switch (type) {
+      case SNAPPY:
+        ensureCapacity(0, Snappy.uncompressedLength(payload, offset, length));
+        return Snappy.uncompress(payload, offset, length, buffer, 0);
+      case LZ4:
+        try {
+          return decompressLZ4(payload, offset, offset + length);
+        } catch (LZ4Exception e) {
+          throw new IOException("Malformed LZ4 payload", e);
+        }
+      default:
+        return decompressZSTD(payload, offset, length);
+    }
+  }
+
+  /**
+   * @return buffer holding the last decompressed payload.
+   */
+  public byte[] getBuffer() {
+    return buffer;
+  }
+
+  private int decompressLZ4(byte[] payload, int offset, int end) throws IOException {
+    int pos = offset;
+    int length = 0;
+    while (pos < end) {
+      require(end, pos, 8);
+      int magic = readInt(payload, pos);
+      if ((magic & LZ4_SKIPPABLE_MASK) == LZ4_SKIPPABLE_MAGIC) {
+        int size = readInt(payload, pos + 4);
+        require(end, pos + 8, size);
+        pos += 8 + size;
+        continue;
+      }
+      if (magic != LZ4_MAGIC) {
+        throw new IOException("Not in LZ4 frame format");
+      }
+      int flags = payload[pos + 4] & 0xFF;
+      if ((flags >>> 6) != 1) {
+        throw new IOException("Unsupported LZ4 frame version " + (flags >>> 6));
+      }
+      if ((flags & LZ4_DICTIONARY_ID) != 0) {
+        throw new IOException("LZ4 frames with dictionaries are not supported");
+      }
+      if ((flags & LZ4_INDEPENDENT_BLOCKS) == 0) {
+        // Blocks refer to the data of the previous ones.
+        return readFully(new LZ4FrameInputStream(new ByteArrayInputStream(payload, offset, end - offset)));
+      }
+      int maxBlockSize = 1 << (8 + 2 * ((payload[pos + 5] >>> 4) & 7));
+      int headerSize = 7 + ((flags & LZ4_CONTENT_SIZE) != 0 ? 8 : 0);
+      require(end, pos, headerSize);
+      pos += headerSize;
+
+      while (true) {
+        require(end, pos, 4);
+        int size = readInt(payload, pos);
+        pos += 4;
+        if (size == 0) {
+          break;
+        }
+        boolean uncompressed = (size & LZ4_UNCOMPRESSED_BLOCK) != 0;
+        size &= ~LZ4_UNCOMPRESSED_BLOCK;
+        require(end, pos, size);
+        if (uncompressed) {
+          ensureCapacity(length, size);
+          System.arraycopy(payload, pos, buffer, length, size);
+          length += size;
+        } else {
+          // The last blocks may only have room for what's left below the maximum size.
+          int room = Math.min(maxBlockSize, maxSize - length);
+          ensureCapacity(length, Math.max(room, 1));
+          try {
+            length += lz4.decompress(payload, pos, size, buffer, length, room);
+          } catch (LZ4Exception e) {
+            if (room < maxBlockSize) {
+              throw tooLarge();
+            }
+            throw e;
+          }
+        }
+        pos += size + ((flags & LZ4_BLOCK_CHECKSUM) != 0 ? 4 : 0);
+      }
+      pos += (flags & LZ4_CONTENT_CHECKSUM) != 0 ? 4 : 0;
+    }
+    return length;
+  }
+
+  private int decompressZSTD(byte[] payload, int offset, int length) throws IOException {
+    long size = ZstdDictionary.contentSize(payload, offset, length);
+    if (size > maxSize) {
+      throw tooLarge();
+    }
+    if (size > 0) {
+      ensureCapacity(0, (int) size);
+      long decompressed = Zstd.decompressByteArray(buffer, 0, (int) size, payload, offset, length);
+      if (!Zstd.isError(decompressed)) {
+        return (int) decompressed;
+      }
+      // Concatenated frames only have the size of the first one, stream those.
+    }
+    return readFully(new ZstdInputStream(new ByteArrayInputStream(payload, offset, length)));
+  }
+
+  private int readFully(InputStream in) throws IOException {
+    try {
+      int length = 0;
+      while (true) {
+        if (length == buffer.length) {
+          if (length == maxSize && in.read() < 0) {
+            return length;
+          }
+          ensureCapacity(length, 1);
+        }
+        int read = in.read(buffer, length, buffer.length - length);
+        if (read < 0) {
+          return length;
+        }
+        length += read;
+      }
+    } finally {
+      in.close();
+    }
+  }
+
+  private void ensureCapacity(int length, int needed) throws IOException {
+    if (needed > maxSize - length) {
+      throw tooLarge();
+    }
+    if (buffer.length - length < needed) {
+      int size = (int) Math.min(maxSize, Math.max(buffer.length * 2L, length + needed));
+      buffer = Arrays.copyOf(buffer, size);
+    }
+  }
+
+  private IOException tooLarge() {
+    return new IOException("Decompressed payload is larger than the maximum of " + maxSize + " bytes");
+  }
+
+  private static void require(int end, int pos, int bytes) throws IOException {
+    if (bytes < 0 || end - pos < bytes) {
+      throw new IOException("Unexpected end of LZ4 payload");
+    }
+  }
+
+  private static int readInt(byte[] bytes, int at) {
+    return (bytes[at] & 0xFF) | (bytes[at + 1] & 0xFF) << 8 | (bytes[at + 2] & 0xFF) << 16
+      | (bytes[at + 3] & 0xFF) << 24;
+  }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright © 2015 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.hydrator.transforms;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * Access to the values of BYTES fields, which are either <code>byte[]</code> or
+ * {@link ByteBuffer}, depending on where the records come from.
+ */
+public final class ByteBuffers {
+
+  private ByteBuffers() {
+  }
+
+  /**
+   * @return true if the value is the value of a BYTES field.
+   */
+  public static boolean isBytes(Object value) {
+    return value instanceof byte[] || value instanceof ByteBuffer;
+  }
+
+  /**
+   * Returns a buffer over the bytes of a BYTES value, without copying them. The position and
+   * limit of buffer values are not modified.
+   *
+   * @param value value of a BYTES field.
+   * @param name name of the field, for the error message.
+   * @return buffer over the bytes.
+   * @throws IllegalArgumentException if the value is not the value of a BYTES field.
+   */
+  public static ByteBuffer wrap(Object value, String name) {
+    if (value instanceof byte[]) {
+      return ByteBuffer.wrap((byte[]) value);
+    }
+    if (value instanceof ByteBuffer) {
+      return ((ByteBuffer) value).duplicate();
+    }
+    throw new IllegalArgumentException("Field '" + name + "' is not of type BYTES, it has a value of type " +
+                                         (value == null ? "null" : value.getClass().getName()) + ".");
+  }
+
+  /**
+   * Returns the text of a STRING value, or of a BYTES value decoded with a charset. The bytes
+   * of heap buffers are decoded straight from the backing array.
+   *
+   * @param value value of a STRING or BYTES field.
+   * @param name name of the field, for the error message.
+   * @param charset charset of BYTES values.
+   * @return text of the value.
+   * @throws IllegalArgumentException if the value is not the value of a STRING or BYTES field.
+   */
+  public static String toString(Object value, String name, Charset charset) {
+    if (value instanceof String) {
+      return (String) value;
+    }
+    ByteBuffer buffer = wrap(value, name);
+    if (buffer.hasArray()) {
+      return new String(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining(), charset);
+    }
+    return charset.decode(buffer).toString();
+  }
+}
@@ -0,0 +1,185 @@
+/*
+ * Copyright © 2015 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.hydrator.transforms;
+
+import co.cask.cdap.api.data.schema.Schema;
+import com.google.common.collect.Maps;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import javax.annotation.Nullable;
+
+/**
+ * Mapping of CSV columns to the fields of the output schema.
+ *
+ * <p>
+ * Without a column mapping every column maps to the field at the same position and records
+ * need to have exactly as many columns as the schema has fields. With a mapping of the form
+ * <code>&lt;column-index&gt;:&lt;field&gt;[,&lt;column-index&gt;:&lt;field&gt;]*</code> only the
+ * mapped columns are converted, the others are skipped, and records need to have at least
+ * as many columns as the highest mapped index. Output fields that are not mapped have to be
+ * nullable.
+ * </p>
+ */
+public final class CSVColumns {
+  // Column index, field name and converter of every mapped field.
+  private final int[] columns;
+  private final String[] names;
+  private final FieldConverter[] converters;
+
+  // Whether only some of the columns are mapped.
+  private final boolean projected;
+
+  // Number of columns records need to have, exactly or at least when projected.
+  private final int width;
+
+  private CSVColumns(int[] columns, String[] names, FieldConverter[] converters, boolean projected) {
+    this.columns = columns;
+    this.names = names;
+    this.converters = converters;
+    this.projected = projected;
+    int max = -1;
+    for (int column : columns) {
+      max = Math.max(max, column);
+    }
+    this.width = projected ? max + 1 : columns.length;
+  }
+
+  /**
+   * Creates the column mapping for an output schema.
+   *
+   * @param schema output schema.
+   * @param mapping column to field mapping, null or empty to map columns by position.
+   * @return column mapping.
+   * @throws IllegalArgumentException if the mapping is malformed or doesn't match the schema.
+   */
+  public static CSVColumns of(Schema schema, @Nullable String mapping) throws IllegalArgumentException {
+    return of(schema, mapping, Collections.<String, StringInterner>emptyMap());
+  }
+
+  /**
+   * Creates the column mapping for an output schema, interning the values of the string fields
+   * that have an interner.
+   *
+   * @param schema output schema.
+   * @param mapping column to field mapping, null or empty to map columns by position.
+   * @param interners interners by field name.
+   * @return column mapping.
+   * @throws IllegalArgumentException if the mapping is malformed or doesn't match the schema.
+   */
+  public static CSVColumns of(Schema schema, @Nullable String mapping,
+                              Map<String, StringInterner> interners) throws IllegalArgumentException {
+    List<Schema.Field> fields = schema.getFields();
+    if (mapping == null || mapping.trim().isEmpty()) {
+      int[] columns = new int[fields.size()];
+      String[] names = new String[fields.size()];
+      for (int i = 0; i < columns.length; ++i) {
+        columns[i] = i;
+        names[i] = fields.get(i).getName();
+      }
+      return new CSVColumns(columns, names, FieldConverter.of(fields, interners), false);
+    }
+
+    Map<String, Integer> fieldColumns = Maps.newLinkedHashMap();
+    for (String pair : mapping.split(",")) {
+      String[] params = pair.trim().split(":");
+      if (params.length != 2) {
+        throw new IllegalArgumentException("Column mapping " + pair + " is in-correctly formed. " +
+                                             "Format should be <column-index>:<field>");
+      }
+      int column;
+      try {
+        column = Integer.parseInt(params[0].trim());
+      } catch (NumberFormatException e) {
+        throw new IllegalArgumentException("Column index '" + params[0] + "' in mapping " + pair + " is not a number.");
+      }
+      if (column < 0) {
+        throw new IllegalArgumentException("Column index '" + column + "' in mapping " + pair + " is negative.");
+      }
+      String name = params[1].trim();
+      if (schema.getField(name) == null) {
+        throw new IllegalArgumentException("Field '" + name + "' in mapping " + pair + " is not in the output schema.");
+      }
+      if (fieldColumns.containsKey(name)) {
+        throw new IllegalArgumentException("Field '" + name + "' is mapped more than once. Check the mapping.");
+      }
+      fieldColumns.put(name, column);
+    }
+
+    for (Schema.Field field : fields) {
+      if (!fieldColumns.containsKey(field.getName()) && !field.getSchema().isNullable()) {
+        throw new IllegalArgumentException("Field '" + field.getName() + "' is not mapped to a column and is not " +
+                                             "nullable.");
+      }
+    }
+
+    int[] columns = new int[fieldColumns.size()];
+    String[] names = new String[fieldColumns.size()];
+    FieldConverter[] converters = new FieldConverter[fieldColumns.size()];
+    int i = 0;
+    for (Map.Entry<String, Integer> entry : fieldColumns.entrySet()) {
+      columns[i] = entry.getValue();
+      names[i] = entry.getKey();
+      converters[i] = FieldConverter.of(schema.getField(entry.getKey()).getSchema(), interners.get(entry.getKey()));
+      ++i;
+    }
+    return new CSVColumns(columns, names, converters, true);
+  }
+
+  /**
+   * @return true if a record with the given number of columns can be converted.
+   */
+  public boolean accepts(int size) {
+    return projected ? size >= width : size == width;
+  }
+
+  /**
+   * @return number of columns records need to have, exactly or at least when projected.
+   */
+  public int getWidth() {
+    return width;
+  }
+
+  /**
+   * @return number of mapped fields.
+   */
+  public int size() {
+    return columns.length;
+  }
+
+  /**
+   * @return column index of the i-th mapped field.
+   */
+  public int getColumn(int i) {
+    return columns[i];
+  }
+
+  /**
+   * @return name of the i-th mapped field.
+   */
+  public String getName(int i) {
+    return names[i];
+  }
+
+  /**
+   * @return converter of the i-th mapped field.
+   */
+  public FieldConverter getConverter(int i) {
+    return converters[i];
+  }
+}
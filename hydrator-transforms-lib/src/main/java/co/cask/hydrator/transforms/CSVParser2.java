@@ -23,28 +23,37 @@ import co.cask.cdap.api.annotation.Name;
 import co.cask.cdap.api.annotation.Plugin;
 import co.cask.cdap.api.data.format.StructuredRecord;
 import co.cask.cdap.api.data.schema.Schema;
-import co.cask.cdap.api.data.schema.Schema.Field;
+import co.cask.cdap.api.metrics.Metrics;
 import co.cask.cdap.api.plugin.PluginConfig;
 import co.cask.cdap.etl.api.Emitter;
+import co.cask.cdap.etl.api.InvalidEntry;
 import co.cask.cdap.etl.api.PipelineConfigurer;
 import co.cask.cdap.etl.api.Transform;
 import co.cask.cdap.etl.api.TransformContext;
-import org.apache.commons.codec.DecoderException;
-import org.apache.commons.codec.binary.Base32;
-import org.apache.commons.codec.binary.Base64;
-import org.apache.commons.codec.binary.Hex;
 import org.apache.commons.csv.CSVFormat;
 import org.apache.commons.csv.CSVParser;
 import org.apache.commons.csv.CSVRecord;
-import org.xerial.snappy.Snappy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Deque;
 import java.util.List;
-import java.util.zip.GZIPInputStream;
-import java.util.zip.Inflater;
-import java.util.zip.ZipInputStream;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import javax.annotation.Nullable;
 
 /**
  * A Transformation that parses a text into CSV Fields.
@@ -53,17 +62,46 @@ import java.util.zip.ZipInputStream;
 @Name("CSVParser2")
 @Description("Decodes, Decompresses and Parses CSV Records.")
 public final class CSVParser2 extends Transform<StructuredRecord, StructuredRecord> {
+  private static final Logger LOG = LoggerFactory.getLogger(CSVParser2.class);
+  private static final int DEFAULT_MIN_CHUNK_SIZE = 1024 * 1024;
+  // Chunks are no larger than this unless the minimum chunk size is, and at most this many per
+  // thread are parsed or waiting to be emitted at a time, which bounds the records held in memory.
+  private static final int MAX_CHUNK_SIZE = 8 * 1024 * 1024;
+  private static final int CHUNKS_IN_FLIGHT_PER_THREAD = 2;
+
   private final Config config;
 
   // Output Schema associated with transform output.
   private Schema outSchema;
 
-  // List of fields specified in the schema.
-  private List<Field> fields;
+  // Mapping of the CSV columns to the fields of the output schema.
+  private CSVColumns columns;
 
   // Format of CSV.
   private CSVFormat csvFormat = CSVFormat.DEFAULT;
 
+  // Byte level tokenizer, set only when the BYTES engine is configured.
+  private CSVTokenizer tokenizer;
+
+  // Pool parsing chunks of large payloads, set only when parallel parsing is configured.
+  private ForkJoinPool pool;
+
+  // Minimum size of the chunks payloads are split into for parallel parsing.
+  private int minChunkSize;
+
+  // Decoding and decompression of the payloads.
+  private CodecChain codecs;
+
+  // Conversion of STRING payloads to bytes, in the charset of the CSV text.
+  private Transcoder transcoder;
+
+  // Accounting of the malformed rows.
+  private MalformedRows malformed;
+
+  // Interners of the string fields configured to be interned, and the metrics they report to.
+  private Collection<StringInterner> interners;
+  private Metrics metrics;
+
   // This is used only for tests, otherwise this is being injected by the ingestion framework.
   public CSVParser2(Config config) {
     this.config = config;
@@ -103,13 +141,58 @@ public final class CSVParser2 extends Transform<StructuredRecord, StructuredReco
     if(config.field == null || config.field.isEmpty()) {
       throw new IllegalArgumentException("Field for applying transformation is not specified.");
     }
+    
+    EncodeDecodeType decoding;
+    try {
+      decoding = EncodeDecodeType.valueOf(config.decoder.toUpperCase());
+    } catch (IllegalArgumentException e) {
+      throw new IllegalArgumentException("Unsupported decoder '" + config.decoder + ", specified. Supported types are" +
+                                           "NONE, BASE64, BASE32 and HEX");
+    }
+    CompDecompType compression;
+    try {
+      compression = CompDecompType.valueOf(config.decompress.toUpperCase());
+    } catch (IllegalArgumentException e) {
+      throw new IllegalArgumentException("Unsupported decompressor algorithm '" + config.decompress + 
+                                           "' specified. Currently supports NONE, SNAPPY, GZIP, ZIP, LZ4 and ZSTD");
+    }
+    codecs = CodecChain.builder().decode(decoding).decompress(compression).build();
+    transcoder = new Transcoder(charsetOf(config));
+    
+    if (config.engine != null && config.engine.equalsIgnoreCase("BYTES")) {
+      tokenizer = new CSVTokenizer(csvFormat);
+    }
+    
+    if (config.parallelism != null && config.parallelism > 1) {
+      if (tokenizer == null) {
+        throw new IllegalArgumentException("Parallel parsing is only supported by the BYTES engine.");
+      }
+      pool = new ForkJoinPool(config.parallelism);
+      minChunkSize = config.minChunkSize == null ? DEFAULT_MIN_CHUNK_SIZE : config.minChunkSize;
+    }
 
     try {
       outSchema = Schema.parseJson(config.schema);
-      fields = outSchema.getFields();
     } catch (IOException e) {
       throw new IllegalArgumentException("Format of schema specified is invalid. Please check the format.");
     }
+    Map<String, StringInterner> fieldInterners = StringInterner.of(outSchema, config.intern);
+    columns = CSVColumns.of(outSchema, config.columns, fieldInterners);
+    interners = fieldInterners.values();
+    metrics = context == null ? null : context.getMetrics();
+    malformed = new MalformedRows(context, LOG, columns.getWidth());
+  }
+
+  @Override
+  public void destroy() {
+    if (codecs != null) {
+      codecs.close();
+      codecs = null;
+    }
+    if (pool != null) {
+      pool.shutdown();
+      pool = null;
+    }
   }
 
   @Override
@@ -130,139 +213,337 @@ public final class CSVParser2 extends Transform<StructuredRecord, StructuredReco
     }
     
     // Check if the decoder specified is one of the allowed types.
-    if(!config.decompress.equalsIgnoreCase("BASE64") && !config.decompress.equalsIgnoreCase("BASE32") 
-      && !config.decompress.equalsIgnoreCase("NONE") && !config.decompress.equalsIgnoreCase("HEX")) {
+    if(!config.decoder.equalsIgnoreCase("BASE64") && !config.decoder.equalsIgnoreCase("BASE32") 
+      && !config.decoder.equalsIgnoreCase("NONE") && !config.decoder.equalsIgnoreCase("HEX")) {
       throw new IllegalArgumentException("Unsupported decoder '" + config.decoder + ", specified. Supported types are" +
                                            "NONE, BASE64, BASE32 and HEX");
     }
     
     // Check if the decompressor specified is one of the allowed types.
     if(!config.decompress.equalsIgnoreCase("SNAPPY") && !config.decompress.equalsIgnoreCase("NONE")
-       && !config.decompress.equalsIgnoreCase("GZIP") && !config.decompress.equalsIgnoreCase("ZIP")) {
+       && !config.decompress.equalsIgnoreCase("GZIP") && !config.decompress.equalsIgnoreCase("ZIP")
+       && !config.decompress.equalsIgnoreCase("LZ4") && !config.decompress.equalsIgnoreCase("ZSTD")) {
       throw new IllegalArgumentException("Unsupported decompressor algorithm '" + config.decompress + 
-                                           "' specified. Currently supports NONE, SNAPPY, GZIP and ZIP");
+                                           "' specified. Currently supports NONE, SNAPPY, GZIP, ZIP, LZ4 and ZSTD");
+    }
+    
+    // Check if the engine specified is one of the allowed types.
+    if(config.engine != null && !config.engine.isEmpty() && !config.engine.equalsIgnoreCase("COMMONS") 
+      && !config.engine.equalsIgnoreCase("BYTES")) {
+      throw new IllegalArgumentException("Unsupported parsing engine '" + config.engine + "' specified. " +
+                                           "Supported engines are COMMONS and BYTES");
+    }
+    
+    // Check if the charset is supported by the engine.
+    charsetOf(config);
+    
+    // Check if the parallel parsing settings are valid.
+    if(config.parallelism != null && config.parallelism < 1) {
+      throw new IllegalArgumentException("Parallelism '" + config.parallelism + "' specified is not a positive " +
+                                           "number.");
+    }
+    
+    if(config.parallelism != null && config.parallelism > 1 
+      && (config.engine == null || !config.engine.equalsIgnoreCase("BYTES"))) {
+      throw new IllegalArgumentException("Parallel parsing is only supported by the BYTES engine.");
+    }
+    
+    if(config.minChunkSize != null && config.minChunkSize < 1) {
+      throw new IllegalArgumentException("Minimum chunk size '" + config.minChunkSize + "' specified is not a " +
+                                           "positive number.");
     }
     
     // Check if schema specified is a valid schema or no. 
+    Schema schema;
     try {
-      Schema.parseJson(config.schema);
+      schema = Schema.parseJson(config.schema);
     } catch (IOException e) {
       throw new IllegalArgumentException("Format of schema specified is invalid. Please check the format.");
     }
     
+    // Check if the column mapping and the interned fields match the schema.
+    CSVColumns.of(schema, config.columns);
+    StringInterner.of(schema, config.intern);
+    
   }
 
   @Override
   public void transform(StructuredRecord in, Emitter<StructuredRecord> emitter) throws Exception {
-    // Field has to string to be parsed correctly. For others throw an exception.
-    String body = in.get(config.field);
-    
-    // If decoder is not NONE, then apply decoder.
-    byte[] decodedPayLoad;
-    if(!config.decoder.equalsIgnoreCase("NONE")) {
-      decodedPayLoad = decodePayLoad(body);   
+    // Field has to be a string or bytes to be parsed correctly. For others throw an exception.
+    // BYTES values are parsed straight from their array or buffer, they are only copied when
+    // they would be tokenized in place, which modifies the bytes.
+    Object body = in.get(config.field);
+    ByteBuffer payload;
+    boolean shared;
+    if (body instanceof String) {
+      payload = transcoder.encode((String) body);
+      shared = false;
     } else {
-      decodedPayLoad = body.getBytes();
-    }
-    
-    // If decompess is not NONE, then apply decompressor.
-    byte[] uncompressedPayLoad = decodedPayLoad.clone();
-    if(!config.decompress.equalsIgnoreCase("NONE")) {
-     if(config.decompress.equalsIgnoreCase("SNAPPY")) {
-       uncompressedPayLoad = Snappy.uncompress(decodedPayLoad);
-     } else if (config.decompress.equalsIgnoreCase("GZIP")) {
-       uncompressedPayLoad = ungzip(decodedPayLoad);
-     } else if (config.decompress.equalsIgnoreCase("ZIP")) {
-       uncompressedPayLoad = unzip(decodedPayLoad);
-     }
+      payload = ByteBuffers.wrap(body, config.field);
+      shared = payload.hasArray();
     }
-    
-    // Parse the text as CSV and emit it as structured record.
+
     try {
-      CSVParser parser = CSVParser.parse(new String(uncompressedPayLoad), csvFormat);
-      List<CSVRecord> records = parser.getRecords();
-      for(CSVRecord record : records ) {
-        if(fields.size() == record.size()) {
+      if (pool != null) {
+        parseInParallel(payload, shared, emitter);
+      } else if (tokenizer != null) {
+        tokenize(payload, shared, emitter);
+      } else {
+        parse(payload, emitter);
+      }
+    } finally {
+      malformed.report(in, emitter);
+      for (StringInterner interner : interners) {
+        interner.report(metrics);
+      }
+    }
+  }
+
+  /**
+   * @return charset of the CSV text.
+   * @throws IllegalArgumentException if the charset is not supported, or not by the BYTES engine.
+   */
+  private static Charset charsetOf(Config config) throws IllegalArgumentException {
+    Charset charset = Transcoder.charsetOf(config.charset);
+    if (config.engine != null && config.engine.equalsIgnoreCase("BYTES")
+      && !charset.equals(StandardCharsets.UTF_8) && !charset.equals(StandardCharsets.US_ASCII)) {
+      throw new IllegalArgumentException("Charset '" + config.charset + "' is not supported by the BYTES engine, " +
+                                           "which only supports UTF-8.");
+    }
+    return charset;
+  }
+
+  /**
+   * Parses the payload with commons-csv.
+   *
+   * @param payload payload as read from the input field.
+   * @param emitter emitter for the parsed records.
+   */
+  private void parse(ByteBuffer payload, Emitter<StructuredRecord> emitter) throws IOException {
+    // Parse the payload as CSV while it's being decompressed, emitting every record as soon
+    // as it's read rather than materializing all the records of the payload first.
+    Reader records = new InputStreamReader(codecs.open(payload), transcoder.getCharset());
+    try (CSVParser parser = new CSVParser(records, csvFormat)) {
+      for(CSVRecord record : parser) {
+        if(columns.accepts(record.size())) {
           StructuredRecord sRecord = createStructuredRecord(record);
           emitter.emit(sRecord);
         } else {
-          // Write the record to error Dataset.
+          malformed.row(record.getRecordNumber(), record.size());
         }
       }
     } catch (IOException e) {
+      malformed.failed(e);
+    } catch (RuntimeException e) {
+      // Iterating the parser wraps the IOException when reading the next record fails, in a
+      // RuntimeException in commons-csv 1.2 and in an IllegalStateException in later versions.
+      if (!(e.getCause() instanceof IOException)) {
+        throw e;
+      }
+      malformed.failed((IOException) e.getCause());
+    }
+  }
 
+  /**
+   * Parses the payload with the byte level tokenizer. Payloads are tokenized while they are
+   * being inflated when the codecs stream, otherwise in place after applying the codecs.
+   * Payloads of the input record that no codec is applied to are read as a stream instead.
+   *
+   * @param payload payload as read from the input field.
+   * @param shared true if the payload is held in an array of the input record.
+   * @param emitter emitter for the parsed records.
+   */
+  private void tokenize(ByteBuffer payload, boolean shared, Emitter<StructuredRecord> emitter) throws IOException {
+    if (codecs.isStreaming() || (shared && codecs.isEmpty())) {
+      tokenizer.reset(codecs.open(payload));
+    } else {
+      ByteBuffer records = codecs.apply(payload);
+      tokenizer.reset(records.array(), records.arrayOffset() + records.position(), records.remaining());
+    }
+    
+    try {
+      emitRecords(tokenizer, emitter, malformed);
+    } catch (IOException e) {
+      malformed.failed(e);
     }
   }
 
   /**
-   * UnCompress payload using GZIP Algorithm
+   * Emits the records of a tokenizer that was reset to a payload.
    *
-   * @param body byte array
-   * @return decompressed bytes.
-   * @throws IOException
+   * @param records tokenizer positioned before the first record.
+   * @param emitter emitter for the parsed records.
+   * @param tally tally of the malformed rows.
+   * @throws IOException if the payload is malformed, after emitting the records before it.
    */
-  private byte[] ungzip(byte[] body) throws IOException {
-    Inflater inf = new Inflater();
-    ByteArrayInputStream bytein = new ByteArrayInputStream(body);
-    GZIPInputStream gzin = new GZIPInputStream(bytein);
-    ByteArrayOutputStream byteout = new ByteArrayOutputStream();
-
-    int res = 0;
-    byte buf[] = new byte[1024];
-    while (res >= 0) {
-      res = gzin.read(buf, 0, buf.length);
-      if (res > 0) {
-        byteout.write(buf, 0, res);
+  private void emitRecords(CSVTokenizer records, Emitter<StructuredRecord> emitter,
+                           MalformedRows tally) throws IOException {
+    while (records.next()) {
+      if (columns.accepts(records.size())) {
+        emitter.emit(createStructuredRecord(records));
+      } else {
+        tally.row(records.getRecordNumber(), records.size());
       }
     }
-    byte uncompressed[] = byteout.toByteArray();
-    return uncompressed;
   }
 
-  private byte[] unzip(byte[] body) throws IOException {
-    Inflater inf = new Inflater();
-    ByteArrayInputStream bytein = new ByteArrayInputStream(body);
-    ZipInputStream gzin = new ZipInputStream(bytein);
-    ByteArrayOutputStream byteout = new ByteArrayOutputStream();
-
-    int res = 0;
-    byte buf[] = new byte[1024];
-    while (res >= 0) {
-      res = gzin.read(buf, 0, buf.length);
-      if (res > 0) {
-        byteout.write(buf, 0, res);
+  /**
+   * Parses the payload in chunks on the pool. The decompressed payload is split on record
+   * boundaries into chunks of at least the minimum chunk size, every chunk is tokenized in
+   * place by it's own tokenizer and the records are emitted chunk by chunk in payload order,
+   * so the output is the same as when parsing sequentially. Parsing stops at the first
+   * malformed record like it does sequentially.
+   *
+   * <p>
+   * Chunks are submitted as the ones before them are emitted, so only a few chunks per thread
+   * hold their records at a time, rather than all the records of the payload.
+   * </p>
+   *
+   * @param body payload as read from the input field.
+   * @param shared true if the payload is held in an array of the input record.
+   * @param emitter emitter for the parsed records.
+   */
+  private void parseInParallel(ByteBuffer body, boolean shared,
+                               Emitter<StructuredRecord> emitter) throws Exception {
+    ByteBuffer records = codecs.apply(body);
+    if (shared && codecs.isEmpty()) {
+      // The chunks are tokenized in place, which must not modify the input record.
+      int start = records.arrayOffset() + records.position();
+      records = ByteBuffer.wrap(Arrays.copyOfRange(records.array(), start, start + records.remaining()));
+    }
+    byte[] payload = records.array();
+    int offset = records.arrayOffset() + records.position();
+    int length = offset + records.remaining();
+
+    // Small payloads are not worth splitting.
+    if (records.remaining() < 2L * minChunkSize) {
+      tokenizer.reset(payload, offset, records.remaining());
+      try {
+        emitRecords(tokenizer, emitter, malformed);
+      } catch (IOException e) {
+        malformed.failed(e);
+      }
+      return;
+    }
+
+    // Aim for a few chunks per thread, so threads finishing early can pick up more work.
+    int chunkSize = Math.max(minChunkSize,
+                             Math.min(MAX_CHUNK_SIZE, records.remaining() / (pool.getParallelism() * 4)));
+    int maxInFlight = pool.getParallelism() * CHUNKS_IN_FLIGHT_PER_THREAD;
+    Deque<Future<Chunk>> inFlight = new ArrayDeque<>();
+    int start = offset;
+    long recordOffset = 0;
+    try {
+      while (start < length || !inFlight.isEmpty()) {
+        while (start < length && inFlight.size() < maxInFlight) {
+          int end = length;
+          if (length - start > chunkSize) {
+            end = tokenizer.findBoundary(payload, start, start + chunkSize, length);
+          }
+          inFlight.add(pool.submit(new Chunk(payload, start, end, malformed.newTally())));
+          start = end;
+        }
+
+        // Emit the next chunk in payload order as soon as it's parsed.
+        Chunk chunk;
+        try {
+          chunk = inFlight.poll().get();
+        } catch (ExecutionException e) {
+          if (e.getCause() instanceof Exception) {
+            throw (Exception) e.getCause();
+          }
+          throw e;
+        }
+        for (StructuredRecord record : chunk.records) {
+          emitter.emit(record);
+        }
+        malformed.add(chunk.tally, recordOffset);
+        recordOffset += chunk.recordCount;
+        if (chunk.failure != null) {
+          if (chunk.failure instanceof IOException) {
+            malformed.failed(chunk.failure);
+            return;
+          }
+          throw chunk.failure;
+        }
+      }
+    } finally {
+      // Chunks after a failure are not emitted, but they are waited for: they tokenize the
+      // payload in place, and it's buffer is reused for the next payload.
+      for (Future<Chunk> future : inFlight) {
+        try {
+          future.get();
+        } catch (ExecutionException e) {
+          // Dropped with the chunk.
+        }
       }
     }
-    byte uncompressed[] = byteout.toByteArray();
-    return uncompressed;
   }
 
   /**
-   * Decodes the payload. 
-   *  
-   * @param body
-   * @return
+   * Chunk of a payload parsed on the pool. Holds the records parsed, the tally of the malformed
+   * rows and the failure that stopped parsing, if any, so they can be emitted and accounted for
+   * in order by the calling thread.
    */
-  private byte[] decodePayLoad(String body) throws DecoderException {
-    if(config.decoder.equalsIgnoreCase("base64")) {
-      Base64 codec = new Base64();
-      return codec.decode(body);
-    } else if (config.decoder.equalsIgnoreCase("base32")){
-      Base32 codec = new Base32();
-      return codec.decode(body);
-    } else if (config.decoder.equalsIgnoreCase("hex")) {
-      Hex codec = new Hex();
-      return codec.decode(body.getBytes());
-    }
-    return new byte[0];
+  private final class Chunk implements Callable<Chunk>, Emitter<StructuredRecord> {
+    private final byte[] payload;
+    private final int start;
+    private final int end;
+    private final MalformedRows tally;
+    private final List<StructuredRecord> records = new ArrayList<>();
+    private long recordCount;
+    private Exception failure;
+
+    private Chunk(byte[] payload, int start, int end, MalformedRows tally) {
+      this.payload = payload;
+      this.start = start;
+      this.end = end;
+      this.tally = tally;
+    }
+
+    @Override
+    public Chunk call() {
+      CSVTokenizer chunkTokenizer = new CSVTokenizer(csvFormat);
+      chunkTokenizer.reset(payload, start, end - start);
+      try {
+        emitRecords(chunkTokenizer, this, tally);
+      } catch (Exception e) {
+        failure = e;
+      }
+      recordCount = chunkTokenizer.getRecordNumber();
+      return this;
+    }
+
+    @Override
+    public void emit(StructuredRecord value) {
+      records.add(value);
+    }
+
+    @Override
+    public void emitError(InvalidEntry<StructuredRecord> invalidEntry) {
+      // Records are only emitted by the calling thread.
+    }
   }
 
   private StructuredRecord createStructuredRecord(CSVRecord record) {
     StructuredRecord.Builder builder = StructuredRecord.builder(outSchema);
-    int i = 0;
-    for(Field field : fields) {
-      builder.set(field.getName(), TypeConvertors.get(record.get(i), field.getSchema().getType()));
-      ++i;
+    for(int i = 0; i < columns.size(); ++i) {
+      builder.set(columns.getName(i), columns.getConverter(i).convert(record.get(columns.getColumn(i))));
+    }
+    return builder.build();
+  }
+
+  private StructuredRecord createStructuredRecord(CSVTokenizer record) {
+    StructuredRecord.Builder builder = StructuredRecord.builder(outSchema);
+    byte[] buffer = record.getBuffer();
+    for(int i = 0; i < columns.size(); ++i) {
+      int column = columns.getColumn(i);
+      if (record.isNull(column)) {
+        builder.set(columns.getName(i), columns.getConverter(i).convert(null));
+      } else {
+        builder.set(columns.getName(i),
+                    columns.getConverter(i).convert(buffer, record.getStart(column), record.getLength(column)));
+      }
     }
     return builder.build();
   }
@@ -278,7 +559,8 @@ public final class CSVParser2 extends Transform<StructuredRecord, StructuredReco
     private final String decoder;
     
     @Name("decompress")
-    @Description("Specifies decompress algorithm to be applied to decoded payload.")
+    @Description("Specifies decompress algorithm to be applied to decoded payload. NONE, SNAPPY, GZIP, ZIP, LZ4 " +
+      "and ZSTD are supported.")
     private final String decompress;
     
     @Name("format")
@@ -293,12 +575,80 @@ public final class CSVParser2 extends Transform<StructuredRecord, StructuredReco
     @Description("Specifies the schema that has to be output.")
     private final String schema;
     
+    @Name("engine")
+    @Description("Specifies the engine used for parsing. COMMONS parses the decoded text with commons-csv, BYTES " +
+      "tokenizes the UTF-8 payload directly without decoding it. Defaults to COMMONS.")
+    @Nullable
+    private final String engine;
+    
+    @Name("columns")
+    @Description("Specifies the CSV columns to be parsed into the output fields. Format is " +
+      "<column-index>:<field>[,<column-index>:<field>]*. Columns that are not mapped are skipped. Maps " +
+      "every column to the field at the same position if not specified.")
+    @Nullable
+    private final String columns;
+    
+    @Name("intern")
+    @Description("Specifies the string fields whose repeated values share a single instance, for fields with few " +
+      "distinct values. Format is <field>[:<capacity>][,<field>[:<capacity>]]*, the capacity is the number of " +
+      "distinct values kept per field and defaults to 1024.")
+    @Nullable
+    private final String intern;
+    
+    @Name("parallelism")
+    @Description("Specifies the number of threads large payloads are parsed with. Payloads are split into chunks " +
+      "of whole records that are parsed in parallel, records are emitted in payload order. The whole decompressed " +
+      "payload is held in memory, plus the records of up to two chunks per thread. Requires the BYTES engine. " +
+      "Defaults to 1, parsing sequentially.")
+    @Nullable
+    private final Integer parallelism;
+    
+    @Name("minChunkSize")
+    @Description("Specifies the minimum size in bytes of the chunks payloads are split into for parallel parsing. " +
+      "Payloads smaller than twice the size are parsed sequentially. Defaults to 1MB.")
+    @Nullable
+    private final Integer minChunkSize;
+    
+    @Name("charset")
+    @Description("Specifies the charset of the CSV text. STRING fields are converted to bytes with it before they " +
+      "are decoded and decompressed, and the payload is parsed as text of the charset. The BYTES engine only " +
+      "supports UTF-8. Defaults to UTF-8.")
+    @Nullable
+    private final String charset;
+    
     public Config(String decoder, String decompress, String format, String field, String schema) {
+      this(decoder, decompress, format, field, schema, null, null);
+    }
+    
+    public Config(String decoder, String decompress, String format, String field, String schema, 
+                  String engine, String columns) {
+      this(decoder, decompress, format, field, schema, engine, columns, null, null);
+    }
+    
+    public Config(String decoder, String decompress, String format, String field, String schema, 
+                  String engine, String columns, Integer parallelism, Integer minChunkSize) {
+      this(decoder, decompress, format, field, schema, engine, columns, parallelism, minChunkSize, null);
+    }
+    
+    public Config(String decoder, String decompress, String format, String field, String schema, 
+                  String engine, String columns, Integer parallelism, Integer minChunkSize, String intern) {
+      this(decoder, decompress, format, field, schema, engine, columns, parallelism, minChunkSize, intern, null);
+    }
+    
+    public Config(String decoder, String decompress, String format, String field, String schema, 
+                  String engine, String columns, Integer parallelism, Integer minChunkSize, String intern,
+                  String charset) {
       this.decoder = decoder;
       this.decompress = decompress;
       this.format = format;
       this.field = field;
       this.schema = schema;
+      this.engine = engine;
+      this.columns = columns;
+      this.parallelism = parallelism;
+      this.minChunkSize = minChunkSize;
+      this.intern = intern;
+      this.charset = charset;
     }
   }
   
@@ -0,0 +1,546 @@
+/*
+ * Copyright © 2015 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.hydrator.transforms;
+
+import org.apache.commons.csv.CSVFormat;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * Tokenizes CSV records directly on bytes, without decoding them into characters.
+ *
+ * <p>
+ * Records are exposed as ranges of the underlying buffer, so no objects are created per field.
+ * Quoted and escaped fields are unescaped in place. Unquoted fields take a fast path that only
+ * scans for the delimiter and line endings. Follows the parsing rules of commons-csv for the
+ * delimiter, quote, escape, null string, surrounding spaces and empty lines settings of a
+ * {@link CSVFormat}. The input has to be in an ASCII compatible encoding like UTF-8.
+ * </p>
+ *
+ * <p>
+ * The ranges of a record are only valid until the next call to {@link #next()}. Instances
+ * are not thread safe.
+ * </p>
+ */
+public final class CSVTokenizer {
+  private static final int CR = '\r';
+  private static final int LF = '\n';
+  private static final int UNSET = Integer.MIN_VALUE;
+  private static final int INITIAL_BUFFER_SIZE = 64 * 1024;
+  private static final int INITIAL_COLUMNS = 16;
+
+  private final int delimiter;
+  private final int quote;
+  private final int escape;
+  private final boolean ignoreSurroundingSpaces;
+  private final boolean ignoreEmptyLines;
+  private final byte[] nullString;
+
+  // Stream being tokenized, null when tokenizing a byte array.
+  private InputStream in;
+
+  // Buffer owned by the tokenizer, reused across streams.
+  private byte[] streamBuffer;
+
+  // Buffer holding the current record and the read and write positions in it.
+  private byte[] buf;
+  private int pos;
+  private int limit;
+  private int recordStart;
+  private int fieldStart;
+  private int write;
+  private boolean eof;
+
+  // Ranges of the fields of the current record.
+  private int count;
+  private int[] starts = new int[INITIAL_COLUMNS];
+  private int[] ends = new int[INITIAL_COLUMNS];
+  private long recordNumber;
+
+  public CSVTokenizer(CSVFormat format) {
+    if (format.getCommentMarker() != null) {
+      throw new IllegalArgumentException("CSV formats with comments are not supported.");
+    }
+    this.delimiter = toByte(format.getDelimiter(), "delimiter");
+    this.quote = format.getQuoteCharacter() == null ? UNSET : toByte(format.getQuoteCharacter(), "quote");
+    this.escape = format.getEscapeCharacter() == null ? UNSET : toByte(format.getEscapeCharacter(), "escape");
+    this.ignoreSurroundingSpaces = format.getIgnoreSurroundingSpaces();
+    this.ignoreEmptyLines = format.getIgnoreEmptyLines();
+    if (format.getNullString() != null) {
+      String nullValue = format.getNullString();
+      nullString = new byte[nullValue.length()];
+      for (int i = 0; i < nullString.length; ++i) {
+        nullString[i] = (byte) toByte(nullValue.charAt(i), "null string");
+      }
+    } else {
+      nullString = null;
+    }
+  }
+
+  private static int toByte(char c, String name) {
+    if (c > 0x7F) {
+      throw new IllegalArgumentException("Non ASCII " + name + " '" + c + "' is not supported.");
+    }
+    return c;
+  }
+
+  /**
+   * Starts tokenizing the given stream. The stream is read as records are requested.
+   *
+   * @param in stream to be tokenized.
+   */
+  public void reset(InputStream in) {
+    if (streamBuffer == null) {
+      streamBuffer = new byte[INITIAL_BUFFER_SIZE];
+    }
+    reset(in, streamBuffer, 0, 0);
+    eof = false;
+  }
+
+  /**
+   * Starts tokenizing the given range of a byte array. The array is tokenized in place and
+   * it's content is modified when fields need to be unescaped.
+   *
+   * @param bytes array to be tokenized.
+   * @param offset start of the range.
+   * @param length length of the range.
+   */
+  public void reset(byte[] bytes, int offset, int length) {
+    reset(null, bytes, offset, offset + length);
+    eof = true;
+  }
+
+  private void reset(InputStream in, byte[] bytes, int start, int end) {
+    this.in = in;
+    this.buf = bytes;
+    this.pos = start;
+    this.limit = end;
+    this.recordStart = start;
+    this.count = 0;
+    this.recordNumber = 0;
+  }
+
+  /**
+   * Reads the next record.
+   *
+   * @return true if a record was read, false at the end of input.
+   * @throws IOException if reading the stream fails or the record is malformed.
+   */
+  public boolean next() throws IOException {
+    count = 0;
+    recordStart = pos;
+    if (ignoreEmptyLines) {
+      while (true) {
+        if (pos == limit && !fill()) {
+          return false;
+        }
+        int c = buf[pos];
+        if (c != LF && c != CR) {
+          break;
+        }
+        recordStart = ++pos;
+      }
+    } else if (pos == limit && !fill()) {
+      return false;
+    }
+
+    ++recordNumber;
+    while (!readField()) {
+      // Keep reading fields till the end of the record.
+    }
+    return true;
+  }
+
+  /**
+   * @return number of fields in the current record.
+   */
+  public int size() {
+    return count;
+  }
+
+  /**
+   * @return buffer holding the fields of the current record.
+   */
+  public byte[] getBuffer() {
+    return buf;
+  }
+
+  /**
+   * @return offset of the field in the buffer.
+   */
+  public int getStart(int field) {
+    return starts[field];
+  }
+
+  /**
+   * @return length of the field in bytes.
+   */
+  public int getLength(int field) {
+    return ends[field] - starts[field];
+  }
+
+  /**
+   * @return true if the field matches the null string of the format.
+   */
+  public boolean isNull(int field) {
+    if (nullString == null || ends[field] - starts[field] != nullString.length) {
+      return false;
+    }
+    int start = starts[field];
+    for (int i = 0; i < nullString.length; ++i) {
+      int c = buf[start + i];
+      int n = nullString[i];
+      if (c != n && !(Character.isLetter(n) && (c | 0x20) == (n | 0x20))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * @return number of the current record, starting at 1.
+   */
+  public long getRecordNumber() {
+    return recordNumber;
+  }
+
+  /**
+   * Finds the first record boundary at or after a position, so that a buffer can be split
+   * into chunks of whole records. Records are skipped from a known boundary, taking quotes
+   * and escapes into account, without modifying the buffer.
+   *
+   * @param bytes array holding the records.
+   * @param from offset of a record boundary, where the scan starts.
+   * @param target offset from where on the next boundary is wanted.
+   * @param end end of the records in the array.
+   * @return offset of the first boundary at or after target, end if there is none.
+   */
+  public int findBoundary(byte[] bytes, int from, int target, int end) {
+    int p = from;
+    while (p < target && p < end) {
+      p = skipRecord(bytes, p, end);
+    }
+    return Math.min(p, end);
+  }
+
+  /**
+   * @return offset just after the line ending of the record starting at the given offset.
+   */
+  private int skipRecord(byte[] bytes, int offset, int end) {
+    int p = offset;
+    boolean atFieldStart = true;
+    while (p < end) {
+      int c = bytes[p];
+      if (atFieldStart) {
+        if (ignoreSurroundingSpaces && isWhitespace(c)) {
+          ++p;
+          continue;
+        }
+        atFieldStart = false;
+        if (c == quote) {
+          // Skip to the closing quote, line endings don't end the record within quotes.
+          ++p;
+          while (p < end) {
+            c = bytes[p];
+            if (c == escape) {
+              p += 2;
+            } else if (c != quote) {
+              ++p;
+            } else if (p + 1 < end && bytes[p + 1] == quote) {
+              p += 2;
+            } else {
+              ++p;
+              break;
+            }
+          }
+          continue;
+        }
+      }
+      if (c == escape) {
+        p += 2;
+      } else if (c == delimiter) {
+        atFieldStart = true;
+        ++p;
+      } else if (c == LF) {
+        return p + 1;
+      } else if (c == CR) {
+        return p + 1 < end && bytes[p + 1] == LF ? p + 2 : p + 1;
+      } else {
+        ++p;
+      }
+    }
+    return end;
+  }
+
+  /**
+   * Reads a field, returns true if it was the last field of the record.
+   */
+  private boolean readField() throws IOException {
+    if (pos == limit && !fill()) {
+      addField(pos, pos);
+      return true;
+    }
+    if (ignoreSurroundingSpaces) {
+      while (isWhitespace(buf[pos])) {
+        if (++pos == limit && !fill()) {
+          addField(pos, pos);
+          return true;
+        }
+      }
+    }
+    if (buf[pos] == quote) {
+      ++pos;
+      return readQuoted();
+    }
+    return readSimple();
+  }
+
+  private boolean readSimple() throws IOException {
+    fieldStart = pos;
+    write = UNSET;
+    while (true) {
+      byte[] b = buf;
+      int p = pos;
+      int lim = limit;
+      int c = 0;
+      if (write == UNSET) {
+        // Fast path, nothing to unescape so far, so just look for the end of the field.
+        while (p < lim) {
+          c = b[p];
+          if (c == delimiter || c == LF || c == CR || c == escape) {
+            break;
+          }
+          ++p;
+        }
+      } else {
+        int w = write;
+        while (p < lim) {
+          c = b[p];
+          if (c == delimiter || c == LF || c == CR || c == escape) {
+            break;
+          }
+          b[w++] = (byte) c;
+          ++p;
+        }
+        write = w;
+      }
+      pos = p;
+
+      if (p == lim) {
+        if (!fill()) {
+          endSimple();
+          return true;
+        }
+        continue;
+      }
+
+      if (c == escape) {
+        if (write == UNSET) {
+          write = pos;
+        }
+        readEscape();
+        continue;
+      }
+
+      endSimple();
+      ++pos;
+      if (c == delimiter) {
+        return false;
+      }
+      if (c == CR) {
+        skipLF();
+      }
+      return true;
+    }
+  }
+
+  private void endSimple() {
+    int end = write == UNSET ? pos : write;
+    if (ignoreSurroundingSpaces) {
+      while (end > fieldStart && isWhitespace(buf[end - 1])) {
+        --end;
+      }
+    }
+    addField(fieldStart, end);
+  }
+
+  private boolean readQuoted() throws IOException {
+    fieldStart = pos;
+    write = pos;
+    while (true) {
+      byte[] b = buf;
+      int p = pos;
+      int w = write;
+      int lim = limit;
+      int c = 0;
+      while (p < lim) {
+        c = b[p];
+        if (c == quote || c == escape) {
+          break;
+        }
+        b[w++] = (byte) c;
+        ++p;
+      }
+      pos = p;
+      write = w;
+
+      if (p == lim) {
+        if (!fill()) {
+          throw new IOException("(line " + recordNumber + ") EOF reached before encapsulated token finished");
+        }
+        continue;
+      }
+
+      if (c == escape) {
+        readEscape();
+        continue;
+      }
+
+      // Either an escaped quote or the end of the field.
+      if (++pos == limit && !fill()) {
+        addField(fieldStart, write);
+        return true;
+      }
+      if (buf[pos] == quote) {
+        buf[write++] = (byte) quote;
+        ++pos;
+        continue;
+      }
+
+      addField(fieldStart, write);
+      while (true) {
+        if (pos == limit && !fill()) {
+          return true;
+        }
+        c = buf[pos++];
+        if (c == delimiter) {
+          return false;
+        }
+        if (c == LF) {
+          return true;
+        }
+        if (c == CR) {
+          skipLF();
+          return true;
+        }
+        if (!isWhitespace(c)) {
+          throw new IOException("(line " + recordNumber + ") invalid char between encapsulated token and delimiter");
+        }
+      }
+    }
+  }
+
+  /**
+   * Unescapes the escape sequence at the current position to the write position.
+   */
+  private void readEscape() throws IOException {
+    if (++pos == limit && !fill()) {
+      throw new IOException("EOF whilst processing escape sequence");
+    }
+    int c = buf[pos++];
+    switch (c) {
+      case 'r':
+        buf[write++] = '\r';
+        break;
+      case 'n':
+        buf[write++] = '\n';
+        break;
+      case 't':
+        buf[write++] = '\t';
+        break;
+      case 'b':
+        buf[write++] = '\b';
+        break;
+      case 'f':
+        buf[write++] = '\f';
+        break;
+      case '\r':
+      case '\n':
+      case '\t':
+      case '\b':
+      case '\f':
+        buf[write++] = (byte) c;
+        break;
+      default:
+        if (c != delimiter && c != escape && c != quote) {
+          // Unknown escape sequences are kept as is.
+          buf[write++] = (byte) escape;
+        }
+        buf[write++] = (byte) c;
+    }
+  }
+
+  private void skipLF() throws IOException {
+    if ((pos < limit || fill()) && buf[pos] == LF) {
+      ++pos;
+    }
+  }
+
+  private boolean isWhitespace(int c) {
+    return c != delimiter && (c == ' ' || c == '\t' || c == '\f' || c == 0x0B);
+  }
+
+  private void addField(int start, int end) {
+    if (count == starts.length) {
+      starts = Arrays.copyOf(starts, count * 2);
+      ends = Arrays.copyOf(ends, count * 2);
+    }
+    starts[count] = start;
+    ends[count] = end;
+    ++count;
+  }
+
+  /**
+   * Reads more of the stream into the buffer, moving the current record to the start of the
+   * buffer or growing the buffer when the record doesn't leave room for more.
+   *
+   * @return false if there is nothing more to read.
+   */
+  private boolean fill() throws IOException {
+    if (in == null || eof) {
+      return false;
+    }
+    if (recordStart > 0) {
+      int shift = recordStart;
+      System.arraycopy(buf, shift, buf, 0, limit - shift);
+      limit -= shift;
+      pos -= shift;
+      fieldStart -= shift;
+      if (write != UNSET) {
+        write -= shift;
+      }
+      for (int i = 0; i < count; ++i) {
+        starts[i] -= shift;
+        ends[i] -= shift;
+      }
+      recordStart = 0;
+    } else if (limit == buf.length) {
+      buf = Arrays.copyOf(buf, buf.length * 2);
+      streamBuffer = buf;
+    }
+
+    int read = in.read(buf, limit, buf.length - limit);
+    if (read < 0) {
+      eof = true;
+      return false;
+    }
+    limit += read;
+    return true;
+  }
+}
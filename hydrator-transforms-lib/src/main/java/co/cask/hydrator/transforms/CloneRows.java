@@ -26,14 +26,65 @@ import co.cask.cdap.api.plugin.PluginConfig;
 import co.cask.cdap.etl.api.Emitter;
 import co.cask.cdap.etl.api.PipelineConfigurer;
 import co.cask.cdap.etl.api.Transform;
+import co.cask.cdap.etl.api.TransformContext;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 
+import java.nio.ByteBuffer;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
+import javax.annotation.Nullable;
 
+/**
+ * Emits every row a number of times.
+ *
+ * <p>
+ * In <code>copy</code> mode, every copy is a record of it's own with the values of the row. In
+ * <code>same</code> mode, the row itself is emitted again for every copy, which costs nothing,
+ * records being immutable. In <code>indexed</code> mode, every copy is a record of it's own with
+ * the values of the row and the index of the copy, from 0, in an extra INT field. Copies share the
+ * mutable values of the row, like bytes, maps and arrays, unless the <code>values</code> policy is
+ * <code>copy</code>, in which case every copy gets copies of them. The field names of a schema,
+ * and the output schema of the indexed copies, are worked out once per input schema.
+ * </p>
+ */
 @Plugin(type = "transform")
 @Name("CloneRows")
 @Description("Creates copies (clones) of a row and outputs them directly after the original row to the next steps.")
 public final class CloneRows extends Transform<StructuredRecord, StructuredRecord> {
+  /**
+   * Mode building a record of it's own for every copy.
+   */
+  public static final String COPY = "copy";
+
+  /**
+   * Mode emitting the row itself for every copy.
+   */
+  public static final String SAME = "same";
+
+  /**
+   * Mode building a record of it's own with the index of the copy for every copy.
+   */
+  public static final String INDEXED = "indexed";
+
+  /**
+   * Policy sharing the mutable values of the row between the copies.
+   */
+  public static final String SHARE = "share";
+
+  /**
+   * Name of the field of the index of indexed copies when none is configured.
+   */
+  public static final String DEFAULT_INDEX_FIELD = "copy";
+
   private final Config config;
+  private String mode;
+  private String indexField;
+  private boolean copyValues;
+
+  // Plans of the input schemas seen.
+  private SchemaCache<Plan> plans;
 
   // Required only for testing.
   public CloneRows(Config config) {
@@ -47,21 +98,155 @@ public final class CloneRows extends Transform<StructuredRecord, StructuredRecor
       throw new IllegalArgumentException("Number of copies specified '" + config.copies + "' is incorrect. Specify " +
                                        "proper integer range");
     }
+    String mode = modeOf(config.mode);
+    if(copyValuesOf(config.values) && mode.equals(SAME)) {
+      throw new IllegalArgumentException("Values can't be copied in same mode, which emits the row itself.");
+    }
+  }
+
+  @Override
+  public void initialize(TransformContext context) throws Exception {
+    super.initialize(context);
+    mode = modeOf(config.mode);
+    indexField = config.indexField == null || config.indexField.trim().isEmpty()
+      ? DEFAULT_INDEX_FIELD : config.indexField.trim();
+    copyValues = copyValuesOf(config.values);
+    if(copyValues && mode.equals(SAME)) {
+      throw new IllegalArgumentException("Values can't be copied in same mode, which emits the row itself.");
+    }
+    final String indexed = mode.equals(INDEXED) ? indexField : null;
+    plans = new SchemaCache<Plan>(context == null ? null : context.getMetrics()) {
+      @Override
+      protected Plan compile(Schema inSchema) {
+        return new Plan(inSchema, indexed);
+      }
+    };
+  }
+
+  @Override
+  public void destroy() {
+    if(plans != null) {
+      plans.flush();
+    }
+  }
+
+  private static String modeOf(@Nullable String mode) throws IllegalArgumentException {
+    if(mode == null || mode.trim().isEmpty()) {
+      return COPY;
+    }
+    for(String supported : new String[] { COPY, SAME, INDEXED }) {
+      if(mode.trim().equalsIgnoreCase(supported)) {
+        return supported;
+      }
+    }
+    throw new IllegalArgumentException("Clone mode '" + mode + "' is not supported, use copy, same or indexed.");
+  }
+
+  private static boolean copyValuesOf(@Nullable String values) throws IllegalArgumentException {
+    if(values == null || values.trim().isEmpty() || values.trim().equalsIgnoreCase(SHARE)) {
+      return false;
+    }
+    if(values.trim().equalsIgnoreCase(COPY)) {
+      return true;
+    }
+    throw new IllegalArgumentException("Values policy '" + values + "' is not supported, use share or copy.");
   }
 
   @Override
   public void transform(StructuredRecord in, Emitter<StructuredRecord> emitter) throws Exception {
-    List<Schema.Field> fields = in.getSchema().getFields();
+    if(mode.equals(SAME)) {
+      for(int i = 0; i < config.copies; ++i) {
+        emitter.emit(in);
+      }
+      return;
+    }
+
+    Plan plan = plans.get(in.getSchema());
+    String[] names = plan.names;
+    Object[] values = new Object[names.length];
+    for(int j = 0; j < names.length; ++j) {
+      values[j] = in.get(names[j]);
+    }
     for(int i = 0; i < config.copies; ++i) {
-      StructuredRecord.Builder builder = StructuredRecord.builder(in.getSchema());
-      for(Schema.Field field : fields) {
-        String name = field.getName();
-        builder.set(name, in.get(name));
+      StructuredRecord.Builder builder = StructuredRecord.builder(plan.outSchema);
+      for(int j = 0; j < names.length; ++j) {
+        builder.set(names[j], copyValues ? copyOf(values[j]) : values[j]);
+      }
+      if(plan.indexed) {
+        builder.set(indexField, i);
       }
       emitter.emit(builder.build());
     }
   }
 
+  /**
+   * @return a copy of a mutable value, with copies of the mutable values it holds, or the value
+   * itself if it's immutable.
+   */
+  @Nullable
+  static Object copyOf(@Nullable Object value) {
+    if(value instanceof byte[]) {
+      return ((byte[]) value).clone();
+    }
+    if(value instanceof ByteBuffer) {
+      ByteBuffer buffer = (ByteBuffer) value;
+      ByteBuffer copy = ByteBuffer.allocate(buffer.remaining());
+      copy.put(buffer.duplicate());
+      copy.flip();
+      return copy;
+    }
+    if(value instanceof Map) {
+      Map<Object, Object> copy = Maps.newLinkedHashMap();
+      for(Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+        copy.put(copyOf(entry.getKey()), copyOf(entry.getValue()));
+      }
+      return copy;
+    }
+    if(value instanceof Collection) {
+      List<Object> copy = Lists.newArrayListWithCapacity(((Collection<?>) value).size());
+      for(Object element : (Collection<?>) value) {
+        copy.add(copyOf(element));
+      }
+      return copy;
+    }
+    if(value instanceof Object[]) {
+      Object[] copy = ((Object[]) value).clone();
+      for(int i = 0; i < copy.length; ++i) {
+        copy[i] = copyOf(copy[i]);
+      }
+      return copy;
+    }
+    return value;
+  }
+
+  /**
+   * Field names of an input schema and schema of the copies.
+   */
+  private static final class Plan {
+    private final String[] names;
+    private final Schema outSchema;
+    private final boolean indexed;
+
+    private Plan(Schema inSchema, @Nullable String indexField) {
+      List<Schema.Field> fields = inSchema.getFields();
+      names = new String[fields.size()];
+      for(int i = 0; i < names.length; ++i) {
+        names[i] = fields.get(i).getName();
+      }
+      indexed = indexField != null;
+      if(!indexed) {
+        outSchema = inSchema;
+        return;
+      }
+      if(inSchema.getField(indexField) != null) {
+        throw new IllegalArgumentException("Index field '" + indexField + "' is already in the input schema.");
+      }
+      List<Schema.Field> outFields = Lists.newArrayList(fields);
+      outFields.add(Schema.Field.of(indexField, Schema.of(Schema.Type.INT)));
+      outSchema = Schema.recordOf(inSchema.getRecordName(), outFields);
+    }
+  }
+
   /**
    * Clone rows plugin configuration.
    */
@@ -69,9 +254,33 @@ public final class CloneRows extends Transform<StructuredRecord, StructuredRecor
     @Name("copies")
     @Description("Specifies number of copies to be made of every row.")
     private final int copies;
+
+    @Name("mode")
+    @Description("Specifies whether every copy is a record of its own (copy), the row itself (same), or a record " +
+      "of its own with the index of the copy (indexed). Defaults to copy.")
+    @Nullable
+    private final String mode;
+
+    @Name("indexField")
+    @Description("Specifies the INT field the index of the copy is written to in indexed mode. Defaults to copy.")
+    @Nullable
+    private final String indexField;
+
+    @Name("values")
+    @Description("Specifies whether copies share the mutable values of the row, like bytes, maps and arrays (share), " +
+      "or get copies of them (copy). Defaults to share.")
+    @Nullable
+    private final String values;
     
     public Config(int copies) {
+      this(copies, null, null, null);
+    }
+
+    public Config(int copies, @Nullable String mode, @Nullable String indexField, @Nullable String values) {
       this.copies = copies;
+      this.mode = mode;
+      this.indexField = indexField;
+      this.values = values;
     }
     
   }
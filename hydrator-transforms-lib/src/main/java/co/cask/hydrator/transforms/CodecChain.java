@@ -0,0 +1,272 @@
+/*
+ * Copyright © 2015 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.hydrator.transforms;
+
+import com.google.common.collect.Lists;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.List;
+import javax.annotation.Nullable;
+
+/**
+ * Fixed sequence of {@link CodecStage}s bytes are passed through, for example decode, then
+ * decompress.
+ *
+ * <p>
+ * A chain is built once, when the plugin is initialized, from the configured codecs. Applying
+ * it runs the stages one after the other without looking at the configuration again. NONE
+ * codecs don't add a stage, a chain without stages passes bytes through as they are. Chains
+ * own the stage buffers, so they are not thread safe and {@link #close()} has to be called
+ * when the chain is not needed anymore.
+ * </p>
+ *
+ * <p>
+ * Heap buffers are processed in place from their backing array, whatever their position,
+ * limit and offset. Direct and read only buffers have no accessible array, they are copied
+ * once into a buffer of the chain before the first stage.
+ * </p>
+ */
+public final class CodecChain {
+  private final CodecStage[] stages;
+
+  // Copy of the last direct or read only input.
+  private byte[] heap = new byte[0];
+
+  private CodecChain(CodecStage[] stages) {
+    this.stages = stages;
+  }
+
+  /**
+   * @return builder for a chain.
+   */
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  /**
+   * Applies all the stages.
+   *
+   * @param in bytes to be processed.
+   * @return processed bytes, valid until the chain is applied again.
+   * @throws IOException if the bytes are not in the format expected by a stage.
+   */
+  public ByteBuffer apply(ByteBuffer in) throws IOException {
+    ByteBuffer out = onHeap(in);
+    for (CodecStage stage : stages) {
+      out = stage.apply(out);
+    }
+    return out;
+  }
+
+  /**
+   * Applies all the stages to a value.
+   *
+   * @param in value to be processed.
+   * @return processed value in an array of it's own, the value itself when there are no stages.
+   * @throws IOException if the value is not in the format expected by a stage.
+   */
+  public byte[] apply(byte[] in) throws IOException {
+    if (stages.length == 0) {
+      return in;
+    }
+    ByteBuffer out = apply(ByteBuffer.wrap(in));
+    int offset = out.arrayOffset() + out.position();
+    return Arrays.copyOfRange(out.array(), offset, offset + out.remaining());
+  }
+
+  /**
+   * Applies all the stages to a value held in a buffer, leaving the position of the buffer as
+   * it is.
+   *
+   * @param in value to be processed.
+   * @return processed value in a buffer of it's own, a view of the value when there are no stages.
+   * @throws IOException if the value is not in the format expected by a stage.
+   */
+  public ByteBuffer applyToCopy(ByteBuffer in) throws IOException {
+    if (stages.length == 0) {
+      return in.slice();
+    }
+    ByteBuffer out = apply(in.duplicate());
+    int offset = out.arrayOffset() + out.position();
+    return ByteBuffer.wrap(Arrays.copyOfRange(out.array(), offset, offset + out.remaining()));
+  }
+
+  /**
+   * Applies all the stages to a value and decodes the result as text, without copying it first.
+   *
+   * @param in value to be processed.
+   * @param charset charset of the processed value, ISO-8859-1 copies ASCII outputs as they are.
+   * @return processed value as text.
+   * @throws IOException if the value is not in the format expected by a stage.
+   */
+  public String apply(byte[] in, Charset charset) throws IOException {
+    return apply(ByteBuffer.wrap(in), charset);
+  }
+
+  /**
+   * Applies all the stages to a value held in a buffer and decodes the result as text, leaving
+   * the position of the buffer as it is.
+   *
+   * @param in value to be processed.
+   * @param charset charset of the processed value.
+   * @return processed value as text.
+   * @throws IOException if the value is not in the format expected by a stage.
+   */
+  public String apply(ByteBuffer in, Charset charset) throws IOException {
+    ByteBuffer out = apply(in.duplicate());
+    return new String(out.array(), out.arrayOffset() + out.position(), out.remaining(), charset);
+  }
+
+  /**
+   * Applies all the stages to a value held in a buffer and reads the first 8 bytes of the result
+   * as a little endian long, like hashes are, leaving the position of the buffer as it is.
+   *
+   * @param in value to be processed.
+   * @return processed value as a long.
+   * @throws IOException if the value is not in the format expected by a stage, or the processed
+   * value is shorter than 8 bytes.
+   */
+  public long applyAsLong(ByteBuffer in) throws IOException {
+    ByteBuffer out = apply(in.duplicate());
+    if (out.remaining() < 8) {
+      throw new IOException("Processed value of " + out.remaining() + " bytes is too short for a long");
+    }
+    return FastHash.readLong(out.array(), out.arrayOffset() + out.position());
+  }
+
+  /**
+   * Opens a stream over the output of the chain. All stages but the last one are applied as a
+   * whole, the last one streams if it can.
+   *
+   * @param in bytes to be processed.
+   * @return stream of processed bytes, that doesn't need to be closed.
+   * @throws IOException if the bytes are not in the format expected by a stage.
+   */
+  public InputStream open(ByteBuffer in) throws IOException {
+    ByteBuffer out = onHeap(in);
+    if (stages.length == 0) {
+      return new ByteArrayInputStream(out.array(), out.arrayOffset() + out.position(), out.remaining());
+    }
+    for (int i = 0; i < stages.length - 1; ++i) {
+      out = stages[i].apply(out);
+    }
+    return stages[stages.length - 1].open(out);
+  }
+
+  /**
+   * @return true if the chain has no stages, in which case it's output is it's input.
+   */
+  public boolean isEmpty() {
+    return stages.length == 0;
+  }
+
+  /**
+   * @return true if {@link #open(ByteBuffer)} produces the output as it's read.
+   */
+  public boolean isStreaming() {
+    return stages.length > 0 && stages[stages.length - 1].isStreaming();
+  }
+
+  /**
+   * @return the buffer itself if it has an accessible array, a copy in the heap buffer otherwise.
+   */
+  private ByteBuffer onHeap(ByteBuffer in) {
+    if (in.hasArray()) {
+      return in;
+    }
+    int length = in.remaining();
+    if (heap.length < length) {
+      heap = new byte[Math.max(length, heap.length * 2)];
+    }
+    in.duplicate().get(heap, 0, length);
+    return ByteBuffer.wrap(heap, 0, length);
+  }
+
+  /**
+   * Releases the resources held by the stages.
+   */
+  public void close() {
+    for (CodecStage stage : stages) {
+      stage.close();
+    }
+  }
+
+  /**
+   * Builder for a chain, stages are applied in the order they are added.
+   */
+  public static final class Builder {
+    private final List<CodecStage> stages = Lists.newArrayList();
+
+    private Builder() {
+    }
+
+    public Builder decode(EncodeDecodeType type) {
+      if (type != EncodeDecodeType.NONE) {
+        stages.add(CodecStage.decoder(type));
+      }
+      return this;
+    }
+
+    public Builder encode(EncodeDecodeType type) {
+      if (type != EncodeDecodeType.NONE) {
+        stages.add(CodecStage.encoder(type));
+      }
+      return this;
+    }
+
+    public Builder digest(HashType type) {
+      return digest(type, null);
+    }
+
+    public Builder digest(HashType type, @Nullable byte[] key) {
+      stages.add(CodecStage.digest(type, key));
+      return this;
+    }
+
+    public Builder decompress(CompDecompType type) {
+      if (type != CompDecompType.NONE) {
+        stages.add(CodecStage.decompressor(type));
+      }
+      return this;
+    }
+
+    public Builder compress(CompDecompType type) {
+      return compress(type, BlockCompressor.DEFAULT_LEVEL);
+    }
+
+    public Builder compress(CompDecompType type, int level) {
+      if (type != CompDecompType.NONE) {
+        stages.add(CodecStage.compressor(type, level));
+      }
+      return this;
+    }
+
+    public Builder add(CodecStage stage) {
+      stages.add(stage);
+      return this;
+    }
+
+    public CodecChain build() {
+      return new CodecChain(stages.toArray(new CodecStage[stages.size()]));
+    }
+  }
+}
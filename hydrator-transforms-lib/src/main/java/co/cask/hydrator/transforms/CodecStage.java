@@ -0,0 +1,757 @@
+/*
+ * Copyright © 2015 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.hydrator.transforms;
+
+import com.github.luben.zstd.Zstd;
+import com.github.luben.zstd.ZstdDictCompress;
+import com.github.luben.zstd.ZstdDictDecompress;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import javax.annotation.Nullable;
+
+/**
+ * A stage of a {@link CodecChain}, encoding, decoding, compressing, decompressing or hashing bytes.
+ *
+ * <p>
+ * Stages work on heap buffers, the bytes between position and limit. The buffer returned by a
+ * stage may be owned by it and reused, so it's only valid until the stage is applied again.
+ * Stages are created once per plugin instance and are not thread safe.
+ * </p>
+ */
+public abstract class CodecStage {
+  /**
+   * Marker of the values of adaptive compression that are stored raw.
+   */
+  public static final byte RAW = 0;
+
+  /**
+   * Marker of the values of adaptive compression that are compressed.
+   */
+  public static final byte COMPRESSED = 1;
+
+  /**
+   * Number of values a Zstandard dictionary is trained on.
+   */
+  public static final int DICTIONARY_TRAINING_VALUES = 1000;
+
+  private static final int INITIAL_SCRATCH_SIZE = 4 * 1024;
+
+  // Buffer for the output of the stage, reused across values.
+  private byte[] scratch = new byte[0];
+
+  /**
+   * Applies the stage.
+   *
+   * @param in bytes to be processed.
+   * @return processed bytes.
+   * @throws IOException if the bytes are not in the format expected by the stage.
+   */
+  public abstract ByteBuffer apply(ByteBuffer in) throws IOException;
+
+  /**
+   * Opens a stream over the output of the stage. Streaming stages produce the output as it's
+   * read, the others apply the stage as a whole.
+   *
+   * @param in bytes to be processed.
+   * @return stream of processed bytes, that doesn't need to be closed.
+   * @throws IOException if the bytes are not in the format expected by the stage.
+   */
+  public InputStream open(ByteBuffer in) throws IOException {
+    ByteBuffer out = apply(in);
+    return new ByteArrayInputStream(out.array(), out.arrayOffset() + out.position(), out.remaining());
+  }
+
+  /**
+   * @return true if {@link #open(ByteBuffer)} produces the output as it's read.
+   */
+  public boolean isStreaming() {
+    return false;
+  }
+
+  /**
+   * Releases the resources held by the stage.
+   */
+  public void close() {
+    // no-op
+  }
+
+  /**
+   * @return scratch buffer of at least the given size, the content is not preserved when growing.
+   */
+  protected byte[] scratch(int size) {
+    if (scratch.length < size) {
+      scratch = new byte[Math.max(size, Math.max(INITIAL_SCRATCH_SIZE, scratch.length * 2))];
+    }
+    return scratch;
+  }
+
+  /**
+   * @return the scratch buffer grown to at least twice it's size, with it's content preserved.
+   */
+  protected byte[] growScratch() {
+    scratch = Arrays.copyOf(scratch, Math.max(INITIAL_SCRATCH_SIZE, scratch.length * 2));
+    return scratch;
+  }
+
+  /**
+   * @return the bytes of a buffer as an array, without copying if the buffer wraps a whole array.
+   */
+  protected static byte[] toArray(ByteBuffer in) {
+    if (in.arrayOffset() == 0 && in.position() == 0 && in.remaining() == in.array().length) {
+      return in.array();
+    }
+    return Arrays.copyOfRange(in.array(), in.arrayOffset() + in.position(), in.arrayOffset() + in.limit());
+  }
+
+  /**
+   * Creates the stage decoding values.
+   *
+   * @param type decoding, not NONE.
+   * @return decoding stage.
+   */
+  public static CodecStage decoder(EncodeDecodeType type) {
+    return new DecoderStage(TextCodec.of(type));
+  }
+
+  /**
+   * Creates the stage encoding values.
+   *
+   * @param type encoding, not NONE.
+   * @return encoding stage.
+   */
+  public static CodecStage encoder(EncodeDecodeType type) {
+    return new EncoderStage(TextCodec.of(type));
+  }
+
+  /**
+   * Creates the stage hashing values into their digest.
+   *
+   * @param type hash algorithm, not a keyed one.
+   * @return hashing stage.
+   * @throws IllegalArgumentException if the JVM doesn't provide the algorithm.
+   */
+  public static CodecStage digest(HashType type) {
+    return digest(type, null);
+  }
+
+  /**
+   * Creates the stage hashing values into their digest. The non-cryptographic hashes are 8 bytes
+   * long, 16 for MURMUR3_128, the hash longs written little endian.
+   *
+   * @param type hash algorithm.
+   * @param key 16 bytes key of SIPHASH24, null for the other algorithms.
+   * @return hashing stage.
+   * @throws IllegalArgumentException if the JVM doesn't provide the algorithm, or the key is not
+   * one of the algorithm.
+   */
+  public static CodecStage digest(HashType type, @Nullable byte[] key) {
+    if ((type == HashType.SIPHASH24) != (key != null)) {
+      throw new IllegalArgumentException("Hash algorithm " + type + (key == null ? " needs a key." : " has no key."));
+    }
+    if (type.getAlgorithm() == null) {
+      return new FastHashStage(type, key);
+    }
+    try {
+      return new DigestStage(MessageDigest.getInstance(type.getAlgorithm()));
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalArgumentException("Hash algorithm " + type + " is not available.", e);
+    }
+  }
+
+  /**
+   * Creates the stage caching the digests of a hashing stage, so repeated values are not hashed
+   * again.
+   *
+   * @param digest stage hashing values.
+   * @param cache cache of the digests.
+   * @return hashing stage.
+   */
+  public static CodecStage cached(CodecStage digest, DigestCache cache) {
+    return new CachedDigestStage(digest, cache);
+  }
+
+  /**
+   * Creates the stage decompressing values.
+   *
+   * @param type compression, not NONE.
+   * @return decompressing stage.
+   */
+  public static CodecStage decompressor(CompDecompType type) {
+    return decompressor(type, BlockDecompressor.UNLIMITED);
+  }
+
+  /**
+   * Creates the stage decompressing values up to a maximum size. Applying the stage to a value
+   * that decompresses to more fails, streams opened over values are not limited.
+   *
+   * @param type compression, not NONE.
+   * @param maxSize maximum size of decompressed values.
+   * @return decompressing stage.
+   */
+  public static CodecStage decompressor(CompDecompType type, int maxSize) {
+    switch (type) {
+      case GZIP:
+      case ZIP:
+        return new InflaterStage(type, maxSize);
+      case SNAPPY:
+      case LZ4:
+      case ZSTD:
+        return new BlockDecompressorStage(type, maxSize);
+      default:
+        throw new IllegalArgumentException("Unsupported decompressor " + type);
+    }
+  }
+
+  /**
+   * Creates the stage compressing values at the default level of the compression.
+   *
+   * @param type compression, not NONE.
+   * @return compressing stage.
+   */
+  public static CodecStage compressor(CompDecompType type) {
+    return compressor(type, BlockCompressor.DEFAULT_LEVEL);
+  }
+
+  /**
+   * Creates the stage compressing values.
+   *
+   * @param type compression, not NONE.
+   * @param level compression level, or {@link BlockCompressor#DEFAULT_LEVEL}.
+   * @return compressing stage.
+   * @throws IllegalArgumentException if the level is not a level of the compression.
+   */
+  public static CodecStage compressor(CompDecompType type, int level) {
+    if (type == CompDecompType.NONE) {
+      throw new IllegalArgumentException("Unsupported compressor " + type);
+    }
+    return new BlockCompressorStage(type, level);
+  }
+
+  /**
+   * Creates the stage compressing values adaptively. Every value is prefixed with a marker byte,
+   * {@link #COMPRESSED} followed by the compressed value, or {@link #RAW} followed by the value
+   * itself when compressing it is estimated not to pay or doesn't make it smaller.
+   *
+   * @param compressor stage compressing the values that pay.
+   * @param compressibility estimation and accounting of the compressibility of the values.
+   * @return compressing stage.
+   */
+  public static CodecStage adaptiveCompressor(CodecStage compressor, Compressibility compressibility) {
+    return new AdaptiveCompressorStage(compressor, compressibility);
+  }
+
+  /**
+   * Creates the stage decompressing the values of {@link #adaptiveCompressor}.
+   *
+   * @param type compression, not NONE.
+   * @return decompressing stage.
+   */
+  public static CodecStage adaptiveDecompressor(CompDecompType type) {
+    return adaptiveDecompressor(decompressor(type));
+  }
+
+  /**
+   * Creates the stage decompressing the values of {@link #adaptiveCompressor}.
+   *
+   * @param decompressor stage decompressing the values that were compressed.
+   * @return decompressing stage.
+   */
+  public static CodecStage adaptiveDecompressor(CodecStage decompressor) {
+    return new AdaptiveDecompressorStage(decompressor);
+  }
+
+  /**
+   * Creates the stage compressing values with a Zstandard dictionary, stamping them with the id of
+   * the dictionary. Without a dictionary, one is trained on the first
+   * {@link #DICTIONARY_TRAINING_VALUES} values, which are compressed without, and written to a file
+   * of it's own, see {@link ZstdDictionary#train}.
+   *
+   * @param level compression level, or {@link BlockCompressor#DEFAULT_LEVEL}.
+   * @param dictionary dictionary, null to train one.
+   * @param path path the file of the trained dictionary is named after.
+   * @return compressing stage.
+   */
+  public static CodecStage dictionaryCompressor(int level, @Nullable ZstdDictionary dictionary, String path) {
+    BlockCompressor.checkLevel(CompDecompType.ZSTD, level);
+    return new DictionaryCompressorStage(level, dictionary, path);
+  }
+
+  /**
+   * Creates the stage decompressing the values of {@link #dictionaryCompressor}.
+   *
+   * @param dictionaries dictionaries the values may have been compressed with, by id.
+   * @return decompressing stage.
+   */
+  public static CodecStage dictionaryDecompressor(Map<Integer, ZstdDictionary> dictionaries) {
+    return dictionaryDecompressor(dictionaries, BlockDecompressor.UNLIMITED);
+  }
+
+  /**
+   * Creates the stage decompressing the values of {@link #dictionaryCompressor} up to a maximum size.
+   *
+   * @param dictionaries dictionaries the values may have been compressed with, by id.
+   * @param maxSize maximum size of decompressed values.
+   * @return decompressing stage.
+   */
+  public static CodecStage dictionaryDecompressor(Map<Integer, ZstdDictionary> dictionaries, int maxSize) {
+    return new DictionaryDecompressorStage(dictionaries, maxSize);
+  }
+
+  /**
+   * Decodes values into the scratch buffer.
+   */
+  private static final class DecoderStage extends CodecStage {
+    private final TextCodec codec;
+
+    private DecoderStage(TextCodec codec) {
+      this.codec = codec;
+    }
+
+    @Override
+    public ByteBuffer apply(ByteBuffer in) throws IOException {
+      byte[] out = scratch(codec.maxDecodedLength(in.remaining()));
+      int length = codec.decode(in.array(), in.arrayOffset() + in.position(), in.remaining(), out, 0);
+      return ByteBuffer.wrap(out, 0, length);
+    }
+  }
+
+  /**
+   * Encodes values into the scratch buffer.
+   */
+  private static final class EncoderStage extends CodecStage {
+    private final TextCodec codec;
+
+    private EncoderStage(TextCodec codec) {
+      this.codec = codec;
+    }
+
+    @Override
+    public ByteBuffer apply(ByteBuffer in) {
+      byte[] out = scratch(codec.encodedLength(in.remaining()));
+      int length = codec.encode(in.array(), in.arrayOffset() + in.position(), in.remaining(), out, 0);
+      return ByteBuffer.wrap(out, 0, length);
+    }
+  }
+
+  /**
+   * Hashes values with a reused message digest into the scratch buffer.
+   */
+  private static final class DigestStage extends CodecStage {
+    private final MessageDigest digest;
+
+    private DigestStage(MessageDigest digest) {
+      this.digest = digest;
+    }
+
+    @Override
+    public ByteBuffer apply(ByteBuffer in) throws IOException {
+      int length = digest.getDigestLength();
+      byte[] out = scratch(length);
+      digest.update(in.array(), in.arrayOffset() + in.position(), in.remaining());
+      try {
+        return ByteBuffer.wrap(out, 0, digest.digest(out, 0, length));
+      } catch (DigestException e) {
+        throw new IOException("Digest of " + digest.getAlgorithm() + " failed", e);
+      }
+    }
+  }
+
+  /**
+   * Hashes values with a {@link FastHash} into the scratch buffer.
+   */
+  private static final class FastHashStage extends CodecStage {
+    private final HashType type;
+    private final long k0;
+    private final long k1;
+
+    private FastHashStage(HashType type, @Nullable byte[] key) {
+      if (key != null && key.length != 16) {
+        throw new IllegalArgumentException("Key of " + type + " is " + key.length + " bytes long instead of 16.");
+      }
+      this.type = type;
+      this.k0 = key == null ? 0 : FastHash.readLong(key, 0);
+      this.k1 = key == null ? 0 : FastHash.readLong(key, 8);
+    }
+
+    @Override
+    public ByteBuffer apply(ByteBuffer in) {
+      byte[] out = scratch(16);
+      int offset = in.arrayOffset() + in.position();
+      switch (type) {
+        case XXHASH64:
+          FastHash.writeLong(out, 0, FastHash.xxHash64(in.array(), offset, in.remaining(), 0));
+          return ByteBuffer.wrap(out, 0, 8);
+        case MURMUR3_128:
+          FastHash.murmur3x128(in.array(), offset, in.remaining(), 0, out, 0);
+          return ByteBuffer.wrap(out, 0, 16);
+        default:
+          FastHash.writeLong(out, 0, FastHash.sipHash24(k0, k1, in.array(), offset, in.remaining()));
+          return ByteBuffer.wrap(out, 0, 8);
+      }
+    }
+  }
+
+  /**
+   * Returns the cached digests of the values seen before, and hashes and caches the others.
+   */
+  private static final class CachedDigestStage extends CodecStage {
+    private final CodecStage digest;
+    private final DigestCache cache;
+
+    private CachedDigestStage(CodecStage digest, DigestCache cache) {
+      this.digest = digest;
+      this.cache = cache;
+    }
+
+    @Override
+    public ByteBuffer apply(ByteBuffer in) throws IOException {
+      byte[] cached = cache.get(in);
+      if (cached == null) {
+        // The digest is copied out of the buffer of the hashing stage, which is reused.
+        ByteBuffer out = digest.apply(in.duplicate());
+        int offset = out.arrayOffset() + out.position();
+        cached = Arrays.copyOfRange(out.array(), offset, offset + out.remaining());
+        cache.put(in, cached);
+      }
+      return ByteBuffer.wrap(cached);
+    }
+
+    @Override
+    public void close() {
+      cache.report();
+      digest.close();
+    }
+  }
+
+  /**
+   * Inflates GZIP and ZIP values with a reused inflater, as a stream or into the scratch buffer.
+   */
+  private static final class InflaterStage extends CodecStage {
+    private final InflaterStream inflater = new InflaterStream();
+    private final boolean gzip;
+    private final int maxSize;
+
+    private InflaterStage(CompDecompType type, int maxSize) {
+      this.gzip = type == CompDecompType.GZIP;
+      this.maxSize = maxSize;
+    }
+
+    @Override
+    public InputStream open(ByteBuffer in) throws IOException {
+      int offset = in.arrayOffset() + in.position();
+      if (gzip) {
+        return inflater.resetGzip(in.array(), offset, in.remaining());
+      }
+      return inflater.resetZip(in.array(), offset, in.remaining());
+    }
+
+    @Override
+    public ByteBuffer apply(ByteBuffer in) throws IOException {
+      InputStream stream = open(in);
+      byte[] out = scratch((int) Math.min(maxSize, in.remaining() * 4L));
+      int length = 0;
+      while (true) {
+        if (length == Math.min(out.length, maxSize)) {
+          if (length == maxSize) {
+            if (stream.read() < 0) {
+              return ByteBuffer.wrap(out, 0, length);
+            }
+            throw new IOException("Decompressed value is larger than the maximum of " + maxSize + " bytes");
+          }
+          out = growScratch();
+        }
+        int read = stream.read(out, length, Math.min(out.length, maxSize) - length);
+        if (read < 0) {
+          return ByteBuffer.wrap(out, 0, length);
+        }
+        length += read;
+      }
+    }
+
+    @Override
+    public boolean isStreaming() {
+      return true;
+    }
+
+    @Override
+    public void close() {
+      inflater.end();
+    }
+  }
+
+  private static final class BlockDecompressorStage extends CodecStage {
+    private final BlockDecompressor decompressor;
+
+    private BlockDecompressorStage(CompDecompType type, int maxSize) {
+      this.decompressor = new BlockDecompressor(type, maxSize);
+    }
+
+    @Override
+    public ByteBuffer apply(ByteBuffer in) throws IOException {
+      int length = decompressor.decompress(in.array(), in.arrayOffset() + in.position(), in.remaining());
+      return ByteBuffer.wrap(decompressor.getBuffer(), 0, length);
+    }
+  }
+
+  private static final class BlockCompressorStage extends CodecStage {
+    private final BlockCompressor compressor;
+
+    private BlockCompressorStage(CompDecompType type, int level) {
+      this.compressor = new BlockCompressor(type, level);
+    }
+
+    @Override
+    public ByteBuffer apply(ByteBuffer in) throws IOException {
+      int length = compressor.compress(in.array(), in.arrayOffset() + in.position(), in.remaining());
+      return ByteBuffer.wrap(compressor.getBuffer(), 0, length);
+    }
+
+    @Override
+    public void close() {
+      compressor.end();
+    }
+  }
+
+  /**
+   * Compresses the values that are estimated to compress, and stores the others raw, behind a
+   * marker byte in the scratch buffer.
+   */
+  private static final class AdaptiveCompressorStage extends CodecStage {
+    private final CodecStage compressor;
+    private final Compressibility compressibility;
+
+    private AdaptiveCompressorStage(CodecStage compressor, Compressibility compressibility) {
+      this.compressor = compressor;
+      this.compressibility = compressibility;
+    }
+
+    @Override
+    public ByteBuffer apply(ByteBuffer in) throws IOException {
+      int length = in.remaining();
+      int offset = in.arrayOffset() + in.position();
+      if (compressibility.shouldCompress(in.array(), offset, length)) {
+        ByteBuffer compressed = compressor.apply(in.duplicate());
+        int compressedLength = compressed.remaining();
+        if (compressedLength < length) {
+          byte[] out = scratch(compressedLength + 1);
+          out[0] = COMPRESSED;
+          compressed.get(out, 1, compressedLength);
+          compressibility.record(length, compressedLength + 1, true, compressedLength);
+          return ByteBuffer.wrap(out, 0, compressedLength + 1);
+        }
+        compressibility.record(length, length + 1, true, compressedLength);
+      } else {
+        compressibility.record(length, length + 1, false, 0);
+      }
+      byte[] out = scratch(length + 1);
+      out[0] = RAW;
+      System.arraycopy(in.array(), offset, out, 1, length);
+      return ByteBuffer.wrap(out, 0, length + 1);
+    }
+
+    @Override
+    public void close() {
+      compressibility.report();
+      compressor.close();
+    }
+  }
+
+  /**
+   * Decompresses the values marked as compressed, and returns a view of the values stored raw.
+   */
+  private static final class AdaptiveDecompressorStage extends CodecStage {
+    private final CodecStage decompressor;
+
+    private AdaptiveDecompressorStage(CodecStage decompressor) {
+      this.decompressor = decompressor;
+    }
+
+    @Override
+    public ByteBuffer apply(ByteBuffer in) throws IOException {
+      ByteBuffer value = unmark(in);
+      return in.get(in.position()) == RAW ? value : decompressor.apply(value);
+    }
+
+    @Override
+    public InputStream open(ByteBuffer in) throws IOException {
+      ByteBuffer value = unmark(in);
+      if (in.get(in.position()) == RAW) {
+        return new ByteArrayInputStream(value.array(), value.arrayOffset() + value.position(), value.remaining());
+      }
+      return decompressor.open(value);
+    }
+
+    @Override
+    public boolean isStreaming() {
+      return decompressor.isStreaming();
+    }
+
+    @Override
+    public void close() {
+      decompressor.close();
+    }
+
+    /**
+     * @return view of the value after the marker.
+     */
+    private static ByteBuffer unmark(ByteBuffer in) throws IOException {
+      if (!in.hasRemaining()) {
+        throw new IOException("Adaptively compressed value has no marker");
+      }
+      byte marker = in.get(in.position());
+      if (marker != RAW && marker != COMPRESSED) {
+        throw new IOException("Unknown adaptive compression marker " + marker);
+      }
+      ByteBuffer value = in.duplicate();
+      value.position(in.position() + 1);
+      return value;
+    }
+  }
+
+  /**
+   * Compresses values with a Zstandard dictionary, training it first if there is none.
+   */
+  private static final class DictionaryCompressorStage extends CodecStage {
+    private final int level;
+    private final String path;
+    private final BlockCompressor plain;
+    private ZstdDictCompress dictionary;
+    private int id = ZstdDictionary.NO_DICTIONARY;
+    // Values the dictionary is trained on, null once trained or given up.
+    private List<byte[]> samples;
+    // Compressed frame, before it's stamped.
+    private byte[] frame = new byte[0];
+
+    private DictionaryCompressorStage(int level, @Nullable ZstdDictionary dictionary, String path) {
+      this.level = level == BlockCompressor.DEFAULT_LEVEL ? BlockCompressor.ZSTD_DEFAULT_LEVEL : level;
+      this.path = path;
+      this.plain = new BlockCompressor(CompDecompType.ZSTD, this.level);
+      if (dictionary != null) {
+        use(dictionary);
+      } else {
+        samples = Lists.newArrayList();
+      }
+    }
+
+    @Override
+    public ByteBuffer apply(ByteBuffer in) throws IOException {
+      int offset = in.arrayOffset() + in.position();
+      int length = in.remaining();
+      if (samples != null) {
+        samples.add(Arrays.copyOfRange(in.array(), offset, offset + length));
+        if (samples.size() == DICTIONARY_TRAINING_VALUES) {
+          ZstdDictionary trained = ZstdDictionary.train(samples.toArray(new byte[samples.size()][]), path);
+          samples = null;
+          if (trained != null) {
+            use(trained);
+          }
+        }
+      }
+
+      byte[] compressed;
+      int compressedLength;
+      if (dictionary == null) {
+        compressedLength = plain.compress(in.array(), offset, length);
+        compressed = plain.getBuffer();
+      } else {
+        int bound = (int) Zstd.compressBound(length);
+        if (frame.length < bound) {
+          frame = new byte[Math.max(bound, frame.length * 2)];
+        }
+        long result = Zstd.compressFastDict(frame, 0, in.array(), offset, length, dictionary);
+        if (Zstd.isError(result)) {
+          throw new IOException("ZSTD compression failed: " + Zstd.getErrorName(result));
+        }
+        compressed = frame;
+        compressedLength = (int) result;
+      }
+
+      byte[] out = scratch(compressedLength + 4);
+      ZstdDictionary.writeInt(out, 0, id);
+      System.arraycopy(compressed, 0, out, 4, compressedLength);
+      return ByteBuffer.wrap(out, 0, compressedLength + 4);
+    }
+
+    @Override
+    public void close() {
+      plain.end();
+    }
+
+    private void use(ZstdDictionary dictionary) {
+      this.dictionary = dictionary.forCompression(level);
+      this.id = dictionary.getId();
+    }
+  }
+
+  /**
+   * Decompresses values stamped with the id of the Zstandard dictionary they were compressed with.
+   */
+  private static final class DictionaryDecompressorStage extends CodecStage {
+    private final Map<Integer, ZstdDictDecompress> dictionaries = Maps.newHashMap();
+    private final BlockDecompressor plain;
+    private final int maxSize;
+
+    private DictionaryDecompressorStage(Map<Integer, ZstdDictionary> dictionaries, int maxSize) {
+      this.plain = new BlockDecompressor(CompDecompType.ZSTD, maxSize);
+      this.maxSize = maxSize;
+      for (Map.Entry<Integer, ZstdDictionary> entry : dictionaries.entrySet()) {
+        this.dictionaries.put(entry.getKey(), entry.getValue().forDecompression());
+      }
+    }
+
+    @Override
+    public ByteBuffer apply(ByteBuffer in) throws IOException {
+      if (in.remaining() < 4) {
+        throw new IOException("Value has no Zstandard dictionary id");
+      }
+      int offset = in.arrayOffset() + in.position();
+      int id = ZstdDictionary.readInt(in.array(), offset);
+      if (id == ZstdDictionary.NO_DICTIONARY) {
+        int length = plain.decompress(in.array(), offset + 4, in.remaining() - 4);
+        return ByteBuffer.wrap(plain.getBuffer(), 0, length);
+      }
+      ZstdDictDecompress dictionary = dictionaries.get(id);
+      if (dictionary == null) {
+        throw new IOException("Value is compressed with the unknown Zstandard dictionary " + (id & 0xFFFFFFFFL));
+      }
+      long size = ZstdDictionary.contentSize(in.array(), offset + 4, in.remaining() - 4);
+      if (size < 0) {
+        throw new IOException("Zstandard frame has no content size");
+      }
+      if (size > maxSize) {
+        throw new IOException("Decompressed value is larger than the maximum of " + maxSize + " bytes");
+      }
+      byte[] out = scratch((int) size);
+      long length = Zstd.decompressFastDict(out, 0, in.array(), offset + 4, in.remaining() - 4, dictionary);
+      if (Zstd.isError(length)) {
+        throw new IOException("Malformed ZSTD payload: " + Zstd.getErrorName(length));
+      }
+      return ByteBuffer.wrap(out, 0, (int) length);
+    }
+  }
+}
@@ -4,6 +4,8 @@ public enum CompDecompType {
   SNAPPY("STRING_BASE64"),
   ZIP("STRING_BASE32"),
   GZIP("BASE64"),
+  LZ4("LZ4"),
+  ZSTD("ZSTD"),
   NONE("NONE");
 
   private String type;
@@ -0,0 +1,198 @@
+/*
+ * Copyright © 2015 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.hydrator.transforms;
+
+import co.cask.cdap.api.metrics.Metrics;
+
+import java.util.Arrays;
+import javax.annotation.Nullable;
+
+/**
+ * Estimates whether the values of a field are worth compressing, and accounts for what
+ * compressing them saves.
+ *
+ * <p>
+ * Two checks run before a value is compressed. Values large enough to be sampled are skipped
+ * when the entropy of a sample of their bytes is close to 8 bits per byte, which is the case of
+ * values that are already compressed or encrypted. Otherwise the rolling ratio of the compressed
+ * to the raw size of the last values of the field decides: while it stays above
+ * {@link #MAX_RATIO} values are stored raw, and only every {@link #PROBE_INTERVAL}th value is
+ * compressed to find out whether the field became compressible again.
+ * </p>
+ *
+ * <p>
+ * The bytes in and out, the bytes saved and the values stored raw are added to the
+ * <code>compress.&lt;field&gt;.bytes.in</code>, <code>.bytes.out</code>, <code>.bytes.saved</code>
+ * and <code>.raw</code> stage metrics, and the overall ratio in percent is the
+ * <code>compress.&lt;field&gt;.ratio</code> gauge. Metrics are reported in batches of
+ * {@link #REPORT_INTERVAL} values, or of fewer large values when the bytes of the batch would
+ * not fit in the int of a count.
+ * </p>
+ */
+public final class Compressibility {
+  /**
+   * Rolling ratio of compressed to raw size above which values are stored raw.
+   */
+  public static final double MAX_RATIO = 0.9;
+
+  /**
+   * Number of values between two values compressed to probe a field that doesn't compress.
+   */
+  public static final int PROBE_INTERVAL = 32;
+
+  /**
+   * Number of values between two reports of the metrics.
+   */
+  public static final int REPORT_INTERVAL = 1024;
+
+  // Entropy in bits per byte above which a sampled value is considered incompressible.
+  private static final double MAX_ENTROPY = 7.5;
+  // Values shorter than this are not sampled, their sample entropy can't get close to 8 bits.
+  private static final int MIN_SAMPLED_LENGTH = 1024;
+  // Sampled values are read in slices spread over the value, up to the sample size.
+  private static final int SAMPLE_SIZE = 4096;
+  private static final int SAMPLE_SLICES = 16;
+  // Weight of the last value in the rolling ratio.
+  private static final double RATIO_WEIGHT = 0.1;
+
+  private final String name;
+  @Nullable
+  private final Metrics metrics;
+  private final int[] histogram = new int[256];
+
+  private double ratio;
+  private int skipped;
+
+  // Counts since the last report, and overall sizes for the ratio.
+  private int values;
+  private long bytesIn;
+  private long bytesOut;
+  private int raw;
+  private long totalIn;
+  private long totalOut;
+
+  /**
+   * @param name name of the field, used in the metric names.
+   * @param metrics stage metrics, null when there are none.
+   */
+  public Compressibility(String name, @Nullable Metrics metrics) {
+    this.name = name;
+    this.metrics = metrics;
+  }
+
+  /**
+   * Decides whether to compress a value.
+   *
+   * @param value array holding the value.
+   * @param offset start of the value.
+   * @param length length of the value.
+   * @return true if the value should be compressed, false if it should be stored raw.
+   */
+  public boolean shouldCompress(byte[] value, int offset, int length) {
+    if (length >= MIN_SAMPLED_LENGTH && entropy(value, offset, length) > MAX_ENTROPY) {
+      return false;
+    }
+    if (ratio > MAX_RATIO && ++skipped < PROBE_INTERVAL) {
+      return false;
+    }
+    skipped = 0;
+    return true;
+  }
+
+  /**
+   * Accounts for a value.
+   *
+   * @param length length of the value.
+   * @param stored length stored, including the marker.
+   * @param compressed true if the value was compressed and the compressed size is known.
+   * @param compressedLength length of the compressed value, when it was compressed.
+   */
+  public void record(int length, int stored, boolean compressed, int compressedLength) {
+    if (compressed && length > 0) {
+      ratio = (1 - RATIO_WEIGHT) * ratio + RATIO_WEIGHT * compressedLength / (double) length;
+    }
+    if (bytesIn + length > Integer.MAX_VALUE || bytesOut + stored > Integer.MAX_VALUE) {
+      report();
+    }
+    if (stored > length) {
+      ++raw;
+    }
+    bytesIn += length;
+    bytesOut += stored;
+    if (++values == REPORT_INTERVAL) {
+      report();
+    }
+  }
+
+  /**
+   * @return rolling ratio of compressed to raw size of the field.
+   */
+  public double getRatio() {
+    return ratio;
+  }
+
+  /**
+   * Adds the counts since the last report to the metrics.
+   */
+  public void report() {
+    totalIn += bytesIn;
+    totalOut += bytesOut;
+    if (metrics != null && values > 0) {
+      String prefix = "compress." + name;
+      metrics.count(prefix + ".bytes.in", (int) bytesIn);
+      metrics.count(prefix + ".bytes.out", (int) bytesOut);
+      metrics.count(prefix + ".bytes.saved", (int) (bytesIn - bytesOut));
+      if (raw > 0) {
+        metrics.count(prefix + ".raw", raw);
+      }
+      if (totalIn > 0) {
+        metrics.gauge(prefix + ".ratio", totalOut * 100 / totalIn);
+      }
+    }
+    values = 0;
+    bytesIn = 0;
+    bytesOut = 0;
+    raw = 0;
+  }
+
+  /**
+   * @return Shannon entropy in bits per byte of a sample of a value.
+   */
+  private double entropy(byte[] value, int offset, int length) {
+    int[] counts = histogram;
+    Arrays.fill(counts, 0);
+    int sliceSize = Math.min(length, SAMPLE_SIZE) / SAMPLE_SLICES;
+    int stride = length / SAMPLE_SLICES;
+    int sampled = 0;
+    for (int slice = 0; slice < SAMPLE_SLICES; ++slice) {
+      int start = offset + slice * stride;
+      for (int i = start; i < start + sliceSize; ++i) {
+        ++counts[value[i] & 0xFF];
+      }
+      sampled += sliceSize;
+    }
+
+    double entropy = 0;
+    for (int count : counts) {
+      if (count > 0) {
+        double p = count / (double) sampled;
+        entropy -= p * Math.log(p);
+      }
+    }
+    return entropy / Math.log(2);
+  }
+}
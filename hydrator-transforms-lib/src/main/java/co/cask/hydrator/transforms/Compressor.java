@@ -24,30 +24,20 @@ import co.cask.cdap.api.annotation.Plugin;
 import co.cask.cdap.api.data.format.StructuredRecord;
 import co.cask.cdap.api.data.schema.Schema;
 import co.cask.cdap.api.data.schema.Schema.Field;
+import co.cask.cdap.api.metrics.Metrics;
 import co.cask.cdap.api.plugin.PluginConfig;
 import co.cask.cdap.etl.api.Emitter;
 import co.cask.cdap.etl.api.PipelineConfigurer;
 import co.cask.cdap.etl.api.Transform;
 import co.cask.cdap.etl.api.TransformContext;
 import com.google.common.collect.Maps;
-import org.apache.commons.codec.binary.Base32;
-import org.apache.commons.codec.binary.Base64;
-import org.apache.commons.codec.binary.Hex;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
-import org.xerial.snappy.Snappy;
-import sun.misc.IOUtils;
-
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
+
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.util.List;
 import java.util.Map;
-import java.util.zip.GZIPInputStream;
-import java.util.zip.GZIPOutputStream;
-import java.util.zip.Inflater;
-import java.util.zip.ZipInputStream;
-import java.util.zip.ZipOutputStream;
+import javax.annotation.Nullable;
 
 /**
  * Compresses configured fields using the algorithms specified.
@@ -56,7 +46,6 @@ import java.util.zip.ZipOutputStream;
 @Name("Compressor")
 @Description("Compresses configured fields using the algorithms specified.")
 public final class Compressor extends Transform<StructuredRecord, StructuredRecord> {
-  private static final Logger LOG = LoggerFactory.getLogger(Compressor.class);
   private final Config config;
 
   // Output Schema associated with transform output.
@@ -67,6 +56,18 @@ public final class Compressor extends Transform<StructuredRecord, StructuredReco
 
   private final Map<String, CompDecompType> compMap = Maps.newTreeMap();
 
+  // Compression level of the fields that configure one.
+  private final Map<String, Integer> levels = Maps.newHashMap();
+
+  // Compression of the fields to be compressed, built once at initialize.
+  private final Map<String, CodecChain> compressors = Maps.newHashMap();
+
+  // Plans of the input schemas seen.
+  private FieldPlanCache plans;
+
+  // Conversion between the text of STRING fields and bytes.
+  private Transcoder transcoder;
+
   // This is used only for tests, otherwise this is being injected by the ingestion framework.
   public Compressor(Config config) {
     this.config = config;
@@ -78,9 +79,9 @@ public final class Compressor extends Transform<StructuredRecord, StructuredReco
       String[] params = mapping.split(":");
       
       // If format is not right, then we throw an exception.
-      if(params.length < 2) {
+      if(params.length < 2 || params.length > 3) {
         throw new IllegalArgumentException("Configuration " + mapping + " is in-correctly formed. " +
-                                             "Format should be <fieldname>:<compressor-type>");
+                                             "Format should be <fieldname>:<compressor-type>[:<level>]");
       }
       
       String field = params[0];
@@ -100,6 +101,14 @@ public final class Compressor extends Transform<StructuredRecord, StructuredReco
           cType = CompDecompType.ZIP;
           break;
 
+        case "LZ4":
+          cType = CompDecompType.LZ4;
+          break;
+
+        case "ZSTD":
+          cType = CompDecompType.ZSTD;
+          break;
+
         case "NONE":
           cType = CompDecompType.NONE;
           break;
@@ -107,18 +116,88 @@ public final class Compressor extends Transform<StructuredRecord, StructuredReco
         default:
           throw new IllegalArgumentException("Unknown encoder type " + type + " found in mapping " + mapping);
       }
+      int level = BlockCompressor.DEFAULT_LEVEL;
+      if(params.length == 3) {
+        try {
+          level = Integer.parseInt(params[2].trim());
+        } catch (NumberFormatException e) {
+          throw new IllegalArgumentException("Compression level '" + params[2] + "' of field '" + field + "' is not " +
+                                               "a number.");
+        }
+        if(cType == CompDecompType.NONE) {
+          throw new IllegalArgumentException("Field '" + field + "' is not compressed, it can't have a compression " +
+                                               "level.");
+        }
+        BlockCompressor.checkLevel(cType, level);
+      }
       if(compMap.containsKey(field)) {
         throw new IllegalArgumentException("Field " + field + " already has compressor set. Check the mapping.");
       } else {
         compMap.put(field, cType);
+        levels.put(field, level);
       }
     }
   }
   
+  /**
+   * Parses the dictionaries of the fields compressed with one.
+   *
+   * @param spec dictionaries <code>&lt;field&gt;:&lt;path&gt;[,&lt;field&gt;:&lt;path&gt;]*</code>.
+   * @return path of the dictionary by field.
+   */
+  private Map<String, String> parseDictionaries(@Nullable String spec) throws IllegalArgumentException {
+    Map<String, String> dictionaries = Maps.newHashMap();
+    if(spec == null || spec.trim().isEmpty()) {
+      return dictionaries;
+    }
+    for(String mapping : spec.split(",")) {
+      int colon = mapping.indexOf(':');
+      if(colon <= 0 || colon == mapping.length() - 1) {
+        throw new IllegalArgumentException("Dictionary " + mapping + " is in-correctly formed. " +
+                                             "Format should be <fieldname>:<path>");
+      }
+      String field = mapping.substring(0, colon).trim();
+      if(compMap.get(field) != CompDecompType.ZSTD) {
+        throw new IllegalArgumentException("Field '" + field + "' has a dictionary, but is not compressed with ZSTD.");
+      }
+      dictionaries.put(field, mapping.substring(colon + 1).trim());
+    }
+    return dictionaries;
+  }
+
   @Override
   public void initialize(TransformContext context) throws Exception {
     super.initialize(context);
+    transcoder = new Transcoder(Transcoder.charsetOf(config.charset));
+    Metrics metrics = context == null ? null : context.getMetrics();
+    plans = new FieldPlanCache(metrics) {
+      @Override
+      protected FieldPlan compile(Schema inSchema) throws Exception {
+        return Compressor.this.compile(inSchema);
+      }
+    };
     parseConfiguration(config.compressor);
+    Map<String, String> dictionaries = parseDictionaries(config.dictionaries);
+    boolean adaptive = config.adaptive != null && config.adaptive;
+    for(Map.Entry<String, CompDecompType> entry : compMap.entrySet()) {
+      String field = entry.getKey();
+      if(entry.getValue() == CompDecompType.NONE) {
+        continue;
+      }
+      CodecStage stage;
+      String dictionary = dictionaries.get(field);
+      if(dictionary != null) {
+        // Use the dictionary of the file if there is one, otherwise train one and write it next to it.
+        ZstdDictionary existing = Files.exists(Paths.get(dictionary)) ? ZstdDictionary.read(dictionary) : null;
+        stage = CodecStage.dictionaryCompressor(levels.get(field), existing, dictionary);
+      } else {
+        stage = CodecStage.compressor(entry.getValue(), levels.get(field));
+      }
+      if(adaptive) {
+        stage = CodecStage.adaptiveCompressor(stage, new Compressibility(field, metrics));
+      }
+      compressors.put(field, CodecChain.builder().add(stage).build());
+    }
     try {
       outSchema = Schema.parseJson(config.schema);
       List<Field> outFields = outSchema.getFields();
@@ -140,10 +219,22 @@ public final class Compressor extends Transform<StructuredRecord, StructuredReco
     }
   }
 
+  @Override
+  public void destroy() {
+    if(plans != null) {
+      plans.flush();
+    }
+    for(CodecChain chain : compressors.values()) {
+      chain.close();
+    }
+  }
+
   @Override
   public void configurePipeline(PipelineConfigurer pipelineConfigurer) throws IllegalArgumentException {
     super.configurePipeline(pipelineConfigurer);
     parseConfiguration(config.compressor);
+    parseDictionaries(config.dictionaries);
+    Transcoder.charsetOf(config.charset);
     // Check if schema specified is a valid schema or no. 
     try {
       Schema outputSchema = Schema.parseJson(config.schema);
@@ -159,16 +250,16 @@ public final class Compressor extends Transform<StructuredRecord, StructuredReco
 
   @Override
   public void transform(StructuredRecord in, Emitter<StructuredRecord> emitter) throws Exception {
-    StructuredRecord.Builder builder = StructuredRecord.builder(outSchema);
-    
-    Schema inSchema = in.getSchema();
-    List<Field> inFields = inSchema.getFields();
-    
-    // Iterate through input fields. Check if field name is present 
-    // in the fields that need to be encoded, if it's not then write 
-    // to output as it is. 
-    for(Field field : inFields) {
-      LOG.info("Looking at field '" + field.getName() + "'");
+    emitter.emit(plans.get(in.getSchema()).apply(in));
+  }
+
+  /**
+   * Compiles the plan of an input schema. Fields configured to be compressed go through their
+   * codecs, the others are copied as they are.
+   */
+  private FieldPlan compile(Schema inSchema) throws Exception {
+    FieldPlan.Builder plan = FieldPlan.builder(outSchema);
+    for(Field field : inSchema.getFields()) {
       String name = field.getName();
       
       // Check if output schema also have the same field name. If it's not 
@@ -177,75 +268,68 @@ public final class Compressor extends Transform<StructuredRecord, StructuredReco
         throw new Exception("Field " + name + " is not defined in the output.");  
       }
       
-      Schema.Type outFieldType = outSchemaMap.get(name);
-      
-      // Check if the input field name is configured to be encoded. If the field is not 
-      // present or is defined as none, then pass through the field as is. 
-      if(!compMap.containsKey(name) || compMap.get(name) == CompDecompType.NONE) {
-        builder.set(name, in.get(name));          
+      CodecChain compressor = compressors.get(name);
+      if(compressor == null) {
+        plan.copy(name);
       } else {
-        // Now, the input field could be of type String or byte[], so transform everything
-        // to byte[] 
-        byte[] obj = new byte[0];
-        if (field.getSchema().getType() == Schema.Type.BYTES){
-          obj = in.get(name);
-        } else if (field.getSchema().getType() == Schema.Type.STRING) {
-          obj = ((String)in.get(name)).getBytes();
-        }
-        
-        // Now, based on the encode type configured for the field - encode the byte[] of the 
-        // value.
-        byte[] outValue = new byte[0];
-        CompDecompType type = compMap.get(name);
-        if(type == CompDecompType.SNAPPY) {
-          outValue = Snappy.compress(obj);
-        } else if (type == CompDecompType.ZIP) {
-          outValue = compressZIP(obj);
-        } else if (type == CompDecompType.GZIP) {
-          outValue = compressGZIP(obj);
-        }
-        
-        // Depending on the output field type, either convert it to 
-        // Bytes or to String. 
-        if(outFieldType == Schema.Type.BYTES) {
-          builder.set(name, outValue);
-        }
+        plan.apply(name, compressor, field.getSchema().getType(), transcoder,
+                   outSchemaMap.get(name), transcoder.getCharset());
       }
     }
-    emitter.emit(builder.build());
-  }
-
-
-  public static byte[] compressGZIP(byte[] input) throws IOException {
-    ByteArrayOutputStream out = new ByteArrayOutputStream();
-    GZIPOutputStream gzip = new GZIPOutputStream(out);
-    gzip.write(input, 0, input.length);
-    gzip.close();
-    return out.toByteArray();
+    return plan.build();
   }
 
-  public static byte[] compressZIP(byte[] input) throws IOException {
-    ByteArrayOutputStream out = new ByteArrayOutputStream();
-    ZipOutputStream zip = new ZipOutputStream(out);
-    zip.write(input,0, input.length);
-    zip.close();
-    return out.toByteArray();
-  }
-
-  
   public static class Config extends PluginConfig {
     @Name("compressor")
-    @Description("Specify the field and compression type combination. " +
-      "Format is <field>:<compressor-type>[,<field>:<compressor-type>]*")
+    @Description("Specify the field and compression type combination, with an optional compression level. " +
+      "Format is <field>:<compressor-type>[:<level>][,<field>:<compressor-type>[:<level>]]*")
     private final String compressor;
 
     @Name("schema")
     @Description("Specifies the output schema")
     private final String schema;
-    
+
+    @Name("adaptive")
+    @Description("Specifies whether values are only compressed when it pays. Every value is prefixed with a marker " +
+      "byte, 1 when it's compressed and 0 when it's stored raw, because it looks incompressible or didn't get " +
+      "smaller. Defaults to false.")
+    @Nullable
+    private final Boolean adaptive;
+
+    @Name("dictionaries")
+    @Description("Specifies the Zstandard dictionaries of ZSTD fields, for small values that share most of their " +
+      "content. Format is <field>:<path>[,<field>:<path>]*, where path is a local file. If the file doesn't exist, " +
+      "a dictionary is trained on the first 1000 values of the field and written to <path>.<id>, one file per " +
+      "instance of the stage, where the decompressing side must be able to read them. Values are stamped with " +
+      "the id of their dictionary.")
+    @Nullable
+    private final String dictionaries;
+
+    @Name("charset")
+    @Description("Specifies the charset STRING fields are converted to bytes with before they are compressed. " +
+      "Defaults to UTF-8.")
+    @Nullable
+    private final String charset;
+
     public Config(String compressor, String schema) {
+      this(compressor, schema, null);
+    }
+
+    public Config(String compressor, String schema, @Nullable String charset) {
+      this(compressor, schema, charset, null);
+    }
+
+    public Config(String compressor, String schema, @Nullable String charset, @Nullable Boolean adaptive) {
+      this(compressor, schema, charset, adaptive, null);
+    }
+
+    public Config(String compressor, String schema, @Nullable String charset, @Nullable Boolean adaptive,
+                  @Nullable String dictionaries) {
       this.compressor = compressor;
       this.schema = schema;
+      this.charset = charset;
+      this.adaptive = adaptive;
+      this.dictionaries = dictionaries;
     }
   }
 }
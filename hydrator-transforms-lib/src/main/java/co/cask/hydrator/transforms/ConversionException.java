@@ -0,0 +1,57 @@
+/*
+ * Copyright © 2015 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.hydrator.transforms;
+
+/**
+ * Thrown when a text value can't be converted to the type of a field.
+ *
+ * <p>
+ * Conversion failures are expected on dirty feeds and are usually handled per value, so the
+ * exception doesn't capture a stack trace and the message is only built when it's asked for.
+ * </p>
+ */
+public final class ConversionException extends RuntimeException {
+  private static final long serialVersionUID = 1L;
+
+  private final String value;
+  private final String type;
+
+  public ConversionException(CharSequence value, String type) {
+    super(null, null, false, false);
+    this.value = value.toString();
+    this.type = type;
+  }
+
+  /**
+   * @return value that failed to convert.
+   */
+  public String getValue() {
+    return value;
+  }
+
+  /**
+   * @return type the value failed to convert to.
+   */
+  public String getType() {
+    return type;
+  }
+
+  @Override
+  public String getMessage() {
+    return "Failed to convert '" + value + "' to " + type;
+  }
+}
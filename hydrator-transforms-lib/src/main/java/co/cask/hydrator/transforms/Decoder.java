@@ -30,15 +30,15 @@ import co.cask.cdap.etl.api.PipelineConfigurer;
 import co.cask.cdap.etl.api.Transform;
 import co.cask.cdap.etl.api.TransformContext;
 import com.google.common.collect.Maps;
-import org.apache.commons.codec.binary.Base32;
-import org.apache.commons.codec.binary.Base64;
-import org.apache.commons.codec.binary.Hex;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.util.List;
 import java.util.Map;
+import javax.annotation.Nullable;
 
 /**
  * Decodes the input fields as BASE64, BASE32 or HEX.
@@ -56,10 +56,17 @@ public final class Decoder extends Transform<StructuredRecord, StructuredRecord>
   // Mapping of input field to decoder type.
   private final Map<String, EncodeDecodeType> decodeMap = Maps.newTreeMap();
 
-  // Decoder handlers.
-  private final Base64 base64Decoder = new Base64();
-  private final Base32 base32Decoder = new Base32();
-  private final Hex hexDecoder = new Hex();
+  // Decoding of the fields to be decoded, built once at initialize.
+  private final Map<String, CodecChain> decoders = Maps.newHashMap();
+
+  // Plans of the input schemas seen.
+  private FieldPlanCache plans;
+
+  // Charset of the text of STRING output fields.
+  private Charset charset;
+
+  // Conversion of the encoded text of STRING input fields, which is ASCII, to bytes.
+  private final Transcoder encodedText = new Transcoder(StandardCharsets.ISO_8859_1);
 
   // Output Field name to type map
   private Map<String, Schema.Type> outSchemaMap = Maps.newHashMap();
@@ -116,7 +123,19 @@ public final class Decoder extends Transform<StructuredRecord, StructuredRecord>
   @Override
   public void initialize(TransformContext context) throws Exception {
     super.initialize(context);
+    charset = Transcoder.charsetOf(config.charset);
+    plans = new FieldPlanCache(context == null ? null : context.getMetrics()) {
+      @Override
+      protected FieldPlan compile(Schema inSchema) throws Exception {
+        return Decoder.this.compile(inSchema);
+      }
+    };
     parseConfiguration(config.decode);
+    for(Map.Entry<String, EncodeDecodeType> entry : decodeMap.entrySet()) {
+      if(entry.getValue() != EncodeDecodeType.NONE) {
+        decoders.put(entry.getKey(), CodecChain.builder().decode(entry.getValue()).build());
+      }
+    }
     try {
       outSchema = Schema.parseJson(config.schema);
       List<Field> outFields = outSchema.getFields();
@@ -128,10 +147,21 @@ public final class Decoder extends Transform<StructuredRecord, StructuredRecord>
     }
   }
 
+  @Override
+  public void destroy() {
+    if(plans != null) {
+      plans.flush();
+    }
+    for(CodecChain chain : decoders.values()) {
+      chain.close();
+    }
+  }
+
   @Override
   public void configurePipeline(PipelineConfigurer pipelineConfigurer) throws IllegalArgumentException {
     super.configurePipeline(pipelineConfigurer);
     parseConfiguration(config.decode);
+    Transcoder.charsetOf(config.charset);
     // Check if schema specified is a valid schema or no. 
     try {
       Schema.parseJson(config.schema);
@@ -143,15 +173,16 @@ public final class Decoder extends Transform<StructuredRecord, StructuredRecord>
 
   @Override
   public void transform(StructuredRecord in, Emitter<StructuredRecord> emitter) throws Exception {
-    StructuredRecord.Builder builder = StructuredRecord.builder(outSchema);
-    
-    Schema inSchema = in.getSchema();
-    List<Field> inFields = inSchema.getFields();
-    
-    // Iterate through input fields. Check if field name is present 
-    // in the fields that need to be decoded, if it's not then write
-    // to output as it is. 
-    for(Field field : inFields) {
+    emitter.emit(plans.get(in.getSchema()).apply(in));
+  }
+
+  /**
+   * Compiles the plan of an input schema. Fields configured to be decoded go through their
+   * codecs, the others are copied as they are.
+   */
+  private FieldPlan compile(Schema inSchema) throws Exception {
+    FieldPlan.Builder plan = FieldPlan.builder(outSchema);
+    for(Field field : inSchema.getFields()) {
       String name = field.getName();
       
       // Check if output schema also have the same field name. If it's not 
@@ -160,44 +191,15 @@ public final class Decoder extends Transform<StructuredRecord, StructuredRecord>
         throw new Exception("Field " + name + " is not defined in the output.");  
       }
       
-      Schema.Type outFieldType = outSchemaMap.get(name);
-      
-      // Check if the input field name is configured to be decoded. If the field is not
-      // present or is defined as none, then pass through the field as is. 
-      if(!decodeMap.containsKey(name) || decodeMap.get(name) == EncodeDecodeType.NONE) {
-        builder.set(name, in.get(name));          
+      CodecChain decoder = decoders.get(name);
+      if(decoder == null) {
+        plan.copy(name);
       } else {
-        // Now, the input field could be of type String or byte[], so transform everything
-        // to byte[] 
-        byte[] obj = new byte[0];
-        if(field.getSchema().getType() == Schema.Type.STRING) {
-          obj = ((String)in.get(name)).getBytes();  
-        } else if (field.getSchema().getType() == Schema.Type.BYTES){
-          obj = in.get(name);
-        }
-        
-        // Now, based on the decode type configured for the field - decode the byte[] of the
-        // value.
-        byte[] outValue = new byte[0];
-        EncodeDecodeType type = decodeMap.get(name);
-        if (type == EncodeDecodeType.BASE32) {
-          outValue = base32Decoder.decode(obj);
-        } else if (type == EncodeDecodeType.BASE64) {
-          outValue = base64Decoder.decode(obj);
-        } else if (type == EncodeDecodeType.HEX) {
-          outValue = hexDecoder.decode(obj);
-        }
-        
-        // Depending on the output field type, either convert it to 
-        // Bytes or to String. 
-        if(outFieldType == Schema.Type.BYTES) {
-          builder.set(name, outValue);
-        } else if (outFieldType == Schema.Type.STRING) {
-          builder.set(name, new String(outValue));
-        }
+        plan.apply(name, decoder, field.getSchema().getType(), encodedText,
+                   outSchemaMap.get(name), charset);
       }
     }
-    emitter.emit(builder.build());
+    return plan.build();
   }
 
   public static class Config extends PluginConfig {
@@ -209,10 +211,21 @@ public final class Decoder extends Transform<StructuredRecord, StructuredRecord>
     @Name("schema")
     @Description("Specifies the output schema")
     private final String schema;
-    
+
+    @Name("charset")
+    @Description("Specifies the charset decoded bytes are converted to text with, for STRING output fields. " +
+      "Defaults to UTF-8.")
+    @Nullable
+    private final String charset;
+
     public Config(String decode, String schema) {
+      this(decode, schema, null);
+    }
+
+    public Config(String decode, String schema, @Nullable String charset) {
       this.decode = decode;
       this.schema = schema;
+      this.charset = charset;
     }
   }
 }
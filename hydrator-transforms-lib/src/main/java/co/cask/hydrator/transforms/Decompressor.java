@@ -0,0 +1,356 @@
+/*
+ * Copyright © 2015 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package co.cask.hydrator.transforms;
+
+import co.cask.cdap.api.annotation.Description;
+import co.cask.cdap.api.annotation.Name;
+import co.cask.cdap.api.annotation.Plugin;
+import co.cask.cdap.api.data.format.StructuredRecord;
+import co.cask.cdap.api.data.schema.Schema;
+import co.cask.cdap.api.data.schema.Schema.Field;
+import co.cask.cdap.api.metrics.Metrics;
+import co.cask.cdap.api.plugin.PluginConfig;
+import co.cask.cdap.etl.api.Emitter;
+import co.cask.cdap.etl.api.InvalidEntry;
+import co.cask.cdap.etl.api.PipelineConfigurer;
+import co.cask.cdap.etl.api.Transform;
+import co.cask.cdap.etl.api.TransformContext;
+import com.google.common.collect.Maps;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import javax.annotation.Nullable;
+
+/**
+ * Decompresses configured fields using the algorithms specified, the counterpart of {@link Compressor}.
+ *
+ * <p>
+ * Records with a value that can't be decompressed, because it's corrupt or decompresses to more
+ * than the maximum size, are emitted as errors with the code {@link #UNDECOMPRESSIBLE} rather
+ * than failing the run, and counted in the <code>decompress.errors</code> stage metric.
+ * </p>
+ */
+@Plugin(type = "transform")
+@Name("Decompressor")
+@Description("Decompresses configured fields using the algorithms specified.")
+public final class Decompressor extends Transform<StructuredRecord, StructuredRecord> {
+  /**
+   * Maximum size of decompressed values of the configurations that don't set one, 64MB.
+   */
+  public static final int DEFAULT_MAX_SIZE = 64 * 1024 * 1024;
+
+  /**
+   * Error code of the records with a value that can't be decompressed.
+   */
+  public static final int UNDECOMPRESSIBLE = 33;
+
+  private final Config config;
+
+  // Output Schema associated with transform output.
+  private Schema outSchema;
+
+  // Output Field name to type map
+  private Map<String, Schema.Type> outSchemaMap = Maps.newHashMap();
+
+  private final Map<String, CompDecompType> decompMap = Maps.newTreeMap();
+
+  // Dictionaries of the ZSTD fields compressed with one, by field and id.
+  private final Map<String, Map<Integer, ZstdDictionary>> dictionaries = Maps.newHashMap();
+
+  // Decompression of the fields to be decompressed, built once at initialize.
+  private final Map<String, CodecChain> decompressors = Maps.newHashMap();
+
+  // Plans of the input schemas seen.
+  private FieldPlanCache plans;
+
+  @Nullable
+  private Metrics metrics;
+
+  // Conversion between the text of STRING output fields and bytes.
+  private Transcoder transcoder;
+
+  // Conversion of compressed STRING input fields, which hold one byte per char, to bytes.
+  private final Transcoder compressedText = new Transcoder(StandardCharsets.ISO_8859_1);
+
+  // This is used only for tests, otherwise this is being injected by the ingestion framework.
+  public Decompressor(Config config) {
+    this.config = config;
+  }
+
+  private void parseConfiguration(String config) throws IllegalArgumentException {
+    String[] mappings = config.split(",");
+    for(String mapping : mappings) {
+      String[] params = mapping.split(":");
+
+      // If format is not right, then we throw an exception.
+      if(params.length != 2) {
+        throw new IllegalArgumentException("Configuration " + mapping + " is in-correctly formed. " +
+                                             "Format should be <fieldname>:<decompressor-type>");
+      }
+
+      String field = params[0];
+      String type = params[1].toUpperCase();
+      CompDecompType cType;
+
+      switch(type) {
+        case "SNAPPY":
+          cType = CompDecompType.SNAPPY;
+          break;
+
+        case "GZIP":
+          cType = CompDecompType.GZIP;
+          break;
+
+        case "ZIP":
+          cType = CompDecompType.ZIP;
+          break;
+
+        case "LZ4":
+          cType = CompDecompType.LZ4;
+          break;
+
+        case "ZSTD":
+          cType = CompDecompType.ZSTD;
+          break;
+
+        case "NONE":
+          cType = CompDecompType.NONE;
+          break;
+
+        default:
+          throw new IllegalArgumentException("Unknown decompressor type " + type + " found in mapping " + mapping);
+      }
+
+      if(decompMap.containsKey(field)) {
+        throw new IllegalArgumentException("Field " + field + " already has decompressor set. Check the mapping.");
+      } else {
+        decompMap.put(field, cType);
+      }
+    }
+  }
+
+  /**
+   * Parses the dictionaries of the fields compressed with one. A field may have several.
+   *
+   * @param spec dictionaries <code>&lt;field&gt;:&lt;path&gt;[,&lt;field&gt;:&lt;path&gt;]*</code>.
+   * @return paths of the dictionaries by field.
+   */
+  private Map<String, String> parseDictionaries(@Nullable String spec) throws IllegalArgumentException {
+    Map<String, String> paths = Maps.newHashMap();
+    if(spec == null || spec.trim().isEmpty()) {
+      return paths;
+    }
+    for(String mapping : spec.split(",")) {
+      int colon = mapping.indexOf(':');
+      if(colon <= 0 || colon == mapping.length() - 1) {
+        throw new IllegalArgumentException("Dictionary " + mapping + " is in-correctly formed. " +
+                                             "Format should be <fieldname>:<path>");
+      }
+      String field = mapping.substring(0, colon).trim();
+      if(decompMap.get(field) != CompDecompType.ZSTD) {
+        throw new IllegalArgumentException("Field '" + field + "' has a dictionary, but is not compressed with ZSTD.");
+      }
+      String path = mapping.substring(colon + 1).trim();
+      String others = paths.get(field);
+      paths.put(field, others == null ? path : others + "," + path);
+    }
+    return paths;
+  }
+
+  private static int maxSizeOf(Config config) throws IllegalArgumentException {
+    if(config.maxSize == null) {
+      return DEFAULT_MAX_SIZE;
+    }
+    if(config.maxSize <= 0 || config.maxSize > BlockDecompressor.UNLIMITED) {
+      throw new IllegalArgumentException("Maximum decompressed size " + config.maxSize + " is not between 1 and " +
+                                           BlockDecompressor.UNLIMITED + ".");
+    }
+    return config.maxSize;
+  }
+
+  @Override
+  public void initialize(TransformContext context) throws Exception {
+    super.initialize(context);
+    transcoder = new Transcoder(Transcoder.charsetOf(config.charset));
+    metrics = context == null ? null : context.getMetrics();
+    plans = new FieldPlanCache(metrics) {
+      @Override
+      protected FieldPlan compile(Schema inSchema) throws Exception {
+        return Decompressor.this.compile(inSchema);
+      }
+    };
+    parseConfiguration(config.decompressor);
+    for(Map.Entry<String, String> entry : parseDictionaries(config.dictionaries).entrySet()) {
+      dictionaries.put(entry.getKey(), ZstdDictionary.readAll(entry.getValue()));
+    }
+    int maxSize = maxSizeOf(config);
+    boolean adaptive = config.adaptive != null && config.adaptive;
+    for(Map.Entry<String, CompDecompType> entry : decompMap.entrySet()) {
+      String field = entry.getKey();
+      if(entry.getValue() == CompDecompType.NONE) {
+        continue;
+      }
+      Map<Integer, ZstdDictionary> fieldDictionaries = dictionaries.get(field);
+      CodecStage stage = fieldDictionaries == null ? CodecStage.decompressor(entry.getValue(), maxSize)
+        : CodecStage.dictionaryDecompressor(fieldDictionaries, maxSize);
+      if(adaptive) {
+        stage = CodecStage.adaptiveDecompressor(stage);
+      }
+      decompressors.put(field, CodecChain.builder().add(stage).build());
+    }
+    try {
+      outSchema = Schema.parseJson(config.schema);
+      List<Field> outFields = outSchema.getFields();
+      for(Field field : outFields) {
+        outSchemaMap.put(field.getName(), field.getSchema().getType());
+      }
+
+      for(String field : decompressors.keySet()) {
+        Schema.Type type = outSchemaMap.get(field);
+        if(type != Schema.Type.BYTES && type != Schema.Type.STRING) {
+          throw new IllegalArgumentException("Field '" + field + "' is not of type BYTES or STRING. It's currently " +
+                                               "of type '" + type + "'.");
+        }
+      }
+    } catch (IOException e) {
+      throw new IllegalArgumentException("Format of schema specified is invalid. Please check the format.");
+    }
+  }
+
+  @Override
+  public void destroy() {
+    if(plans != null) {
+      plans.flush();
+    }
+    for(CodecChain chain : decompressors.values()) {
+      chain.close();
+    }
+  }
+
+  @Override
+  public void configurePipeline(PipelineConfigurer pipelineConfigurer) throws IllegalArgumentException {
+    super.configurePipeline(pipelineConfigurer);
+    parseConfiguration(config.decompressor);
+    parseDictionaries(config.dictionaries);
+    maxSizeOf(config);
+    Transcoder.charsetOf(config.charset);
+    // Check if schema specified is a valid schema or no.
+    try {
+      Schema.parseJson(config.schema);
+    } catch (IOException e) {
+      throw new IllegalArgumentException("Format of schema specified is invalid. Please check the format.");
+    }
+  }
+
+  @Override
+  public void transform(StructuredRecord in, Emitter<StructuredRecord> emitter) throws Exception {
+    FieldPlan plan = plans.get(in.getSchema());
+    StructuredRecord out;
+    try {
+      out = plan.apply(in);
+    } catch (IOException e) {
+      // One corrupt or oversized value only fails it's record.
+      emitter.emitError(new InvalidEntry<>(UNDECOMPRESSIBLE, "Value could not be decompressed: " + e.getMessage(),
+                                           in));
+      if(metrics != null) {
+        metrics.count("decompress.errors", 1);
+      }
+      return;
+    }
+    emitter.emit(out);
+  }
+
+  /**
+   * Compiles the plan of an input schema. Fields configured to be decompressed go through their
+   * codecs, the others are copied as they are.
+   */
+  private FieldPlan compile(Schema inSchema) throws Exception {
+    FieldPlan.Builder plan = FieldPlan.builder(outSchema);
+    for(Field field : inSchema.getFields()) {
+      String name = field.getName();
+
+      // Check if output schema also have the same field name. If it's not
+      // then throw an exception.
+      if(!outSchemaMap.containsKey(name)) {
+        throw new Exception("Field " + name + " is not defined in the output.");
+      }
+
+      CodecChain decompressor = decompressors.get(name);
+      if(decompressor == null) {
+        plan.copy(name);
+      } else {
+        plan.apply(name, decompressor, field.getSchema().getType(), compressedText,
+                   outSchemaMap.get(name), transcoder.getCharset());
+      }
+    }
+    return plan.build();
+  }
+
+  public static class Config extends PluginConfig {
+    @Name("decompressor")
+    @Description("Specify the field and decompression type combination. " +
+      "Format is <field>:<decompressor-type>[,<field>:<decompressor-type>]*")
+    private final String decompressor;
+
+    @Name("schema")
+    @Description("Specifies the output schema")
+    private final String schema;
+
+    @Name("adaptive")
+    @Description("Specifies whether the values were compressed adaptively by the Compressor, prefixed with a marker " +
+      "byte. Defaults to false.")
+    @Nullable
+    private final Boolean adaptive;
+
+    @Name("dictionaries")
+    @Description("Specifies the Zstandard dictionaries ZSTD fields were compressed with. " +
+      "Format is <field>:<path>[,<field>:<path>]*, where path is the one given to the Compressor. The dictionary " +
+      "of the file and all the <path>.<id> dictionaries trained for it are read. A field can have several " +
+      "dictionaries, values are decompressed with the one they are stamped with.")
+    @Nullable
+    private final String dictionaries;
+
+    @Name("maxSize")
+    @Description("Specifies the maximum size in bytes of decompressed values, values decompressing to more fail. " +
+      "Defaults to 67108864.")
+    @Nullable
+    private final Integer maxSize;
+
+    @Name("charset")
+    @Description("Specifies the charset decompressed bytes are converted to text with, for STRING output fields. " +
+      "Defaults to UTF-8.")
+    @Nullable
+    private final String charset;
+
+    public Config(String decompressor, String schema) {
+      this(decompressor, schema, null, null, null, null);
+    }
+
+    public Config(String decompressor, String schema, @Nullable String charset, @Nullable Boolean adaptive,
+                  @Nullable String dictionaries, @Nullable Integer maxSize) {
+      this.decompressor = decompressor;
+      this.schema = schema;
+      this.charset = charset;
+      this.adaptive = adaptive;
+      this.dictionaries = dictionaries;
+      this.maxSize = maxSize;
+    }
+  }
+}
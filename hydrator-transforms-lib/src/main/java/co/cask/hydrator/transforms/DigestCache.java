@@ -0,0 +1,163 @@
+/*
+ * Copyright © 2015 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.hydrator.transforms;
+
+import co.cask.cdap.api.metrics.Metrics;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import javax.annotation.Nullable;
+
+/**
+ * Bounded cache of the digests of the values of a field, for fields whose values repeat, like
+ * user ids or emails of a hot customer, so repeated values are not hashed again.
+ *
+ * <p>
+ * Digests are kept by the bytes of the value in least recently used order, and the least
+ * recently used ones are evicted when the estimated memory of the cache goes over it's
+ * maximum. The estimate of an entry is the size of the value and of the digest plus
+ * {@link #ENTRY_OVERHEAD}, values too large to fit are not cached.
+ * </p>
+ *
+ * <p>
+ * Hits, misses and evictions are added to the <code>hash.&lt;field&gt;.cache.hits</code>,
+ * <code>.misses</code> and <code>.evictions</code> stage metrics, and the overall hit rate in
+ * percent is the <code>hash.&lt;field&gt;.cache.hit.rate</code> gauge. Metrics are reported in
+ * batches of {@link #REPORT_INTERVAL} lookups.
+ * </p>
+ */
+public final class DigestCache {
+  /**
+   * Number of lookups between two reports of the metrics.
+   */
+  public static final int REPORT_INTERVAL = 1024;
+
+  /**
+   * Estimated memory of an entry besides the bytes of the value and of the digest: the map
+   * entry, the buffer over the value and the headers of the two arrays.
+   */
+  public static final int ENTRY_OVERHEAD = 128;
+
+  private final String name;
+  private final long maxBytes;
+  @Nullable
+  private final Metrics metrics;
+
+  // Digests by value, in access order.
+  private final LinkedHashMap<ByteBuffer, byte[]> digests = new LinkedHashMap<>(16, 0.75f, true);
+  private long bytes;
+
+  // Counts since the last report, and overall counts for the hit rate.
+  private int lookups;
+  private int hits;
+  private int evictions;
+  private long totalLookups;
+  private long totalHits;
+
+  /**
+   * @param name name of the field, used in the metric names.
+   * @param maxBytes maximum estimated memory of the cache.
+   * @param metrics stage metrics, null when there are none.
+   */
+  public DigestCache(String name, long maxBytes, @Nullable Metrics metrics) {
+    if (maxBytes <= 0) {
+      throw new IllegalArgumentException("Cache size '" + maxBytes + "' of field '" + name + "' is not positive.");
+    }
+    this.name = name;
+    this.maxBytes = maxBytes;
+    this.metrics = metrics;
+  }
+
+  /**
+   * Looks up the digest of a value.
+   *
+   * @param value bytes of the value, between position and limit, which are left as they are.
+   * @return the digest, which must not be modified, or null if it's not cached.
+   */
+  @Nullable
+  public byte[] get(ByteBuffer value) {
+    byte[] digest = digests.get(value);
+    if (digest != null) {
+      ++hits;
+    }
+    if (++lookups == REPORT_INTERVAL) {
+      report();
+    }
+    return digest;
+  }
+
+  /**
+   * Caches the digest of a value, evicting the least recently used digests to make room.
+   *
+   * @param value bytes of the value, between position and limit, which are copied.
+   * @param digest the digest, which is kept as it is.
+   */
+  public void put(ByteBuffer value, byte[] digest) {
+    long size = weight(value.remaining(), digest.length);
+    if (size > maxBytes) {
+      return;
+    }
+    int offset = value.arrayOffset() + value.position();
+    ByteBuffer key = ByteBuffer.wrap(Arrays.copyOfRange(value.array(), offset, offset + value.remaining()));
+    byte[] previous = digests.put(key, digest);
+    bytes += size;
+    if (previous != null) {
+      bytes -= weight(key.remaining(), previous.length);
+    }
+    Iterator<Map.Entry<ByteBuffer, byte[]>> eldest = digests.entrySet().iterator();
+    while (bytes > maxBytes) {
+      Map.Entry<ByteBuffer, byte[]> entry = eldest.next();
+      bytes -= weight(entry.getKey().remaining(), entry.getValue().length);
+      eldest.remove();
+      ++evictions;
+    }
+  }
+
+  /**
+   * @return number of digests cached.
+   */
+  public int size() {
+    return digests.size();
+  }
+
+  /**
+   * Adds the counts since the last report to the metrics.
+   */
+  public void report() {
+    totalLookups += lookups;
+    totalHits += hits;
+    if (metrics != null && lookups > 0) {
+      String prefix = "hash." + name + ".cache";
+      metrics.count(prefix + ".hits", hits);
+      metrics.count(prefix + ".misses", lookups - hits);
+      if (evictions > 0) {
+        metrics.count(prefix + ".evictions", evictions);
+      }
+      metrics.gauge(prefix + ".hit.rate", totalHits * 100 / totalLookups);
+    }
+    lookups = 0;
+    hits = 0;
+    evictions = 0;
+  }
+
+  private static long weight(int valueLength, int digestLength) {
+    return (long) valueLength + digestLength + ENTRY_OVERHEAD;
+  }
+}
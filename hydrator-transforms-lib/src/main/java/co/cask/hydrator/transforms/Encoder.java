@@ -30,15 +30,14 @@ import co.cask.cdap.etl.api.PipelineConfigurer;
 import co.cask.cdap.etl.api.Transform;
 import co.cask.cdap.etl.api.TransformContext;
 import com.google.common.collect.Maps;
-import org.apache.commons.codec.binary.Base32;
-import org.apache.commons.codec.binary.Base64;
-import org.apache.commons.codec.binary.Hex;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.List;
 import java.util.Map;
+import javax.annotation.Nullable;
 
 /**
  * Encodes the input fields as BASE64, BASE32 or HEX.
@@ -56,10 +55,14 @@ public final class Encoder extends Transform<StructuredRecord, StructuredRecord>
   // Mapping of input field to encoder type. 
   private final Map<String, EncodeDecodeType> encodeMap = Maps.newTreeMap();
   
-  // Encoder handlers.
-  private final Base64 base64Encoder = new Base64();
-  private final Base32 base32Encoder = new Base32();
-  private final Hex hexEncoder = new Hex();
+  // Encoding of the fields to be encoded, built once at initialize.
+  private final Map<String, CodecChain> encoders = Maps.newHashMap();
+
+  // Plans of the input schemas seen.
+  private FieldPlanCache plans;
+
+  // Conversion between the text of STRING fields and bytes.
+  private Transcoder transcoder;
   
   // Output Field name to type map
   private Map<String, Schema.Type> outSchemaMap = Maps.newHashMap();
@@ -124,7 +127,19 @@ public final class Encoder extends Transform<StructuredRecord, StructuredRecord>
   @Override
   public void initialize(TransformContext context) throws Exception {
     super.initialize(context);
+    transcoder = new Transcoder(Transcoder.charsetOf(config.charset));
+    plans = new FieldPlanCache(context == null ? null : context.getMetrics()) {
+      @Override
+      protected FieldPlan compile(Schema inSchema) throws Exception {
+        return Encoder.this.compile(inSchema);
+      }
+    };
     parseConfiguration(config.encode);
+    for(Map.Entry<String, EncodeDecodeType> entry : encodeMap.entrySet()) {
+      if(entry.getValue() != EncodeDecodeType.NONE) {
+        encoders.put(entry.getKey(), CodecChain.builder().encode(entry.getValue()).build());
+      }
+    }
     try {
       outSchema = Schema.parseJson(config.schema);
       List<Field> outFields = outSchema.getFields();
@@ -136,10 +151,21 @@ public final class Encoder extends Transform<StructuredRecord, StructuredRecord>
     }
   }
 
+  @Override
+  public void destroy() {
+    if(plans != null) {
+      plans.flush();
+    }
+    for(CodecChain chain : encoders.values()) {
+      chain.close();
+    }
+  }
+
   @Override
   public void configurePipeline(PipelineConfigurer pipelineConfigurer) throws IllegalArgumentException {
     super.configurePipeline(pipelineConfigurer);
     parseConfiguration(config.encode);
+    Transcoder.charsetOf(config.charset);
     // Check if schema specified is a valid schema or no. 
     try {
       Schema.parseJson(config.schema);
@@ -151,15 +177,16 @@ public final class Encoder extends Transform<StructuredRecord, StructuredRecord>
 
   @Override
   public void transform(StructuredRecord in, Emitter<StructuredRecord> emitter) throws Exception {
-    StructuredRecord.Builder builder = StructuredRecord.builder(outSchema);
-    
-    Schema inSchema = in.getSchema();
-    List<Field> inFields = inSchema.getFields();
-    
-    // Iterate through input fields. Check if field name is present 
-    // in the fields that need to be encoded, if it's not then write 
-    // to output as it is. 
-    for(Field field : inFields) {
+    emitter.emit(plans.get(in.getSchema()).apply(in));
+  }
+
+  /**
+   * Compiles the plan of an input schema. Fields configured to be encoded go through their
+   * codecs, the others are copied as they are.
+   */
+  private FieldPlan compile(Schema inSchema) throws Exception {
+    FieldPlan.Builder plan = FieldPlan.builder(outSchema);
+    for(Field field : inSchema.getFields()) {
       String name = field.getName();
       
       // Check if output schema also have the same field name. If it's not 
@@ -168,48 +195,15 @@ public final class Encoder extends Transform<StructuredRecord, StructuredRecord>
         throw new Exception("Field " + name + " is not defined in the output.");  
       }
       
-      Schema.Type outFieldType = outSchemaMap.get(name);
-      
-      // Check if the input field name is configured to be encoded. If the field is not 
-      // present or is defined as none, then pass through the field as is. 
-      if(!encodeMap.containsKey(name) || encodeMap.get(name) == EncodeDecodeType.NONE) {
-        builder.set(name, in.get(name));          
+      CodecChain encoder = encoders.get(name);
+      if(encoder == null) {
+        plan.copy(name);
       } else {
-        // Now, the input field could be of type String or byte[], so transform everything
-        // to byte[] 
-        byte[] obj = new byte[0];
-        if(field.getSchema().getType() == Schema.Type.STRING) {
-          obj = ((String)in.get(name)).getBytes();  
-        } else if (field.getSchema().getType() == Schema.Type.BYTES){
-          obj = in.get(name);
-        }
-        
-        // Now, based on the encode type configured for the field - encode the byte[] of the 
-        // value.
-        byte[] outValue = new byte[0];
-        EncodeDecodeType type = encodeMap.get(name);
-        if(type == EncodeDecodeType.STRING_BASE32) {
-          outValue = base32Encoder.encodeAsString(obj).getBytes();
-        } else if (type == EncodeDecodeType.BASE32) {
-          outValue = base32Encoder.encode(obj);
-        } else if (type == EncodeDecodeType.STRING_BASE64) {
-          outValue = base64Encoder.encodeAsString(obj).getBytes();
-        } else if (type == EncodeDecodeType.BASE64) {
-          outValue = base64Encoder.encode(obj);
-        } else if (type == EncodeDecodeType.HEX) {
-          outValue = hexEncoder.encode(obj);
-        }
-        
-        // Depending on the output field type, either convert it to 
-        // Bytes or to String. 
-        if(outFieldType == Schema.Type.BYTES) {
-          builder.set(name, outValue);
-        } else if (outFieldType == Schema.Type.STRING) {
-          builder.set(name, new String(outValue));
-        }
+        plan.apply(name, encoder, field.getSchema().getType(), transcoder,
+                   outSchemaMap.get(name), StandardCharsets.ISO_8859_1);
       }
     }
-    emitter.emit(builder.build());
+    return plan.build();
   }
 
   public static class Config extends PluginConfig {
@@ -221,10 +215,21 @@ public final class Encoder extends Transform<StructuredRecord, StructuredRecord>
     @Name("schema")
     @Description("Specifies the output schema")
     private final String schema;
-    
+
+    @Name("charset")
+    @Description("Specifies the charset STRING fields are converted to bytes with before they are encoded. " +
+      "Defaults to UTF-8.")
+    @Nullable
+    private final String charset;
+
     public Config(String encode, String schema) {
+      this(encode, schema, null);
+    }
+
+    public Config(String encode, String schema, @Nullable String charset) {
       this.encode = encode;
       this.schema = schema;
+      this.charset = charset;
     }
   }
 }
@@ -0,0 +1,251 @@
+/*
+ * Copyright © 2015 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.hydrator.transforms;
+
+/**
+ * Non-cryptographic hashes, for deriving partition and dedupe keys an order of magnitude faster
+ * than message digests: xxHash64, the x64 128 bit variant of MurmurHash3 and SipHash-2-4.
+ *
+ * <p>
+ * The hashes are computed straight over a range of an array, reading it 8 bytes at a time as
+ * little endian longs like the reference implementations do, so they match the hashes of
+ * those and of the libraries following them, like Guava for MurmurHash3 and SipHash.
+ * </p>
+ */
+public final class FastHash {
+  private static final long XXH_PRIME1 = 0x9E3779B185EBCA87L;
+  private static final long XXH_PRIME2 = 0xC2B2AE3D27D4EB4FL;
+  private static final long XXH_PRIME3 = 0x165667B19E3779F9L;
+  private static final long XXH_PRIME4 = 0x85EBCA77C2B2AE63L;
+  private static final long XXH_PRIME5 = 0x27D4EB2F165667C5L;
+
+  private static final long MURMUR_C1 = 0x87C37B91114253D5L;
+  private static final long MURMUR_C2 = 0x4CF5AD432745937FL;
+
+  private FastHash() {
+  }
+
+  /**
+   * @param bytes array holding the value.
+   * @param offset start of the value.
+   * @param length length of the value.
+   * @param seed seed of the hash.
+   * @return xxHash64 of the value.
+   */
+  public static long xxHash64(byte[] bytes, int offset, int length, long seed) {
+    int pos = offset;
+    int end = offset + length;
+    long h;
+    if (length >= 32) {
+      long v1 = seed + XXH_PRIME1 + XXH_PRIME2;
+      long v2 = seed + XXH_PRIME2;
+      long v3 = seed;
+      long v4 = seed - XXH_PRIME1;
+      int limit = end - 32;
+      do {
+        v1 = xxRound(v1, readLong(bytes, pos));
+        v2 = xxRound(v2, readLong(bytes, pos + 8));
+        v3 = xxRound(v3, readLong(bytes, pos + 16));
+        v4 = xxRound(v4, readLong(bytes, pos + 24));
+        pos += 32;
+      } while (pos <= limit);
+      h = Long.rotateLeft(v1, 1) + Long.rotateLeft(v2, 7) + Long.rotateLeft(v3, 12) + Long.rotateLeft(v4, 18);
+      h = xxMerge(h, v1);
+      h = xxMerge(h, v2);
+      h = xxMerge(h, v3);
+      h = xxMerge(h, v4);
+    } else {
+      h = seed + XXH_PRIME5;
+    }
+    h += length;
+
+    for (; pos + 8 <= end; pos += 8) {
+      h ^= xxRound(0, readLong(bytes, pos));
+      h = Long.rotateLeft(h, 27) * XXH_PRIME1 + XXH_PRIME4;
+    }
+    if (pos + 4 <= end) {
+      h ^= (readInt(bytes, pos) & 0xFFFFFFFFL) * XXH_PRIME1;
+      h = Long.rotateLeft(h, 23) * XXH_PRIME2 + XXH_PRIME3;
+      pos += 4;
+    }
+    for (; pos < end; ++pos) {
+      h ^= (bytes[pos] & 0xFF) * XXH_PRIME5;
+      h = Long.rotateLeft(h, 11) * XXH_PRIME1;
+    }
+
+    h ^= h >>> 33;
+    h *= XXH_PRIME2;
+    h ^= h >>> 29;
+    h *= XXH_PRIME3;
+    h ^= h >>> 32;
+    return h;
+  }
+
+  /**
+   * Hashes a value with the x64 128 bit variant of MurmurHash3, writing the two halves of the
+   * hash as little endian longs, the first half first.
+   *
+   * @param bytes array holding the value.
+   * @param offset start of the value.
+   * @param length length of the value.
+   * @param seed seed of the hash.
+   * @param out array the 16 bytes of the hash are written to.
+   * @param at offset the hash is written at.
+   */
+  public static void murmur3x128(byte[] bytes, int offset, int length, int seed, byte[] out, int at) {
+    long h1 = seed & 0xFFFFFFFFL;
+    long h2 = seed & 0xFFFFFFFFL;
+    int pos = offset;
+    int end = offset + length;
+    for (; pos + 16 <= end; pos += 16) {
+      h1 ^= murmurMixK1(readLong(bytes, pos));
+      h1 = Long.rotateLeft(h1, 27) + h2;
+      h1 = h1 * 5 + 0x52DCE729;
+      h2 ^= murmurMixK2(readLong(bytes, pos + 8));
+      h2 = Long.rotateLeft(h2, 31) + h1;
+      h2 = h2 * 5 + 0x38495AB5;
+    }
+
+    // The tail is read as two little endian longs padded with zeros.
+    int tail = end - pos;
+    if (tail > 8) {
+      h2 ^= murmurMixK2(readPartialLong(bytes, pos + 8, tail - 8));
+    }
+    if (tail > 0) {
+      h1 ^= murmurMixK1(readPartialLong(bytes, pos, Math.min(tail, 8)));
+    }
+
+    h1 ^= length;
+    h2 ^= length;
+    h1 += h2;
+    h2 += h1;
+    h1 = murmurFinalMix(h1);
+    h2 = murmurFinalMix(h2);
+    h1 += h2;
+    h2 += h1;
+    writeLong(out, at, h1);
+    writeLong(out, at + 8, h2);
+  }
+
+  /**
+   * @param k0 first half of the key, the first 8 bytes as a little endian long.
+   * @param k1 second half of the key, the last 8 bytes as a little endian long.
+   * @param bytes array holding the value.
+   * @param offset start of the value.
+   * @param length length of the value.
+   * @return SipHash-2-4 of the value.
+   */
+  public static long sipHash24(long k0, long k1, byte[] bytes, int offset, int length) {
+    long v0 = k0 ^ 0x736F6D6570736575L;
+    long v1 = k1 ^ 0x646F72616E646F6DL;
+    long v2 = k0 ^ 0x6C7967656E657261L;
+    long v3 = k1 ^ 0x7465646279746573L;
+    int end = offset + length;
+    for (int pos = offset; ; pos += 8) {
+      // The last word holds the remaining bytes and the length in it's most significant byte.
+      boolean last = end - pos < 8;
+      long m = last ? readPartialLong(bytes, pos, end - pos) | ((long) length << 56) : readLong(bytes, pos);
+      v3 ^= m;
+      for (int i = 0; i < 2; ++i) {
+        v0 += v1;
+        v1 = Long.rotateLeft(v1, 13) ^ v0;
+        v0 = Long.rotateLeft(v0, 32);
+        v2 += v3;
+        v3 = Long.rotateLeft(v3, 16) ^ v2;
+        v0 += v3;
+        v3 = Long.rotateLeft(v3, 21) ^ v0;
+        v2 += v1;
+        v1 = Long.rotateLeft(v1, 17) ^ v2;
+        v2 = Long.rotateLeft(v2, 32);
+      }
+      v0 ^= m;
+      if (last) {
+        break;
+      }
+    }
+    v2 ^= 0xFF;
+    for (int i = 0; i < 4; ++i) {
+      v0 += v1;
+      v1 = Long.rotateLeft(v1, 13) ^ v0;
+      v0 = Long.rotateLeft(v0, 32);
+      v2 += v3;
+      v3 = Long.rotateLeft(v3, 16) ^ v2;
+      v0 += v3;
+      v3 = Long.rotateLeft(v3, 21) ^ v0;
+      v2 += v1;
+      v1 = Long.rotateLeft(v1, 17) ^ v2;
+      v2 = Long.rotateLeft(v2, 32);
+    }
+    return v0 ^ v1 ^ v2 ^ v3;
+  }
+
+  /**
+   * @return little endian long at an offset.
+   */
+  static long readLong(byte[] bytes, int at) {
+    return (bytes[at] & 0xFFL) | (bytes[at + 1] & 0xFFL) << 8 | (bytes[at + 2] & 0xFFL) << 16
+      | (bytes[at + 3] & 0xFFL) << 24 | (bytes[at + 4] & 0xFFL) << 32 | (bytes[at + 5] & 0xFFL) << 40
+      | (bytes[at + 6] & 0xFFL) << 48 | (bytes[at + 7] & 0xFFL) << 56;
+  }
+
+  /**
+   * Writes a little endian long at an offset.
+   */
+  static void writeLong(byte[] bytes, int at, long value) {
+    for (int i = 0; i < 8; ++i) {
+      bytes[at + i] = (byte) (value >>> (8 * i));
+    }
+  }
+
+  private static long readPartialLong(byte[] bytes, int at, int length) {
+    long value = 0;
+    for (int i = length - 1; i >= 0; --i) {
+      value = value << 8 | (bytes[at + i] & 0xFF);
+    }
+    return value;
+  }
+
+  private static int readInt(byte[] bytes, int at) {
+    return (bytes[at] & 0xFF) | (bytes[at + 1] & 0xFF) << 8 | (bytes[at + 2] & 0xFF) << 16
+      | (bytes[at + 3] & 0xFF) << 24;
+  }
+
+  private static long xxRound(long acc, long input) {
+    return Long.rotateLeft(acc + input * XXH_PRIME2, 31) * XXH_PRIME1;
+  }
+
+  private static long xxMerge(long h, long v) {
+    return (h ^ xxRound(0, v)) * XXH_PRIME1 + XXH_PRIME4;
+  }
+
+  private static long murmurMixK1(long k1) {
+    return Long.rotateLeft(k1 * MURMUR_C1, 31) * MURMUR_C2;
+  }
+
+  private static long murmurMixK2(long k2) {
+    return Long.rotateLeft(k2 * MURMUR_C2, 33) * MURMUR_C1;
+  }
+
+  private static long murmurFinalMix(long k) {
+    k ^= k >>> 33;
+    k *= 0xFF51AFD7ED558CCDL;
+    k ^= k >>> 33;
+    k *= 0xC4CEB9FE1A85EC53L;
+    k ^= k >>> 33;
+    return k;
+  }
+}
@@ -0,0 +1,329 @@
+/*
+ * Copyright © 2015 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.hydrator.transforms;
+
+import co.cask.cdap.api.data.schema.Schema;
+import com.google.common.collect.Maps;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import javax.annotation.Nullable;
+
+/**
+ * Converts text values to the type of a field.
+ *
+ * <p>
+ * A converter is created once per field from it's schema, so converting a value doesn't need to
+ * look at the schema or dispatch on the type. Nullable fields, that is unions of a type and
+ * NULL, convert null to null, and empty numeric, boolean and enum values to null as well.
+ * Fields of types that can't be converted from text always convert to null.
+ * </p>
+ */
+public abstract class FieldConverter {
+
+  /**
+   * Converts a text value.
+   *
+   * @param value text value, null for a missing value.
+   * @return converted value.
+   */
+  @Nullable
+  public abstract Object convert(@Nullable String value);
+
+  /**
+   * Converts a UTF-8 encoded text value held in a range of a byte array.
+   *
+   * @param bytes array holding the value.
+   * @param offset start of the value.
+   * @param length length of the value in bytes.
+   * @return converted value.
+   */
+  @Nullable
+  public abstract Object convert(byte[] bytes, int offset, int length);
+
+  /**
+   * Creates a converter for every field of a record schema, in the order of the fields.
+   *
+   * @param fields fields of the record schema.
+   * @return converters indexed by field position.
+   */
+  public static FieldConverter[] of(List<Schema.Field> fields) {
+    return of(fields, Collections.<String, StringInterner>emptyMap());
+  }
+
+  /**
+   * Creates a converter for every field of a record schema, in the order of the fields, interning
+   * the values of the string fields that have an interner.
+   *
+   * @param fields fields of the record schema.
+   * @param interners interners by field name.
+   * @return converters indexed by field position.
+   */
+  public static FieldConverter[] of(List<Schema.Field> fields, Map<String, StringInterner> interners) {
+    FieldConverter[] converters = new FieldConverter[fields.size()];
+    for (int i = 0; i < converters.length; ++i) {
+      Schema.Field field = fields.get(i);
+      converters[i] = of(field.getSchema(), interners.get(field.getName()));
+    }
+    return converters;
+  }
+
+  /**
+   * Creates a converter for a string field schema, that returns the canonical instance of the
+   * values.
+   *
+   * @param schema schema of the field.
+   * @param interner interner of the field values, null to not intern.
+   * @return converter for the field.
+   */
+  public static FieldConverter of(Schema schema, @Nullable StringInterner interner) {
+    if (interner == null) {
+      return of(schema);
+    }
+    if (schema.getType() == Schema.Type.UNION) {
+      return new NullableConverter(new InterningConverter(interner), Schema.Type.STRING);
+    }
+    return new InterningConverter(interner);
+  }
+
+  /**
+   * Creates a converter for a field schema.
+   *
+   * @param schema schema of the field.
+   * @return converter for the field.
+   */
+  public static FieldConverter of(Schema schema) {
+    switch (schema.getType()) {
+      case STRING:
+        return new StringConverter();
+      case INT:
+        return new IntConverter();
+      case LONG:
+        return new LongConverter();
+      case FLOAT:
+        return new FloatConverter();
+      case DOUBLE:
+        return new DoubleConverter();
+      case BOOLEAN:
+        return new BooleanConverter();
+      case BYTES:
+        return new BytesConverter();
+      case ENUM:
+        return new EnumConverter(schema);
+      case UNION:
+        Schema nonNullable = getNonNullable(schema);
+        if (nonNullable != null) {
+          return new NullableConverter(of(nonNullable), nonNullable.getType());
+        }
+        return new NullConverter();
+      default:
+        return new NullConverter();
+    }
+  }
+
+  /**
+   * @return the non null type of a union of a type and NULL, null for any other union.
+   */
+  @Nullable
+  static Schema getNonNullable(Schema union) {
+    List<Schema> schemas = union.getUnionSchemas();
+    if (schemas.size() != 2) {
+      return null;
+    }
+    if (schemas.get(0).getType() == Schema.Type.NULL) {
+      return schemas.get(1);
+    }
+    if (schemas.get(1).getType() == Schema.Type.NULL) {
+      return schemas.get(0);
+    }
+    return null;
+  }
+
+  private static final class StringConverter extends FieldConverter {
+    @Override
+    public Object convert(String value) {
+      return value;
+    }
+
+    @Override
+    public Object convert(byte[] bytes, int offset, int length) {
+      return new String(bytes, offset, length, StandardCharsets.UTF_8);
+    }
+  }
+
+  private static final class InterningConverter extends FieldConverter {
+    private final StringInterner interner;
+
+    private InterningConverter(StringInterner interner) {
+      this.interner = interner;
+    }
+
+    @Override
+    public Object convert(String value) {
+      return interner.intern(value);
+    }
+
+    @Override
+    public Object convert(byte[] bytes, int offset, int length) {
+      return interner.intern(bytes, offset, length);
+    }
+  }
+
+  private static final class IntConverter extends FieldConverter {
+    @Override
+    public Object convert(String value) {
+      return TypeConvertors.getInt(value);
+    }
+
+    @Override
+    public Object convert(byte[] bytes, int offset, int length) {
+      return TypeConvertors.getInt(bytes, offset, length);
+    }
+  }
+
+  private static final class LongConverter extends FieldConverter {
+    @Override
+    public Object convert(String value) {
+      return TypeConvertors.getLong(value);
+    }
+
+    @Override
+    public Object convert(byte[] bytes, int offset, int length) {
+      return TypeConvertors.getLong(bytes, offset, length);
+    }
+  }
+
+  private static final class FloatConverter extends FieldConverter {
+    @Override
+    public Object convert(String value) {
+      return TypeConvertors.getFloat(value);
+    }
+
+    @Override
+    public Object convert(byte[] bytes, int offset, int length) {
+      return TypeConvertors.getFloat(bytes, offset, length);
+    }
+  }
+
+  private static final class DoubleConverter extends FieldConverter {
+    @Override
+    public Object convert(String value) {
+      return TypeConvertors.getDouble(value);
+    }
+
+    @Override
+    public Object convert(byte[] bytes, int offset, int length) {
+      return TypeConvertors.getDouble(bytes, offset, length);
+    }
+  }
+
+  private static final class BooleanConverter extends FieldConverter {
+    @Override
+    public Object convert(String value) {
+      return TypeConvertors.getBoolean(value);
+    }
+
+    @Override
+    public Object convert(byte[] bytes, int offset, int length) {
+      return TypeConvertors.getBoolean(bytes, offset, length);
+    }
+  }
+
+  private static final class BytesConverter extends FieldConverter {
+    @Override
+    public Object convert(String value) {
+      return Transcoder.utf8(value);
+    }
+
+    @Override
+    public Object convert(byte[] bytes, int offset, int length) {
+      return Arrays.copyOfRange(bytes, offset, offset + length);
+    }
+  }
+
+  /**
+   * Converts to one of the symbols of an enum, returning the symbol instance of the schema.
+   */
+  private static final class EnumConverter extends FieldConverter {
+    private final Map<String, String> symbols = Maps.newHashMap();
+
+    private EnumConverter(Schema schema) {
+      for (String symbol : schema.getEnumValues()) {
+        symbols.put(symbol, symbol);
+      }
+    }
+
+    @Override
+    public Object convert(String value) {
+      String symbol = symbols.get(value);
+      if (symbol == null) {
+        throw new ConversionException(value, "ENUM");
+      }
+      return symbol;
+    }
+
+    @Override
+    public Object convert(byte[] bytes, int offset, int length) {
+      return convert(new String(bytes, offset, length, StandardCharsets.UTF_8));
+    }
+  }
+
+  /**
+   * Converts null, and empty values if the non null type can't be empty, to null and everything
+   * else with the converter of the non null type.
+   */
+  private static final class NullableConverter extends FieldConverter {
+    private final FieldConverter converter;
+    private final boolean nullWhenEmpty;
+
+    private NullableConverter(FieldConverter converter, Schema.Type type) {
+      this.converter = converter;
+      this.nullWhenEmpty = TypeConvertors.isNullWhenEmpty(type, TypeConvertors.EmptyPolicy.NULL);
+    }
+
+    @Override
+    public Object convert(String value) {
+      if (value == null || (nullWhenEmpty && value.isEmpty())) {
+        return null;
+      }
+      return converter.convert(value);
+    }
+
+    @Override
+    public Object convert(byte[] bytes, int offset, int length) {
+      if (nullWhenEmpty && length == 0) {
+        return null;
+      }
+      return converter.convert(bytes, offset, length);
+    }
+  }
+
+  private static final class NullConverter extends FieldConverter {
+    @Override
+    public Object convert(String value) {
+      return null;
+    }
+
+    @Override
+    public Object convert(byte[] bytes, int offset, int length) {
+      return null;
+    }
+  }
+}
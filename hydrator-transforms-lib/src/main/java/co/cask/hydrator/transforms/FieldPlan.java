@@ -0,0 +1,240 @@
+/*
+ * Copyright © 2015 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.hydrator.transforms;
+
+import co.cask.cdap.api.data.format.StructuredRecord;
+import co.cask.cdap.api.data.schema.Schema;
+import com.google.common.collect.Lists;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.List;
+import javax.annotation.Nullable;
+
+/**
+ * Plan of the per field work of the transforms that encode, decode or compress some fields of
+ * a record and copy the others.
+ *
+ * <p>
+ * A plan is compiled once per input schema, see {@link FieldPlanCache}, so transforming a
+ * record doesn't look up the configuration or the output schema per field. It's an array of
+ * steps, one per input field, each either copying the value or applying a {@link CodecChain}
+ * to it and converting it from and to the type of the input and output field.
+ * </p>
+ */
+public final class FieldPlan {
+  private static final byte[] EMPTY = new byte[0];
+
+  // How the value of a field is read as bytes.
+  private enum Input {
+    BYTES, STRING, EMPTY
+  }
+
+  // How the processed bytes are written to the output field.
+  private enum Output {
+    BYTES, STRING, LONG, NONE
+  }
+
+  private final Schema outSchema;
+  private final String[] names;
+  private final CodecChain[] chains;
+  private final Input[] inputs;
+  private final Transcoder[] inputCoders;
+  private final Output[] outputs;
+  private final Charset[] outputCharsets;
+
+  private FieldPlan(Schema outSchema, List<Step> steps) {
+    this.outSchema = outSchema;
+    int size = steps.size();
+    this.names = new String[size];
+    this.chains = new CodecChain[size];
+    this.inputs = new Input[size];
+    this.inputCoders = new Transcoder[size];
+    this.outputs = new Output[size];
+    this.outputCharsets = new Charset[size];
+    for (int i = 0; i < size; ++i) {
+      Step step = steps.get(i);
+      names[i] = step.name;
+      chains[i] = step.chain;
+      inputs[i] = step.input;
+      inputCoders[i] = step.inputCoder;
+      outputs[i] = step.output;
+      outputCharsets[i] = step.outputCharset;
+    }
+  }
+
+  /**
+   * @param outSchema output schema of the transform.
+   * @return builder for a plan.
+   */
+  public static Builder builder(Schema outSchema) {
+    return new Builder(outSchema);
+  }
+
+  /**
+   * Transforms a record.
+   *
+   * @param in record of the schema the plan was compiled for.
+   * @return transformed record.
+   * @throws IOException if a value is not in the format expected by it's codecs.
+   */
+  public StructuredRecord apply(StructuredRecord in) throws IOException {
+    StructuredRecord.Builder builder = StructuredRecord.builder(outSchema);
+    for (int i = 0; i < names.length; ++i) {
+      String name = names[i];
+      CodecChain chain = chains[i];
+      if (chain == null) {
+        builder.set(name, in.get(name));
+        continue;
+      }
+
+      // BYTES values are either arrays or buffers, buffers are processed in place and the
+      // processed value is written as a buffer as well. STRING values are encoded into the
+      // reused buffer of the transcoder, and copied out of it when written as BYTES.
+      Object value;
+      switch (inputs[i]) {
+        case BYTES:
+          value = in.get(name);
+          break;
+        case STRING:
+          value = inputCoders[i].encode((String) in.get(name));
+          break;
+        default:
+          value = EMPTY;
+          break;
+      }
+
+      switch (outputs[i]) {
+        case BYTES:
+          if (inputs[i] == Input.STRING) {
+            builder.set(name, toArray(chain.apply((ByteBuffer) value)));
+          } else if (value instanceof ByteBuffer) {
+            builder.set(name, chain.applyToCopy((ByteBuffer) value));
+          } else {
+            builder.set(name, chain.apply((byte[]) value));
+          }
+          break;
+        case STRING:
+          if (value instanceof ByteBuffer) {
+            builder.set(name, chain.apply((ByteBuffer) value, outputCharsets[i]));
+          } else {
+            builder.set(name, chain.apply((byte[]) value, outputCharsets[i]));
+          }
+          break;
+        case LONG:
+          builder.set(name, chain.applyAsLong(value instanceof ByteBuffer ? (ByteBuffer) value
+            : ByteBuffer.wrap((byte[]) value)));
+          break;
+        default:
+          break;
+      }
+    }
+    return builder.build();
+  }
+
+  private static byte[] toArray(ByteBuffer buffer) {
+    int offset = buffer.arrayOffset() + buffer.position();
+    return Arrays.copyOfRange(buffer.array(), offset, offset + buffer.remaining());
+  }
+
+  /**
+   * Builder for a plan, steps are run in the order they are added.
+   */
+  public static final class Builder {
+    private final Schema outSchema;
+    private final List<Step> steps = Lists.newArrayList();
+
+    private Builder(Schema outSchema) {
+      this.outSchema = outSchema;
+    }
+
+    /**
+     * Copies the value of a field as it is.
+     *
+     * @param name name of the field.
+     */
+    public Builder copy(String name) {
+      steps.add(new Step(name, null, Input.EMPTY, null, Output.NONE, null));
+      return this;
+    }
+
+    /**
+     * Applies codecs to the value of a field. BYTES values can be arrays or buffers, STRING
+     * values are converted to bytes, values of types other than STRING and BYTES are processed
+     * as empty. Processed values are written to BYTES and STRING output fields, output fields of
+     * other types are left unset.
+     *
+     * @param name name of the field.
+     * @param chain codecs applied to the value.
+     * @param inputType type of the input field.
+     * @param inputCoder transcoder STRING values are converted to bytes with.
+     * @param outputType type of the output field.
+     * @param outputCharset charset the processed bytes are written to STRING fields with.
+     */
+    public Builder apply(String name, CodecChain chain, Schema.Type inputType, Transcoder inputCoder,
+                         @Nullable Schema.Type outputType, Charset outputCharset) {
+      Output output = outputType == Schema.Type.BYTES ? Output.BYTES
+        : outputType == Schema.Type.STRING ? Output.STRING : Output.NONE;
+      steps.add(new Step(name, chain, inputOf(inputType), inputCoder, output, outputCharset));
+      return this;
+    }
+
+    /**
+     * Applies codecs to the value of a field, read like {@link #apply}, and writes the processed
+     * value to a LONG output field as the little endian long of it's first 8 bytes, like a hash.
+     *
+     * @param name name of the field.
+     * @param chain codecs applied to the value, producing at least 8 bytes.
+     * @param inputType type of the input field.
+     * @param inputCoder transcoder STRING values are converted to bytes with.
+     */
+    public Builder applyAsLong(String name, CodecChain chain, Schema.Type inputType, Transcoder inputCoder) {
+      steps.add(new Step(name, chain, inputOf(inputType), inputCoder, Output.LONG, null));
+      return this;
+    }
+
+    private static Input inputOf(Schema.Type inputType) {
+      return inputType == Schema.Type.BYTES ? Input.BYTES
+        : inputType == Schema.Type.STRING ? Input.STRING : Input.EMPTY;
+    }
+
+    public FieldPlan build() {
+      return new FieldPlan(outSchema, steps);
+    }
+  }
+
+  private static final class Step {
+    private final String name;
+    private final CodecChain chain;
+    private final Input input;
+    private final Transcoder inputCoder;
+    private final Output output;
+    private final Charset outputCharset;
+
+    private Step(String name, @Nullable CodecChain chain, Input input, @Nullable Transcoder inputCoder,
+                 Output output, @Nullable Charset outputCharset) {
+      this.name = name;
+      this.chain = chain;
+      this.input = input;
+      this.inputCoder = inputCoder;
+      this.output = output;
+      this.outputCharset = outputCharset;
+    }
+  }
+}
@@ -0,0 +1,41 @@
+/*
+ * Copyright © 2015 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.hydrator.transforms;
+
+import co.cask.cdap.api.metrics.Metrics;
+
+import javax.annotation.Nullable;
+
+/**
+ * Cache of the {@link FieldPlan}s of the input schemas of a transform.
+ *
+ * <p>
+ * Records of a stage almost always share the same schema instance, which is checked first by
+ * identity. Other schemas are looked up by equality, which compares their fingerprints, and the
+ * plan is compiled on a miss. At most {@link #MAX_SCHEMAS} plans are kept, the cache is cleared
+ * when it's full. Lookups are counted in the <code>plan.cache.hits</code> and
+ * <code>plan.cache.misses</code> stage metrics, hits are added in batches.
+ * </p>
+ */
+public abstract class FieldPlanCache extends SchemaCache<FieldPlan> {
+  /**
+   * @param metrics stage metrics, null when there are none.
+   */
+  protected FieldPlanCache(@Nullable Metrics metrics) {
+    super(metrics);
+  }
+}
@@ -0,0 +1,24 @@
+package co.cask.hydrator.transforms;
+
+public enum HashType {
+  MD2("MD2"),
+  MD5("MD5"),
+  SHA1("SHA-1"),
+  SHA256("SHA-256"),
+  SHA384("SHA-384"),
+  SHA512("SHA-512"),
+  // Non-cryptographic hashes of FastHash, which are not message digests.
+  XXHASH64(null),
+  MURMUR3_128(null),
+  SIPHASH24(null);
+
+  private String algorithm;
+
+  HashType(String algorithm) {
+    this.algorithm = algorithm;
+  }
+
+  String getAlgorithm() {
+    return algorithm;
+  }
+}
@@ -22,34 +22,183 @@ import co.cask.cdap.api.annotation.Name;
 import co.cask.cdap.api.annotation.Plugin;
 import co.cask.cdap.api.data.format.StructuredRecord;
 import co.cask.cdap.api.data.schema.Schema;
+import co.cask.cdap.api.metrics.Metrics;
 import co.cask.cdap.api.plugin.PluginConfig;
 import co.cask.cdap.etl.api.Emitter;
 import co.cask.cdap.etl.api.PipelineConfigurer;
 import co.cask.cdap.etl.api.Transform;
 import co.cask.cdap.etl.api.TransformContext;
-import org.apache.commons.codec.digest.DigestUtils;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import org.apache.commons.codec.DecoderException;
+import org.apache.commons.codec.binary.Hex;
 
+import java.nio.charset.StandardCharsets;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import javax.annotation.Nullable;
 
+/**
+ * Hashes the values of STRING and BYTES fields, into their hex digest, their raw digest or a long.
+ *
+ * <p>
+ * The algorithm is resolved and it's {@link java.security.MessageDigest} created once, at
+ * initialize, and reused for every value. STRING values are hashed as UTF-8. Hex digests are
+ * written to STRING fields in lower case, raw digests to BYTES fields, which takes half the
+ * size and skips the hex formatting, and the first 8 bytes of the digest to LONG fields.
+ * </p>
+ *
+ * <p>
+ * The non-cryptographic {@link FastHash}es, xxHash64, MurmurHash3 and SipHash-2-4 keyed with
+ * the configured key, are for deriving partition and dedupe keys, they are an order of
+ * magnitude faster than SHA256. Their digest is the hash longs, little endian.
+ * </p>
+ *
+ * <p>
+ * Fields whose values repeat can keep the digests of the values seen in a {@link DigestCache}
+ * of the configured size, so repeated values are not hashed again.
+ * </p>
+ */
 @Plugin(type = "transform")
 @Name("Hasher")
 @Description("Encodes field values using one of the digest algorithms. MD2, MD5, SHA1, SHA256, SHA384 and SHA512 are " +
-  "the supported message digest algorithms.")
+  "the supported message digest algorithms. XXHASH64, MURMUR3_128 and SIPHASH24 are the supported " +
+  "non-cryptographic hashes, for partition and dedupe keys.")
 public final class Hasher extends Transform<StructuredRecord, StructuredRecord> {
   private final Config config;
-  private String[] fieldsToHash;
+
+  // Lower case names of the fields to be hashed.
+  private final Set<String> fieldsToHash = Sets.newHashSet();
+
+  // Hashing of the fields hashed so far, from their bytes to the digest written, by field.
+  private final Map<String, CodecChain> hashers = Maps.newHashMap();
+
+  private HashType hash;
+
+  @Nullable
+  private byte[] key;
+
+  @Nullable
+  private Integer cacheSize;
+
+  @Nullable
+  private Metrics metrics;
+
+  // Type of the fields the digests are written to.
+  private Schema.Type output;
+
+  // Plans of the input schemas seen.
+  private FieldPlanCache plans;
+
+  // Conversion of STRING values to bytes.
+  private final Transcoder transcoder = new Transcoder(StandardCharsets.UTF_8);
 
   public Hasher(Config config) {
     this.config = config;
   }
 
+  static HashType hashOf(@Nullable String hash) throws IllegalArgumentException {
+    if(hash != null) {
+      switch(hash.trim().toLowerCase()) {
+        case "md2":
+          return HashType.MD2;
+        case "md5":
+          return HashType.MD5;
+        case "sha1":
+          return HashType.SHA1;
+        case "sha256":
+          return HashType.SHA256;
+        case "sha384":
+          return HashType.SHA384;
+        case "sha512":
+          return HashType.SHA512;
+        case "xxhash64":
+          return HashType.XXHASH64;
+        case "murmur3_128":
+          return HashType.MURMUR3_128;
+        case "siphash24":
+          return HashType.SIPHASH24;
+      }
+    }
+    throw new IllegalArgumentException("Invalid hasher '" + hash + "' specified. Allowed hashers are md2, " +
+                                         "md5, sha1, sha256, sha384, sha512, xxhash64, murmur3_128 and siphash24");
+  }
+
+  static Schema.Type outputOf(@Nullable String output) throws IllegalArgumentException {
+    if(output == null || output.trim().isEmpty() || output.trim().equalsIgnoreCase("hex")) {
+      return Schema.Type.STRING;
+    }
+    if(output.trim().equalsIgnoreCase("bytes")) {
+      return Schema.Type.BYTES;
+    }
+    if(output.trim().equalsIgnoreCase("long")) {
+      return Schema.Type.LONG;
+    }
+    throw new IllegalArgumentException("Invalid output '" + output + "' specified. Allowed outputs are hex, bytes " +
+                                         "and long");
+  }
+
+  @Nullable
+  private static Integer cacheSizeOf(@Nullable Integer cacheSize) throws IllegalArgumentException {
+    if(cacheSize == null || cacheSize == 0) {
+      return null;
+    }
+    if(cacheSize < 0) {
+      throw new IllegalArgumentException("Cache size '" + cacheSize + "' is negative.");
+    }
+    return cacheSize;
+  }
+
+  @Nullable
+  static byte[] keyOf(HashType hash, @Nullable String key) throws IllegalArgumentException {
+    boolean empty = key == null || key.trim().isEmpty();
+    if(hash != HashType.SIPHASH24) {
+      if(!empty) {
+        throw new IllegalArgumentException("Hasher '" + hash + "' has no key, only siphash24 has one.");
+      }
+      return null;
+    }
+    if(empty || key.trim().length() != 32) {
+      throw new IllegalArgumentException("Hasher siphash24 needs a key of 16 bytes, as 32 hex digits.");
+    }
+    try {
+      return Hex.decodeHex(key.trim().toCharArray());
+    } catch (DecoderException e) {
+      throw new IllegalArgumentException("Key of hasher siphash24 is not hex: " + e.getMessage());
+    }
+  }
+
   @Override
   public void initialize(TransformContext context) throws Exception {
     super.initialize(context);
-    
+
     // Split the fields to be hashed.
-    fieldsToHash = config.fields.split(",");
+    for(String field : config.fields.split(",")) {
+      fieldsToHash.add(field.toLowerCase());
+    }
+    hash = hashOf(config.hash);
+    key = keyOf(hash, config.key);
+    output = outputOf(config.output);
+    cacheSize = cacheSizeOf(config.cacheSize);
+    metrics = context == null ? null : context.getMetrics();
+    plans = new FieldPlanCache(metrics) {
+      @Override
+      protected FieldPlan compile(Schema inSchema) throws Exception {
+        return Hasher.this.compile(inSchema);
+      }
+    };
+  }
+
+  @Override
+  public void destroy() {
+    if(plans != null) {
+      plans.flush();
+    }
+    for(CodecChain hasher : hashers.values()) {
+      hasher.close();
+    }
   }
 
   @Override
@@ -57,59 +206,70 @@ public final class Hasher extends Transform<StructuredRecord, StructuredRecord>
     super.configurePipeline(pipelineConfigurer);
     
     // Checks if hash specified is one of the supported types. 
-    if(!config.hash.equalsIgnoreCase("md2") && !config.hash.equalsIgnoreCase("md5") &&
-        !config.hash.equalsIgnoreCase("sha1") && !config.hash.equalsIgnoreCase("sha256") &&
-        !config.hash.equalsIgnoreCase("sha384") && !config.hash.equalsIgnoreCase("sha512")) {
-      throw new IllegalArgumentException("Invalid hasher '" + config.hash + "' specified. Allowed hashers are md2, " +
-                                           "md5, sha1, sha256, sha384 and sha512");  
-    }
+    keyOf(hashOf(config.hash), config.key);
+    outputOf(config.output);
+    cacheSizeOf(config.cacheSize);
   }
 
   @Override
   public void transform(StructuredRecord in, Emitter<StructuredRecord> emitter) throws Exception {
-    StructuredRecord.Builder builder = StructuredRecord.builder(in.getSchema());
-    
-    List<Schema.Field> fields = in.getSchema().getFields();
-    for(Schema.Field field : fields) {
-      String name = field.getName();
-      if (okToHash(name) && field.getSchema().getType() == Schema.Type.STRING) {
-        String value = in.get(name);
-        String digest = value;
-        switch(config.hash.toLowerCase()) {
-          case "md2":
-            digest = DigestUtils.md2Hex(value);
-            break;
-          case "md5":
-            digest = DigestUtils.md5Hex(value);
-            break;
-          case "sha1":
-            digest = DigestUtils.sha1Hex(value);
-            break;
-          case "sha256":
-            digest = DigestUtils.sha256Hex(value);
-            break;
-          case "sha384":
-            digest = DigestUtils.sha384Hex(value);
-            break;
-          case "sha512":
-            digest = DigestUtils.sha256Hex(value);
-            break;
-        }
-        builder.set(name, digest);
+    emitter.emit(plans.get(in.getSchema()).apply(in));
+  }
+
+  /**
+   * Compiles the plan of an input schema. STRING and BYTES fields configured to be hashed are
+   * replaced by their digest, the type of which depends on the output, the others are copied.
+   */
+  private FieldPlan compile(Schema inSchema) {
+    List<Schema.Field> outFields = Lists.newArrayList();
+    List<Schema.Field> hashed = Lists.newArrayList();
+    for(Schema.Field field : inSchema.getFields()) {
+      Schema.Type type = field.getSchema().getType();
+      if(okToHash(field.getName()) && (type == Schema.Type.STRING || type == Schema.Type.BYTES)) {
+        hashed.add(field);
+        outFields.add(Schema.Field.of(field.getName(), Schema.of(output)));
+      } else {
+        outFields.add(field);
+      }
+    }
+    Schema outSchema = hashed.isEmpty() ? inSchema : Schema.recordOf(inSchema.getRecordName(), outFields);
+
+    FieldPlan.Builder plan = FieldPlan.builder(outSchema);
+    for(Schema.Field field : inSchema.getFields()) {
+      if(hashed.contains(field) && output == Schema.Type.LONG) {
+        plan.applyAsLong(field.getName(), hasherOf(field.getName()), field.getSchema().getType(), transcoder);
+      } else if(hashed.contains(field)) {
+        plan.apply(field.getName(), hasherOf(field.getName()), field.getSchema().getType(), transcoder,
+                   output, StandardCharsets.US_ASCII);
       } else {
-        builder.set(name, in.get(name));
+        plan.copy(field.getName());
       }
     }
-    emitter.emit(builder.build());
+    return plan.build();
   }
 
-  private boolean okToHash(String name) {
-    for(String field : fieldsToHash){
-      if (name.equalsIgnoreCase(field)) {
-        return true;
+  /**
+   * @return hashing of a field, created the first time the field is seen.
+   */
+  private CodecChain hasherOf(String name) {
+    CodecChain hasher = hashers.get(name);
+    if(hasher == null) {
+      CodecStage digest = CodecStage.digest(hash, key);
+      if(cacheSize != null) {
+        digest = CodecStage.cached(digest, new DigestCache(name, cacheSize, metrics));
       }
+      CodecChain.Builder chain = CodecChain.builder().add(digest);
+      if(output == Schema.Type.STRING) {
+        chain.encode(EncodeDecodeType.HEX);
+      }
+      hasher = chain.build();
+      hashers.put(name, hasher);
     }
-    return false;
+    return hasher;
+  }
+
+  private boolean okToHash(String name) {
+    return fieldsToHash.contains(name.toLowerCase());
   }
 
   public static class Config extends PluginConfig {
@@ -119,12 +279,46 @@ public final class Hasher extends Transform<StructuredRecord, StructuredRecord>
     private final String hash;
     
     @Name("fields")
-    @Description("List of fields to hash. Only string fields are allowed")
+    @Description("List of fields to hash. Only string and bytes fields are allowed")
     private final String fields;
+
+    @Name("output")
+    @Description("Specifies whether digests are written as lower case hex to STRING fields (hex), as raw bytes " +
+      "to BYTES fields (bytes), or as the little endian long of their first 8 bytes to LONG fields (long). " +
+      "Defaults to hex.")
+    @Nullable
+    private final String output;
+
+    @Name("key")
+    @Description("Specifies the 16 bytes key of siphash24, as 32 hex digits.")
+    @Nullable
+    private final String key;
+
+    @Name("cacheSize")
+    @Description("Specifies the maximum memory in bytes of the cache of the digests of each hashed field, for fields " +
+      "whose values repeat. The least recently used digests are evicted when it's full. No cache when empty or 0.")
+    @Nullable
+    private final Integer cacheSize;
     
     public Config(String hash, String fields) {
+      this(hash, fields, null);
+    }
+
+    public Config(String hash, String fields, @Nullable String output) {
+      this(hash, fields, output, null);
+    }
+
+    public Config(String hash, String fields, @Nullable String output, @Nullable String key) {
+      this(hash, fields, output, key, null);
+    }
+
+    public Config(String hash, String fields, @Nullable String output, @Nullable String key,
+                  @Nullable Integer cacheSize) {
       this.hash = hash;
       this.fields = fields;
+      this.output = output;
+      this.key = key;
+      this.cacheSize = cacheSize;
     }
     
   }
@@ -0,0 +1,297 @@
+/*
+ * Copyright © 2015 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.hydrator.transforms;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * Stream inflating GZIP and ZIP payloads held in a byte array.
+ *
+ * <p>
+ * Unlike {@link java.util.zip.GZIPInputStream} and {@link java.util.zip.ZipInputStream} the
+ * stream is reset to every new payload, reusing the same {@link Inflater}, and the payload is
+ * handed to the inflater as a whole instead of being copied through an input buffer. GZIP
+ * payloads can have several members, which are read one after the other. Only the first entry
+ * of ZIP payloads is read. Checksums are verified like the JDK streams do.
+ * </p>
+ *
+ * <p>
+ * The stream holds native resources, {@link #end()} has to be called when it's not needed anymore.
+ * </p>
+ */
+public final class InflaterStream extends InputStream {
+  private static final int GZIP_MAGIC = 0x8b1f;
+  private static final int GZIP_HEADER_SIZE = 10;
+  private static final int GZIP_TRAILER_SIZE = 8;
+  private static final int FHCRC = 2;
+  private static final int FEXTRA = 4;
+  private static final int FNAME = 8;
+  private static final int FCOMMENT = 16;
+
+  private static final int ZIP_LOCAL_SIGNATURE = 0x04034b50;
+  private static final int ZIP_DESCRIPTOR_SIGNATURE = 0x08074b50;
+  private static final int ZIP_LOCAL_HEADER_SIZE = 30;
+  private static final int ZIP_ENCRYPTED = 1;
+  private static final int ZIP_DESCRIPTOR = 8;
+  private static final int STORED = 0;
+  private static final int DEFLATED = 8;
+
+  private enum State { GZIP, ZIP_DEFLATED, ZIP_STORED, DONE }
+
+  // Both GZIP members and ZIP entries are raw deflate streams.
+  private final Inflater inflater = new Inflater(true);
+  private final CRC32 crc = new CRC32();
+  private final byte[] single = new byte[1];
+
+  private State state = State.DONE;
+  private byte[] input;
+  private int pos;
+  private int end;
+
+  // Header fields of the ZIP entry being read.
+  private int zipFlags;
+  private long zipCrc;
+  private long zipSize;
+  private long zipCompressedSize;
+
+  /**
+   * Starts reading a GZIP payload.
+   *
+   * @param bytes array holding the payload.
+   * @param offset start of the payload.
+   * @param length length of the payload.
+   * @return this stream.
+   * @throws IOException if the payload doesn't start with a GZIP header.
+   */
+  public InflaterStream resetGzip(byte[] bytes, int offset, int length) throws IOException {
+    reset(bytes, offset, length);
+    readGzipHeader();
+    state = State.GZIP;
+    return this;
+  }
+
+  /**
+   * Starts reading the first entry of a ZIP payload. Payloads without an entry read as empty.
+   *
+   * @param bytes array holding the payload.
+   * @param offset start of the payload.
+   * @param length length of the payload.
+   * @return this stream.
+   * @throws IOException if the entry is encrypted or in an unsupported format.
+   */
+  public InflaterStream resetZip(byte[] bytes, int offset, int length) throws IOException {
+    reset(bytes, offset, length);
+    if (end - pos < ZIP_LOCAL_HEADER_SIZE || readInt(pos) != ZIP_LOCAL_SIGNATURE) {
+      state = State.DONE;
+      return this;
+    }
+    zipFlags = readShort(pos + 6);
+    int method = readShort(pos + 8);
+    zipCrc = readInt(pos + 14) & 0xFFFFFFFFL;
+    zipCompressedSize = readInt(pos + 18) & 0xFFFFFFFFL;
+    zipSize = readInt(pos + 22) & 0xFFFFFFFFL;
+    pos += ZIP_LOCAL_HEADER_SIZE + readShort(pos + 26) + readShort(pos + 28);
+    if ((zipFlags & ZIP_ENCRYPTED) != 0) {
+      throw new ZipException("Encrypted ZIP entries are not supported");
+    }
+    if (method == DEFLATED) {
+      inflater.setInput(input, pos, Math.max(0, end - pos));
+      state = State.ZIP_DEFLATED;
+    } else if (method == STORED) {
+      if ((zipFlags & ZIP_DESCRIPTOR) != 0 || zipCompressedSize == 0xFFFFFFFFL) {
+        throw new ZipException("Stored ZIP entries need their size in the entry header");
+      }
+      if (zipCompressedSize > end - pos) {
+        throw new EOFException("Unexpected end of ZIP entry");
+      }
+      end = pos + (int) zipCompressedSize;
+      state = State.ZIP_STORED;
+    } else {
+      throw new ZipException("Unsupported ZIP compression method " + method);
+    }
+    return this;
+  }
+
+  private void reset(byte[] bytes, int offset, int length) {
+    input = bytes;
+    pos = offset;
+    end = offset + length;
+    inflater.reset();
+    crc.reset();
+  }
+
+  @Override
+  public int read() throws IOException {
+    return read(single, 0, 1) == -1 ? -1 : single[0] & 0xFF;
+  }
+
+  @Override
+  public int read(byte[] b, int off, int len) throws IOException {
+    if (len == 0) {
+      return 0;
+    }
+    while (state != State.DONE) {
+      if (state == State.ZIP_STORED) {
+        if (pos == end) {
+          verify(zipCrc, zipSize, zipCompressedSize);
+          state = State.DONE;
+          break;
+        }
+        int n = Math.min(len, end - pos);
+        System.arraycopy(input, pos, b, off, n);
+        crc.update(b, off, n);
+        pos += n;
+        return n;
+      }
+      int n = inflate(b, off, len);
+      if (n > 0) {
+        return n;
+      }
+      finishMember();
+    }
+    return -1;
+  }
+
+  private int inflate(byte[] b, int off, int len) throws IOException {
+    int n;
+    try {
+      n = inflater.inflate(b, off, len);
+    } catch (DataFormatException e) {
+      throw new ZipException(e.getMessage() == null ? "Invalid deflate data" : e.getMessage());
+    }
+    if (n > 0) {
+      crc.update(b, off, n);
+    } else if (!inflater.finished()) {
+      if (inflater.needsDictionary()) {
+        throw new ZipException("Compressed payloads needing a dictionary are not supported");
+      }
+      throw new EOFException("Unexpected end of compressed payload");
+    }
+    return n;
+  }
+
+  /**
+   * Verifies the checksums after the deflate stream of a member or entry and moves on to
+   * the next GZIP member, if any.
+   */
+  private void finishMember() throws IOException {
+    pos = end - inflater.getRemaining();
+    if (state == State.ZIP_DEFLATED) {
+      if ((zipFlags & ZIP_DESCRIPTOR) != 0) {
+        if (end - pos >= 4 && readInt(pos) == ZIP_DESCRIPTOR_SIGNATURE) {
+          pos += 4;
+        }
+        if (end - pos < 12) {
+          throw new EOFException("Unexpected end of ZIP entry");
+        }
+        zipCrc = readInt(pos) & 0xFFFFFFFFL;
+        zipSize = readInt(pos + 8) & 0xFFFFFFFFL;
+      }
+      verify(zipCrc, zipSize, inflater.getBytesWritten());
+      state = State.DONE;
+      return;
+    }
+
+    if (end - pos < GZIP_TRAILER_SIZE) {
+      throw new EOFException("Unexpected end of GZIP payload");
+    }
+    verify(readInt(pos) & 0xFFFFFFFFL, readInt(pos + 4) & 0xFFFFFFFFL, inflater.getBytesWritten());
+    pos += GZIP_TRAILER_SIZE;
+
+    // Like GZIPInputStream, anything after the trailer that is not another member is ignored.
+    if (end - pos >= GZIP_HEADER_SIZE && readShort(pos) == GZIP_MAGIC) {
+      inflater.reset();
+      crc.reset();
+      readGzipHeader();
+    } else {
+      state = State.DONE;
+    }
+  }
+
+  private void verify(long expectedCrc, long expectedSize, long size) throws ZipException {
+    if (crc.getValue() != expectedCrc) {
+      throw new ZipException("Corrupt compressed payload, checksum mismatch");
+    }
+    // Sizes are stored modulo 2^32.
+    if ((size & 0xFFFFFFFFL) != expectedSize) {
+      throw new ZipException("Corrupt compressed payload, size mismatch");
+    }
+  }
+
+  private void readGzipHeader() throws IOException {
+    if (end - pos < GZIP_HEADER_SIZE || readShort(pos) != GZIP_MAGIC) {
+      throw new ZipException("Not in GZIP format");
+    }
+    if ((input[pos + 2] & 0xFF) != DEFLATED) {
+      throw new ZipException("Unsupported GZIP compression method");
+    }
+    int flags = input[pos + 3] & 0xFF;
+    pos += GZIP_HEADER_SIZE;
+    if ((flags & FEXTRA) != 0) {
+      require(2);
+      pos += 2 + readShort(pos);
+    }
+    if ((flags & FNAME) != 0) {
+      skipString();
+    }
+    if ((flags & FCOMMENT) != 0) {
+      skipString();
+    }
+    if ((flags & FHCRC) != 0) {
+      pos += 2;
+    }
+    require(0);
+    inflater.setInput(input, pos, end - pos);
+  }
+
+  private void skipString() throws IOException {
+    while (pos < end && input[pos] != 0) {
+      ++pos;
+    }
+    require(1);
+    ++pos;
+  }
+
+  private void require(int bytes) throws EOFException {
+    if (end - pos < bytes) {
+      throw new EOFException("Unexpected end of GZIP header");
+    }
+  }
+
+  private int readShort(int at) {
+    return (input[at] & 0xFF) | (input[at + 1] & 0xFF) << 8;
+  }
+
+  private int readInt(int at) {
+    return readShort(at) | readShort(at + 2) << 16;
+  }
+
+  /**
+   * Releases the inflater. The stream can't be used anymore afterwards.
+   */
+  public void end() {
+    inflater.end();
+    state = State.DONE;
+    input = null;
+  }
+}
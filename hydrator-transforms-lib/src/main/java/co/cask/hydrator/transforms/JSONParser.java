@@ -22,6 +22,7 @@ import co.cask.cdap.api.annotation.Name;
 import co.cask.cdap.api.annotation.Plugin;
 import co.cask.cdap.api.data.format.StructuredRecord;
 import co.cask.cdap.api.data.schema.Schema;
+import co.cask.cdap.api.metrics.Metrics;
 import co.cask.cdap.api.plugin.PluginConfig;
 import co.cask.cdap.etl.api.Emitter;
 import co.cask.cdap.etl.api.PipelineConfigurer;
@@ -31,7 +32,10 @@ import co.cask.cdap.etl.common.StructuredRecordStringConverter;
 import com.google.gson.Gson;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.List;
+import java.util.Map;
+import javax.annotation.Nullable;
 
 @Plugin(type = "transform")
 @Name("JSONParser")
@@ -42,6 +46,12 @@ public class JSONParser extends Transform<StructuredRecord, StructuredRecord> {
   private Schema outSchema;
   private List<Schema.Field> fields;
 
+  // Interners of the string fields configured to be interned, and the metrics they report to.
+  private Map<String, StringInterner> interners;
+  private Metrics metrics;
+  // Records parsed since the interners last reported.
+  private int unreported;
+
   public JSONParser(Config config) {
     this.config = config;
   }
@@ -56,21 +66,61 @@ public class JSONParser extends Transform<StructuredRecord, StructuredRecord> {
     } catch (IOException e) {
       throw new IllegalArgumentException("Output Schema specified is not a valid JSON. Please check the Schema JSON");
     }
+    interners = StringInterner.of(outSchema, config.intern);
+    metrics = context == null ? null : context.getMetrics();
   }
 
   @Override
   public void configurePipeline(PipelineConfigurer pipelineConfigurer) throws IllegalArgumentException {
     super.configurePipeline(pipelineConfigurer);
+    Schema schema;
     try {
-      Schema.parseJson(config.schema);
+      schema = Schema.parseJson(config.schema);
     } catch (IOException e) {
       throw new IllegalArgumentException("Output Schema specified is not a valid JSON. Please check the Schema JSON");
     }
+    StringInterner.of(schema, config.intern);
   }
 
   @Override
   public void transform(StructuredRecord input, Emitter<StructuredRecord> emitter) throws Exception {
-    emitter.emit(StructuredRecordStringConverter.fromJsonString((String)input.get(config.field), outSchema));
+    String json = ByteBuffers.toString(input.get(config.field), config.field, StandardCharsets.UTF_8);
+    StructuredRecord record = StructuredRecordStringConverter.fromJsonString(json, outSchema);
+    if (interners.isEmpty()) {
+      emitter.emit(record);
+      return;
+    }
+
+    // Rebuild the record with the canonical instances of the interned values, so the parsed
+    // ones can be collected right away.
+    StructuredRecord.Builder builder = StructuredRecord.builder(outSchema);
+    for (Schema.Field field : fields) {
+      String name = field.getName();
+      StringInterner interner = interners.get(name);
+      if (interner == null) {
+        builder.set(name, record.get(name));
+      } else {
+        builder.set(name, interner.intern((String) record.get(name)));
+      }
+    }
+    emitter.emit(builder.build());
+    if (++unreported == StringInterner.REPORT_INTERVAL) {
+      report();
+    }
+  }
+
+  @Override
+  public void destroy() {
+    if (interners != null) {
+      report();
+    }
+  }
+
+  private void report() {
+    for (StringInterner interner : interners.values()) {
+      interner.report(metrics);
+    }
+    unreported = 0;
   }
 
   public static class Config extends PluginConfig {
@@ -82,10 +132,22 @@ public class JSONParser extends Transform<StructuredRecord, StructuredRecord> {
     @Description("Output schema")
     private String schema;
 
+    @Name("intern")
+    @Description("Specifies the string fields whose repeated values share a single instance, for fields with few " +
+      "distinct values. Format is <field>[:<capacity>][,<field>[:<capacity>]]*, the capacity is the number of " +
+      "distinct values kept per field and defaults to 1024.")
+    @Nullable
+    private String intern;
+
 
     public Config(String field, String schema) {
+      this(field, schema, null);
+    }
+
+    public Config(String field, String schema, String intern) {
       this.field = field;
       this.schema = schema;
+      this.intern = intern;
     }
 
   }
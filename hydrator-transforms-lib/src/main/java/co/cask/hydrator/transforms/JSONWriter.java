@@ -30,6 +30,7 @@ import co.cask.cdap.etl.common.StructuredRecordStringConverter;
 
 import java.io.IOException;
 import java.util.List;
+import javax.annotation.Nullable;
 
 @Plugin(type = "transform")
 @Name("JSONWriter")
@@ -44,6 +45,9 @@ public final class JSONWriter extends Transform<StructuredRecord, StructuredReco
   // Allows only BYTE or STRING fields. 
   private Schema.Type type;
 
+  // Conversion of the JSON to bytes, for BYTES output fields.
+  private Transcoder transcoder;
+
   // Required only for testing.
   public JSONWriter(Config config) {
     this.config = config;
@@ -64,11 +68,13 @@ public final class JSONWriter extends Transform<StructuredRecord, StructuredReco
     } catch (IOException e) {
       throw new IllegalArgumentException("Output Schema specified is not a valid JSON. Please check the Schema JSON");
     }
+    transcoder = new Transcoder(Transcoder.charsetOf(config.charset));
   }
 
   @Override
   public void configurePipeline(PipelineConfigurer pipelineConfigurer) throws IllegalArgumentException {
     super.configurePipeline(pipelineConfigurer);
+    Transcoder.charsetOf(config.charset);
     try {
       Schema out = Schema.parseJson(config.schema);
       List<Schema.Field> fields = out.getFields();
@@ -101,7 +107,7 @@ public final class JSONWriter extends Transform<StructuredRecord, StructuredReco
     
     // Depending on the output field type emit it as string or bytes.
     if (type == Schema.Type.BYTES) {
-      record.set(outSchema.getFields().get(0).getName(), outputRecord.getBytes());
+      record.set(outSchema.getFields().get(0).getName(), transcoder.toBytes(outputRecord));
     } else if (type == Schema.Type.STRING) {
       record.set(outSchema.getFields().get(0).getName(), outputRecord);
     }
@@ -116,9 +122,18 @@ public final class JSONWriter extends Transform<StructuredRecord, StructuredReco
     @Description("Output schema")
     private String schema;
 
+    @Name("charset")
+    @Description("Charset the JSON is written to BYTES output fields with. Defaults to UTF-8.")
+    @Nullable
+    private String charset;
 
     public Config(String schema) {
+      this(schema, null);
+    }
+
+    public Config(String schema, @Nullable String charset) {
       this.schema = schema;
+      this.charset = charset;
     }
 
   }
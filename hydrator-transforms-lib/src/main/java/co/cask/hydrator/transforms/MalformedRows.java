@@ -0,0 +1,190 @@
+/*
+ * Copyright © 2015 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.hydrator.transforms;
+
+import co.cask.cdap.api.data.format.StructuredRecord;
+import co.cask.cdap.api.metrics.Metrics;
+import co.cask.cdap.etl.api.Emitter;
+import co.cask.cdap.etl.api.InvalidEntry;
+import co.cask.cdap.etl.api.TransformContext;
+import org.slf4j.Logger;
+
+import java.util.concurrent.TimeUnit;
+import javax.annotation.Nullable;
+
+/**
+ * Accounts for the malformed rows of the payloads parsed as CSV.
+ *
+ * <p>
+ * Rows whose number of columns doesn't match the output schema, and payloads that can't be
+ * parsed to the end, are tallied while a payload is parsed at the cost of a counter increment.
+ * Once the payload is parsed, the tally is reported in one go:
+ * <ul>
+ *   <li>the counts are added to the stage metrics,</li>
+ *   <li>a warning describing the first malformed row is logged, at most once per log interval,
+ *   with the number of malformed rows since the last warning,</li>
+ *   <li>one error entry for the whole payload, holding the input record, is emitted, at most
+ *   {@link #MAX_ERRORS_PER_SECOND} per second. Entries over the limit are only counted.</li>
+ * </ul>
+ * </p>
+ */
+public final class MalformedRows {
+  public static final int MALFORMED_ROWS = 31;
+  public static final int MALFORMED_PAYLOAD = 32;
+  public static final int MAX_ERRORS_PER_SECOND = 100;
+
+  private static final long LOG_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(10);
+  private static final long ERROR_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+  @Nullable
+  private final Metrics metrics;
+  private final Logger log;
+  private final int width;
+
+  // Tally of the payload being parsed.
+  private int rows;
+  private long firstRecord;
+  private int firstSize;
+  private Exception failure;
+
+  // State of the rate limits.
+  private long lastLog;
+  private long suppressedRows;
+  private long suppressedPayloads;
+  private long errorWindow;
+  private int errorsInWindow;
+
+  /**
+   * @param context context of the stage, null when there are no metrics.
+   * @param log logger for the warnings.
+   * @param width number of columns rows need to have.
+   */
+  public MalformedRows(@Nullable TransformContext context, Logger log, int width) {
+    this.metrics = context == null ? null : context.getMetrics();
+    this.log = log;
+    this.width = width;
+    this.lastLog = System.nanoTime() - LOG_INTERVAL_NANOS;
+    this.errorWindow = System.nanoTime() - ERROR_INTERVAL_NANOS;
+  }
+
+  /**
+   * @return tally for a part of a payload parsed separately, added back with {@link #add(MalformedRows, long)}.
+   */
+  public MalformedRows newTally() {
+    return new MalformedRows(null, log, width);
+  }
+
+  /**
+   * Tallies a row that doesn't have the number of columns of the output schema.
+   *
+   * @param recordNumber number of the row in the payload, starting at 1.
+   * @param size number of columns of the row.
+   */
+  public void row(long recordNumber, int size) {
+    if (rows++ == 0) {
+      firstRecord = recordNumber;
+      firstSize = size;
+    }
+  }
+
+  /**
+   * Tallies the failure that stopped the payload from being parsed to the end.
+   */
+  public void failed(Exception e) {
+    failure = e;
+  }
+
+  /**
+   * Adds the tally of a part of the payload.
+   *
+   * @param tally tally of the part.
+   * @param recordOffset number of records of the payload before the part.
+   */
+  public void add(MalformedRows tally, long recordOffset) {
+    if (tally.rows > 0) {
+      if (rows == 0) {
+        firstRecord = recordOffset + tally.firstRecord;
+        firstSize = tally.firstSize;
+      }
+      rows += tally.rows;
+    }
+    if (failure == null) {
+      failure = tally.failure;
+    }
+  }
+
+  /**
+   * Reports the tally of the payload and starts a new one.
+   *
+   * @param input record holding the payload.
+   * @param emitter emitter for the error entry.
+   */
+  public void report(StructuredRecord input, Emitter<StructuredRecord> emitter) {
+    if (rows == 0 && failure == null) {
+      return;
+    }
+
+    String message;
+    if (failure == null) {
+      message = String.format("%d malformed rows, first at row %d has %d columns while %d are expected",
+                              rows, firstRecord, firstSize, width);
+    } else if (rows == 0) {
+      message = "Payload could not be parsed: " + failure.getMessage();
+    } else {
+      message = String.format("%d malformed rows, first at row %d has %d columns while %d are expected, and " +
+                                "payload could not be parsed: %s", rows, firstRecord, firstSize, width,
+                              failure.getMessage());
+    }
+
+    long now = System.nanoTime();
+    boolean emitted = false;
+    if (now - errorWindow >= ERROR_INTERVAL_NANOS) {
+      errorWindow = now;
+      errorsInWindow = 0;
+    }
+    if (errorsInWindow < MAX_ERRORS_PER_SECOND) {
+      ++errorsInWindow;
+      emitted = true;
+      emitter.emitError(new InvalidEntry<>(failure == null ? MALFORMED_ROWS : MALFORMED_PAYLOAD, message, input));
+    }
+
+    if (metrics != null) {
+      if (rows > 0) {
+        metrics.count("malformed.rows", rows);
+      }
+      if (failure != null) {
+        metrics.count("malformed.payloads", 1);
+      }
+      if (!emitted) {
+        metrics.count("malformed.errors.dropped", 1);
+      }
+    }
+
+    suppressedRows += rows;
+    suppressedPayloads += failure == null ? 0 : 1;
+    if (now - lastLog >= LOG_INTERVAL_NANOS) {
+      lastLog = now;
+      log.warn("{}. {} malformed rows and {} unparsable payloads since the last warning.",
+               message, suppressedRows, suppressedPayloads);
+      suppressedRows = 0;
+      suppressedPayloads = 0;
+    }
+
+    rows = 0;
+    failure = null;
+  }
+}
@@ -28,18 +28,39 @@ import co.cask.cdap.etl.api.PipelineConfigurer;
 import co.cask.cdap.etl.api.Transform;
 import co.cask.cdap.etl.api.TransformContext;
 
+import com.google.common.collect.Sets;
+import org.apache.commons.codec.DecoderException;
+import org.apache.commons.codec.binary.Hex;
+
 import java.util.List;
-import java.util.Random;
+import java.util.Set;
 import javax.annotation.Nullable;
 
 @Plugin(type = "transform")
 @Name("Masker")
-@Description("Masker masks string fields. Mask generated are of same length as the input field value.")
+@Description("Masker masks string fields. Mask generated are of same length as the input field value. In keyed " +
+  "mode, masks are derived from a keyed hash of the value, so equal values are masked the same way everywhere.")
 public final class Masker extends Transform<StructuredRecord, StructuredRecord> {
+  /**
+   * Mode masking every value from the seed.
+   */
+  public static final String SEEDED = "seeded";
+
+  /**
+   * Mode masking every value from it's keyed hash.
+   */
+  public static final String KEYED = "keyed";
+
   private final Config config;
-  private String[] fieldsToMask;
   private long seed = System.currentTimeMillis();
-  
+  private MaskingEngine engine;
+
+  // Names of the fields to mask, case insensitive.
+  private final Set<String> fieldsToMask = Sets.newTreeSet(String.CASE_INSENSITIVE_ORDER);
+
+  // Fields masked in the input schemas seen.
+  private SchemaCache<boolean[]> plans;
+
   public Masker(Config config) {
     this.config = config;
   }
@@ -54,7 +75,22 @@ public final class Masker extends Transform<StructuredRecord, StructuredRecord>
         throw new RuntimeException("Seed specified '" + config.seed + ", is not a number.");
       }
     }
-    fieldsToMask = config.fields.split(",");
+    if(isKeyed(config.mode)) {
+      Integer cacheSize = config.cacheSize;
+      engine = new MaskingEngine(keyOf(config.key), cacheSize == null ? 0 : cacheSize,
+                                 context == null ? null : context.getMetrics());
+    } else {
+      engine = new MaskingEngine(seed);
+    }
+    for(String field : config.fields.split(",")) {
+      fieldsToMask.add(field);
+    }
+    plans = new SchemaCache<boolean[]>(context == null ? null : context.getMetrics()) {
+      @Override
+      protected boolean[] compile(Schema inSchema) {
+        return Masker.this.compile(inSchema);
+      }
+    };
   }
 
   @Override
@@ -68,58 +104,74 @@ public final class Masker extends Transform<StructuredRecord, StructuredRecord>
     } catch (NumberFormatException e) {
       throw new IllegalArgumentException("Randomizer seed specified '" + config.seed + "' is not a number");
     }
+    if(isKeyed(config.mode)) {
+      keyOf(config.key);
+    }
+    if(config.cacheSize != null && config.cacheSize < 0) {
+      throw new IllegalArgumentException("Cache size '" + config.cacheSize + "' is negative.");
+    }
   }
 
   @Override
-  public void transform(StructuredRecord in, Emitter<StructuredRecord> emitter) throws Exception {
-    StructuredRecord.Builder builder = StructuredRecord.builder(in.getSchema());
-    
-    List<Schema.Field> fields = in.getSchema().getFields();
-    for(Schema.Field field : fields) {
-      if (field.getSchema().getType() == Schema.Type.STRING && okToMask(field.getName())) {
-        builder.set(field.getName(), mask((String)in.get(field.getName()), seed));  
-      } else {
-        builder.set(field.getName(), in.get(field.getName()));
-      }
+  public void destroy() {
+    if(plans != null) {
+      plans.flush();
+    }
+    if(engine != null) {
+      engine.report();
     }
-    emitter.emit(builder.build());
   }
 
-  private boolean okToMask(String name) {
-    for(String field : fieldsToMask){
-      if (name.equalsIgnoreCase(field)) {
-        return true;
-      }
+  private static boolean isKeyed(@Nullable String mode) throws IllegalArgumentException {
+    if(mode == null || mode.trim().isEmpty() || mode.trim().equalsIgnoreCase(SEEDED)) {
+      return false;
     }
-    return false;
-  }
-  
-  private char randomChar (Random r, String cs, boolean uppercase) {
-    char c = cs.charAt(r.nextInt(cs.length()));
-    return uppercase ? Character.toUpperCase(c) : c;
+    if(mode.trim().equalsIgnoreCase(KEYED)) {
+      return true;
+    }
+    throw new IllegalArgumentException("Masking mode '" + mode + "' is not supported, use seeded or keyed.");
   }
 
-  private String mask (String str, long seed) {
-
-    final String cons = "bcdfghjklmnpqrstvwxzBCDFGHJKLMNPQRSTVWXZ";
-    final String vowel = "aeiouyAEIOUY";
-    final String digit = "0123456789";
-
-    Random r = new Random(seed);
-    char data[] = str.toCharArray();
+  private static byte[] keyOf(@Nullable String key) throws IllegalArgumentException {
+    if(key == null || key.trim().length() != 32) {
+      throw new IllegalArgumentException("Keyed masking needs a key of 16 bytes, as 32 hex digits.");
+    }
+    try {
+      return Hex.decodeHex(key.trim().toCharArray());
+    } catch (DecoderException e) {
+      throw new IllegalArgumentException("Masking key is not hex: " + e.getMessage());
+    }
+  }
 
-    for (int n = 0; n < data.length; ++ n) {
-      char ln = Character.toLowerCase(data[n]);
-      if (cons.indexOf(ln) >= 0)
-        data[n] = randomChar(r, cons, ln != data[n]);
-      else if (vowel.indexOf(ln) >= 0)
-        data[n] = randomChar(r, vowel, ln != data[n]);
-      else if (digit.indexOf(ln) >= 0)
-        data[n] = randomChar(r, digit, ln != data[n]);
+  @Override
+  public void transform(StructuredRecord in, Emitter<StructuredRecord> emitter) throws Exception {
+    Schema schema = in.getSchema();
+    StructuredRecord.Builder builder = StructuredRecord.builder(schema);
+    boolean[] masked = plans.get(schema);
+    
+    List<Schema.Field> fields = schema.getFields();
+    for(int i = 0; i < masked.length; ++i) {
+      String name = fields.get(i).getName();
+      if (masked[i]) {
+        builder.set(name, engine.mask((String) in.get(name)));
+      } else {
+        builder.set(name, in.get(name));
+      }
     }
-    return new String(data);
+    emitter.emit(builder.build());
   }
 
+  // Works out which fields of a schema are masked, once per schema.
+  private boolean[] compile(Schema schema) {
+    List<Schema.Field> fields = schema.getFields();
+    boolean[] plan = new boolean[fields.size()];
+    for(int i = 0; i < plan.length; ++i) {
+      Schema.Field field = fields.get(i);
+      plan[i] = field.getSchema().getType() == Schema.Type.STRING
+        && fieldsToMask.contains(field.getName());
+    }
+    return plan;
+  }
 
   public static class Config extends PluginConfig {
     @Name("seed")
@@ -130,10 +182,35 @@ public final class Masker extends Transform<StructuredRecord, StructuredRecord>
     @Name("fields")
     @Description("List of fields to mask.")
     private final String fields;
+
+    @Name("mode")
+    @Description("Specifies whether values are masked from the seed (seeded), or from a keyed hash of the value " +
+      "(keyed). Defaults to seeded.")
+    @Nullable
+    private final String mode;
+
+    @Name("key")
+    @Description("Specifies the 16 bytes secret key of keyed masking, as 32 hex digits.")
+    @Nullable
+    private final String key;
+
+    @Name("cacheSize")
+    @Description("Specifies the maximum memory in bytes of the cache of the masks of keyed masking, for values " +
+      "that repeat. Defaults to no cache.")
+    @Nullable
+    private final Integer cacheSize;
     
     public Config(String seed, String fields) {
+      this(seed, fields, null, null, null);
+    }
+
+    public Config(@Nullable String seed, String fields, @Nullable String mode, @Nullable String key,
+                  @Nullable Integer cacheSize) {
       this.seed = seed;
       this.fields = fields;
+      this.mode = mode;
+      this.key = key;
+      this.cacheSize = cacheSize;
     }
     
   }
@@ -0,0 +1,281 @@
+/*
+ * Copyright © 2015 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.hydrator.transforms;
+
+import co.cask.cdap.api.metrics.Metrics;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import javax.annotation.Nullable;
+
+/**
+ * Masks text by replacing every consonant, vowel and digit with a random one of the same kind
+ * and case, keeping the other characters, so masks have the length and the shape of the value.
+ *
+ * <p>
+ * The kind of every char is looked up in a table of all the 64K chars computed once, rather than
+ * searched for in the alphabets. Random chars are drawn from an inline copy of the linear
+ * congruential generator of {@link java.util.Random}, restarted from the seed for every value,
+ * so a seed masks a value the same way it did with a new {@link java.util.Random} per value,
+ * without allocating one. Masks are written into a char array reused across values.
+ * </p>
+ *
+ * <p>
+ * Keyed engines draw the random chars of a value from the SipHash-2-4 of it's UTF-8 bytes under a
+ * secret key instead, through a SplitMix64 generator. A value is then masked the same way by all
+ * the engines with the same key, wherever they run, and masks of different values of the same
+ * shape differ unless the shape leaves too few masks, so masked keys can still be joined.
+ * Without the key, the masks can't be traced back by masking candidate values. Keyed engines can
+ * keep the masks of the last values in a cache bounded by it's estimated memory, for values that
+ * repeat. Hits, misses and evictions are added to the <code>mask.cache.hits</code>,
+ * <code>.misses</code> and <code>.evictions</code> stage metrics, and the overall hit rate in
+ * percent is the <code>mask.cache.hit.rate</code> gauge.
+ * </p>
+ *
+ * <p>
+ * An engine holds the array and the cache, it belongs to a single plugin instance, which is only
+ * ever called from one thread.
+ * </p>
+ */
+public final class MaskingEngine {
+  private static final String CONSONANTS = "bcdfghjklmnpqrstvwxzBCDFGHJKLMNPQRSTVWXZ";
+  private static final String VOWELS = "aeiouyAEIOUY";
+  private static final String DIGITS = "0123456789";
+
+  // Kinds of chars, the upper case kind of a letter being the next one.
+  private static final byte KEEP = 0;
+  private static final byte CONSONANT = 1;
+  private static final byte VOWEL = 3;
+  private static final byte DIGIT = 5;
+
+  // Kind of every char, and the chars masked chars of a kind are drawn from.
+  private static final byte[] KINDS = new byte[Character.MAX_VALUE + 1];
+  private static final char[][] ALPHABETS = new char[7][];
+
+  static {
+    String[] alphabets = { CONSONANTS, VOWELS, DIGITS };
+    for (int i = 0; i < alphabets.length; ++i) {
+      char[] alphabet = alphabets[i].toCharArray();
+      char[] upper = new char[alphabet.length];
+      for (int j = 0; j < alphabet.length; ++j) {
+        upper[j] = Character.toUpperCase(alphabet[j]);
+      }
+      ALPHABETS[2 * i + 1] = alphabet;
+      ALPHABETS[2 * i + 2] = upper;
+    }
+    // Chars are classified by their lower case, like the alphabets were searched before.
+    for (int c = 0; c <= Character.MAX_VALUE; ++c) {
+      char lower = Character.toLowerCase((char) c);
+      byte kind = CONSONANTS.indexOf(lower) >= 0 ? CONSONANT
+        : VOWELS.indexOf(lower) >= 0 ? VOWEL
+        : DIGITS.indexOf(lower) >= 0 ? DIGIT : KEEP;
+      KINDS[c] = kind != KEEP && lower != c ? (byte) (kind + 1) : kind;
+    }
+  }
+
+  private static final long MULTIPLIER = 0x5DEECE66DL;
+  private static final long ADDEND = 0xBL;
+  private static final long MASK = (1L << 48) - 1;
+
+  private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+
+  // Seed scrambled like java.util.Random scrambles it, or the SipHash key of keyed engines.
+  private final long seed;
+  private final boolean keyed;
+  private final long k0;
+  private final long k1;
+  private final Transcoder utf8 = new Transcoder(StandardCharsets.UTF_8);
+  private char[] chars = new char[64];
+
+  // Masks by value in access order, when masks are cached, and their estimated memory.
+  @Nullable
+  private final LinkedHashMap<String, String> masks;
+  private final long maxBytes;
+  private long bytes;
+  @Nullable
+  private final Metrics metrics;
+
+  // Counts since the last report, and overall counts for the hit rate.
+  private int lookups;
+  private int hits;
+  private int evictions;
+  private long totalLookups;
+  private long totalHits;
+
+  /**
+   * @param seed seed of the random chars.
+   */
+  public MaskingEngine(long seed) {
+    this.seed = scramble(seed);
+    this.keyed = false;
+    this.k0 = 0;
+    this.k1 = 0;
+    this.masks = null;
+    this.maxBytes = 0;
+    this.metrics = null;
+  }
+
+  /**
+   * @param key SipHash-2-4 key of 16 bytes the random chars of a value are derived from.
+   * @param cacheSize maximum estimated memory of the cache of masks, 0 for no cache.
+   * @param metrics stage metrics, null when there are none.
+   */
+  public MaskingEngine(byte[] key, long cacheSize, @Nullable Metrics metrics) {
+    if (key.length != 16) {
+      throw new IllegalArgumentException("Masking key has " + key.length + " bytes instead of 16.");
+    }
+    if (cacheSize < 0) {
+      throw new IllegalArgumentException("Cache size '" + cacheSize + "' is negative.");
+    }
+    this.seed = 0;
+    this.keyed = true;
+    this.k0 = FastHash.readLong(key, 0);
+    this.k1 = FastHash.readLong(key, 8);
+    this.masks = cacheSize == 0 ? null : new LinkedHashMap<String, String>(16, 0.75f, true);
+    this.maxBytes = cacheSize;
+    this.metrics = metrics;
+  }
+
+  /**
+   * @return the mask of a value, null for null.
+   */
+  @Nullable
+  public String mask(@Nullable String value) {
+    if (value == null) {
+      return null;
+    }
+    if (!keyed) {
+      return mask(value, seed);
+    }
+    if (masks == null) {
+      return mask(value, hash(value));
+    }
+
+    String mask = masks.get(value);
+    if (mask != null) {
+      ++hits;
+    } else {
+      mask = mask(value, hash(value));
+      cache(value, mask);
+    }
+    if (++lookups == DigestCache.REPORT_INTERVAL) {
+      report();
+    }
+    return mask;
+  }
+
+  /**
+   * @return number of masks cached.
+   */
+  public int size() {
+    return masks == null ? 0 : masks.size();
+  }
+
+  /**
+   * Adds the cache counts since the last report to the metrics.
+   */
+  public void report() {
+    totalLookups += lookups;
+    totalHits += hits;
+    if (metrics != null && lookups > 0) {
+      metrics.count("mask.cache.hits", hits);
+      metrics.count("mask.cache.misses", lookups - hits);
+      if (evictions > 0) {
+        metrics.count("mask.cache.evictions", evictions);
+      }
+      metrics.gauge("mask.cache.hit.rate", totalHits * 100 / totalLookups);
+    }
+    lookups = 0;
+    hits = 0;
+    evictions = 0;
+  }
+
+  private long hash(String value) {
+    ByteBuffer in = utf8.encode(value);
+    return FastHash.sipHash24(k0, k1, in.array(), in.arrayOffset() + in.position(), in.remaining());
+  }
+
+  private String mask(String value, long state) {
+    int length = value.length();
+    if (chars.length < length) {
+      chars = new char[Math.max(length, chars.length * 2)];
+    }
+    char[] data = chars;
+    value.getChars(0, length, data, 0);
+    for (int i = 0; i < length; ++i) {
+      char[] alphabet = ALPHABETS[KINDS[data[i]]];
+      if (alphabet == null) {
+        continue;
+      }
+
+      int bound = alphabet.length;
+      int r;
+      if (keyed) {
+        // SplitMix64, the high 32 bits scaled to the bound.
+        state += GOLDEN_GAMMA;
+        long z = state;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        z ^= z >>> 31;
+        r = (int) (((z >>> 32) * bound) >>> 32);
+      } else {
+        // Random.nextInt(bound), drawing 31 bits at a time.
+        state = (state * MULTIPLIER + ADDEND) & MASK;
+        r = (int) (state >>> 17);
+        int m = bound - 1;
+        if ((bound & m) == 0) {
+          r = (int) ((bound * (long) r) >> 31);
+        } else {
+          for (int u = r; u - (r = u % bound) + m < 0; ) {
+            state = (state * MULTIPLIER + ADDEND) & MASK;
+            u = (int) (state >>> 17);
+          }
+        }
+      }
+      data[i] = alphabet[r];
+    }
+    return new String(data, 0, length);
+  }
+
+  // Caches a mask, evicting the least recently used masks to make room.
+  private void cache(String value, String mask) {
+    long size = weight(value, mask);
+    if (size > maxBytes) {
+      return;
+    }
+    masks.put(value, mask);
+    bytes += size;
+    Iterator<Map.Entry<String, String>> eldest = masks.entrySet().iterator();
+    while (bytes > maxBytes) {
+      Map.Entry<String, String> entry = eldest.next();
+      bytes -= weight(entry.getKey(), entry.getValue());
+      eldest.remove();
+      ++evictions;
+    }
+  }
+
+  private static long weight(String value, String mask) {
+    return 2L * (value.length() + mask.length()) + DigestCache.ENTRY_OVERHEAD;
+  }
+
+  private static long scramble(long seed) {
+    return (seed ^ MULTIPLIER) & MASK;
+  }
+}
@@ -23,7 +23,7 @@ import co.cask.cdap.api.annotation.Name;
 import co.cask.cdap.api.annotation.Plugin;
 import co.cask.cdap.api.data.format.StructuredRecord;
 import co.cask.cdap.api.data.schema.Schema;
-import co.cask.cdap.api.data.schema.Schema.Field;
+import co.cask.cdap.api.metrics.Metrics;
 import co.cask.cdap.api.plugin.PluginConfig;
 import co.cask.cdap.etl.api.Emitter;
 import co.cask.cdap.etl.api.PipelineConfigurer;
@@ -36,7 +36,10 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
-import java.util.List;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Map;
+import javax.annotation.Nullable;
 
 /**
  * A Transformation that parses a text into CSV Fields.
@@ -51,12 +54,19 @@ public final class ParseCSV extends Transform<StructuredRecord, StructuredRecord
   // Output Schema associated with transform output. 
   private Schema outSchema;
   
-  // List of fields specified in the schema. 
-  private List<Field> fields;
+  // Mapping of the CSV columns to the fields of the output schema.
+  private CSVColumns columns;
   
   // Format of CSV.
   private CSVFormat csvFormat = CSVFormat.DEFAULT;
 
+  // Accounting of the malformed rows.
+  private MalformedRows malformed;
+
+  // Interners of the string fields configured to be interned, and the metrics they report to.
+  private Collection<StringInterner> interners;
+  private Metrics metrics;
+
   // This is used only for tests, otherwise this is being injected by the ingestion framework. 
   public ParseCSV(Config config) {
     this.config = config;
@@ -95,10 +105,14 @@ public final class ParseCSV extends Transform<StructuredRecord, StructuredRecord
 
     try {
       outSchema = Schema.parseJson(config.schema);
-      fields = outSchema.getFields();
     } catch (IOException e) {
       throw new IllegalArgumentException("Format of schema specified is invalid. Please check the format.");
     }
+    Map<String, StringInterner> fieldInterners = StringInterner.of(outSchema, config.intern);
+    columns = CSVColumns.of(outSchema, config.columns, fieldInterners);
+    interners = fieldInterners.values();
+    metrics = context == null ? null : context.getMetrics();
+    malformed = new MalformedRows(context, LOG, columns.getWidth());
   }
 
   @Override
@@ -119,44 +133,56 @@ public final class ParseCSV extends Transform<StructuredRecord, StructuredRecord
     }
     
     // Check if schema specified is a valid schema or no. 
+    Schema schema;
     try {
-      Schema.parseJson(config.schema);
+      schema = Schema.parseJson(config.schema);
     } catch (IOException e) {
       throw new IllegalArgumentException("Format of schema specified is invalid. Please check the format.");
     }
     
+    // Check if the column mapping and the interned fields match the schema.
+    CSVColumns.of(schema, config.columns);
+    StringInterner.of(schema, config.intern);
+    
   }
 
   @Override
   public void transform(StructuredRecord in, Emitter<StructuredRecord> emitter) throws Exception {
-    // Field has to string to be parsed correctly. For others throw an exception.
-    String body = in.get(config.field);
+    // Field has to be a string, or UTF-8 bytes, to be parsed correctly. For others throw an exception.
+    String body = ByteBuffers.toString(in.get(config.field), config.field, StandardCharsets.UTF_8);
     
-    // Parse the text as CSV and emit it as structured record.
-    try {
-      CSVParser parser = CSVParser.parse(body, csvFormat);
-      List<CSVRecord> records = parser.getRecords();
-      for(CSVRecord record : records ) {
-        if(fields.size() == record.size()) {
+    // Parse the text as CSV and emit every record as soon as it's read, rather than
+    // materializing all the records of the body first.
+    try (CSVParser parser = CSVParser.parse(body, csvFormat)) {
+      for(CSVRecord record : parser) {
+        if(columns.accepts(record.size())) {
           StructuredRecord sRecord = createStructuredRecord(record);
           emitter.emit(sRecord);
         } else {
-          LOG.warn("Skipping record as ouput schema specified has '{}' fields, while CSV record has '{}'",
-                     fields.size(), record.size());
-          // Write the record to error Dataset.
+          malformed.row(record.getRecordNumber(), record.size());
         }
       }
     } catch (IOException e) { 
-      LOG.error("There was a issue parsing the record. ", e.getLocalizedMessage());
+      malformed.failed(e);
+    } catch (RuntimeException e) {
+      // Iterating the parser wraps the IOException when reading the next record fails, in a
+      // RuntimeException in commons-csv 1.2 and in an IllegalStateException in later versions.
+      if (!(e.getCause() instanceof IOException)) {
+        throw e;
+      }
+      malformed.failed((IOException) e.getCause());
+    } finally {
+      malformed.report(in, emitter);
+      for (StringInterner interner : interners) {
+        interner.report(metrics);
+      }
     }
   }
 
   private StructuredRecord createStructuredRecord(CSVRecord record) {
     StructuredRecord.Builder builder = StructuredRecord.builder(outSchema);
-    int i = 0;
-    for(Field field : fields) {
-      builder.set(field.getName(), TypeConvertors.get(record.get(i), field.getSchema().getType()));
-      ++i;
+    for(int i = 0; i < columns.size(); ++i) {
+      builder.set(columns.getName(i), columns.getConverter(i).convert(record.get(columns.getColumn(i))));
     }
     return builder.build();
   }
@@ -179,10 +205,34 @@ public final class ParseCSV extends Transform<StructuredRecord, StructuredRecord
     @Description("Specifies the schema that has to be output.")
     private final String schema;
     
+    @Name("columns")
+    @Description("Specifies the CSV columns to be parsed into the output fields. Format is " +
+      "<column-index>:<field>[,<column-index>:<field>]*. Columns that are not mapped are skipped. Maps " +
+      "every column to the field at the same position if not specified.")
+    @Nullable
+    private final String columns;
+    
+    @Name("intern")
+    @Description("Specifies the string fields whose repeated values share a single instance, for fields with few " +
+      "distinct values. Format is <field>[:<capacity>][,<field>[:<capacity>]]*, the capacity is the number of " +
+      "distinct values kept per field and defaults to 1024.")
+    @Nullable
+    private final String intern;
+    
     public Config(String format, String field, String schema) {
+      this(format, field, schema, null);
+    }
+    
+    public Config(String format, String field, String schema, String columns) {
+      this(format, field, schema, columns, null);
+    }
+    
+    public Config(String format, String field, String schema, String columns, String intern) {
       this.format = format;
       this.field = field;
       this.schema = schema;
+      this.columns = columns;
+      this.intern = intern;
     }
   }
   
@@ -0,0 +1,554 @@
+/*
+ * Copyright © 2015 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.hydrator.transforms;
+
+import co.cask.cdap.api.annotation.Description;
+import co.cask.cdap.api.annotation.Name;
+import co.cask.cdap.api.annotation.Plugin;
+import co.cask.cdap.api.data.format.StructuredRecord;
+import co.cask.cdap.api.data.schema.Schema;
+import co.cask.cdap.api.plugin.PluginConfig;
+import co.cask.cdap.etl.api.Emitter;
+import co.cask.cdap.etl.api.PipelineConfigurer;
+import co.cask.cdap.etl.api.Transform;
+import co.cask.cdap.etl.api.TransformContext;
+import com.google.common.collect.Lists;
+
+import java.lang.reflect.Array;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import javax.annotation.Nullable;
+
+/**
+ * Computes one fingerprint of several fields of a record, or of all of them, for dedupe and
+ * change detection, and adds it to the record.
+ *
+ * <p>
+ * The fields are written one after the other into a buffer reused across records, in a
+ * canonical encoding, and the buffer is hashed once. Every field starts with a tag byte, 0 for
+ * null values and the type of the value otherwise. BOOLEAN values are a byte, INT, LONG, FLOAT
+ * and DOUBLE values their bits as little endian, and STRING, ENUM and BYTES values their UTF-8
+ * or raw bytes prefixed with their length as a 4 bytes little endian int. ARRAY values are their
+ * number of elements, as a 4 bytes int, followed by the elements, and MAP values their number of
+ * entries followed by the key and value of every entry, in the order of the encoded keys so the
+ * order of the map doesn't matter. RECORD values are their fields in the order of their schema,
+ * and values of unions other than the nullable ones are prefixed with the index of their branch.
+ * No two different records encode to the same bytes. Values are encoded straight into the
+ * buffer, without intermediate strings.
+ * </p>
+ *
+ * <p>
+ * When the whole record is fingerprinted, a fingerprint field already in the record is left out,
+ * so fingerprinting a record again gives the same fingerprint.
+ * </p>
+ *
+ * <p>
+ * The hash is one of the algorithms of the {@link Hasher}, xxHash64 by default, and the
+ * fingerprint is written like the Hasher writes digests, as a LONG by default.
+ * </p>
+ */
+@Plugin(type = "transform")
+@Name("RecordFingerprint")
+@Description("Computes one hash over several fields of a record, or all of them, and adds it to the record.")
+public final class RecordFingerprint extends Transform<StructuredRecord, StructuredRecord> {
+  /**
+   * Name of the fingerprint field of the configurations that don't set one.
+   */
+  public static final String DEFAULT_FIELD = "fingerprint";
+
+  private static final byte NULL = 0;
+  private static final byte BOOLEAN = 1;
+  private static final byte INT = 2;
+  private static final byte LONG = 3;
+  private static final byte FLOAT = 4;
+  private static final byte DOUBLE = 5;
+  private static final byte STRING = 6;
+  private static final byte BYTES = 7;
+  private static final byte ARRAY = 8;
+  private static final byte MAP = 9;
+  private static final byte RECORD = 10;
+  private static final byte UNION = 11;
+
+  private final Config config;
+
+  // Fields fingerprinted, all of them when null.
+  private List<String> fields;
+
+  private String fingerprintField;
+
+  // Type of the fingerprint field.
+  private Schema.Type output;
+
+  // Hashing of the encoded fields.
+  private CodecChain hasher;
+
+  // Plans of the input schemas seen.
+  private SchemaCache<Plan> plans;
+
+  // Encoded fields of the record being fingerprinted.
+  private byte[] buffer = new byte[1024];
+  private int length;
+
+  // This is used only for tests, otherwise this is being injected by the ingestion framework.
+  public RecordFingerprint(Config config) {
+    this.config = config;
+  }
+
+  @Nullable
+  private static List<String> fieldsOf(@Nullable String spec) {
+    if(spec == null || spec.trim().isEmpty()) {
+      return null;
+    }
+    List<String> fields = Lists.newArrayList();
+    for(String field : spec.split(",")) {
+      fields.add(field.trim());
+    }
+    return fields;
+  }
+
+  private static Schema.Type outputOf(@Nullable String output) throws IllegalArgumentException {
+    return output == null || output.trim().isEmpty() ? Schema.Type.LONG : Hasher.outputOf(output);
+  }
+
+  @Override
+  public void initialize(TransformContext context) throws Exception {
+    super.initialize(context);
+    fields = fieldsOf(config.fields);
+    fingerprintField = config.field == null || config.field.trim().isEmpty() ? DEFAULT_FIELD : config.field.trim();
+    output = outputOf(config.output);
+    HashType hash = config.hash == null || config.hash.trim().isEmpty() ? HashType.XXHASH64
+      : Hasher.hashOf(config.hash);
+    CodecChain.Builder chain = CodecChain.builder().digest(hash, Hasher.keyOf(hash, config.key));
+    if(output == Schema.Type.STRING) {
+      chain.encode(EncodeDecodeType.HEX);
+    }
+    hasher = chain.build();
+    plans = new SchemaCache<Plan>(context == null ? null : context.getMetrics()) {
+      @Override
+      protected Plan compile(Schema inSchema) {
+        return new Plan(inSchema);
+      }
+    };
+  }
+
+  @Override
+  public void destroy() {
+    if(plans != null) {
+      plans.flush();
+    }
+    if(hasher != null) {
+      hasher.close();
+    }
+  }
+
+  @Override
+  public void configurePipeline(PipelineConfigurer pipelineConfigurer) throws IllegalArgumentException {
+    super.configurePipeline(pipelineConfigurer);
+    List<String> fingerprinted = fieldsOf(config.fields);
+    String field = config.field == null || config.field.trim().isEmpty() ? DEFAULT_FIELD : config.field.trim();
+    if(fingerprinted != null && fingerprinted.contains(field)) {
+      throw new IllegalArgumentException("Field '" + field + "' can't be both fingerprinted and the fingerprint.");
+    }
+    outputOf(config.output);
+    if(config.hash != null && !config.hash.trim().isEmpty()) {
+      Hasher.keyOf(Hasher.hashOf(config.hash), config.key);
+    } else {
+      Hasher.keyOf(HashType.XXHASH64, config.key);
+    }
+  }
+
+  @Override
+  public void transform(StructuredRecord in, Emitter<StructuredRecord> emitter) throws Exception {
+    Plan plan = plans.get(in.getSchema());
+    length = 0;
+    for(int i = 0; i < plan.names.length; ++i) {
+      encode(plan.names[i], plan.schemas[i], in.get(plan.names[i]));
+    }
+
+    StructuredRecord.Builder builder = StructuredRecord.builder(plan.outSchema);
+    for(String name : plan.copied) {
+      builder.set(name, in.get(name));
+    }
+    ByteBuffer encoded = ByteBuffer.wrap(buffer, 0, length);
+    switch(output) {
+      case LONG:
+        builder.set(fingerprintField, hasher.applyAsLong(encoded));
+        break;
+      case BYTES:
+        ByteBuffer digest = hasher.apply(encoded);
+        int offset = digest.arrayOffset() + digest.position();
+        builder.set(fingerprintField, Arrays.copyOfRange(digest.array(), offset, offset + digest.remaining()));
+        break;
+      default:
+        builder.set(fingerprintField, hasher.apply(encoded, StandardCharsets.US_ASCII));
+        break;
+    }
+    emitter.emit(builder.build());
+  }
+
+  private void encode(String name, Schema schema, @Nullable Object value) {
+    if(value == null) {
+      ensureCapacity(1);
+      buffer[length++] = NULL;
+      return;
+    }
+    switch(schema.getType()) {
+      case BOOLEAN:
+        ensureCapacity(2);
+        buffer[length++] = BOOLEAN;
+        buffer[length++] = (byte) ((Boolean) value ? 1 : 0);
+        break;
+      case INT:
+        ensureCapacity(5);
+        buffer[length++] = INT;
+        writeInt(((Number) value).intValue());
+        break;
+      case LONG:
+        ensureCapacity(9);
+        buffer[length++] = LONG;
+        FastHash.writeLong(buffer, length, ((Number) value).longValue());
+        length += 8;
+        break;
+      case FLOAT:
+        ensureCapacity(5);
+        buffer[length++] = FLOAT;
+        writeInt(Float.floatToIntBits(((Number) value).floatValue()));
+        break;
+      case DOUBLE:
+        ensureCapacity(9);
+        buffer[length++] = DOUBLE;
+        FastHash.writeLong(buffer, length, Double.doubleToLongBits(((Number) value).doubleValue()));
+        length += 8;
+        break;
+      case BYTES:
+        ByteBuffer bytes = ByteBuffers.wrap(value, name);
+        int size = bytes.remaining();
+        ensureCapacity(5 + size);
+        buffer[length++] = BYTES;
+        writeInt(size);
+        bytes.get(buffer, length, size);
+        length += size;
+        break;
+      case ARRAY:
+        encodeArray(name, schema.getComponentSchema(), value);
+        break;
+      case MAP:
+        encodeMap(name, schema.getMapSchema(), (Map<?, ?>) value);
+        break;
+      case RECORD:
+        StructuredRecord record = (StructuredRecord) value;
+        ensureCapacity(1);
+        buffer[length++] = RECORD;
+        for(Schema.Field field : schema.getFields()) {
+          encode(field.getName(), field.getSchema(), record.get(field.getName()));
+        }
+        break;
+      case UNION:
+        Schema nonNullable = FieldConverter.getNonNullable(schema);
+        if(nonNullable != null) {
+          encode(name, nonNullable, value);
+        } else {
+          int branch = branchOf(name, schema, value);
+          ensureCapacity(5);
+          buffer[length++] = UNION;
+          writeInt(branch);
+          encode(name, schema.getUnionSchemas().get(branch), value);
+        }
+        break;
+      default:
+        encodeString(value.toString());
+        break;
+    }
+  }
+
+  /**
+   * Encodes an ARRAY value, held in a collection or an array, as it's size and elements.
+   */
+  private void encodeArray(String name, Schema component, Object value) {
+    ensureCapacity(5);
+    buffer[length++] = ARRAY;
+    if(value instanceof Collection) {
+      Collection<?> elements = (Collection<?>) value;
+      writeInt(elements.size());
+      for(Object element : elements) {
+        encode(name, component, element);
+      }
+    } else {
+      int size = Array.getLength(value);
+      writeInt(size);
+      for(int i = 0; i < size; ++i) {
+        encode(name, component, Array.get(value, i));
+      }
+    }
+  }
+
+  /**
+   * Encodes a MAP value as it's size and entries, sorted by their encoded keys.
+   */
+  private void encodeMap(String name, Map.Entry<Schema, Schema> schemas, Map<?, ?> map) {
+    ensureCapacity(5);
+    buffer[length++] = MAP;
+    writeInt(map.size());
+    // Start of every entry and end of it's key.
+    final int[] bounds = new int[2 * map.size() + 1];
+    int i = 0;
+    for(Map.Entry<?, ?> entry : map.entrySet()) {
+      bounds[i++] = length;
+      encode(name, schemas.getKey(), entry.getKey());
+      bounds[i++] = length;
+      encode(name, schemas.getValue(), entry.getValue());
+    }
+    bounds[i] = length;
+    if(map.size() < 2) {
+      return;
+    }
+
+    Integer[] order = new Integer[map.size()];
+    for(int j = 0; j < order.length; ++j) {
+      order[j] = j;
+    }
+    final byte[] encoded = Arrays.copyOfRange(buffer, bounds[0], length);
+    final int start = bounds[0];
+    Arrays.sort(order, new Comparator<Integer>() {
+      @Override
+      public int compare(Integer a, Integer b) {
+        int from = bounds[2 * a] - start;
+        int to = bounds[2 * a + 1] - start;
+        int otherFrom = bounds[2 * b] - start;
+        int otherTo = bounds[2 * b + 1] - start;
+        for(; from < to && otherFrom < otherTo; ++from, ++otherFrom) {
+          int diff = (encoded[from] & 0xFF) - (encoded[otherFrom] & 0xFF);
+          if(diff != 0) {
+            return diff;
+          }
+        }
+        return (to - from) - (otherTo - otherFrom);
+      }
+    });
+    int pos = start;
+    for(int entry : order) {
+      int size = bounds[2 * entry + 2] - bounds[2 * entry];
+      System.arraycopy(encoded, bounds[2 * entry] - start, buffer, pos, size);
+      pos += size;
+    }
+  }
+
+  /**
+   * @return index of the branch of a union a value is of.
+   */
+  private static int branchOf(String name, Schema union, Object value) throws IllegalArgumentException {
+    List<Schema> branches = union.getUnionSchemas();
+    for(int i = 0; i < branches.size(); ++i) {
+      Schema branch = branches.get(i);
+      switch(branch.getType()) {
+        case BOOLEAN:
+          if(value instanceof Boolean) {
+            return i;
+          }
+          break;
+        case INT:
+          if(value instanceof Integer) {
+            return i;
+          }
+          break;
+        case LONG:
+          if(value instanceof Long) {
+            return i;
+          }
+          break;
+        case FLOAT:
+          if(value instanceof Float) {
+            return i;
+          }
+          break;
+        case DOUBLE:
+          if(value instanceof Double) {
+            return i;
+          }
+          break;
+        case STRING:
+        case ENUM:
+          if(value instanceof CharSequence) {
+            return i;
+          }
+          break;
+        case BYTES:
+          if(value instanceof byte[] || value instanceof ByteBuffer) {
+            return i;
+          }
+          break;
+        case ARRAY:
+          if(value instanceof Collection || value.getClass().isArray()) {
+            return i;
+          }
+          break;
+        case MAP:
+          if(value instanceof Map) {
+            return i;
+          }
+          break;
+        case RECORD:
+          if(value instanceof StructuredRecord && branch.equals(((StructuredRecord) value).getSchema())) {
+            return i;
+          }
+          break;
+        default:
+          break;
+      }
+    }
+    throw new IllegalArgumentException("Value of field '" + name + "' is of none of the types of it's union.");
+  }
+
+  /**
+   * Encodes a STRING or ENUM value as UTF-8 straight into the buffer.
+   */
+  private void encodeString(String value) {
+    int chars = value.length();
+    // At most 3 bytes per char, surrogate pairs are 4 bytes for 2 chars.
+    ensureCapacity(5 + 3 * chars);
+    buffer[length++] = STRING;
+    int start = length + 4;
+    int pos = start;
+    byte[] out = buffer;
+    for(int i = 0; i < chars; ++i) {
+      char c = value.charAt(i);
+      if(c < 0x80) {
+        out[pos++] = (byte) c;
+      } else if(c < 0x800) {
+        out[pos++] = (byte) (0xC0 | c >> 6);
+        out[pos++] = (byte) (0x80 | c & 0x3F);
+      } else if(Character.isHighSurrogate(c) && i + 1 < chars && Character.isLowSurrogate(value.charAt(i + 1))) {
+        int cp = Character.toCodePoint(c, value.charAt(++i));
+        out[pos++] = (byte) (0xF0 | cp >> 18);
+        out[pos++] = (byte) (0x80 | cp >> 12 & 0x3F);
+        out[pos++] = (byte) (0x80 | cp >> 6 & 0x3F);
+        out[pos++] = (byte) (0x80 | cp & 0x3F);
+      } else if(Character.isSurrogate(c)) {
+        // Lone surrogates are encoded as '?', like String.getBytes does.
+        out[pos++] = '?';
+      } else {
+        out[pos++] = (byte) (0xE0 | c >> 12);
+        out[pos++] = (byte) (0x80 | c >> 6 & 0x3F);
+        out[pos++] = (byte) (0x80 | c & 0x3F);
+      }
+    }
+    writeInt(pos - start);
+    length = pos;
+  }
+
+  // Writes a little endian int at the end of the encoded fields.
+  private void writeInt(int value) {
+    buffer[length++] = (byte) value;
+    buffer[length++] = (byte) (value >>> 8);
+    buffer[length++] = (byte) (value >>> 16);
+    buffer[length++] = (byte) (value >>> 24);
+  }
+
+  private void ensureCapacity(int needed) {
+    if(buffer.length - length < needed) {
+      buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, length + needed));
+    }
+  }
+
+  /**
+   * Fields fingerprinted and output schema of an input schema.
+   */
+  private final class Plan {
+    private final String[] names;
+    private final Schema[] schemas;
+    private final List<String> copied = Lists.newArrayList();
+    private final Schema outSchema;
+
+    private Plan(Schema inSchema) {
+      List<Schema.Field> selected = Lists.newArrayList();
+      if(fields == null) {
+        for(Schema.Field field : inSchema.getFields()) {
+          if(!field.getName().equals(fingerprintField)) {
+            selected.add(field);
+          }
+        }
+      } else {
+        for(String name : fields) {
+          Schema.Field field = inSchema.getField(name);
+          if(field == null) {
+            throw new IllegalArgumentException("Fingerprinted field '" + name + "' is not in the input schema.");
+          }
+          selected.add(field);
+        }
+      }
+      names = new String[selected.size()];
+      schemas = new Schema[selected.size()];
+      for(int i = 0; i < names.length; ++i) {
+        Schema.Field field = selected.get(i);
+        names[i] = field.getName();
+        schemas[i] = field.getSchema();
+      }
+
+      List<Schema.Field> outFields = Lists.newArrayList();
+      for(Schema.Field field : inSchema.getFields()) {
+        if(!field.getName().equals(fingerprintField)) {
+          outFields.add(field);
+          copied.add(field.getName());
+        }
+      }
+      outFields.add(Schema.Field.of(fingerprintField, Schema.of(output)));
+      outSchema = Schema.recordOf(inSchema.getRecordName(), outFields);
+    }
+  }
+
+  public static class Config extends PluginConfig {
+    @Name("fields")
+    @Description("List of fields to fingerprint, in order. All the fields of the record when empty.")
+    @Nullable
+    private final String fields;
+
+    @Name("field")
+    @Description("Specifies the name of the fingerprint field added to the record. Defaults to 'fingerprint'.")
+    @Nullable
+    private final String field;
+
+    @Name("hash")
+    @Description("Specifies the hash algorithm, one of those of the Hasher. Defaults to xxhash64.")
+    @Nullable
+    private final String hash;
+
+    @Name("key")
+    @Description("Specifies the 16 bytes key of siphash24, as 32 hex digits.")
+    @Nullable
+    private final String key;
+
+    @Name("output")
+    @Description("Specifies whether the fingerprint is written as a LONG (long), as raw BYTES (bytes) or as lower " +
+      "case hex to a STRING (hex). Defaults to long.")
+    @Nullable
+    private final String output;
+
+    public Config(@Nullable String fields, @Nullable String field, @Nullable String hash, @Nullable String key,
+                  @Nullable String output) {
+      this.fields = fields;
+      this.field = field;
+      this.hash = hash;
+      this.key = key;
+      this.output = output;
+    }
+  }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright © 2015 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.hydrator.transforms;
+
+import co.cask.cdap.api.data.schema.Schema;
+import co.cask.cdap.api.metrics.Metrics;
+import com.google.common.collect.Maps;
+
+import java.util.Map;
+import javax.annotation.Nullable;
+
+/**
+ * Cache of what a transform works out once per input schema, see {@link FieldPlanCache} for the
+ * plans of the codec transforms.
+ *
+ * <p>
+ * The last schema is checked by identity before the map, at most {@link #MAX_SCHEMAS} entries are
+ * kept and lookups are counted in the <code>plan.cache</code> stage metrics.
+ * </p>
+ *
+ * @param <T> type of what is worked out for a schema.
+ */
+public abstract class SchemaCache<T> {
+  public static final int MAX_SCHEMAS = 64;
+
+  private static final int HITS_BATCH = 1024;
+
+  private final Map<Schema, T> entries = Maps.newHashMap();
+
+  @Nullable
+  private final Metrics metrics;
+
+  // Last schema looked up and it's entry.
+  private Schema lastSchema;
+  private T lastEntry;
+
+  // Hits not yet added to the metrics.
+  private int hits;
+
+  /**
+   * @param metrics stage metrics, null when there are none.
+   */
+  protected SchemaCache(@Nullable Metrics metrics) {
+    this.metrics = metrics;
+  }
+
+  /**
+   * Compiles the entry of an input schema.
+   *
+   * @param inSchema input schema.
+   * @return entry for the records of the schema.
+   * @throws Exception if records of the schema can't be transformed.
+   */
+  protected abstract T compile(Schema inSchema) throws Exception;
+
+  /**
+   * @return entry of an input schema, compiled if it's not cached.
+   * @throws Exception if records of the schema can't be transformed.
+   */
+  public T get(Schema inSchema) throws Exception {
+    if (inSchema == lastSchema) {
+      hit();
+      return lastEntry;
+    }
+
+    T entry = entries.get(inSchema);
+    if (entry != null) {
+      hit();
+    } else {
+      entry = compile(inSchema);
+      if (entries.size() >= MAX_SCHEMAS) {
+        entries.clear();
+      }
+      entries.put(inSchema, entry);
+      if (metrics != null) {
+        metrics.count("plan.cache.misses", 1);
+      }
+    }
+    lastSchema = inSchema;
+    lastEntry = entry;
+    return entry;
+  }
+
+  /**
+   * Adds the hits not yet counted to the metrics.
+   */
+  public void flush() {
+    if (metrics != null && hits > 0) {
+      metrics.count("plan.cache.hits", hits);
+    }
+    hits = 0;
+  }
+
+  private void hit() {
+    if (++hits == HITS_BATCH) {
+      flush();
+    }
+  }
+}
@@ -0,0 +1,251 @@
+/*
+ * Copyright © 2015 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.hydrator.transforms;
+
+import co.cask.cdap.api.data.schema.Schema;
+import co.cask.cdap.api.metrics.Metrics;
+import com.google.common.collect.Maps;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.annotation.Nullable;
+
+/**
+ * Bounded cache of the distinct values of a string column, returning the same instance for
+ * repeated values.
+ *
+ * <p>
+ * Columns with few distinct values, like countries or statuses, otherwise hold a new String
+ * per row until the records are written. The cache is a two way set associative table of a
+ * fixed number of values: values hashing to a full set evict the least recently used value of
+ * the set, so columns with more distinct values than the cache holds keep working, only with
+ * a lower hit rate. Values held in a range of a byte array are looked up without creating a
+ * String when they are ASCII, a String is only created on a miss.
+ * </p>
+ *
+ * <p>
+ * The cache is shared by the threads of parallel parsing. Lookups only ever return a value equal
+ * to the one looked up, whatever the interleaving, and the hit and miss counts are atomic.
+ * </p>
+ */
+public final class StringInterner {
+  public static final int DEFAULT_CAPACITY = 1024;
+
+  /**
+   * Largest capacity of an interner, a million values.
+   */
+  public static final int MAX_CAPACITY = 1 << 20;
+
+  /**
+   * Number of records between two reports of the counts, for the transforms parsing one record
+   * at a time.
+   */
+  public static final int REPORT_INTERVAL = 1024;
+
+  private final String name;
+  private final String[] values;
+  private final int mask;
+
+  // Lookups since the counts were last reported.
+  private final AtomicInteger hits = new AtomicInteger();
+  private final AtomicInteger misses = new AtomicInteger();
+
+  /**
+   * @param name name of the field, used in the metric names.
+   * @param capacity maximum number of values held, rounded up to a power of two.
+   * @throws IllegalArgumentException if the capacity is less than 2 or more than {@link #MAX_CAPACITY}.
+   */
+  public StringInterner(String name, int capacity) throws IllegalArgumentException {
+    if (capacity < 2) {
+      throw new IllegalArgumentException("Interning capacity '" + capacity + "' of field '" + name + "' is less " +
+                                           "than 2.");
+    }
+    if (capacity > MAX_CAPACITY) {
+      throw new IllegalArgumentException("Interning capacity '" + capacity + "' of field '" + name + "' is more " +
+                                           "than " + MAX_CAPACITY + ".");
+    }
+    int size = Integer.highestOneBit(capacity - 1) << 1;
+    this.name = name;
+    this.values = new String[size];
+    this.mask = (size - 1) & ~1;
+  }
+
+  /**
+   * Creates the interners of the fields listed in a specification.
+   *
+   * @param schema output schema.
+   * @param spec fields to intern <code>&lt;field&gt;[:&lt;capacity&gt;][,&lt;field&gt;[:&lt;capacity&gt;]]*</code>,
+   *             null or empty to intern none.
+   * @return interners by field name.
+   * @throws IllegalArgumentException if the specification is malformed or a field is not a string field.
+   */
+  public static Map<String, StringInterner> of(Schema schema, @Nullable String spec) throws IllegalArgumentException {
+    Map<String, StringInterner> interners = Maps.newHashMap();
+    if (spec == null || spec.trim().isEmpty()) {
+      return interners;
+    }
+    for (String entry : spec.split(",")) {
+      String[] params = entry.trim().split(":");
+      if (params.length > 2) {
+        throw new IllegalArgumentException("Interned field " + entry + " is in-correctly formed. " +
+                                             "Format should be <field>[:<capacity>]");
+      }
+      String name = params[0].trim();
+      Schema.Field field = schema.getField(name);
+      if (field == null) {
+        throw new IllegalArgumentException("Interned field '" + name + "' is not in the output schema.");
+      }
+      Schema fieldSchema = field.getSchema();
+      if (fieldSchema.getType() == Schema.Type.UNION) {
+        fieldSchema = FieldConverter.getNonNullable(fieldSchema);
+      }
+      if (fieldSchema == null || fieldSchema.getType() != Schema.Type.STRING) {
+        throw new IllegalArgumentException("Interned field '" + name + "' is not a string field.");
+      }
+      int capacity = DEFAULT_CAPACITY;
+      if (params.length == 2) {
+        try {
+          capacity = Integer.parseInt(params[1].trim());
+        } catch (NumberFormatException e) {
+          throw new IllegalArgumentException("Interning capacity '" + params[1] + "' of field '" + name +
+                                               "' is not a number.");
+        }
+      }
+      interners.put(name, new StringInterner(name, capacity));
+    }
+    return interners;
+  }
+
+  /**
+   * @return canonical instance of the value, null for null.
+   */
+  @Nullable
+  public String intern(@Nullable String value) {
+    if (value == null) {
+      return null;
+    }
+    int set = spread(value.hashCode()) & mask;
+    String first = values[set];
+    if (value.equals(first)) {
+      hits.incrementAndGet();
+      return first;
+    }
+    String second = values[set + 1];
+    if (value.equals(second)) {
+      hits.incrementAndGet();
+      values[set] = second;
+      values[set + 1] = first;
+      return second;
+    }
+    misses.incrementAndGet();
+    values[set] = value;
+    values[set + 1] = first;
+    return value;
+  }
+
+  /**
+   * Returns the canonical instance of a UTF-8 encoded value held in a range of a byte array.
+   * ASCII values are hashed and compared straight from the bytes.
+   *
+   * @param bytes array holding the value.
+   * @param offset start of the value.
+   * @param length length of the value in bytes.
+   * @return canonical instance of the value.
+   */
+  public String intern(byte[] bytes, int offset, int length) {
+    // Hash the bytes the way String.hashCode hashes the chars, which is the same for ASCII.
+    int hash = 0;
+    int end = offset + length;
+    for (int i = offset; i < end; ++i) {
+      byte b = bytes[i];
+      if (b < 0) {
+        return intern(new String(bytes, offset, length, StandardCharsets.UTF_8));
+      }
+      hash = 31 * hash + b;
+    }
+
+    int set = spread(hash) & mask;
+    String first = values[set];
+    if (matches(first, bytes, offset, length)) {
+      hits.incrementAndGet();
+      return first;
+    }
+    String second = values[set + 1];
+    if (matches(second, bytes, offset, length)) {
+      hits.incrementAndGet();
+      values[set] = second;
+      values[set + 1] = first;
+      return second;
+    }
+    misses.incrementAndGet();
+    String value = new String(bytes, offset, length, StandardCharsets.US_ASCII);
+    values[set] = value;
+    values[set + 1] = first;
+    return value;
+  }
+
+  /**
+   * Adds the hit and miss counts since the last report to the stage metrics, as
+   * <code>intern.&lt;field&gt;.hits</code> and <code>intern.&lt;field&gt;.misses</code>.
+   *
+   * @param metrics stage metrics, null to only reset the counts.
+   */
+  public void report(@Nullable Metrics metrics) {
+    int hitCount = hits.getAndSet(0);
+    int missCount = misses.getAndSet(0);
+    if (metrics != null) {
+      if (hitCount > 0) {
+        metrics.count("intern." + name + ".hits", hitCount);
+      }
+      if (missCount > 0) {
+        metrics.count("intern." + name + ".misses", missCount);
+      }
+    }
+  }
+
+  /**
+   * @return number of values looked up and found since the last report.
+   */
+  public int getHits() {
+    return hits.get();
+  }
+
+  /**
+   * @return number of values looked up and not found since the last report.
+   */
+  public int getMisses() {
+    return misses.get();
+  }
+
+  private static boolean matches(@Nullable String value, byte[] bytes, int offset, int length) {
+    if (value == null || value.length() != length) {
+      return false;
+    }
+    for (int i = 0; i < length; ++i) {
+      if (value.charAt(i) != bytes[offset + i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static int spread(int hash) {
+    // Mix the high bits in, String hashes of short values differ mostly in the low bits.
+    return hash ^ (hash >>> 16);
+  }
+}
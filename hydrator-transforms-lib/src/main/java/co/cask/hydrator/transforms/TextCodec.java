@@ -0,0 +1,444 @@
+/*
+ * Copyright © 2015 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.hydrator.transforms;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Table driven Base64, Base32 and Hex codecs, encoding and decoding between ranges of byte
+ * arrays.
+ *
+ * <p>
+ * The output is the same as the one of the commons-codec <code>Base64</code>, <code>Base32</code>
+ * and <code>Hex</code> codecs created with their default constructors: Base64 and Base32 are
+ * padded and not chunked, Hex is lower case. Decoding is as lenient as commons-codec, Base64 and
+ * Base32 skip the characters that are not in the alphabet and stop at the first padding
+ * character, Hex fails on any character that is not a hexadecimal digit.
+ * </p>
+ *
+ * <p>
+ * Unlike commons-codec, which goes through a stream oriented context and copies the output
+ * from an internal buffer, values are encoded and decoded in one pass into an output sized by
+ * the caller with {@link #encodedLength(int)} and {@link #maxDecodedLength(int)}. Encoding
+ * looks up two output characters at a time, decoding validates whole groups of characters with
+ * a single branch and only falls back to character by character decoding for padding and
+ * characters outside of the alphabet. Codecs are stateless and thread safe.
+ * </p>
+ */
+public abstract class TextCodec {
+  public static final TextCodec BASE64 = new Base64Codec();
+  public static final TextCodec BASE32 = new Base32Codec();
+  public static final TextCodec HEX = new HexCodec();
+
+  private static final byte PAD = '=';
+
+  // Decoding table values of the padding character and of characters outside of the alphabet.
+  private static final byte PADDING = -2;
+  private static final byte INVALID = -1;
+
+  /**
+   * @return codec of an encoding, not NONE.
+   */
+  public static TextCodec of(EncodeDecodeType type) {
+    switch (type) {
+      case BASE64:
+      case STRING_BASE64:
+        return BASE64;
+      case BASE32:
+      case STRING_BASE32:
+        return BASE32;
+      case HEX:
+        return HEX;
+      default:
+        throw new IllegalArgumentException("Unsupported encoding " + type);
+    }
+  }
+
+  /**
+   * @return length of the encoding of a value of the given length.
+   */
+  public abstract int encodedLength(int length);
+
+  /**
+   * @return upper bound of the length of the value decoded from an encoding of the given length.
+   */
+  public abstract int maxDecodedLength(int length);
+
+  /**
+   * Encodes a value.
+   *
+   * @param src array holding the value.
+   * @param offset start of the value.
+   * @param length length of the value.
+   * @param dst array for the encoding, with at least {@link #encodedLength(int)} bytes from dstOffset.
+   * @param dstOffset start of the encoding.
+   * @return length of the encoding.
+   */
+  public abstract int encode(byte[] src, int offset, int length, byte[] dst, int dstOffset);
+
+  /**
+   * Decodes a value.
+   *
+   * @param src array holding the encoding.
+   * @param offset start of the encoding.
+   * @param length length of the encoding.
+   * @param dst array for the value, with at least {@link #maxDecodedLength(int)} bytes from dstOffset.
+   * @param dstOffset start of the value.
+   * @return length of the value.
+   * @throws IOException if the encoding is malformed.
+   */
+  public abstract int decode(byte[] src, int offset, int length, byte[] dst, int dstOffset) throws IOException;
+
+  /**
+   * @return encoding of a value.
+   */
+  public byte[] encode(byte[] value) {
+    byte[] encoded = new byte[encodedLength(value.length)];
+    encode(value, 0, value.length, encoded, 0);
+    return encoded;
+  }
+
+  /**
+   * @return encoding of a value as a String. Encodings are ASCII, so the String is created with
+   *         the Latin-1 charset which copies the bytes as they are.
+   */
+  public String encodeToString(byte[] value) {
+    return new String(encode(value), StandardCharsets.ISO_8859_1);
+  }
+
+  /**
+   * @return value decoded from an encoding.
+   * @throws IOException if the encoding is malformed.
+   */
+  public byte[] decode(byte[] encoded) throws IOException {
+    byte[] value = new byte[maxDecodedLength(encoded.length)];
+    int length = decode(encoded, 0, encoded.length, value, 0);
+    return length == value.length ? value : Arrays.copyOf(value, length);
+  }
+
+  /**
+   * @return table of the pairs of characters encoding every value of twice the given bits.
+   */
+  private static char[] pairs(byte[] alphabet, int bits) {
+    char[] pairs = new char[1 << (2 * bits)];
+    for (int i = 0; i < pairs.length; ++i) {
+      pairs[i] = (char) (alphabet[i >>> bits] << 8 | alphabet[i & ((1 << bits) - 1)]);
+    }
+    return pairs;
+  }
+
+  /**
+   * @return table of the value of every character of the alphabets, the padding character and
+   *         invalid characters.
+   */
+  private static byte[] decodingTable(byte[]... alphabets) {
+    byte[] table = new byte[256];
+    Arrays.fill(table, INVALID);
+    for (byte[] alphabet : alphabets) {
+      for (int i = 0; i < alphabet.length; ++i) {
+        table[alphabet[i]] = (byte) i;
+      }
+    }
+    table[PAD] = PADDING;
+    return table;
+  }
+
+  /**
+   * Base64 with the standard alphabet, also decoding the URL safe alphabet like commons-codec.
+   */
+  private static final class Base64Codec extends TextCodec {
+    private static final byte[] ALPHABET =
+      "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] URL_SAFE_ALPHABET =
+      "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_".getBytes(StandardCharsets.US_ASCII);
+    private static final char[] PAIRS = pairs(ALPHABET, 6);
+    private static final byte[] DECODING = decodingTable(ALPHABET, URL_SAFE_ALPHABET);
+
+    @Override
+    public int encodedLength(int length) {
+      return (length + 2) / 3 * 4;
+    }
+
+    @Override
+    public int maxDecodedLength(int length) {
+      return (length + 3) / 4 * 3;
+    }
+
+    @Override
+    public int encode(byte[] src, int offset, int length, byte[] dst, int dstOffset) {
+      int end = offset + length - length % 3;
+      int out = dstOffset;
+      for (int i = offset; i < end; i += 3) {
+        int bits = (src[i] & 0xff) << 16 | (src[i + 1] & 0xff) << 8 | (src[i + 2] & 0xff);
+        char high = PAIRS[bits >>> 12];
+        char low = PAIRS[bits & 0xfff];
+        dst[out] = (byte) (high >>> 8);
+        dst[out + 1] = (byte) high;
+        dst[out + 2] = (byte) (low >>> 8);
+        dst[out + 3] = (byte) low;
+        out += 4;
+      }
+
+      int remaining = length % 3;
+      if (remaining > 0) {
+        int bits = (src[end] & 0xff) << 16 | (remaining == 2 ? (src[end + 1] & 0xff) << 8 : 0);
+        dst[out] = ALPHABET[bits >>> 18];
+        dst[out + 1] = ALPHABET[(bits >>> 12) & 0x3f];
+        dst[out + 2] = remaining == 2 ? ALPHABET[(bits >>> 6) & 0x3f] : PAD;
+        dst[out + 3] = PAD;
+        out += 4;
+      }
+      return out - dstOffset;
+    }
+
+    @Override
+    public int decode(byte[] src, int offset, int length, byte[] dst, int dstOffset) {
+      int end = offset + length;
+      int out = dstOffset;
+      int i = offset;
+
+      // Groups of four characters of the alphabet, any other character has a negative value.
+      for (; i + 4 <= end; i += 4) {
+        int a = DECODING[src[i] & 0xff];
+        int b = DECODING[src[i + 1] & 0xff];
+        int c = DECODING[src[i + 2] & 0xff];
+        int d = DECODING[src[i + 3] & 0xff];
+        if ((a | b | c | d) < 0) {
+          break;
+        }
+        int bits = a << 18 | b << 12 | c << 6 | d;
+        dst[out] = (byte) (bits >>> 16);
+        dst[out + 1] = (byte) (bits >>> 8);
+        dst[out + 2] = (byte) bits;
+        out += 3;
+      }
+
+      // The rest one character at a time, skipping invalid characters, up to the padding.
+      int bits = 0;
+      int count = 0;
+      for (; i < end; ++i) {
+        int value = DECODING[src[i] & 0xff];
+        if (value == PADDING) {
+          break;
+        }
+        if (value == INVALID) {
+          continue;
+        }
+        bits = bits << 6 | value;
+        if (++count == 4) {
+          dst[out] = (byte) (bits >>> 16);
+          dst[out + 1] = (byte) (bits >>> 8);
+          dst[out + 2] = (byte) bits;
+          out += 3;
+          bits = 0;
+          count = 0;
+        }
+      }
+
+      // Trailing characters of an incomplete group, a single character doesn't make a byte.
+      if (count == 2) {
+        dst[out++] = (byte) (bits >>> 4);
+      } else if (count == 3) {
+        dst[out] = (byte) (bits >>> 10);
+        dst[out + 1] = (byte) (bits >>> 2);
+        out += 2;
+      }
+      return out - dstOffset;
+    }
+  }
+
+  /**
+   * Base32 with the standard alphabet, also decoding lower case characters.
+   */
+  private static final class Base32Codec extends TextCodec {
+    private static final byte[] ALPHABET = "ABCDEFGHIJKLMNOPQRSTUVWXYZ234567".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] LOWER_CASE_ALPHABET =
+      "abcdefghijklmnopqrstuvwxyz234567".getBytes(StandardCharsets.US_ASCII);
+    private static final char[] PAIRS = pairs(ALPHABET, 5);
+    private static final byte[] DECODING = decodingTable(ALPHABET, LOWER_CASE_ALPHABET);
+
+    @Override
+    public int encodedLength(int length) {
+      return (length + 4) / 5 * 8;
+    }
+
+    @Override
+    public int maxDecodedLength(int length) {
+      return (length + 7) / 8 * 5;
+    }
+
+    @Override
+    public int encode(byte[] src, int offset, int length, byte[] dst, int dstOffset) {
+      int end = offset + length - length % 5;
+      int out = dstOffset;
+      for (int i = offset; i < end; i += 5) {
+        long bits = (src[i] & 0xffL) << 32 | (src[i + 1] & 0xffL) << 24 | (src[i + 2] & 0xffL) << 16
+          | (src[i + 3] & 0xffL) << 8 | (src[i + 4] & 0xffL);
+        char first = PAIRS[(int) (bits >>> 30)];
+        char second = PAIRS[(int) (bits >>> 20) & 0x3ff];
+        char third = PAIRS[(int) (bits >>> 10) & 0x3ff];
+        char fourth = PAIRS[(int) bits & 0x3ff];
+        dst[out] = (byte) (first >>> 8);
+        dst[out + 1] = (byte) first;
+        dst[out + 2] = (byte) (second >>> 8);
+        dst[out + 3] = (byte) second;
+        dst[out + 4] = (byte) (third >>> 8);
+        dst[out + 5] = (byte) third;
+        dst[out + 6] = (byte) (fourth >>> 8);
+        dst[out + 7] = (byte) fourth;
+        out += 8;
+      }
+
+      int remaining = length % 5;
+      if (remaining > 0) {
+        long bits = 0;
+        for (int i = 0; i < remaining; ++i) {
+          bits |= (src[end + i] & 0xffL) << (32 - 8 * i);
+        }
+        // Every started group of five bits makes a character, the rest of the group is padding.
+        int chars = (remaining * 8 + 4) / 5;
+        for (int i = 0; i < 8; ++i) {
+          dst[out + i] = i < chars ? ALPHABET[(int) (bits >>> (35 - 5 * i)) & 0x1f] : PAD;
+        }
+        out += 8;
+      }
+      return out - dstOffset;
+    }
+
+    @Override
+    public int decode(byte[] src, int offset, int length, byte[] dst, int dstOffset) {
+      int end = offset + length;
+      int out = dstOffset;
+      int i = offset;
+
+      // Groups of eight characters of the alphabet, any other character has a negative value.
+      for (; i + 8 <= end; i += 8) {
+        int a = DECODING[src[i] & 0xff];
+        int b = DECODING[src[i + 1] & 0xff];
+        int c = DECODING[src[i + 2] & 0xff];
+        int d = DECODING[src[i + 3] & 0xff];
+        int e = DECODING[src[i + 4] & 0xff];
+        int f = DECODING[src[i + 5] & 0xff];
+        int g = DECODING[src[i + 6] & 0xff];
+        int h = DECODING[src[i + 7] & 0xff];
+        if ((a | b | c | d | e | f | g | h) < 0) {
+          break;
+        }
+        long bits = (long) a << 35 | (long) b << 30 | (long) c << 25 | (long) d << 20 | e << 15 | f << 10
+          | g << 5 | h;
+        out = writeBytes(bits, 5, dst, out);
+      }
+
+      // The rest one character at a time, skipping invalid characters, up to the padding.
+      long bits = 0;
+      int count = 0;
+      for (; i < end; ++i) {
+        int value = DECODING[src[i] & 0xff];
+        if (value == PADDING) {
+          break;
+        }
+        if (value == INVALID) {
+          continue;
+        }
+        bits = bits << 5 | value;
+        if (++count == 8) {
+          out = writeBytes(bits, 5, dst, out);
+          bits = 0;
+          count = 0;
+        }
+      }
+
+      // Trailing characters of an incomplete group, the bits that don't make a whole byte are dropped.
+      int bytes = count * 5 / 8;
+      return writeBytes(bits >>> (count * 5 - bytes * 8), bytes, dst, out) - dstOffset;
+    }
+
+    /**
+     * Writes the given number of low order bytes of bits, most significant first.
+     *
+     * @return offset after the bytes written.
+     */
+    private static int writeBytes(long bits, int bytes, byte[] dst, int offset) {
+      for (int i = 0; i < bytes; ++i) {
+        dst[offset + i] = (byte) (bits >>> (8 * (bytes - 1 - i)));
+      }
+      return offset + bytes;
+    }
+  }
+
+  /**
+   * Lower case Hex, decoding both cases.
+   */
+  private static final class HexCodec extends TextCodec {
+    private static final byte[] ALPHABET = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] UPPER_CASE_ALPHABET = "0123456789ABCDEF".getBytes(StandardCharsets.US_ASCII);
+    private static final char[] PAIRS = pairs(ALPHABET, 4);
+    private static final byte[] DECODING = decodingTable(ALPHABET, UPPER_CASE_ALPHABET);
+
+    @Override
+    public int encodedLength(int length) {
+      return length * 2;
+    }
+
+    @Override
+    public int maxDecodedLength(int length) {
+      return length / 2;
+    }
+
+    @Override
+    public int encode(byte[] src, int offset, int length, byte[] dst, int dstOffset) {
+      int out = dstOffset;
+      for (int i = offset; i < offset + length; ++i) {
+        char pair = PAIRS[src[i] & 0xff];
+        dst[out] = (byte) (pair >>> 8);
+        dst[out + 1] = (byte) pair;
+        out += 2;
+      }
+      return length * 2;
+    }
+
+    @Override
+    public int decode(byte[] src, int offset, int length, byte[] dst, int dstOffset) throws IOException {
+      if ((length & 1) != 0) {
+        throw new IOException("Odd number of characters.");
+      }
+
+      // Decode without checking every digit, invalid digits have a negative value that is
+      // accumulated and checked once at the end.
+      int invalid = 0;
+      int out = dstOffset;
+      for (int i = offset; i < offset + length; i += 2) {
+        int high = DECODING[src[i] & 0xff];
+        int low = DECODING[src[i + 1] & 0xff];
+        invalid |= high | low;
+        dst[out++] = (byte) (high << 4 | low);
+      }
+
+      if (invalid < 0) {
+        for (int i = offset; i < offset + length; ++i) {
+          if (DECODING[src[i] & 0xff] < 0) {
+            throw new IOException("Illegal hexadecimal character " + (char) (src[i] & 0xff) + " at index " +
+                                    (i - offset));
+          }
+        }
+      }
+      return length / 2;
+    }
+  }
+}
@@ -0,0 +1,208 @@
+/*
+ * Copyright © 2015 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.hydrator.transforms;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.IllegalCharsetNameException;
+import java.nio.charset.StandardCharsets;
+import java.nio.charset.UnsupportedCharsetException;
+import java.util.Arrays;
+import javax.annotation.Nullable;
+
+/**
+ * Converts text to bytes in an explicit charset, rather than the platform default one.
+ *
+ * <p>
+ * Text is encoded into a buffer that is reused from one value to the next, so encoding a value
+ * that is processed further doesn't allocate. Values that are all ASCII are copied char by char
+ * when the charset encodes ASCII as itself, like UTF-8, ISO-8859-1 and US-ASCII do, other values
+ * go through a {@link CharsetEncoder} from the first non ASCII char on. Characters the charset
+ * can't encode are replaced, like {@link String#getBytes(Charset)} does.
+ * </p>
+ *
+ * <p>
+ * A transcoder holds the buffer and the encoder, which are not thread safe: it belongs to a
+ * single plugin instance, which is only ever called from one thread.
+ * </p>
+ */
+public final class Transcoder {
+  /**
+   * Charset of the plugins that don't configure one.
+   */
+  public static final Charset DEFAULT_CHARSET = StandardCharsets.UTF_8;
+
+  private final Charset charset;
+  private final CharsetEncoder encoder;
+  private final boolean asciiCompatible;
+
+  // Encoded bytes of the last value, and a buffer over them.
+  private byte[] bytes = new byte[64];
+  private ByteBuffer buffer = ByteBuffer.wrap(bytes);
+
+  /**
+   * @param charset charset of the text.
+   */
+  public Transcoder(Charset charset) {
+    this.charset = charset;
+    this.encoder = charset.newEncoder()
+      .onMalformedInput(CodingErrorAction.REPLACE)
+      .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    this.asciiCompatible = isAsciiCompatible(charset);
+  }
+
+  /**
+   * Looks up a configured charset.
+   *
+   * @param name name of the charset, null or empty for the default charset.
+   * @return the charset.
+   * @throws IllegalArgumentException if the charset is not supported.
+   */
+  public static Charset charsetOf(@Nullable String name) throws IllegalArgumentException {
+    if (name == null || name.trim().isEmpty()) {
+      return DEFAULT_CHARSET;
+    }
+    try {
+      return Charset.forName(name.trim());
+    } catch (IllegalCharsetNameException | UnsupportedCharsetException e) {
+      throw new IllegalArgumentException("Charset '" + name + "' is not supported.");
+    }
+  }
+
+  /**
+   * @return true if the charset encodes ASCII chars as the bytes of the same value, one byte per
+   * char, and uses bytes below 0x80 for nothing else.
+   */
+  public static boolean isAsciiCompatible(Charset charset) {
+    return charset.equals(StandardCharsets.UTF_8) || charset.equals(StandardCharsets.US_ASCII)
+      || charset.equals(StandardCharsets.ISO_8859_1);
+  }
+
+  /**
+   * Encodes a value as UTF-8 into an array of it's own, without an encoder for ASCII values.
+   */
+  public static byte[] utf8(String value) {
+    int length = value.length();
+    byte[] out = new byte[length];
+    for (int i = 0; i < length; ++i) {
+      char c = value.charAt(i);
+      if (c >= 0x80) {
+        return value.getBytes(StandardCharsets.UTF_8);
+      }
+      out[i] = (byte) c;
+    }
+    return out;
+  }
+
+  /**
+   * @return charset of the text.
+   */
+  public Charset getCharset() {
+    return charset;
+  }
+
+  /**
+   * Encodes a value into the reused buffer.
+   *
+   * @param value text to be encoded.
+   * @return buffer over the encoded bytes, valid until the next value is encoded.
+   */
+  public ByteBuffer encode(String value) {
+    int length = value.length();
+    int ascii = 0;
+    if (asciiCompatible) {
+      ensureCapacity(length, 0);
+      byte[] out = bytes;
+      for (; ascii < length; ++ascii) {
+        char c = value.charAt(ascii);
+        if (c >= 0x80) {
+          break;
+        }
+        out[ascii] = (byte) c;
+      }
+      if (ascii == length) {
+        buffer.clear();
+        buffer.limit(length);
+        return buffer;
+      }
+    }
+
+    // Encode the rest after the ASCII prefix, growing the buffer when it overflows.
+    CharBuffer in = CharBuffer.wrap(value, ascii, length);
+    ensureCapacity(ascii + (int) Math.ceil((length - ascii) * (double) encoder.maxBytesPerChar()), ascii);
+    buffer.clear();
+    buffer.position(ascii);
+    encoder.reset();
+    while (true) {
+      CoderResult result = encoder.encode(in, buffer, true);
+      if (result.isUnderflow()) {
+        result = encoder.flush(buffer);
+      }
+      if (result.isUnderflow()) {
+        break;
+      }
+      if (result.isOverflow()) {
+        grow();
+      } else {
+        // Malformed and unmappable input is replaced, this is not reached.
+        throwUnchecked(result);
+      }
+    }
+    buffer.flip();
+    return buffer;
+  }
+
+  /**
+   * Encodes a value into an array of it's own, for values written to a record.
+   *
+   * @param value text to be encoded.
+   * @return encoded bytes.
+   */
+  public byte[] toBytes(String value) {
+    ByteBuffer out = encode(value);
+    byte[] copy = new byte[out.remaining()];
+    System.arraycopy(out.array(), out.arrayOffset() + out.position(), copy, 0, copy.length);
+    return copy;
+  }
+
+  // Grows the buffer to at least the capacity, keeping the bytes already encoded.
+  private void ensureCapacity(int capacity, int encoded) {
+    if (bytes.length < capacity) {
+      bytes = Arrays.copyOf(bytes, Math.max(capacity, bytes.length * 2));
+      buffer = ByteBuffer.wrap(bytes);
+      buffer.position(encoded);
+    }
+  }
+
+  private void grow() {
+    int encoded = buffer.position();
+    ensureCapacity(bytes.length * 2, encoded);
+  }
+
+  private static void throwUnchecked(CoderResult result) {
+    try {
+      result.throwException();
+    } catch (CharacterCodingException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+}
@@ -17,7 +17,30 @@ package co.cask.hydrator.transforms;
 
 import co.cask.cdap.api.data.schema.Schema;
 
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import javax.annotation.Nullable;
+
 public final class TypeConvertors {
+
+  /**
+   * How empty numeric, boolean and enum values are converted.
+   */
+  public enum EmptyPolicy {
+    // Empty values convert to null.
+    NULL,
+    // Empty values are converted like any other value.
+    CONVERT
+  }
+  
+  // Powers of ten that are exactly representable as double and float.
+  private static final double[] DOUBLE_POWERS_OF_TEN = {
+    1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+    1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+  };
+  private static final float[] FLOAT_POWERS_OF_TEN = {
+    1e0f, 1e1f, 1e2f, 1e3f, 1e4f, 1e5f, 1e6f, 1e7f, 1e8f, 1e9f, 1e10f
+  };
   
   public static Object get(String value, Schema.Type type) {
     Object object = null;
@@ -52,7 +75,7 @@ public final class TypeConvertors {
         break;
       
       case BYTES:
-        object = value.getBytes();
+        object = Transcoder.utf8(value);
         break;
       
       case ENUM:
@@ -66,45 +89,391 @@ public final class TypeConvertors {
     return object;
     
   }
-  
-  private static int getInt(String value) {
-    try {
-      return Integer.parseInt(value);
-    } catch (NumberFormatException e) {
-      throw new RuntimeException("Failed to convert '" + value + "' to INT");
+
+  /**
+   * Converts a UTF-8 encoded value held in a range of a byte array. Numeric and boolean values
+   * are parsed straight from the bytes, a String is only created for STRING values.
+   *
+   * @param bytes array holding the value.
+   * @param offset start of the value.
+   * @param length length of the value in bytes.
+   * @param type type to convert the value to.
+   * @return converted value.
+   */
+  public static Object get(byte[] bytes, int offset, int length, Schema.Type type) {
+    Object object = null;
+
+    switch(type) {
+      case STRING:
+        object = new String(bytes, offset, length, StandardCharsets.UTF_8);
+        break;
+
+      case INT:
+        object = getInt(bytes, offset, length);
+        break;
+
+      case LONG:
+        object = getLong(bytes, offset, length);
+        break;
+
+      case DOUBLE:
+        object = getDouble(bytes, offset, length);
+        break;
+
+      case FLOAT:
+        object = getFloat(bytes, offset, length);
+        break;
+
+      case BOOLEAN:
+        object = getBoolean(bytes, offset, length);
+        break;
+
+      case BYTES:
+        object = Arrays.copyOfRange(bytes, offset, offset + length);
+        break;
+
+      default:
+        break;
     }
+    return object;
   }
   
-  private static long getLong(String value) {
-    try {
-      return Long.parseLong(value);
-    } catch (NumberFormatException e) {
-      throw new RuntimeException("Failed to convert '" + value + "' to LONG");
+  /**
+   * Converts a value the way {@link #get(String, Schema.Type)} does, applying a policy to empty
+   * numeric and boolean values.
+   *
+   * @param value value to convert, null for a missing value.
+   * @param type type to convert the value to.
+   * @param policy how empty values are converted.
+   * @return converted value, null for a missing value.
+   */
+  @Nullable
+  public static Object get(@Nullable CharSequence value, Schema.Type type, EmptyPolicy policy) {
+    if (value == null || (value.length() == 0 && isNullWhenEmpty(type, policy))) {
+      return null;
     }
+    return get(value.toString(), type);
   }
 
-  private static double getDouble(String value) {
-    try {
-      return Double.parseDouble(value);
-    } catch (NumberFormatException e) {
-      throw new RuntimeException("Failed to convert '" + value + "' to DOUBLE");
+  /**
+   * Converts a value the way {@link #get(byte[], int, int, Schema.Type)} does, applying a policy
+   * to empty numeric and boolean values.
+   *
+   * @param bytes array holding the value.
+   * @param offset start of the value.
+   * @param length length of the value in bytes.
+   * @param type type to convert the value to.
+   * @param policy how empty values are converted.
+   * @return converted value.
+   */
+  @Nullable
+  public static Object get(byte[] bytes, int offset, int length, Schema.Type type, EmptyPolicy policy) {
+    if (length == 0 && isNullWhenEmpty(type, policy)) {
+      return null;
+    }
+    return get(bytes, offset, length, type);
+  }
+
+  /**
+   * @return true if empty values of the type convert to null under the policy.
+   */
+  public static boolean isNullWhenEmpty(Schema.Type type, EmptyPolicy policy) {
+    if (policy != EmptyPolicy.NULL) {
+      return false;
+    }
+    switch (type) {
+      case INT:
+      case LONG:
+      case FLOAT:
+      case DOUBLE:
+      case BOOLEAN:
+      case ENUM:
+        return true;
+      default:
+        return false;
     }
   }
 
-  private static float getFloat(String value) {
+  /**
+   * Parses a decimal INT the way {@link Integer#parseInt(String)} does, without creating a String.
+   *
+   * @throws ConversionException if the value is not a number or out of range.
+   */
+  public static int getInt(CharSequence value) {
+    return (int) parseLong(value, Integer.MIN_VALUE, Integer.MAX_VALUE, "INT");
+  }
+
+  /**
+   * Parses a decimal LONG the way {@link Long#parseLong(String)} does, without creating a String.
+   *
+   * @throws ConversionException if the value is not a number or out of range.
+   */
+  public static long getLong(CharSequence value) {
+    return parseLong(value, Long.MIN_VALUE, Long.MAX_VALUE, "LONG");
+  }
+
+  /**
+   * Parses a DOUBLE the way {@link Double#parseDouble(String)} does. Plain decimals with at most
+   * 15 digits are parsed without creating a String.
+   *
+   * @throws ConversionException if the value is not a number.
+   */
+  public static double getDouble(CharSequence value) {
+    // Plain decimals with at most 15 digits have an exact double mantissa, so a single
+    // division by an exact power of ten gives the correctly rounded value.
+    int end = value.length();
+    int i = 0;
+    boolean negative = false;
+    if (i < end && (value.charAt(i) == '-' || value.charAt(i) == '+')) {
+      negative = value.charAt(i) == '-';
+      ++i;
+    }
+    long mantissa = 0;
+    int digits = 0;
+    int scale = -1;
+    for (; i < end && digits <= 15; ++i) {
+      char c = value.charAt(i);
+      if (c >= '0' && c <= '9') {
+        mantissa = mantissa * 10 + (c - '0');
+        ++digits;
+      } else if (c == '.' && scale < 0) {
+        scale = digits;
+      } else {
+        break;
+      }
+    }
+    scale = scale < 0 ? 0 : digits - scale;
+    if (i == end && digits > 0 && digits <= 15 && scale < DOUBLE_POWERS_OF_TEN.length) {
+      double result = mantissa / DOUBLE_POWERS_OF_TEN[scale];
+      return negative ? -result : result;
+    }
     try {
-      return Float.parseFloat(value);
+      return Double.parseDouble(value.toString());
     } catch (NumberFormatException e) {
-      throw new RuntimeException("Failed to convert '" + value + "' to FLOAT");
+      throw new ConversionException(value, "DOUBLE");
     }
   }
 
-  private static boolean getBoolean(String value) {
+  /**
+   * Parses a FLOAT the way {@link Float#parseFloat(String)} does. Plain decimals with at most
+   * 7 digits are parsed without creating a String.
+   *
+   * @throws ConversionException if the value is not a number.
+   */
+  public static float getFloat(CharSequence value) {
+    // Same as for double, with at most 7 digits to have an exact float mantissa.
+    int end = value.length();
+    int i = 0;
+    boolean negative = false;
+    if (i < end && (value.charAt(i) == '-' || value.charAt(i) == '+')) {
+      negative = value.charAt(i) == '-';
+      ++i;
+    }
+    int mantissa = 0;
+    int digits = 0;
+    int scale = -1;
+    for (; i < end && digits <= 7; ++i) {
+      char c = value.charAt(i);
+      if (c >= '0' && c <= '9') {
+        mantissa = mantissa * 10 + (c - '0');
+        ++digits;
+      } else if (c == '.' && scale < 0) {
+        scale = digits;
+      } else {
+        break;
+      }
+    }
+    scale = scale < 0 ? 0 : digits - scale;
+    if (i == end && digits > 0 && digits <= 7 && scale < FLOAT_POWERS_OF_TEN.length) {
+      float result = mantissa / FLOAT_POWERS_OF_TEN[scale];
+      return negative ? -result : result;
+    }
     try {
-      return Boolean.parseBoolean(value);
+      return Float.parseFloat(value.toString());
     } catch (NumberFormatException e) {
-      throw new RuntimeException("Failed to convert '" + value + "' to BOOLEAN");
+      throw new ConversionException(value, "FLOAT");
+    }
+  }
+
+  /**
+   * Parses a BOOLEAN the way {@link Boolean#parseBoolean(String)} does, only a case insensitive
+   * "true" is true.
+   */
+  public static boolean getBoolean(CharSequence value) {
+    return value.length() == 4 && (value.charAt(0) | 0x20) == 't' && (value.charAt(1) | 0x20) == 'r'
+      && (value.charAt(2) | 0x20) == 'u' && (value.charAt(3) | 0x20) == 'e';
+  }
+
+  /**
+   * Parses a decimal the way {@link Long#parseLong(String)} does, checking it's within the
+   * given bounds.
+   */
+  private static long parseLong(CharSequence value, long min, long max, String type) {
+    int end = value.length();
+    int i = 0;
+    boolean negative = false;
+    if (i < end && (value.charAt(i) == '-' || value.charAt(i) == '+')) {
+      negative = value.charAt(i) == '-';
+      ++i;
     }
+    if (i == end) {
+      throw new ConversionException(value, type);
+    }
+
+    // Accumulate negatively to be able to represent the minimum value.
+    long limit = negative ? min : -max;
+    long multmin = limit / 10;
+    long result = 0;
+    for (; i < end; ++i) {
+      int digit = value.charAt(i) - '0';
+      if (digit < 0 || digit > 9 || result < multmin) {
+        throw new ConversionException(value, type);
+      }
+      result *= 10;
+      if (result < limit + digit) {
+        throw new ConversionException(value, type);
+      }
+      result -= digit;
+    }
+    return negative ? result : -result;
+  }
+
+  /**
+   * Parses a UTF-8 encoded decimal INT held in a range of a byte array.
+   *
+   * @throws ConversionException if the value is not a number or out of range.
+   */
+  public static int getInt(byte[] bytes, int offset, int length) {
+    return (int) parseLong(bytes, offset, length, Integer.MIN_VALUE, Integer.MAX_VALUE, "INT");
+  }
+
+  /**
+   * Parses a UTF-8 encoded decimal LONG held in a range of a byte array.
+   *
+   * @throws ConversionException if the value is not a number or out of range.
+   */
+  public static long getLong(byte[] bytes, int offset, int length) {
+    return parseLong(bytes, offset, length, Long.MIN_VALUE, Long.MAX_VALUE, "LONG");
+  }
+
+  /**
+   * Parses a decimal number the way {@link Long#parseLong(String)} does, checking it's within
+   * the given bounds.
+   */
+  private static long parseLong(byte[] bytes, int offset, int length, long min, long max, String type) {
+    int end = offset + length;
+    int i = offset;
+    boolean negative = false;
+    if (i < end && (bytes[i] == '-' || bytes[i] == '+')) {
+      negative = bytes[i] == '-';
+      ++i;
+    }
+    if (i == end) {
+      throw conversionFailure(bytes, offset, length, type);
+    }
+
+    // Accumulate negatively to be able to represent the minimum value.
+    long limit = negative ? min : -max;
+    long multmin = limit / 10;
+    long result = 0;
+    for (; i < end; ++i) {
+      int digit = bytes[i] - '0';
+      if (digit < 0 || digit > 9 || result < multmin) {
+        throw conversionFailure(bytes, offset, length, type);
+      }
+      result *= 10;
+      if (result < limit + digit) {
+        throw conversionFailure(bytes, offset, length, type);
+      }
+      result -= digit;
+    }
+    return negative ? result : -result;
+  }
+
+  /**
+   * Parses a UTF-8 encoded DOUBLE held in a range of a byte array.
+   *
+   * @throws ConversionException if the value is not a number.
+   */
+  public static double getDouble(byte[] bytes, int offset, int length) {
+    // Plain decimals with at most 15 digits have an exact double mantissa, so a single
+    // division by an exact power of ten gives the correctly rounded value.
+    int end = offset + length;
+    int i = offset;
+    boolean negative = false;
+    if (i < end && (bytes[i] == '-' || bytes[i] == '+')) {
+      negative = bytes[i] == '-';
+      ++i;
+    }
+    long mantissa = 0;
+    int digits = 0;
+    int scale = -1;
+    for (; i < end && digits <= 15; ++i) {
+      int b = bytes[i];
+      if (b >= '0' && b <= '9') {
+        mantissa = mantissa * 10 + (b - '0');
+        ++digits;
+      } else if (b == '.' && scale < 0) {
+        scale = digits;
+      } else {
+        break;
+      }
+    }
+    scale = scale < 0 ? 0 : digits - scale;
+    if (i == end && digits > 0 && digits <= 15 && scale < DOUBLE_POWERS_OF_TEN.length) {
+      double value = mantissa / DOUBLE_POWERS_OF_TEN[scale];
+      return negative ? -value : value;
+    }
+    return getDouble(new String(bytes, offset, length, StandardCharsets.UTF_8));
+  }
+
+  /**
+   * Parses a UTF-8 encoded FLOAT held in a range of a byte array.
+   *
+   * @throws ConversionException if the value is not a number.
+   */
+  public static float getFloat(byte[] bytes, int offset, int length) {
+    // Same as for double, with at most 7 digits to have an exact float mantissa.
+    int end = offset + length;
+    int i = offset;
+    boolean negative = false;
+    if (i < end && (bytes[i] == '-' || bytes[i] == '+')) {
+      negative = bytes[i] == '-';
+      ++i;
+    }
+    int mantissa = 0;
+    int digits = 0;
+    int scale = -1;
+    for (; i < end && digits <= 7; ++i) {
+      int b = bytes[i];
+      if (b >= '0' && b <= '9') {
+        mantissa = mantissa * 10 + (b - '0');
+        ++digits;
+      } else if (b == '.' && scale < 0) {
+        scale = digits;
+      } else {
+        break;
+      }
+    }
+    scale = scale < 0 ? 0 : digits - scale;
+    if (i == end && digits > 0 && digits <= 7 && scale < FLOAT_POWERS_OF_TEN.length) {
+      float value = mantissa / FLOAT_POWERS_OF_TEN[scale];
+      return negative ? -value : value;
+    }
+    return getFloat(new String(bytes, offset, length, StandardCharsets.UTF_8));
+  }
+
+  /**
+   * Parses a UTF-8 encoded BOOLEAN held in a range of a byte array, only a case insensitive
+   * "true" is true.
+   */
+  public static boolean getBoolean(byte[] bytes, int offset, int length) {
+    return length == 4 && (bytes[offset] | 0x20) == 't' && (bytes[offset + 1] | 0x20) == 'r'
+      && (bytes[offset + 2] | 0x20) == 'u' && (bytes[offset + 3] | 0x20) == 'e';
+  }
+
+  private static ConversionException conversionFailure(byte[] bytes, int offset, int length, String type) {
+    return new ConversionException(new String(bytes, offset, length, StandardCharsets.UTF_8), type);
   }
   
 }
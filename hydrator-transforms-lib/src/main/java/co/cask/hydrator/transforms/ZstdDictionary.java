@@ -0,0 +1,265 @@
+/*
+ * Copyright © 2015 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.hydrator.transforms;
+
+import com.github.luben.zstd.Zstd;
+import com.github.luben.zstd.ZstdDictCompress;
+import com.github.luben.zstd.ZstdDictDecompress;
+import com.google.common.collect.Maps;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import javax.annotation.Nullable;
+
+/**
+ * A Zstandard dictionary, for compressing small values that share most of their content, like
+ * JSON fragments of the same shape, which don't compress on their own.
+ *
+ * <p>
+ * Values compressed with a dictionary are stamped with it's id, as 4 bytes little endian before
+ * the Zstandard frame, so the decompressing side picks the dictionary it was compressed with. Id
+ * 0 stands for no dictionary. The id is the one of the dictionary format of Zstandard, which the
+ * trainer derives from the content of the dictionary; dictionaries of raw content have no id and
+ * can't be used.
+ * </p>
+ *
+ * <p>
+ * Every compressing instance trains it's own dictionary on the values it sees, with it's own id,
+ * so a trained dictionary is written to a file of it's own, <code>&lt;path&gt;.&lt;id&gt;</code>,
+ * and the decompressing side reads all of them.
+ * </p>
+ */
+public final class ZstdDictionary {
+  /**
+   * Id of the values compressed without a dictionary.
+   */
+  public static final int NO_DICTIONARY = 0;
+
+  /**
+   * Size of the dictionaries trained.
+   */
+  public static final int TRAINED_SIZE = 16 * 1024;
+
+  private static final int MAGIC = 0xEC30A437;
+  private static final int FRAME_MAGIC = 0xFD2FB528;
+
+  private final byte[] bytes;
+  private final int id;
+
+  /**
+   * @param bytes dictionary in the Zstandard dictionary format.
+   * @throws IllegalArgumentException if the bytes are not a Zstandard dictionary.
+   */
+  public ZstdDictionary(byte[] bytes) throws IllegalArgumentException {
+    if (bytes.length < 8 || readInt(bytes, 0) != MAGIC) {
+      throw new IllegalArgumentException("Not a Zstandard dictionary, dictionaries of raw content are not supported.");
+    }
+    this.bytes = bytes;
+    this.id = readInt(bytes, 4);
+    if (id == NO_DICTIONARY) {
+      throw new IllegalArgumentException("Zstandard dictionary has no id.");
+    }
+  }
+
+  /**
+   * Reads a dictionary from a local file.
+   *
+   * @param path path of the file.
+   * @return the dictionary.
+   * @throws IOException if the file can't be read.
+   * @throws IllegalArgumentException if the file is not a Zstandard dictionary.
+   */
+  public static ZstdDictionary read(String path) throws IOException {
+    return new ZstdDictionary(Files.readAllBytes(Paths.get(path)));
+  }
+
+  /**
+   * Reads the dictionaries listed in a specification. For every path, the dictionary of the file
+   * itself is read if it exists, along with all the dictionaries trained for the path.
+   *
+   * @param spec dictionaries <code>&lt;path&gt;[,&lt;path&gt;]*</code>, null or empty for none.
+   * @return dictionaries by id.
+   * @throws IOException if a file can't be read, or there is no dictionary for a path.
+   * @throws IllegalArgumentException if a file is not a Zstandard dictionary.
+   */
+  public static Map<Integer, ZstdDictionary> readAll(@Nullable String spec) throws IOException {
+    Map<Integer, ZstdDictionary> dictionaries = Maps.newHashMap();
+    if (spec == null || spec.trim().isEmpty()) {
+      return dictionaries;
+    }
+    for (String path : spec.split(",")) {
+      Path file = Paths.get(path.trim()).toAbsolutePath();
+      int found = 0;
+      if (Files.exists(file)) {
+        ZstdDictionary dictionary = new ZstdDictionary(Files.readAllBytes(file));
+        dictionaries.put(dictionary.getId(), dictionary);
+        ++found;
+      }
+      String prefix = file.getFileName() + ".";
+      try (DirectoryStream<Path> siblings = Files.newDirectoryStream(file.getParent())) {
+        for (Path sibling : siblings) {
+          String name = sibling.getFileName().toString();
+          if (name.startsWith(prefix) && isId(name.substring(prefix.length()))) {
+            ZstdDictionary dictionary = new ZstdDictionary(Files.readAllBytes(sibling));
+            dictionaries.put(dictionary.getId(), dictionary);
+            ++found;
+          }
+        }
+      }
+      if (found == 0) {
+        throw new IOException("No Zstandard dictionary at " + path.trim() + " or trained for it.");
+      }
+    }
+    return dictionaries;
+  }
+
+  // Whether a file name suffix is the unsigned id of a trained dictionary.
+  private static boolean isId(String suffix) {
+    if (suffix.isEmpty() || suffix.length() > 10) {
+      return false;
+    }
+    for (int i = 0; i < suffix.length(); ++i) {
+      if (suffix.charAt(i) < '0' || suffix.charAt(i) > '9') {
+        return false;
+      }
+    }
+    return Long.parseLong(suffix) <= 0xFFFFFFFFL;
+  }
+
+  /**
+   * @param path path configured for a dictionary.
+   * @param id id of a dictionary trained for the path.
+   * @return path of the file the trained dictionary is written to.
+   */
+  public static String trainedPath(String path, int id) {
+    return path + "." + (id & 0xFFFFFFFFL);
+  }
+
+  /**
+   * Trains a dictionary and writes it to a local file of it's own, for the decompressing side. The
+   * file is written under a temporary name and moved to {@link #trainedPath}, so it's never read
+   * partially written.
+   *
+   * @param samples values the dictionary is trained on.
+   * @param path path configured for the dictionary.
+   * @return the dictionary, null if the samples are not enough to train one.
+   * @throws IOException if the file can't be written.
+   */
+  @Nullable
+  public static ZstdDictionary train(byte[][] samples, String path) throws IOException {
+    byte[] buffer = new byte[TRAINED_SIZE];
+    long size = Zstd.trainFromBuffer(samples, buffer);
+    if (Zstd.isError(size)) {
+      return null;
+    }
+    byte[] bytes = new byte[(int) size];
+    System.arraycopy(buffer, 0, bytes, 0, bytes.length);
+    ZstdDictionary dictionary = new ZstdDictionary(bytes);
+    Path file = Paths.get(trainedPath(path, dictionary.getId())).toAbsolutePath();
+    Files.createDirectories(file.getParent());
+    Path temporary = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+    try {
+      Files.write(temporary, bytes);
+      Files.move(temporary, file, StandardCopyOption.ATOMIC_MOVE);
+    } finally {
+      Files.deleteIfExists(temporary);
+    }
+    return dictionary;
+  }
+
+  /**
+   * @return id of the dictionary, stamped on the values compressed with it.
+   */
+  public int getId() {
+    return id;
+  }
+
+  /**
+   * @return the dictionary, in the Zstandard dictionary format.
+   */
+  public byte[] getBytes() {
+    return bytes;
+  }
+
+  /**
+   * @param level compression level.
+   * @return the dictionary prepared for compressing at a level.
+   */
+  public ZstdDictCompress forCompression(int level) {
+    return new ZstdDictCompress(bytes, level);
+  }
+
+  /**
+   * @return the dictionary prepared for decompressing.
+   */
+  public ZstdDictDecompress forDecompression() {
+    return new ZstdDictDecompress(bytes);
+  }
+
+  /**
+   * Reads the content size in the header of a Zstandard frame, without copying the frame out of
+   * the array holding it.
+   *
+   * @param bytes array holding the frame.
+   * @param at start of the frame.
+   * @param length length of the frame.
+   * @return size of the content of the frame, -1 if the header doesn't have it or is not valid.
+   */
+  static long contentSize(byte[] bytes, int at, int length) {
+    if (length < 5 || readInt(bytes, at) != FRAME_MAGIC) {
+      return -1;
+    }
+    int descriptor = bytes[at + 4] & 0xFF;
+    int sizeFlag = descriptor >>> 6;
+    boolean singleSegment = (descriptor & 0x20) != 0;
+    int dictionaryIdFlag = descriptor & 0x03;
+    int pos = at + 5 + (singleSegment ? 0 : 1) + (dictionaryIdFlag == 3 ? 4 : dictionaryIdFlag);
+    int sizeLength = sizeFlag == 0 ? (singleSegment ? 1 : 0) : 1 << sizeFlag;
+    if (sizeLength == 0 || pos + sizeLength > at + length) {
+      return -1;
+    }
+    long size = 0;
+    for (int i = sizeLength - 1; i >= 0; --i) {
+      size = size << 8 | (bytes[pos + i] & 0xFF);
+    }
+    // Sizes on 2 bytes are stored minus 256.
+    return sizeLength == 2 ? size + 256 : size;
+  }
+
+  /**
+   * @return little endian int at an offset, like the dictionary ids.
+   */
+  static int readInt(byte[] bytes, int at) {
+    return (bytes[at] & 0xFF) | (bytes[at + 1] & 0xFF) << 8 | (bytes[at + 2] & 0xFF) << 16
+      | (bytes[at + 3] & 0xFF) << 24;
+  }
+
+  /**
+   * Writes a little endian int at an offset, like the dictionary ids.
+   */
+  static void writeInt(byte[] bytes, int at, int value) {
+    bytes[at] = (byte) value;
+    bytes[at + 1] = (byte) (value >>> 8);
+    bytes[at + 2] = (byte) (value >>> 16);
+    bytes[at + 3] = (byte) (value >>> 24);
+  }
+}
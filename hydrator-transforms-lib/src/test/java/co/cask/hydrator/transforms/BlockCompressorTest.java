@@ -0,0 +1,136 @@
+/*
+ * Copyright © 2015 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.hydrator.transforms;
+
+import co.cask.cdap.api.data.format.StructuredRecord;
+import co.cask.cdap.api.data.schema.Schema;
+import co.cask.cdap.etl.api.Transform;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+public class BlockCompressorTest {
+
+  @Test
+  public void testReadableByTheJdk() throws Exception {
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < 20000; ++i) {
+      sb.append(i).append(",value,").append(i % 7).append('\n');
+    }
+    byte[] text = sb.toString().getBytes(StandardCharsets.UTF_8);
+    byte[] random = new byte[100000];
+    new Random(42).nextBytes(random);
+
+    for (int level : new int[] { BlockCompressor.DEFAULT_LEVEL, 0, 1, 9 }) {
+      BlockCompressor gzip = new BlockCompressor(CompDecompType.GZIP, level);
+      BlockCompressor zip = new BlockCompressor(CompDecompType.ZIP, level);
+      // The deflaters are reused across payloads, from a range of an array.
+      for (byte[] payload : new byte[][] { text, random, new byte[0], text }) {
+        byte[] padded = new byte[payload.length + 3];
+        System.arraycopy(payload, 0, padded, 2, payload.length);
+
+        int length = gzip.compress(padded, 2, payload.length);
+        byte[] compressed = Arrays.copyOf(gzip.getBuffer(), length);
+        Assert.assertArrayEquals(payload, readFully(new GZIPInputStream(new ByteArrayInputStream(compressed))));
+
+        length = zip.compress(padded, 2, payload.length);
+        ZipInputStream entries = new ZipInputStream(new ByteArrayInputStream(zip.getBuffer(), 0, length));
+        ZipEntry entry = entries.getNextEntry();
+        Assert.assertEquals(BlockCompressor.ZIP_ENTRY, entry.getName());
+        Assert.assertArrayEquals(payload, readFully(entries));
+        Assert.assertNull(entries.getNextEntry());
+
+        // And by the inflater of the parsers.
+        InflaterStream inflater = new InflaterStream();
+        Assert.assertArrayEquals(payload, readFully(inflater.resetZip(zip.getBuffer(), 0, length)));
+        inflater.end();
+      }
+      gzip.end();
+      zip.end();
+    }
+  }
+
+  @Test
+  public void testBlockCodecsReadRanges() throws Exception {
+    byte[] text = "0,value,0\n1,value,1\n2,value,2\n3,value,3\n".getBytes(StandardCharsets.UTF_8);
+    byte[] padded = new byte[text.length + 5];
+    System.arraycopy(text, 0, padded, 2, text.length);
+    for (CompDecompType type : new CompDecompType[] { CompDecompType.SNAPPY, CompDecompType.LZ4,
+                                                      CompDecompType.ZSTD }) {
+      BlockCompressor compressor = new BlockCompressor(type, BlockCompressor.DEFAULT_LEVEL);
+      int length = compressor.compress(padded, 2, text.length);
+      // The compressed payload is decompressed from the middle of a larger array as well.
+      byte[] compressed = new byte[length + 7];
+      System.arraycopy(compressor.getBuffer(), 0, compressed, 4, length);
+      BlockDecompressor decompressor = new BlockDecompressor(type, BlockDecompressor.UNLIMITED);
+      int decompressed = decompressor.decompress(compressed, 4, length);
+      Assert.assertArrayEquals(text, Arrays.copyOf(decompressor.getBuffer(), decompressed));
+      compressor.end();
+    }
+  }
+
+  @Test
+  public void testCompressionLevels() throws Exception {
+    Schema schema = Schema.recordOf("record",
+                                    Schema.Field.of("a", Schema.of(Schema.Type.BYTES)),
+                                    Schema.Field.of("b", Schema.of(Schema.Type.BYTES)));
+    Compressor.Config config = new Compressor.Config("a:GZIP:9,b:ZIP:1", schema.toString());
+    Transform<StructuredRecord, StructuredRecord> transform = new Compressor(config);
+    transform.initialize(null);
+
+    byte[] value = "a,a,a,a,a,a,a,a,a,a,a,a,a,a,a,a".getBytes(StandardCharsets.UTF_8);
+    MockEmitter<StructuredRecord> emitter = new MockEmitter<>();
+    transform.transform(StructuredRecord.builder(schema).set("a", value).set("b", value).build(), emitter);
+    transform.destroy();
+
+    byte[] a = emitter.getEmitted().get(0).get("a");
+    Assert.assertArrayEquals(value, readFully(new GZIPInputStream(new ByteArrayInputStream(a))));
+    ZipInputStream b = new ZipInputStream(new ByteArrayInputStream((byte[]) emitter.getEmitted().get(0).get("b")));
+    b.getNextEntry();
+    Assert.assertArrayEquals(value, readFully(b));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalidLevel() throws Exception {
+    Schema schema = Schema.recordOf("record", Schema.Field.of("a", Schema.of(Schema.Type.BYTES)));
+    new Compressor(new Compressor.Config("a:GZIP:10", schema.toString())).initialize(null);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testSnappyHasNoLevels() throws Exception {
+    BlockCompressor.checkLevel(CompDecompType.SNAPPY, 1);
+  }
+
+  private static byte[] readFully(InputStream in) throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    byte[] buffer = new byte[4096];
+    int read;
+    while ((read = in.read(buffer)) >= 0) {
+      out.write(buffer, 0, read);
+    }
+    return out.toByteArray();
+  }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright © 2015 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.hydrator.transforms;
+
+import co.cask.cdap.api.data.schema.Schema;
+import org.apache.commons.csv.CSVFormat;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+public class CSVTokenizerTest {
+
+  @Test
+  public void testDefaultFormat() throws Exception {
+    List<List<String>> records = tokenize(CSVFormat.DEFAULT, "1,2, 3 ,'4',\n\n6,\"a,\"\"b\"\"\",8\r\n");
+    Assert.assertEquals(2, records.size());
+    Assert.assertEquals("[1, 2,  3 , '4', ]", records.get(0).toString());
+    Assert.assertEquals("[6, a,\"b\", 8]", records.get(1).toString());
+  }
+
+  @Test
+  public void testEmptyLines() throws Exception {
+    List<List<String>> records = tokenize(CSVFormat.RFC4180, "a,b\n\nc,d");
+    Assert.assertEquals(3, records.size());
+    Assert.assertEquals(1, records.get(1).size());
+    Assert.assertEquals("", records.get(1).get(0));
+  }
+
+  @Test
+  public void testQuotedNewLine() throws Exception {
+    List<List<String>> records = tokenize(CSVFormat.DEFAULT, "\"x\ny\",z\n");
+    Assert.assertEquals(1, records.size());
+    Assert.assertEquals("x\ny", records.get(0).get(0));
+    Assert.assertEquals("z", records.get(0).get(1));
+  }
+
+  @Test
+  public void testTDFTrimsSpaces() throws Exception {
+    List<List<String>> records = tokenize(CSVFormat.TDF, "  a \t \"b\" \tc\n");
+    Assert.assertEquals("[a, b, c]", records.get(0).toString());
+  }
+
+  @Test
+  public void testMySQLEscapesAndNulls() throws Exception {
+    // MYSQL has no null string in commons-csv 1.2, it's added as MySQL dumps write nulls as \N.
+    CSVTokenizer tokenizer = new CSVTokenizer(CSVFormat.MYSQL.withNullString("\\N"));
+    byte[] bytes = "a\\tb\t\\N\tc\\\td\n".getBytes(StandardCharsets.UTF_8);
+    tokenizer.reset(bytes, 0, bytes.length);
+    Assert.assertTrue(tokenizer.next());
+    Assert.assertEquals(3, tokenizer.size());
+    Assert.assertEquals("a\tb", field(tokenizer, 0));
+    Assert.assertTrue(tokenizer.isNull(1));
+    Assert.assertEquals("c\td", field(tokenizer, 2));
+    Assert.assertFalse(tokenizer.next());
+  }
+
+  @Test(expected = IOException.class)
+  public void testUnterminatedQuote() throws Exception {
+    tokenize(CSVFormat.DEFAULT, "1,\"2\n");
+  }
+
+  @Test
+  public void testRecordsSpanningReads() throws Exception {
+    // Build a payload much larger than the tokenizer buffer and read it in small chunks.
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < 20000; ++i) {
+      sb.append(i).append(",\"quoted ").append(i).append("\",").append(i * 0.5).append('\n');
+    }
+    final byte[] bytes = sb.toString().getBytes(StandardCharsets.UTF_8);
+    InputStream in = new ByteArrayInputStream(bytes) {
+      @Override
+      public synchronized int read(byte[] b, int off, int len) {
+        return super.read(b, off, Math.min(len, 777));
+      }
+    };
+
+    CSVTokenizer tokenizer = new CSVTokenizer(CSVFormat.DEFAULT);
+    tokenizer.reset(in);
+    int count = 0;
+    while (tokenizer.next()) {
+      Assert.assertEquals(3, tokenizer.size());
+      Assert.assertEquals(count, TypeConvertors.get(tokenizer.getBuffer(), tokenizer.getStart(0),
+                                                    tokenizer.getLength(0), Schema.Type.INT));
+      Assert.assertEquals("quoted " + count, field(tokenizer, 1));
+      Assert.assertEquals(count * 0.5, TypeConvertors.get(tokenizer.getBuffer(), tokenizer.getStart(2),
+                                                          tokenizer.getLength(2), Schema.Type.DOUBLE));
+      ++count;
+    }
+    Assert.assertEquals(20000, count);
+  }
+
+  @Test
+  public void testFindBoundary() throws Exception {
+    byte[] bytes = "a,\"b\nc\",d\ne,\"\"\"\n\",f\r\ng\n".getBytes(StandardCharsets.UTF_8);
+    CSVTokenizer tokenizer = new CSVTokenizer(CSVFormat.DEFAULT);
+    // Newlines within quotes are not boundaries.
+    Assert.assertEquals(10, tokenizer.findBoundary(bytes, 0, 3, bytes.length));
+    Assert.assertEquals(10, tokenizer.findBoundary(bytes, 0, 10, bytes.length));
+    Assert.assertEquals(21, tokenizer.findBoundary(bytes, 10, 11, bytes.length));
+    Assert.assertEquals(bytes.length, tokenizer.findBoundary(bytes, 21, 22, bytes.length));
+  }
+
+  private static List<List<String>> tokenize(CSVFormat format, String text) throws IOException {
+    CSVTokenizer tokenizer = new CSVTokenizer(format);
+    tokenizer.reset(new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8)));
+    List<List<String>> records = new ArrayList<>();
+    while (tokenizer.next()) {
+      List<String> record = new ArrayList<>();
+      for (int i = 0; i < tokenizer.size(); ++i) {
+        record.add(field(tokenizer, i));
+      }
+      records.add(record);
+    }
+    return records;
+  }
+
+  private static String field(CSVTokenizer tokenizer, int i) {
+    return new String(tokenizer.getBuffer(), tokenizer.getStart(i), tokenizer.getLength(i), StandardCharsets.UTF_8);
+  }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright © 2015 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.hydrator.transforms;
+
+import co.cask.cdap.api.data.format.StructuredRecord;
+import co.cask.cdap.api.data.schema.Schema;
+import co.cask.cdap.etl.api.Transform;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.List;
+
+public class CloneRowsTest {
+  private static final Schema INPUT = Schema.recordOf("input",
+                                                      Schema.Field.of("a", Schema.of(Schema.Type.STRING)),
+                                                      Schema.Field.of("b", Schema.of(Schema.Type.BYTES)));
+
+  private static List<StructuredRecord> clone(CloneRows.Config config, StructuredRecord in) throws Exception {
+    Transform<StructuredRecord, StructuredRecord> transform = new CloneRows(config);
+    transform.initialize(null);
+    MockEmitter<StructuredRecord> emitter = new MockEmitter<>();
+    transform.transform(in, emitter);
+    transform.transform(in, emitter);
+    return emitter.getEmitted();
+  }
+
+  @Test
+  public void testCopies() throws Exception {
+    byte[] bytes = { 1, 2, 3 };
+    StructuredRecord in = StructuredRecord.builder(INPUT).set("a", "x").set("b", bytes).build();
+    List<StructuredRecord> copies = clone(new CloneRows.Config(3), in);
+    Assert.assertEquals(6, copies.size());
+    for (StructuredRecord copy : copies) {
+      Assert.assertTrue(copy != in);
+      Assert.assertEquals(INPUT, copy.getSchema());
+      Assert.assertEquals("x", copy.get("a"));
+      Assert.assertTrue(copy.get("b") == bytes);
+    }
+
+    for (StructuredRecord copy : clone(new CloneRows.Config(3, "copy", null, "copy"), in)) {
+      byte[] b = copy.get("b");
+      Assert.assertTrue(b != bytes);
+      Assert.assertArrayEquals(bytes, b);
+    }
+  }
+
+  @Test
+  public void testSame() throws Exception {
+    StructuredRecord in = StructuredRecord.builder(INPUT).set("a", "x").set("b", new byte[1]).build();
+    List<StructuredRecord> copies = clone(new CloneRows.Config(4, "SAME", null, null), in);
+    Assert.assertEquals(8, copies.size());
+    for (StructuredRecord copy : copies) {
+      Assert.assertTrue(copy == in);
+    }
+  }
+
+  @Test
+  public void testIndexed() throws Exception {
+    StructuredRecord in = StructuredRecord.builder(INPUT).set("a", "x").set("b", new byte[1]).build();
+    List<StructuredRecord> copies = clone(new CloneRows.Config(3, "indexed", "n", null), in);
+    Assert.assertEquals(6, copies.size());
+    for (int i = 0; i < copies.size(); ++i) {
+      StructuredRecord copy = copies.get(i);
+      Assert.assertEquals(Schema.Type.INT, copy.getSchema().getField("n").getSchema().getType());
+      Assert.assertEquals(i % 3, (int) copy.get("n"));
+      Assert.assertEquals("x", copy.get("a"));
+      Assert.assertTrue(copy.get("b") == in.get("b"));
+    }
+    Assert.assertTrue(copies.get(0).getSchema() == copies.get(5).getSchema());
+    Assert.assertEquals(INPUT.getRecordName(), copies.get(0).getSchema().getRecordName());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testIndexFieldInSchema() throws Exception {
+    StructuredRecord in = StructuredRecord.builder(INPUT).set("a", "x").set("b", new byte[1]).build();
+    clone(new CloneRows.Config(2, "indexed", "a", null), in);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testSameCantCopyValues() throws Exception {
+    new CloneRows(new CloneRows.Config(2, "same", null, "copy")).initialize(null);
+  }
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright © 2015 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.hydrator.transforms;
+
+import co.cask.cdap.api.metrics.Metrics;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+public class CodecChainTest {
+
+  @Test
+  public void testEmptyChainPassesThrough() throws Exception {
+    CodecChain chain = CodecChain.builder().decode(EncodeDecodeType.NONE).decompress(CompDecompType.NONE).build();
+    byte[] value = "a,b,c".getBytes(StandardCharsets.UTF_8);
+    Assert.assertSame(value, chain.apply(value));
+    Assert.assertFalse(chain.isStreaming());
+  }
+
+  @Test
+  public void testRoundTrips() throws Exception {
+    byte[] value = "1,2,3\n4,5,6\n".getBytes(StandardCharsets.UTF_8);
+    for (EncodeDecodeType encoding : new EncodeDecodeType[] { EncodeDecodeType.BASE64, EncodeDecodeType.BASE32,
+                                                              EncodeDecodeType.HEX }) {
+      for (CompDecompType compression : new CompDecompType[] { CompDecompType.NONE, CompDecompType.GZIP }) {
+        CodecChain encode = CodecChain.builder().compress(compression).encode(encoding).build();
+        CodecChain decode = CodecChain.builder().decode(encoding).decompress(compression).build();
+        byte[] encoded = encode.apply(value);
+        // Apply twice, stages reuse their buffers.
+        Assert.assertArrayEquals(value, decode.apply(encoded));
+        Assert.assertArrayEquals(value, decode.apply(encoded));
+        Assert.assertEquals(compression != CompDecompType.NONE, decode.isStreaming());
+
+        InputStream in = decode.open(ByteBuffer.wrap(encoded));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int c;
+        while ((c = in.read()) >= 0) {
+          out.write(c);
+        }
+        Assert.assertArrayEquals(value, out.toByteArray());
+        encode.close();
+        decode.close();
+      }
+    }
+  }
+
+  @Test
+  public void testAdaptiveCompression() throws Exception {
+    final Map<String, Long> metrics = new HashMap<>();
+    Compressibility compressibility = new Compressibility("f", new Metrics() {
+      @Override
+      public void count(String metricName, int delta) {
+        Long value = metrics.get(metricName);
+        metrics.put(metricName, (value == null ? 0 : value) + delta);
+      }
+
+      @Override
+      public void gauge(String metricName, long value) {
+        metrics.put(metricName, value);
+      }
+    });
+    CodecChain compress = CodecChain.builder()
+      .add(CodecStage.adaptiveCompressor(CodecStage.compressor(CompDecompType.GZIP, BlockCompressor.DEFAULT_LEVEL),
+                                         compressibility)).build();
+    CodecChain decompress = CodecChain.builder().add(CodecStage.adaptiveDecompressor(CompDecompType.GZIP)).build();
+
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < 500; ++i) {
+      sb.append("row,").append(i).append('\n');
+    }
+    byte[] text = sb.toString().getBytes(StandardCharsets.UTF_8);
+    byte[] random = new byte[8192];
+    new Random(7).nextBytes(random);
+    byte[] tiny = "ab".getBytes(StandardCharsets.UTF_8);
+
+    byte[] compressed = compress.apply(text);
+    Assert.assertEquals(CodecStage.COMPRESSED, compressed[0]);
+    Assert.assertTrue(compressed.length < text.length);
+    Assert.assertArrayEquals(text, decompress.apply(compressed));
+
+    // Incompressible values are stored raw, whether sampled or because they don't get smaller.
+    for (byte[] value : new byte[][] { random, tiny }) {
+      byte[] stored = compress.apply(value);
+      Assert.assertEquals(CodecStage.RAW, stored[0]);
+      Assert.assertEquals(value.length + 1, stored.length);
+      Assert.assertArrayEquals(value, decompress.apply(stored));
+    }
+
+    compress.close();
+    Assert.assertEquals(text.length + random.length + tiny.length, (long) metrics.get("compress.f.bytes.in"));
+    Assert.assertEquals(2L, (long) metrics.get("compress.f.raw"));
+    Assert.assertEquals(metrics.get("compress.f.bytes.in") - metrics.get("compress.f.bytes.out"),
+                        (long) metrics.get("compress.f.bytes.saved"));
+  }
+
+  @Test
+  public void testIncompressibleFieldIsProbed() throws Exception {
+    Compressibility compressibility = new Compressibility("f", null);
+    byte[] value = new byte[100];
+    // Values that don't compress drive the ratio up, after which only probes are compressed.
+    for (int i = 0; i < 50; ++i) {
+      compressibility.record(value.length, value.length + 1, true, value.length + 10);
+    }
+    Assert.assertTrue(compressibility.getRatio() > Compressibility.MAX_RATIO);
+    int compressed = 0;
+    for (int i = 0; i < Compressibility.PROBE_INTERVAL * 4; ++i) {
+      if (compressibility.shouldCompress(value, 0, value.length)) {
+        ++compressed;
+      }
+    }
+    Assert.assertEquals(4, compressed);
+  }
+
+  @Test
+  public void testLargeValuesDontOverflowCounts() throws Exception {
+    final Map<String, Long> metrics = new HashMap<>();
+    Compressibility compressibility = new Compressibility("f", new Metrics() {
+      @Override
+      public void count(String metricName, int delta) {
+        Assert.assertTrue(delta >= 0);
+        Long value = metrics.get(metricName);
+        metrics.put(metricName, (value == null ? 0 : value) + delta);
+      }
+
+      @Override
+      public void gauge(String metricName, long value) {
+        metrics.put(metricName, value);
+      }
+    });
+    // Values of 1GB compressed to half: the bytes of 3 values don't fit in an int.
+    int size = 1 << 30;
+    for (int i = 0; i < 3; ++i) {
+      compressibility.record(size, size / 2 + 1, true, size / 2);
+    }
+    compressibility.report();
+    Assert.assertEquals(3L * size, (long) metrics.get("compress.f.bytes.in"));
+    Assert.assertEquals(3L * (size / 2 + 1), (long) metrics.get("compress.f.bytes.out"));
+    Assert.assertEquals(3L * (size / 2 - 1), (long) metrics.get("compress.f.bytes.saved"));
+    Assert.assertEquals(50L, (long) metrics.get("compress.f.ratio"));
+  }
+}
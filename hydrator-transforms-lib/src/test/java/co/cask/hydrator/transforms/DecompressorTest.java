@@ -0,0 +1,128 @@
+/*
+ * Copyright © 2015 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package co.cask.hydrator.transforms;
+
+import co.cask.cdap.api.data.format.StructuredRecord;
+import co.cask.cdap.api.data.schema.Schema;
+import co.cask.cdap.etl.api.Transform;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+public class DecompressorTest {
+  private static final Schema COMPRESSED = Schema.recordOf("compressed",
+                                                           Schema.Field.of("a", Schema.of(Schema.Type.BYTES)),
+                                                           Schema.Field.of("b", Schema.of(Schema.Type.BYTES)),
+                                                           Schema.Field.of("c", Schema.of(Schema.Type.STRING)));
+
+  private static final Schema DECOMPRESSED = Schema.recordOf("decompressed",
+                                                             Schema.Field.of("a", Schema.of(Schema.Type.STRING)),
+                                                             Schema.Field.of("b", Schema.of(Schema.Type.BYTES)),
+                                                             Schema.Field.of("c", Schema.of(Schema.Type.STRING)));
+
+  @Test
+  public void testRoundTrip() throws Exception {
+    String text = "\u00e9t\u00e9,\u00e9t\u00e9,\u00e9t\u00e9,\u00e9t\u00e9,\u00e9t\u00e9,\u00e9t\u00e9";
+    byte[] bytes = text.getBytes(StandardCharsets.ISO_8859_1);
+    for (boolean adaptive : new boolean[] { false, true }) {
+      Transform<StructuredRecord, StructuredRecord> compressor =
+        new Compressor(new Compressor.Config("a:GZIP,b:ZIP", COMPRESSED.toString(), "ISO-8859-1", adaptive));
+      compressor.initialize(null);
+      Transform<StructuredRecord, StructuredRecord> decompressor =
+        new Decompressor(new Decompressor.Config("a:GZIP,b:ZIP", DECOMPRESSED.toString(), "ISO-8859-1", adaptive,
+                                                 null, null));
+      decompressor.initialize(null);
+
+      MockEmitter<StructuredRecord> compressed = new MockEmitter<>();
+      compressor.transform(StructuredRecord.builder(COMPRESSED)
+                             .set("a", bytes).set("b", bytes).set("c", "plain").build(), compressed);
+      MockEmitter<StructuredRecord> emitter = new MockEmitter<>();
+      decompressor.transform(compressed.getEmitted().get(0), emitter);
+      compressor.destroy();
+      decompressor.destroy();
+
+      StructuredRecord record = emitter.getEmitted().get(0);
+      Assert.assertEquals(text, record.get("a"));
+      Assert.assertArrayEquals(bytes, (byte[]) record.get("b"));
+      Assert.assertEquals("plain", record.get("c"));
+    }
+  }
+
+  @Test
+  public void testMaximumSize() throws Exception {
+    byte[] zeros = new byte[1024 * 1024];
+    CodecChain gzip = CodecChain.builder().compress(CompDecompType.GZIP).build();
+    byte[] bomb = gzip.apply(zeros);
+    gzip.close();
+    Assert.assertTrue(bomb.length < 4096);
+
+    CodecChain exact = CodecChain.builder().add(CodecStage.decompressor(CompDecompType.GZIP, zeros.length)).build();
+    Assert.assertArrayEquals(zeros, exact.apply(bomb));
+    exact.close();
+
+    Schema schema = Schema.recordOf("record", Schema.Field.of("a", Schema.of(Schema.Type.BYTES)));
+    Transform<StructuredRecord, StructuredRecord> decompressor =
+      new Decompressor(new Decompressor.Config("a:GZIP", schema.toString(), null, null, null, zeros.length - 1));
+    decompressor.initialize(null);
+    MockEmitter<StructuredRecord> emitter = new MockEmitter<>();
+    StructuredRecord oversized = StructuredRecord.builder(schema).set("a", bomb).build();
+    decompressor.transform(oversized, emitter);
+    decompressor.transform(StructuredRecord.builder(schema).set("a", gzip(new byte[16])).build(), emitter);
+    decompressor.destroy();
+
+    // The oversized value fails it's record only.
+    Assert.assertEquals(1, emitter.getErrors().size());
+    Assert.assertEquals(Decompressor.UNDECOMPRESSIBLE, emitter.getErrors().get(0).getErrorCode());
+    Assert.assertSame(oversized, emitter.getErrors().get(0).getInvalidRecord());
+    Assert.assertEquals(1, emitter.getEmitted().size());
+    Assert.assertArrayEquals(new byte[16], (byte[]) emitter.getEmitted().get(0).get("a"));
+  }
+
+  @Test
+  public void testCorruptValue() throws Exception {
+    Schema schema = Schema.recordOf("record", Schema.Field.of("a", Schema.of(Schema.Type.BYTES)));
+    Transform<StructuredRecord, StructuredRecord> decompressor =
+      new Decompressor(new Decompressor.Config("a:GZIP", schema.toString()));
+    decompressor.initialize(null);
+    MockEmitter<StructuredRecord> emitter = new MockEmitter<>();
+    byte[] corrupt = gzip("value".getBytes(StandardCharsets.UTF_8));
+    corrupt[corrupt.length / 2] ^= 0x55;
+    decompressor.transform(StructuredRecord.builder(schema).set("a", corrupt).build(), emitter);
+    decompressor.destroy();
+    Assert.assertEquals(0, emitter.getEmitted().size());
+    Assert.assertEquals(1, emitter.getErrors().size());
+    Assert.assertEquals(Decompressor.UNDECOMPRESSIBLE, emitter.getErrors().get(0).getErrorCode());
+  }
+
+  private static byte[] gzip(byte[] value) throws IOException {
+    CodecChain gzip = CodecChain.builder().compress(CompDecompType.GZIP).build();
+    try {
+      return gzip.apply(value);
+    } finally {
+      gzip.close();
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testDictionaryRequiresZstd() throws Exception {
+    new Decompressor(new Decompressor.Config("a:LZ4", COMPRESSED.toString(), null, null, "a:/tmp/a.dict", null))
+      .initialize(null);
+  }
+}
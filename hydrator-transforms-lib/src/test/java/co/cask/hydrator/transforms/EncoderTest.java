@@ -1,16 +1,128 @@
 package co.cask.hydrator.transforms;
 
+import co.cask.cdap.api.data.format.StructuredRecord;
+import co.cask.cdap.api.data.schema.Schema;
+import co.cask.cdap.etl.api.Transform;
 import org.junit.Assert;
 import org.junit.Test;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
 /**
  * Tests the encoder. 
  */
 public class EncoderTest {
+  private static final Schema INPUT = Schema.recordOf("input",
+                                                      Schema.Field.of("a", Schema.of(Schema.Type.STRING)),
+                                                      Schema.Field.of("b", Schema.of(Schema.Type.BYTES)),
+                                                      Schema.Field.of("c", Schema.of(Schema.Type.STRING)));
+
+  private static final Schema ENCODED = Schema.recordOf("encoded",
+                                                        Schema.Field.of("a", Schema.of(Schema.Type.STRING)),
+                                                        Schema.Field.of("b", Schema.of(Schema.Type.STRING)),
+                                                        Schema.Field.of("c", Schema.of(Schema.Type.STRING)));
 
   @Test
   public void testEncodeFieldFormats() throws Exception {
+    Encoder.Config config = new Encoder.Config("a:STRING_BASE64,b:HEX,c:NONE", ENCODED.toString());
+    Transform<StructuredRecord, StructuredRecord> transform = new Encoder(config);
+    transform.initialize(null);
+
+    MockEmitter<StructuredRecord> emitter = new MockEmitter<>();
+    for (int i = 0; i < 3; ++i) {
+      transform.transform(StructuredRecord.builder(INPUT)
+                            .set("a", "hello" + i)
+                            .set("b", new byte[] { 1, (byte) 0xab, (byte) i })
+                            .set("c", "plain").build(), emitter);
+    }
+    Assert.assertEquals(3, emitter.getEmitted().size());
+    Assert.assertEquals("aGVsbG8w", emitter.getEmitted().get(0).get("a"));
+    Assert.assertEquals("aGVsbG8y", emitter.getEmitted().get(2).get("a"));
+    Assert.assertEquals("01ab01", emitter.getEmitted().get(1).get("b"));
+    Assert.assertEquals("plain", emitter.getEmitted().get(2).get("c"));
+  }
+
+  @Test
+  public void testByteBufferValues() throws Exception {
+    Schema output = Schema.recordOf("output",
+                                    Schema.Field.of("a", Schema.of(Schema.Type.STRING)),
+                                    Schema.Field.of("b", Schema.of(Schema.Type.BYTES)),
+                                    Schema.Field.of("c", Schema.of(Schema.Type.STRING)));
+    Encoder.Config config = new Encoder.Config("b:BASE64", output.toString());
+    Transform<StructuredRecord, StructuredRecord> transform = new Encoder(config);
+    transform.initialize(null);
+
+    // A view of a range of a larger array, and a direct buffer.
+    ByteBuffer heap = ByteBuffer.wrap(new byte[] { 9, 9, 'h', 'i', '!', 9 }, 2, 3);
+    ByteBuffer direct = ByteBuffer.allocateDirect(3);
+    direct.put(new byte[] { 'h', 'i', '!' }).flip();
+
+    MockEmitter<StructuredRecord> emitter = new MockEmitter<>();
+    transform.transform(StructuredRecord.builder(INPUT).set("a", "x").set("b", heap).set("c", "y").build(), emitter);
+    transform.transform(StructuredRecord.builder(INPUT).set("a", "x").set("b", direct).set("c", "y").build(), emitter);
+    transform.destroy();
+
+    for (StructuredRecord record : emitter.getEmitted()) {
+      ByteBuffer encoded = record.get("b");
+      Assert.assertEquals("aGkh", StandardCharsets.ISO_8859_1.decode(encoded).toString());
+    }
+    Assert.assertEquals(2, heap.position());
+    Assert.assertEquals(0, direct.position());
+  }
+
+  @Test
+  public void testLongOutputFieldIsLeftUnset() throws Exception {
+    // Only the Hasher writes processed values to LONG fields, codecs leave them unset.
+    Schema output = Schema.recordOf("output",
+                                    Schema.Field.of("a", Schema.nullableOf(Schema.of(Schema.Type.LONG))),
+                                    Schema.Field.of("b", Schema.nullableOf(Schema.of(Schema.Type.LONG))));
+    Transcoder transcoder = new Transcoder(StandardCharsets.UTF_8);
+    CodecChain base64 = CodecChain.builder().encode(EncodeDecodeType.STRING_BASE64).build();
+    CodecChain hash = CodecChain.builder().digest(HashType.XXHASH64).build();
+    FieldPlan plan = FieldPlan.builder(output)
+      .apply("a", base64, Schema.Type.STRING, transcoder, Schema.Type.LONG, StandardCharsets.UTF_8)
+      .applyAsLong("b", hash, Schema.Type.STRING, transcoder)
+      .build();
+    Schema input = Schema.recordOf("input",
+                                   Schema.Field.of("a", Schema.of(Schema.Type.STRING)),
+                                   Schema.Field.of("b", Schema.of(Schema.Type.STRING)));
+    StructuredRecord record = plan.apply(StructuredRecord.builder(input).set("a", "hi").set("b", "hi").build());
+    Assert.assertNull(record.get("a"));
+    byte[] hi = "hi".getBytes(StandardCharsets.UTF_8);
+    Assert.assertEquals(FastHash.xxHash64(hi, 0, hi.length, 0), (long) record.get("b"));
+  }
+
+  @Test
+  public void testDecodeWithSchemas() throws Exception {
+    Schema output = Schema.recordOf("decoded",
+                                    Schema.Field.of("a", Schema.of(Schema.Type.STRING)),
+                                    Schema.Field.of("b", Schema.of(Schema.Type.BYTES)),
+                                    Schema.Field.of("c", Schema.nullableOf(Schema.of(Schema.Type.STRING))));
+    Decoder.Config config = new Decoder.Config("a:BASE64,b:HEX", output.toString());
+    Transform<StructuredRecord, StructuredRecord> transform = new Decoder(config);
+    transform.initialize(null);
+
+    // Records of two input schemas, each with it's own plan.
+    Schema partial = Schema.recordOf("partial",
+                                     Schema.Field.of("b", Schema.of(Schema.Type.STRING)),
+                                     Schema.Field.of("a", Schema.of(Schema.Type.STRING)));
+    MockEmitter<StructuredRecord> emitter = new MockEmitter<>();
+    transform.transform(StructuredRecord.builder(ENCODED)
+                          .set("a", "aGVsbG8w").set("b", "01AB").set("c", "plain").build(), emitter);
+    transform.transform(StructuredRecord.builder(partial).set("a", "d29ybGQ=").set("b", "ff").build(), emitter);
+    transform.transform(StructuredRecord.builder(ENCODED)
+                          .set("a", "aGVsbG8x").set("b", "").set("c", "again").build(), emitter);
 
-    
+    Assert.assertEquals(3, emitter.getEmitted().size());
+    Assert.assertEquals("hello0", emitter.getEmitted().get(0).get("a"));
+    Assert.assertArrayEquals(new byte[] { 1, (byte) 0xab }, (byte[]) emitter.getEmitted().get(0).get("b"));
+    Assert.assertEquals("plain", emitter.getEmitted().get(0).get("c"));
+    Assert.assertEquals("world", emitter.getEmitted().get(1).get("a"));
+    Assert.assertArrayEquals(new byte[] { (byte) 0xff }, (byte[]) emitter.getEmitted().get(1).get("b"));
+    Assert.assertNull(emitter.getEmitted().get(1).get("c"));
+    Assert.assertEquals("hello1", emitter.getEmitted().get(2).get("a"));
+    Assert.assertEquals("again", emitter.getEmitted().get(2).get("c"));
+    transform.destroy();
   }
-}
\ No newline at end of file
+}
@@ -0,0 +1,195 @@
+/*
+ * Copyright © 2015 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package co.cask.hydrator.transforms;
+
+import co.cask.cdap.api.data.format.StructuredRecord;
+import co.cask.cdap.api.data.schema.Schema;
+import co.cask.cdap.api.metrics.Metrics;
+import co.cask.cdap.etl.api.Transform;
+import com.google.common.hash.Hashing;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+public class HasherTest {
+  private static final Schema INPUT = Schema.recordOf("input",
+                                                      Schema.Field.of("a", Schema.of(Schema.Type.STRING)),
+                                                      Schema.Field.of("b", Schema.of(Schema.Type.BYTES)),
+                                                      Schema.Field.of("c", Schema.of(Schema.Type.STRING)));
+
+  @Test
+  public void testHexDigests() throws Exception {
+    String[] hashes = { "MD2", "md5", "sha1", "SHA256", "sha384", "sha512" };
+    String value = "4111-1111-1111-1111 \u00e9";
+    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    String[] expected = { DigestUtils.md2Hex(bytes), DigestUtils.md5Hex(bytes), DigestUtils.sha1Hex(bytes),
+      DigestUtils.sha256Hex(bytes), DigestUtils.sha384Hex(bytes), DigestUtils.sha512Hex(bytes) };
+    for (int i = 0; i < hashes.length; ++i) {
+      Transform<StructuredRecord, StructuredRecord> transform = new Hasher(new Hasher.Config(hashes[i], "a,B"));
+      transform.initialize(null);
+      MockEmitter<StructuredRecord> emitter = new MockEmitter<>();
+      for (int j = 0; j < 2; ++j) {
+        transform.transform(StructuredRecord.builder(INPUT)
+                              .set("a", value).set("b", bytes).set("c", value).build(), emitter);
+      }
+      transform.destroy();
+
+      for (StructuredRecord record : emitter.getEmitted()) {
+        Assert.assertEquals(expected[i], record.get("a"));
+        Assert.assertEquals(expected[i], record.get("b"));
+        Assert.assertEquals(Schema.Type.STRING, record.getSchema().getField("b").getSchema().getType());
+        Assert.assertEquals(value, record.get("c"));
+      }
+    }
+  }
+
+  @Test
+  public void testBinaryDigests() throws Exception {
+    Transform<StructuredRecord, StructuredRecord> transform = new Hasher(new Hasher.Config("sha256", "a,b", "bytes"));
+    transform.initialize(null);
+    byte[] bytes = "value".getBytes(StandardCharsets.UTF_8);
+    MockEmitter<StructuredRecord> emitter = new MockEmitter<>();
+    transform.transform(StructuredRecord.builder(INPUT)
+                          .set("a", "value").set("b", ByteBuffer.wrap(bytes)).set("c", "value").build(), emitter);
+    transform.destroy();
+
+    StructuredRecord record = emitter.getEmitted().get(0);
+    Assert.assertEquals(Schema.Type.BYTES, record.getSchema().getField("a").getSchema().getType());
+    Assert.assertArrayEquals(DigestUtils.sha256(bytes), (byte[]) record.get("a"));
+    ByteBuffer b = record.get("b");
+    byte[] digest = new byte[b.remaining()];
+    b.get(digest);
+    Assert.assertArrayEquals(DigestUtils.sha256(bytes), digest);
+  }
+
+  @Test
+  public void testFastHashes() throws Exception {
+    // Reference values of xxHash64 and of the SipHash paper.
+    String[] values = { "", "a", "abc", "Nobody inspects the spammish repetition" };
+    long[] expected = { 0xEF46DB3751D8E999L, 0xD24EC4F1A98C6E5BL, 0x44BC2CF5AD770999L, 0xFBCEA83C8A378BF1L };
+    for (int i = 0; i < values.length; ++i) {
+      byte[] bytes = values[i].getBytes(StandardCharsets.UTF_8);
+      Assert.assertEquals(expected[i], FastHash.xxHash64(bytes, 0, bytes.length, 0));
+    }
+    byte[] message = new byte[15];
+    for (int i = 0; i < message.length; ++i) {
+      message[i] = (byte) i;
+    }
+    Assert.assertEquals(0xA129CA6149BE45E5L,
+                        FastHash.sipHash24(0x0706050403020100L, 0x0F0E0D0C0B0A0908L, message, 0, message.length));
+
+    // MurmurHash3 at every tail length, at an offset.
+    Random random = new Random(11);
+    for (int length = 0; length < 40; ++length) {
+      byte[] bytes = new byte[length + 3];
+      random.nextBytes(bytes);
+      byte[] hash = new byte[16];
+      FastHash.murmur3x128(bytes, 3, length, 0, hash, 0);
+      Assert.assertArrayEquals(Hashing.murmur3_128().hashBytes(bytes, 3, length).asBytes(), hash);
+    }
+  }
+
+  @Test
+  public void testLongOutput() throws Exception {
+    Transform<StructuredRecord, StructuredRecord> transform =
+      new Hasher(new Hasher.Config("siphash24", "a,b", "long", "000102030405060708090a0b0c0d0e0f"));
+    transform.initialize(null);
+    byte[] message = new byte[15];
+    for (int i = 0; i < message.length; ++i) {
+      message[i] = (byte) i;
+    }
+    MockEmitter<StructuredRecord> emitter = new MockEmitter<>();
+    transform.transform(StructuredRecord.builder(INPUT)
+                          .set("a", "abc").set("b", message).set("c", "value").build(), emitter);
+    transform.destroy();
+
+    StructuredRecord record = emitter.getEmitted().get(0);
+    Assert.assertEquals(Schema.Type.LONG, record.getSchema().getField("b").getSchema().getType());
+    Assert.assertEquals(0xA129CA6149BE45E5L, (long) record.get("b"));
+    byte[] abc = "abc".getBytes(StandardCharsets.UTF_8);
+    Assert.assertEquals(FastHash.sipHash24(0x0706050403020100L, 0x0F0E0D0C0B0A0908L, abc, 0, abc.length),
+                        (long) record.get("a"));
+  }
+
+  @Test
+  public void testCachedDigests() throws Exception {
+    Transform<StructuredRecord, StructuredRecord> transform =
+      new Hasher(new Hasher.Config("sha256", "a,b", null, null, 1024 * 1024));
+    transform.initialize(null);
+    MockEmitter<StructuredRecord> emitter = new MockEmitter<>();
+    for (int i = 0; i < 100; ++i) {
+      String value = "user" + (i % 7);
+      transform.transform(StructuredRecord.builder(INPUT).set("a", value)
+                            .set("b", value.getBytes(StandardCharsets.UTF_8)).set("c", value).build(), emitter);
+    }
+    transform.destroy();
+
+    for (StructuredRecord record : emitter.getEmitted()) {
+      String value = record.get("c");
+      Assert.assertEquals(DigestUtils.sha256Hex(value), record.get("a"));
+      Assert.assertEquals(DigestUtils.sha256Hex(value), record.get("b"));
+    }
+  }
+
+  @Test
+  public void testDigestCacheEviction() throws Exception {
+    final Map<String, Long> metrics = new HashMap<>();
+    DigestCache cache = new DigestCache("f", 3 * (DigestCache.ENTRY_OVERHEAD + 2 + 8), new Metrics() {
+      @Override
+      public void count(String metricName, int delta) {
+        Long value = metrics.get(metricName);
+        metrics.put(metricName, (value == null ? 0 : value) + delta);
+      }
+
+      @Override
+      public void gauge(String metricName, long value) {
+        metrics.put(metricName, value);
+      }
+    });
+    for (String value : new String[] { "v1", "v2", "v3", "v1", "v4", "v1", "v2" }) {
+      ByteBuffer key = ByteBuffer.wrap(value.getBytes(StandardCharsets.UTF_8));
+      if (cache.get(key) == null) {
+        cache.put(key, new byte[8]);
+      }
+    }
+    cache.report();
+
+    // v4 evicts v2, the least recently used, and v1 stays cached.
+    Assert.assertEquals(3, cache.size());
+    Assert.assertEquals(2L, (long) metrics.get("hash.f.cache.hits"));
+    Assert.assertEquals(5L, (long) metrics.get("hash.f.cache.misses"));
+    Assert.assertEquals(2L, (long) metrics.get("hash.f.cache.evictions"));
+    Assert.assertEquals(28L, (long) metrics.get("hash.f.cache.hit.rate"));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testSipHashNeedsKey() throws Exception {
+    new Hasher(new Hasher.Config("siphash24", "a", "long")).initialize(null);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalidOutput() throws Exception {
+    new Hasher(new Hasher.Config("md5", "a", "base64")).initialize(null);
+  }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright © 2015 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.hydrator.transforms;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipOutputStream;
+
+public class InflaterStreamTest {
+
+  @Test
+  public void testGzipMembersAndReuse() throws Exception {
+    InflaterStream stream = new InflaterStream();
+    try {
+      for (int i = 0; i < 3; ++i) {
+        byte[] first = gzip("a,b,c\n" + i);
+        byte[] second = gzip("\nd,e,f\n");
+        byte[] payload = new byte[first.length + second.length];
+        System.arraycopy(first, 0, payload, 0, first.length);
+        System.arraycopy(second, 0, payload, first.length, second.length);
+        Assert.assertEquals("a,b,c\n" + i + "\nd,e,f\n", read(stream.resetGzip(payload, 0, payload.length)));
+      }
+    } finally {
+      stream.end();
+    }
+  }
+
+  @Test
+  public void testZipEntries() throws Exception {
+    InflaterStream stream = new InflaterStream();
+    try {
+      byte[] deflated = zip("1,2,3\n4,5,6\n", false);
+      Assert.assertEquals("1,2,3\n4,5,6\n", read(stream.resetZip(deflated, 0, deflated.length)));
+      byte[] stored = zip("7,8,9\n", true);
+      Assert.assertEquals("7,8,9\n", read(stream.resetZip(stored, 0, stored.length)));
+      byte[] empty = new byte[0];
+      Assert.assertEquals("", read(stream.resetZip(empty, 0, 0)));
+    } finally {
+      stream.end();
+    }
+  }
+
+  @Test(expected = ZipException.class)
+  public void testCorruptGzipTrailer() throws Exception {
+    byte[] payload = gzip("x,y,z\n");
+    payload[payload.length - 8] ^= 1;
+    InflaterStream stream = new InflaterStream();
+    try {
+      read(stream.resetGzip(payload, 0, payload.length));
+    } finally {
+      stream.end();
+    }
+  }
+
+  private static byte[] gzip(String text) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    GZIPOutputStream gzip = new GZIPOutputStream(out);
+    gzip.write(text.getBytes(StandardCharsets.UTF_8));
+    gzip.close();
+    return out.toByteArray();
+  }
+
+  private static byte[] zip(String text, boolean stored) throws IOException {
+    byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    ZipOutputStream zip = new ZipOutputStream(out);
+    ZipEntry entry = new ZipEntry("records.csv");
+    if (stored) {
+      CRC32 crc = new CRC32();
+      crc.update(bytes);
+      entry.setMethod(ZipEntry.STORED);
+      entry.setSize(bytes.length);
+      entry.setCrc(crc.getValue());
+    }
+    zip.putNextEntry(entry);
+    zip.write(bytes);
+    zip.closeEntry();
+    zip.close();
+    return out.toByteArray();
+  }
+
+  private static String read(InputStream in) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    byte[] buffer = new byte[7];
+    int read;
+    while ((read = in.read(buffer)) >= 0) {
+      out.write(buffer, 0, read);
+    }
+    return new String(out.toByteArray(), StandardCharsets.UTF_8);
+  }
+}
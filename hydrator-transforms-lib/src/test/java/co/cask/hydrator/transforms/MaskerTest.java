@@ -0,0 +1,149 @@
+/*
+ * Copyright © 2015 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.hydrator.transforms;
+
+import co.cask.cdap.api.data.format.StructuredRecord;
+import co.cask.cdap.api.data.schema.Schema;
+import co.cask.cdap.etl.api.Transform;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+public class MaskerTest {
+  private static final Schema INPUT = Schema.recordOf("input",
+                                                      Schema.Field.of("a", Schema.of(Schema.Type.STRING)),
+                                                      Schema.Field.of("b", Schema.of(Schema.Type.STRING)),
+                                                      Schema.Field.of("c", Schema.of(Schema.Type.INT)));
+
+  @Test
+  public void testSameMasksAsRandom() throws Exception {
+    Random random = new Random(7);
+    for (long seed : new long[] { 0, 1, -1, 42, Long.MAX_VALUE, Long.MIN_VALUE }) {
+      MaskingEngine engine = new MaskingEngine(seed);
+      for (int i = 0; i < 100; ++i) {
+        char[] chars = new char[random.nextInt(200)];
+        for (int j = 0; j < chars.length; ++j) {
+          chars[j] = random.nextBoolean() ? (char) (32 + random.nextInt(95)) : (char) random.nextInt(0x10000);
+        }
+        String value = new String(chars);
+        Assert.assertEquals(mask(value, seed), engine.mask(value));
+      }
+    }
+    Assert.assertNull(new MaskingEngine(0).mask(null));
+  }
+
+  @Test
+  public void testMasksKeepShape() throws Exception {
+    Transform<StructuredRecord, StructuredRecord> transform = new Masker(new Masker.Config("1234", "A,c"));
+    transform.initialize(null);
+    MockEmitter<StructuredRecord> emitter = new MockEmitter<>();
+    String value = "John Doe, 42 Main St. \u00e9";
+    for (int i = 0; i < 2; ++i) {
+      transform.transform(StructuredRecord.builder(INPUT).set("a", value).set("b", value).set("c", 42).build(),
+                          emitter);
+    }
+    transform.destroy();
+
+    String masked = emitter.getEmitted().get(0).get("a");
+    Assert.assertEquals(mask(value, 1234), masked);
+    Assert.assertEquals(value.length(), masked.length());
+    for (int i = 0; i < value.length(); ++i) {
+      char c = value.charAt(i);
+      char m = masked.charAt(i);
+      Assert.assertEquals(Character.isDigit(c), Character.isDigit(m));
+      Assert.assertEquals(Character.isLetter(c), Character.isLetter(m));
+      if (!Character.isLetterOrDigit(c) || c > 0x7f) {
+        Assert.assertEquals(c, m);
+      }
+    }
+    for (StructuredRecord record : emitter.getEmitted()) {
+      Assert.assertEquals(masked, record.get("a"));
+      Assert.assertEquals(value, record.get("b"));
+      Assert.assertEquals(42, (int) record.get("c"));
+    }
+  }
+
+  @Test
+  public void testKeyedMasks() throws Exception {
+    String key = "000102030405060708090a0b0c0d0e0f";
+    String[] values = { "John Doe", "Jane Roe", "John Doe", "4111-1111-1111-1111", "4111-1111-1111-1112" };
+    String[][] masked = new String[2][];
+    for (int i = 0; i < masked.length; ++i) {
+      Transform<StructuredRecord, StructuredRecord> transform =
+        new Masker(new Masker.Config(String.valueOf(i), "a", "keyed", key, i == 0 ? null : 1024));
+      transform.initialize(null);
+      MockEmitter<StructuredRecord> emitter = new MockEmitter<>();
+      for (String value : values) {
+        transform.transform(StructuredRecord.builder(INPUT).set("a", value).set("b", value).set("c", 1).build(),
+                            emitter);
+      }
+      transform.destroy();
+      masked[i] = new String[values.length];
+      for (int j = 0; j < values.length; ++j) {
+        masked[i][j] = emitter.getEmitted().get(j).get("a");
+        Assert.assertEquals(values[j].length(), masked[i][j].length());
+      }
+    }
+
+    // Masks depend on the value and the key only, not on the seed, the cache or the previous values.
+    Assert.assertEquals(Arrays.asList(masked[0]), Arrays.asList(masked[1]));
+    Assert.assertEquals(masked[0][0], masked[0][2]);
+    Assert.assertFalse(masked[0][0].equals(masked[0][1]));
+    Assert.assertFalse(masked[0][3].equals(masked[0][4]));
+    Assert.assertFalse(masked[0][0].equals(values[0]));
+    Assert.assertFalse(masked[0][0].equals(new MaskingEngine(new byte[16], 0, null).mask(values[0])));
+    Assert.assertEquals(masked[0][3].substring(4, 5), "-");
+  }
+
+  @Test
+  public void testMaskCacheIsBounded() throws Exception {
+    byte[] key = new byte[16];
+    MaskingEngine uncached = new MaskingEngine(key, 0, null);
+    MaskingEngine cached = new MaskingEngine(key, 10 * (DigestCache.ENTRY_OVERHEAD + 28), null);
+    for (int i = 0; i < 1000; ++i) {
+      String value = "value" + (i % 20);
+      Assert.assertEquals(uncached.mask(value), cached.mask(value));
+      Assert.assertTrue(cached.size() <= 10);
+    }
+    Assert.assertEquals(0, uncached.size());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testKeyedNeedsKey() throws Exception {
+    new Masker(new Masker.Config(null, "a", "keyed", null, null)).initialize(null);
+  }
+
+  // Masks like the Masker did before the masking engine.
+  private static String mask(String value, long seed) {
+    String cons = "bcdfghjklmnpqrstvwxzBCDFGHJKLMNPQRSTVWXZ";
+    String vowel = "aeiouyAEIOUY";
+    String digit = "0123456789";
+    Random r = new Random(seed);
+    char[] data = value.toCharArray();
+    for (int n = 0; n < data.length; ++n) {
+      char ln = Character.toLowerCase(data[n]);
+      String cs = cons.indexOf(ln) >= 0 ? cons : vowel.indexOf(ln) >= 0 ? vowel : digit.indexOf(ln) >= 0 ? digit : null;
+      if (cs != null) {
+        char c = cs.charAt(r.nextInt(cs.length()));
+        data[n] = ln != data[n] ? Character.toUpperCase(c) : c;
+      }
+    }
+    return new String(data);
+  }
+}
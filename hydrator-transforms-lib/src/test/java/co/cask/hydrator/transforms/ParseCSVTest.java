@@ -19,9 +19,17 @@ package co.cask.hydrator.transforms;
 import co.cask.cdap.api.data.format.StructuredRecord;
 import co.cask.cdap.api.data.schema.Schema;
 import co.cask.cdap.etl.api.Transform;
+import com.google.common.collect.Lists;
+import org.apache.commons.codec.binary.Base64;
 import org.junit.Assert;
 import org.junit.Test;
 
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
 
 public class ParseCSVTest {
 
@@ -122,6 +130,105 @@ public class ParseCSVTest {
     Assert.assertEquals(true, emitter.getEmitted().get(0).get("e"));
   }
   
+  @Test
+  public void testNullableAndEnumFields() throws Exception {
+    Schema output = Schema.recordOf("output3",
+                                    Schema.Field.of("a", Schema.nullableOf(Schema.of(Schema.Type.LONG))),
+                                    Schema.Field.of("b", Schema.enumWith("ACTIVE", "INACTIVE")));
+    ParseCSV.Config config = new ParseCSV.Config("DEFAULT", "body", output.toString());
+    Transform<StructuredRecord, StructuredRecord> transform = new ParseCSV(config);
+    transform.initialize(null);
+
+    MockEmitter<StructuredRecord> emitter = new MockEmitter<>();
+    transform.transform(StructuredRecord.builder(INPUT1)
+                          .set("body", "10,ACTIVE\n20,INACTIVE").build(), emitter);
+    Assert.assertEquals(2, emitter.getEmitted().size());
+    Assert.assertEquals(10L, emitter.getEmitted().get(0).get("a"));
+    Assert.assertEquals("ACTIVE", emitter.getEmitted().get(0).get("b"));
+    Assert.assertEquals(20L, emitter.getEmitted().get(1).get("a"));
+    Assert.assertEquals("INACTIVE", emitter.getEmitted().get(1).get("b"));
+  }
+
+  @Test
+  public void testEmptyNullableCells() throws Exception {
+    Schema output = Schema.recordOf("output6",
+                                    Schema.Field.of("a", Schema.nullableOf(Schema.of(Schema.Type.INT))),
+                                    Schema.Field.of("b", Schema.nullableOf(Schema.of(Schema.Type.DOUBLE))),
+                                    Schema.Field.of("c", Schema.nullableOf(Schema.of(Schema.Type.STRING))));
+    ParseCSV.Config config = new ParseCSV.Config("DEFAULT", "body", output.toString());
+    Transform<StructuredRecord, StructuredRecord> transform = new ParseCSV(config);
+    transform.initialize(null);
+
+    MockEmitter<StructuredRecord> emitter = new MockEmitter<>();
+    transform.transform(StructuredRecord.builder(INPUT1)
+                          .set("body", ",,\n7,1.5,x").build(), emitter);
+    Assert.assertEquals(2, emitter.getEmitted().size());
+    Assert.assertNull(emitter.getEmitted().get(0).get("a"));
+    Assert.assertNull(emitter.getEmitted().get(0).get("b"));
+    Assert.assertEquals("", emitter.getEmitted().get(0).get("c"));
+    Assert.assertEquals(7, emitter.getEmitted().get(1).get("a"));
+    Assert.assertEquals(1.5, emitter.getEmitted().get(1).get("b"));
+  }
+
+  @Test
+  public void testInternedFields() throws Exception {
+    Schema output = Schema.recordOf("output7",
+                                    Schema.Field.of("a", Schema.of(Schema.Type.STRING)),
+                                    Schema.Field.of("b", Schema.nullableOf(Schema.of(Schema.Type.STRING))));
+    String body = "US,x\nFR,y\nUS,x";
+    for (String engine : new String[] { "COMMONS", "BYTES" }) {
+      CSVParser2.Config config = new CSVParser2.Config("NONE", "NONE", "DEFAULT", "body", output.toString(),
+                                                       engine, null, null, null, "a,b:16");
+      Transform<StructuredRecord, StructuredRecord> transform = new CSVParser2(config);
+      transform.initialize(null);
+
+      MockEmitter<StructuredRecord> emitter = new MockEmitter<>();
+      transform.transform(StructuredRecord.builder(INPUT1).set("body", body).build(), emitter);
+      Assert.assertEquals(3, emitter.getEmitted().size());
+      Assert.assertEquals("US", emitter.getEmitted().get(0).get("a"));
+      Assert.assertSame(emitter.getEmitted().get(0).get("a"), emitter.getEmitted().get(2).get("a"));
+      Assert.assertSame(emitter.getEmitted().get(0).get("b"), emitter.getEmitted().get(2).get("b"));
+      Assert.assertEquals("FR", emitter.getEmitted().get(1).get("a"));
+    }
+  }
+
+  @Test
+  public void testColumnMapping() throws Exception {
+    Schema output = Schema.recordOf("output5",
+                                    Schema.Field.of("a", Schema.of(Schema.Type.LONG)),
+                                    Schema.Field.of("b", Schema.of(Schema.Type.STRING)),
+                                    Schema.Field.of("c", Schema.nullableOf(Schema.of(Schema.Type.STRING))));
+    ParseCSV.Config config = new ParseCSV.Config("DEFAULT", "body", output.toString(), "3:a,0:b");
+    Transform<StructuredRecord, StructuredRecord> transform = new ParseCSV(config);
+    transform.initialize(null);
+
+    MockEmitter<StructuredRecord> emitter = new MockEmitter<>();
+    transform.transform(StructuredRecord.builder(INPUT1)
+                          .set("body", "x,y,z,10,w\nshort,row").build(), emitter);
+    Assert.assertEquals(1, emitter.getEmitted().size());
+    Assert.assertEquals(10L, emitter.getEmitted().get(0).get("a"));
+    Assert.assertEquals("x", emitter.getEmitted().get(0).get("b"));
+    Assert.assertNull(emitter.getEmitted().get(0).get("c"));
+  }
+
+  @Test(expected=IllegalArgumentException.class)
+  public void testColumnMappingMissingField() throws Exception {
+    ParseCSV.Config config = new ParseCSV.Config("DEFAULT", "body", OUTPUT1.toString(), "0:a,1:b");
+    new ParseCSV(config).initialize(null);
+  }
+
+  @Test(expected=RuntimeException.class)
+  public void testEnumException() throws Exception {
+    Schema output = Schema.recordOf("output4",
+                                    Schema.Field.of("b", Schema.enumWith("ACTIVE", "INACTIVE")));
+    MockEmitter<StructuredRecord> emitter = new MockEmitter<>();
+    ParseCSV.Config config = new ParseCSV.Config("DEFAULT", "body", output.toString());
+    Transform<StructuredRecord, StructuredRecord> transform = new ParseCSV(config);
+    transform.initialize(null);
+    transform.transform(StructuredRecord.builder(INPUT1)
+                          .set("body", "DELETED").build(), emitter);
+  }
+
   @Test(expected=RuntimeException.class)
   public void testDoubleException() throws Exception {
     MockEmitter<StructuredRecord> emitter = new MockEmitter<>();
@@ -178,4 +285,170 @@ public class ParseCSVTest {
 //    Assert.assertEquals(1, result.size());
 //  }
 
-}
\ No newline at end of file
+
+  @Test
+  public void testParallelParsing() throws Exception {
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < 5000; ++i) {
+      sb.append(i).append(",\"line\n").append(i).append("\",").append(i).append(',').append(i * 0.5).append(",true\n");
+    }
+    CSVParser2.Config config = new CSVParser2.Config("NONE", "NONE", "DEFAULT", "body", OUTPUT2.toString(),
+                                                     "BYTES", null, 4, 1024);
+    Transform<StructuredRecord, StructuredRecord> transform = new CSVParser2(config);
+    transform.initialize(null);
+
+    MockEmitter<StructuredRecord> emitter = new MockEmitter<>();
+    transform.transform(StructuredRecord.builder(INPUT1).set("body", sb.toString()).build(), emitter);
+    transform.destroy();
+
+    Assert.assertEquals(5000, emitter.getEmitted().size());
+    for (int i = 0; i < 5000; ++i) {
+      StructuredRecord record = emitter.getEmitted().get(i);
+      Assert.assertEquals((long) i, record.get("a"));
+      Assert.assertEquals("line\n" + i, record.get("b"));
+      Assert.assertEquals(i, record.get("c"));
+    }
+  }
+
+  @Test
+  public void testParallelParsingStopsAtMalformedPayload() throws Exception {
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < 5000; ++i) {
+      sb.append(i).append(i == 2500 ? ",\"b" : ",b").append(',').append(i).append(",0.5,true\n");
+    }
+    CSVParser2.Config config = new CSVParser2.Config("NONE", "NONE", "DEFAULT", "body", OUTPUT2.toString(),
+                                                     "BYTES", null, 2, 1024);
+    Transform<StructuredRecord, StructuredRecord> transform = new CSVParser2(config);
+    transform.initialize(null);
+
+    MockEmitter<StructuredRecord> emitter = new MockEmitter<>();
+    transform.transform(StructuredRecord.builder(INPUT1).set("body", sb.toString()).build(), emitter);
+    transform.destroy();
+
+    // The records before the unterminated quote are emitted in order, and none after it.
+    Assert.assertEquals(2500, emitter.getEmitted().size());
+    for (int i = 0; i < 2500; ++i) {
+      Assert.assertEquals((long) i, emitter.getEmitted().get(i).get("a"));
+    }
+    Assert.assertEquals(1, emitter.getErrors().size());
+    Assert.assertEquals(MalformedRows.MALFORMED_PAYLOAD, emitter.getErrors().get(0).getErrorCode());
+  }
+
+  @Test
+  public void testGzipPayloads() throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    GZIPOutputStream gzip = new GZIPOutputStream(out);
+    gzip.write("1,\"a\",2,0.5,true\n3,\"b\",4,1.5,false\n".getBytes(StandardCharsets.UTF_8));
+    gzip.close();
+    String body = Base64.encodeBase64String(out.toByteArray());
+
+    for (String engine : new String[] { "COMMONS", "BYTES" }) {
+      CSVParser2.Config config = new CSVParser2.Config("BASE64", "GZIP", "DEFAULT", "body", OUTPUT2.toString(),
+                                                       engine, null);
+      Transform<StructuredRecord, StructuredRecord> transform = new CSVParser2(config);
+      transform.initialize(null);
+
+      MockEmitter<StructuredRecord> emitter = new MockEmitter<>();
+      // The inflater is reused across payloads.
+      for (int i = 0; i < 2; ++i) {
+        transform.transform(StructuredRecord.builder(INPUT1).set("body", body).build(), emitter);
+      }
+      transform.destroy();
+
+      Assert.assertEquals(4, emitter.getEmitted().size());
+      Assert.assertEquals(3L, emitter.getEmitted().get(3).get("a"));
+      Assert.assertEquals("b", emitter.getEmitted().get(3).get("b"));
+      Assert.assertEquals(false, emitter.getEmitted().get(3).get("e"));
+    }
+  }
+
+  @Test
+  public void testBytesPayloads() throws Exception {
+    Schema input = Schema.recordOf("bytes", Schema.Field.of("body", Schema.of(Schema.Type.BYTES)));
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < 100; ++i) {
+      sb.append(i).append(",\"a\"\"").append(i).append("\",").append(i).append(",0.5,true\n");
+    }
+    byte[] body = sb.toString().getBytes(StandardCharsets.UTF_8);
+    byte[] original = body.clone();
+    ByteBuffer direct = ByteBuffer.allocateDirect(body.length);
+    direct.put(body).flip();
+
+    // Sequential and parallel tokenizing, which unescapes in place, must not modify the input.
+    for (int threads : new int[] { 1, 2 }) {
+      CSVParser2.Config config = new CSVParser2.Config("NONE", "NONE", "DEFAULT", "body", OUTPUT2.toString(),
+                                                       "BYTES", null, threads, 128);
+      Transform<StructuredRecord, StructuredRecord> transform = new CSVParser2(config);
+      transform.initialize(null);
+
+      MockEmitter<StructuredRecord> emitter = new MockEmitter<>();
+      transform.transform(StructuredRecord.builder(input).set("body", body).build(), emitter);
+      transform.transform(StructuredRecord.builder(input).set("body", ByteBuffer.wrap(body)).build(), emitter);
+      transform.transform(StructuredRecord.builder(input).set("body", direct).build(), emitter);
+      transform.destroy();
+
+      Assert.assertEquals(300, emitter.getEmitted().size());
+      Assert.assertEquals("a\"99", emitter.getEmitted().get(99).get("b"));
+      Assert.assertEquals("a\"99", emitter.getEmitted().get(199).get("b"));
+      Assert.assertEquals("a\"99", emitter.getEmitted().get(299).get("b"));
+      Assert.assertArrayEquals(original, body);
+      Assert.assertEquals(0, direct.position());
+    }
+  }
+
+  @Test
+  public void testMalformedRows() throws Exception {
+    ParseCSV.Config config = new ParseCSV.Config("DEFAULT", "body", OUTPUT1.toString());
+    Transform<StructuredRecord, StructuredRecord> transform = new ParseCSV(config);
+    transform.initialize(null);
+
+    MockEmitter<StructuredRecord> emitter = new MockEmitter<>();
+    StructuredRecord input = StructuredRecord.builder(INPUT1).set("body", "1,2,3,4,5\n1,2\n1,2,3,4,5\n1").build();
+    transform.transform(input, emitter);
+    Assert.assertEquals(2, emitter.getEmitted().size());
+    // All the malformed rows of a payload are reported in one error entry.
+    Assert.assertEquals(1, emitter.getErrors().size());
+    Assert.assertEquals(MalformedRows.MALFORMED_ROWS, emitter.getErrors().get(0).getErrorCode());
+    Assert.assertSame(input, emitter.getErrors().get(0).getInvalidRecord());
+    Assert.assertTrue(emitter.getErrors().get(0).getErrorMsg().startsWith("2 malformed rows, first at row 2 "));
+
+    // Malformed rows of chunks parsed in parallel are numbered within the payload.
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < 5000; ++i) {
+      sb.append(i).append(",b,").append(i).append(",0.5,true").append(i % 1000 == 999 ? ",x" : "").append('\n');
+    }
+    CSVParser2.Config parallel = new CSVParser2.Config("NONE", "NONE", "DEFAULT", "body", OUTPUT2.toString(),
+                                                       "BYTES", null, 4, 1024);
+    transform = new CSVParser2(parallel);
+    transform.initialize(null);
+    emitter.clear();
+    transform.transform(StructuredRecord.builder(INPUT1).set("body", sb.toString()).build(), emitter);
+    transform.destroy();
+    Assert.assertEquals(4995, emitter.getEmitted().size());
+    Assert.assertEquals(1, emitter.getErrors().size());
+    Assert.assertTrue(emitter.getErrors().get(0).getErrorMsg().startsWith("5 malformed rows, first at row 1000 "));
+    Assert.assertEquals(1000L, emitter.getEmitted().get(999).get("a"));
+  }
+
+  @Test
+  public void testUnterminatedQuote() throws Exception {
+    String body = "1,2,3,4,5\n1,\"2\n";
+    List<Transform<StructuredRecord, StructuredRecord>> transforms = Lists.newArrayList();
+    transforms.add(new ParseCSV(new ParseCSV.Config("DEFAULT", "body", OUTPUT1.toString())));
+    transforms.add(new CSVParser2(new CSVParser2.Config("NONE", "NONE", "DEFAULT", "body", OUTPUT1.toString())));
+    for (Transform<StructuredRecord, StructuredRecord> transform : transforms) {
+      transform.initialize(null);
+      MockEmitter<StructuredRecord> emitter = new MockEmitter<>();
+      StructuredRecord input = StructuredRecord.builder(INPUT1).set("body", body).build();
+      transform.transform(input, emitter);
+      transform.destroy();
+
+      // The records before the unterminated quote are emitted, and the payload is reported.
+      Assert.assertEquals(1, emitter.getEmitted().size());
+      Assert.assertEquals(1, emitter.getErrors().size());
+      Assert.assertEquals(MalformedRows.MALFORMED_PAYLOAD, emitter.getErrors().get(0).getErrorCode());
+      Assert.assertSame(input, emitter.getErrors().get(0).getInvalidRecord());
+      Assert.assertTrue(emitter.getErrors().get(0).getErrorMsg().startsWith("Payload could not be parsed: "));
+    }
+  }
+}
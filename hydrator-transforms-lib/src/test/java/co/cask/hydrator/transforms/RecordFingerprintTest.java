@@ -0,0 +1,166 @@
+/*
+ * Copyright © 2015 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package co.cask.hydrator.transforms;
+
+import co.cask.cdap.api.data.format.StructuredRecord;
+import co.cask.cdap.api.data.schema.Schema;
+import co.cask.cdap.etl.api.Transform;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class RecordFingerprintTest {
+  private static final Schema INPUT =
+    Schema.recordOf("input",
+                    Schema.Field.of("a", Schema.of(Schema.Type.STRING)),
+                    Schema.Field.of("b", Schema.nullableOf(Schema.of(Schema.Type.STRING))),
+                    Schema.Field.of("c", Schema.of(Schema.Type.LONG)),
+                    Schema.Field.of("d", Schema.of(Schema.Type.BYTES)));
+
+  @Test
+  public void testCanonicalEncoding() throws Exception {
+    Transform<StructuredRecord, StructuredRecord> transform =
+      new RecordFingerprint(new RecordFingerprint.Config("a,b", null, null, null, null));
+    transform.initialize(null);
+    MockEmitter<StructuredRecord> emitter = new MockEmitter<>();
+    transform.transform(record("ab", "c", 1L), emitter);
+    transform.transform(record("a", "bc", 1L), emitter);
+    transform.transform(record("abc", null, 1L), emitter);
+    transform.transform(record("abc", "", 1L), emitter);
+    transform.transform(record("ab", "c", 2L), emitter);
+    transform.destroy();
+
+    // Length prefixes and null tags keep the values apart, unselected fields are not hashed.
+    long[] fingerprints = new long[5];
+    for (int i = 0; i < fingerprints.length; ++i) {
+      StructuredRecord record = emitter.getEmitted().get(i);
+      Assert.assertEquals(Schema.Type.LONG, record.getSchema().getField("fingerprint").getSchema().getType());
+      Assert.assertNotNull(record.get("d"));
+      fingerprints[i] = record.get("fingerprint");
+    }
+    Assert.assertTrue(fingerprints[0] != fingerprints[1]);
+    Assert.assertTrue(fingerprints[2] != fingerprints[3]);
+    Assert.assertEquals(fingerprints[0], fingerprints[4]);
+
+    // The encoding of a record is the tag, length and bytes of every field.
+    byte[] encoded = { 6, 2, 0, 0, 0, 'a', 'b', 6, 1, 0, 0, 0, 'c' };
+    Assert.assertEquals(FastHash.xxHash64(encoded, 0, encoded.length, 0), fingerprints[0]);
+  }
+
+  @Test
+  public void testWholeRecord() throws Exception {
+    Transform<StructuredRecord, StructuredRecord> transform =
+      new RecordFingerprint(new RecordFingerprint.Config(null, "key", "murmur3_128", null, "bytes"));
+    transform.initialize(null);
+    MockEmitter<StructuredRecord> emitter = new MockEmitter<>();
+    transform.transform(record("x", null, 7L), emitter);
+    StructuredRecord copy = StructuredRecord.builder(INPUT).set("a", "x").set("c", 7L)
+      .set("d", ByteBuffer.wrap("value".getBytes(StandardCharsets.UTF_8))).build();
+    transform.transform(copy, emitter);
+    transform.destroy();
+
+    byte[] first = emitter.getEmitted().get(0).get("key");
+    Assert.assertEquals(16, first.length);
+    Assert.assertArrayEquals(first, (byte[]) emitter.getEmitted().get(1).get("key"));
+  }
+
+  @Test
+  public void testComplexFields() throws Exception {
+    Schema inner = Schema.recordOf("inner",
+                                   Schema.Field.of("x", Schema.nullableOf(Schema.of(Schema.Type.INT))),
+                                   Schema.Field.of("y", Schema.of(Schema.Type.STRING)));
+    Schema union = Schema.unionOf(Schema.of(Schema.Type.INT), Schema.of(Schema.Type.STRING));
+    Schema schema =
+      Schema.recordOf("complex",
+                      Schema.Field.of("list", Schema.arrayOf(Schema.of(Schema.Type.STRING))),
+                      Schema.Field.of("map", Schema.mapOf(Schema.of(Schema.Type.STRING), Schema.of(Schema.Type.INT))),
+                      Schema.Field.of("inner", inner),
+                      Schema.Field.of("union", union));
+    Transform<StructuredRecord, StructuredRecord> transform =
+      new RecordFingerprint(new RecordFingerprint.Config(null, null, null, null, null));
+    transform.initialize(null);
+    MockEmitter<StructuredRecord> emitter = new MockEmitter<>();
+    Map<String, Integer> map = new LinkedHashMap<>();
+    map.put("one", 1);
+    map.put("two", 2);
+    Map<String, Integer> reversed = new LinkedHashMap<>();
+    reversed.put("two", 2);
+    reversed.put("one", 1);
+    StructuredRecord innerRecord = StructuredRecord.builder(inner).set("y", "z").build();
+    transform.transform(StructuredRecord.builder(schema).set("list", Arrays.asList("ab", "c")).set("map", map)
+                          .set("inner", innerRecord).set("union", 1).build(), emitter);
+    // The same values, held in an array and a map in another order.
+    transform.transform(StructuredRecord.builder(schema).set("list", new String[] { "ab", "c" }).set("map", reversed)
+                          .set("inner", innerRecord).set("union", 1).build(), emitter);
+    transform.transform(StructuredRecord.builder(schema).set("list", Arrays.asList("a", "bc")).set("map", map)
+                          .set("inner", innerRecord).set("union", 1).build(), emitter);
+    transform.transform(StructuredRecord.builder(schema).set("list", Arrays.asList("ab", "c")).set("map", map)
+                          .set("inner", StructuredRecord.builder(inner).set("x", 0).set("y", "z").build())
+                          .set("union", 1).build(), emitter);
+    transform.transform(StructuredRecord.builder(schema).set("list", Arrays.asList("ab", "c")).set("map", map)
+                          .set("inner", innerRecord).set("union", "1").build(), emitter);
+    transform.destroy();
+
+    long[] fingerprints = new long[5];
+    for (int i = 0; i < fingerprints.length; ++i) {
+      fingerprints[i] = emitter.getEmitted().get(i).get("fingerprint");
+    }
+    Assert.assertEquals(fingerprints[0], fingerprints[1]);
+    for (int i = 2; i < fingerprints.length; ++i) {
+      Assert.assertTrue(fingerprints[0] != fingerprints[i]);
+    }
+  }
+
+  @Test
+  public void testFingerprintAgain() throws Exception {
+    Transform<StructuredRecord, StructuredRecord> transform =
+      new RecordFingerprint(new RecordFingerprint.Config(null, null, null, null, null));
+    transform.initialize(null);
+    MockEmitter<StructuredRecord> emitter = new MockEmitter<>();
+    transform.transform(record("x", "y", 7L), emitter);
+    StructuredRecord fingerprinted = emitter.getEmitted().get(0);
+    transform.transform(fingerprinted, emitter);
+    transform.destroy();
+
+    // The fingerprint already in the record is not fingerprinted.
+    Assert.assertEquals((long) fingerprinted.get("fingerprint"), (long) emitter.getEmitted().get(1).get("fingerprint"));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testFingerprintFieldIsNotFingerprinted() throws Exception {
+    new RecordFingerprint(new RecordFingerprint.Config("a,key", "key", null, null, null)).configurePipeline(null);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testMissingField() throws Exception {
+    Transform<StructuredRecord, StructuredRecord> transform =
+      new RecordFingerprint(new RecordFingerprint.Config("a,e", null, null, null, null));
+    transform.initialize(null);
+    transform.transform(record("a", "b", 1L), new MockEmitter<StructuredRecord>());
+  }
+
+  private static StructuredRecord record(String a, String b, long c) {
+    return StructuredRecord.builder(INPUT).set("a", a).set("b", b).set("c", c)
+      .set("d", "value".getBytes(StandardCharsets.UTF_8)).build();
+  }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright © 2015 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.hydrator.transforms;
+
+import co.cask.cdap.api.data.schema.Schema;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class StringInternerTest {
+
+  @Test
+  public void testCanonicalInstances() throws Exception {
+    StringInterner interner = new StringInterner("country", 16);
+    String us = interner.intern(new String("US"));
+    Assert.assertSame(us, interner.intern(new String("US")));
+    byte[] bytes = "FR,US,DÉ".getBytes(StandardCharsets.UTF_8);
+    Assert.assertSame(us, interner.intern(bytes, 3, 2));
+    String fr = interner.intern(bytes, 0, 2);
+    Assert.assertEquals("FR", fr);
+    Assert.assertSame(fr, interner.intern("FR"));
+    String de = interner.intern(bytes, 6, bytes.length - 6);
+    Assert.assertEquals("DÉ", de);
+    Assert.assertSame(de, interner.intern(bytes, 6, bytes.length - 6));
+    Assert.assertEquals(4, interner.getHits());
+    Assert.assertEquals(3, interner.getMisses());
+    interner.report(null);
+    Assert.assertEquals(0, interner.getHits());
+  }
+
+  @Test
+  public void testEviction() throws Exception {
+    StringInterner interner = new StringInterner("id", 8);
+    for (int i = 0; i < 1000; ++i) {
+      Assert.assertEquals(Integer.toString(i), interner.intern(Integer.toString(i)));
+    }
+    Assert.assertEquals(0, interner.getHits());
+    Assert.assertEquals(1000, interner.getMisses());
+  }
+
+  @Test
+  public void testConcurrentCounts() throws Exception {
+    final StringInterner interner = new StringInterner("status", 16);
+    final int lookups = 100000;
+    ExecutorService pool = Executors.newFixedThreadPool(4);
+    try {
+      List<Future<?>> futures = new ArrayList<>();
+      for (int t = 0; t < 4; ++t) {
+        futures.add(pool.submit(new Callable<Void>() {
+          @Override
+          public Void call() throws Exception {
+            byte[] bytes = "OK,KO".getBytes(StandardCharsets.US_ASCII);
+            for (int i = 0; i < lookups; ++i) {
+              interner.intern(bytes, (i & 1) * 3, 2);
+            }
+            return null;
+          }
+        }));
+      }
+      for (Future<?> future : futures) {
+        future.get();
+      }
+    } finally {
+      pool.shutdown();
+    }
+    Assert.assertEquals(4 * lookups, interner.getHits() + interner.getMisses());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testCapacityTooLarge() throws Exception {
+    Schema schema = Schema.recordOf("record", Schema.Field.of("a", Schema.of(Schema.Type.STRING)));
+    StringInterner.of(schema, "a:" + ((1 << 30) + 1));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testNonStringField() throws Exception {
+    Schema schema = Schema.recordOf("record", Schema.Field.of("a", Schema.nullableOf(Schema.of(Schema.Type.INT))));
+    StringInterner.of(schema, "a:100");
+  }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright © 2015 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.hydrator.transforms;
+
+import org.apache.commons.codec.binary.Base32;
+import org.apache.commons.codec.binary.Base64;
+import org.apache.commons.codec.binary.Hex;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+public class TextCodecTest {
+
+  @Test
+  public void testSameAsCommonsCodec() throws Exception {
+    Random random = new Random(42);
+    for (int length = 0; length < 64; ++length) {
+      byte[] value = new byte[length];
+      random.nextBytes(value);
+
+      Assert.assertArrayEquals(new Base64().encode(value), TextCodec.BASE64.encode(value));
+      Assert.assertArrayEquals(new Base32().encode(value), TextCodec.BASE32.encode(value));
+      Assert.assertEquals(Hex.encodeHexString(value), TextCodec.HEX.encodeToString(value));
+
+      Assert.assertArrayEquals(value, TextCodec.BASE64.decode(new Base64().encode(value)));
+      Assert.assertArrayEquals(value, TextCodec.BASE32.decode(new Base32().encode(value)));
+      Assert.assertArrayEquals(value, TextCodec.HEX.decode(new Hex().encode(value)));
+
+      // Chunked and URL safe encodings decode as well.
+      Assert.assertArrayEquals(value, TextCodec.BASE64.decode(Base64.encodeBase64Chunked(value)));
+      Assert.assertArrayEquals(value, TextCodec.BASE64.decode(Base64.encodeBase64URLSafe(value)));
+    }
+  }
+
+  @Test
+  public void testRanges() throws Exception {
+    byte[] value = "--hello world--".getBytes(StandardCharsets.US_ASCII);
+    byte[] encoded = new byte[4 + TextCodec.BASE32.encodedLength(11)];
+    int length = TextCodec.BASE32.encode(value, 2, 11, encoded, 4);
+    Assert.assertEquals("NBSWY3DPEB3W64TMMQ======", new String(encoded, 4, length, StandardCharsets.US_ASCII));
+
+    byte[] decoded = new byte[1 + TextCodec.BASE32.maxDecodedLength(length)];
+    Assert.assertEquals(11, TextCodec.BASE32.decode(encoded, 4, length, decoded, 1));
+    Assert.assertEquals("hello world", new String(decoded, 1, 11, StandardCharsets.US_ASCII));
+  }
+
+  @Test
+  public void testLenientDecoding() throws Exception {
+    Assert.assertEquals("hello world", new String(TextCodec.BASE64.decode(
+      " aGVs\nbG8g*d29y\r\nbGQ= trailing".getBytes(StandardCharsets.US_ASCII)), StandardCharsets.US_ASCII));
+    Assert.assertArrayEquals(new byte[] { (byte) 0xab, 0x01 },
+                             TextCodec.HEX.decode("AB01".getBytes(StandardCharsets.US_ASCII)));
+  }
+
+  @Test(expected = IOException.class)
+  public void testIllegalHex() throws Exception {
+    TextCodec.HEX.decode("0g".getBytes(StandardCharsets.US_ASCII));
+  }
+
+  @Test(expected = IOException.class)
+  public void testOddHex() throws Exception {
+    TextCodec.HEX.decode("abc".getBytes(StandardCharsets.US_ASCII));
+  }
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright © 2015 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.hydrator.transforms;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+public class TranscoderTest {
+
+  @Test
+  public void testSameAsGetBytes() throws Exception {
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < 200; ++i) {
+      sb.append('a');
+    }
+    // ASCII values, values starting with a long ASCII prefix, and ones the charsets can't encode.
+    String[] values = { "", "hello", sb + "\u00e9t\u00e9 \u4e2d\u6587 \ud83d\ude00", "caf\u00e9", "\u4e2d" + sb };
+    for (Charset charset : new Charset[] { StandardCharsets.UTF_8, StandardCharsets.ISO_8859_1,
+                                           StandardCharsets.US_ASCII, StandardCharsets.UTF_16 }) {
+      Transcoder transcoder = new Transcoder(charset);
+      for (String value : values) {
+        ByteBuffer encoded = transcoder.encode(value);
+        byte[] bytes = Arrays.copyOfRange(encoded.array(), encoded.position(), encoded.limit());
+        Assert.assertArrayEquals(charset + " " + value, value.getBytes(charset), bytes);
+        Assert.assertArrayEquals(value.getBytes(charset), transcoder.toBytes(value));
+      }
+    }
+  }
+
+  @Test
+  public void testUtf8() throws Exception {
+    Assert.assertArrayEquals("abc".getBytes(StandardCharsets.UTF_8), Transcoder.utf8("abc"));
+    Assert.assertArrayEquals("ab\u00e9".getBytes(StandardCharsets.UTF_8), Transcoder.utf8("ab\u00e9"));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testUnsupportedCharset() throws Exception {
+    Transcoder.charsetOf("NOT-A-CHARSET");
+  }
+}
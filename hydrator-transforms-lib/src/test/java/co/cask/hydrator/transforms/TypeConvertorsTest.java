@@ -0,0 +1,65 @@
+/*
+ * Copyright © 2015 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.hydrator.transforms;
+
+import co.cask.cdap.api.data.schema.Schema;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+public class TypeConvertorsTest {
+
+  @Test
+  public void testCharSequences() throws Exception {
+    StringBuilder value = new StringBuilder("-2147483648");
+    Assert.assertEquals(Integer.MIN_VALUE, TypeConvertors.getInt(value));
+    Assert.assertEquals(Long.MAX_VALUE, TypeConvertors.getLong("+9223372036854775807"));
+    Assert.assertEquals(-0.25, TypeConvertors.getDouble(new StringBuilder("-.25")), 0);
+    Assert.assertEquals(1.0e-3, TypeConvertors.getDouble("1.0e-3"), 0);
+    Assert.assertEquals(3.14f, TypeConvertors.getFloat(new StringBuilder("3.14")), 0);
+    Assert.assertTrue(TypeConvertors.getBoolean(new StringBuilder("TrUe")));
+    Assert.assertFalse(TypeConvertors.getBoolean("yes"));
+  }
+
+  @Test
+  public void testByteRanges() throws Exception {
+    byte[] bytes = "x,42,-7.5,true,".getBytes(StandardCharsets.UTF_8);
+    Assert.assertEquals(42, TypeConvertors.getInt(bytes, 2, 2));
+    Assert.assertEquals(-7.5, TypeConvertors.getDouble(bytes, 5, 4), 0);
+    Assert.assertTrue(TypeConvertors.getBoolean(bytes, 10, 4));
+    Assert.assertNull(TypeConvertors.get(bytes, 15, 0, Schema.Type.LONG, TypeConvertors.EmptyPolicy.NULL));
+    Assert.assertEquals("", TypeConvertors.get(bytes, 15, 0, Schema.Type.STRING, TypeConvertors.EmptyPolicy.NULL));
+  }
+
+  @Test
+  public void testFailures() throws Exception {
+    try {
+      TypeConvertors.getInt("2147483648");
+      Assert.fail();
+    } catch (ConversionException e) {
+      Assert.assertEquals("Failed to convert '2147483648' to INT", e.getMessage());
+      Assert.assertEquals(0, e.getStackTrace().length);
+    }
+    try {
+      TypeConvertors.get("", Schema.Type.DOUBLE, TypeConvertors.EmptyPolicy.CONVERT);
+      Assert.fail();
+    } catch (ConversionException e) {
+      Assert.assertEquals("DOUBLE", e.getType());
+    }
+  }
+}
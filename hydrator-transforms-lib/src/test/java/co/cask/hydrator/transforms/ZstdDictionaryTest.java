@@ -0,0 +1,163 @@
+/*
+ * Copyright © 2015 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package co.cask.hydrator.transforms;
+
+import co.cask.cdap.api.data.format.StructuredRecord;
+import co.cask.cdap.api.data.schema.Schema;
+import co.cask.cdap.etl.api.Transform;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+
+public class ZstdDictionaryTest {
+  private static final Schema SCHEMA = Schema.recordOf("record", Schema.Field.of("a", Schema.of(Schema.Type.BYTES)));
+
+  @Test
+  public void testId() throws Exception {
+    byte[] bytes = new byte[64];
+    ZstdDictionary.writeInt(bytes, 0, 0xEC30A437);
+    ZstdDictionary.writeInt(bytes, 4, 123456789);
+    Assert.assertEquals((byte) 0x37, bytes[0]);
+    Assert.assertEquals(123456789, new ZstdDictionary(bytes).getId());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testRawContentIsRejected() throws Exception {
+    new ZstdDictionary("{\"name\":\"value\"}".getBytes(StandardCharsets.UTF_8));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testDictionaryWithoutId() throws Exception {
+    byte[] bytes = new byte[64];
+    ZstdDictionary.writeInt(bytes, 0, 0xEC30A437);
+    new ZstdDictionary(bytes);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testDictionaryRequiresZstd() throws Exception {
+    Schema schema = Schema.recordOf("record", Schema.Field.of("a", Schema.of(Schema.Type.BYTES)));
+    new Compressor(new Compressor.Config("a:GZIP", schema.toString(), null, null, "a:/tmp/a.dict")).initialize(null);
+  }
+
+  @Test
+  public void testTrainedRoundTrip() throws Exception {
+    File directory = Files.createTempDirectory("zstd").toFile();
+    String path = new File(directory, "a.dict").getPath();
+    try {
+      // Two instances of the stage train their own dictionary for the same path, on different values.
+      int values = CodecStage.DICTIONARY_TRAINING_VALUES + 200;
+      List<StructuredRecord> records = Lists.newArrayList();
+      List<Integer> ids = Lists.newArrayList();
+      for (int instance = 0; instance < 2; ++instance) {
+        Transform<StructuredRecord, StructuredRecord> compressor =
+          new Compressor(new Compressor.Config("a:ZSTD", SCHEMA.toString(), null, null, "a:" + path));
+        compressor.initialize(null);
+        MockEmitter<StructuredRecord> compressed = new MockEmitter<>();
+        for (int i = 0; i < values; ++i) {
+          compressor.transform(StructuredRecord.builder(SCHEMA).set("a", fragment(instance * values + i)).build(),
+                               compressed);
+        }
+        compressor.destroy();
+
+        // Values are stamped with no dictionary until it's trained, and with it's id after.
+        byte[] first = compressed.getEmitted().get(0).get("a");
+        byte[] last = compressed.getEmitted().get(values - 1).get("a");
+        Assert.assertEquals(ZstdDictionary.NO_DICTIONARY, ZstdDictionary.readInt(first, 0));
+        int id = ZstdDictionary.readInt(last, 0);
+        Assert.assertEquals(id, ZstdDictionary.read(ZstdDictionary.trainedPath(path, id)).getId());
+        CodecChain plain = CodecChain.builder().compress(CompDecompType.ZSTD).build();
+        Assert.assertTrue(last.length < plain.apply(fragment(instance * values + values - 1)).length);
+        plain.close();
+        records.addAll(compressed.getEmitted());
+        ids.add(id);
+      }
+      Assert.assertNotEquals(ids.get(0), ids.get(1));
+      Assert.assertFalse(new File(path).exists());
+      Assert.assertEquals(2, directory.list().length);
+
+      // The decompressor reads the dictionaries of both instances.
+      Transform<StructuredRecord, StructuredRecord> decompressor =
+        new Decompressor(new Decompressor.Config("a:ZSTD", SCHEMA.toString(), null, null, "a:" + path, null));
+      decompressor.initialize(null);
+      MockEmitter<StructuredRecord> emitter = new MockEmitter<>();
+      for (StructuredRecord record : records) {
+        decompressor.transform(record, emitter);
+      }
+      decompressor.destroy();
+      Assert.assertEquals(0, emitter.getErrors().size());
+      for (int i = 0; i < records.size(); ++i) {
+        Assert.assertArrayEquals(fragment(i), (byte[]) emitter.getEmitted().get(i).get("a"));
+      }
+
+      // Without the dictionary, the values compressed with it can't be decompressed.
+      CodecStage unknown = CodecStage.dictionaryDecompressor(Maps.<Integer, ZstdDictionary>newHashMap());
+      Assert.assertArrayEquals(fragment(0), CodecStage.toArray(unknown.apply(ByteBuffer.wrap(
+        (byte[]) records.get(0).get("a")))));
+      try {
+        unknown.apply(ByteBuffer.wrap((byte[]) records.get(values - 1).get("a")));
+        Assert.fail("Value compressed with an unknown dictionary was decompressed");
+      } catch (IOException e) {
+        Assert.assertTrue(e.getMessage().contains("unknown Zstandard dictionary"));
+      }
+      unknown.close();
+    } finally {
+      for (File file : directory.listFiles()) {
+        file.delete();
+      }
+      directory.delete();
+    }
+  }
+
+  @Test(expected = IOException.class)
+  public void testMissingDictionary() throws Exception {
+    File directory = Files.createTempDirectory("zstd").toFile();
+    try {
+      ZstdDictionary.readAll(new File(directory, "a.dict").getPath());
+    } finally {
+      directory.delete();
+    }
+  }
+
+  @Test
+  public void testContentSize() throws Exception {
+    for (int size : new int[] { 0, 200, 300, 70000 }) {
+      byte[] value = new byte[size];
+      CodecChain zstd = CodecChain.builder().compress(CompDecompType.ZSTD).build();
+      byte[] frame = zstd.apply(value);
+      zstd.close();
+      byte[] padded = new byte[frame.length + 3];
+      System.arraycopy(frame, 0, padded, 3, frame.length);
+      Assert.assertEquals(size, ZstdDictionary.contentSize(padded, 3, frame.length));
+    }
+    Assert.assertEquals(-1, ZstdDictionary.contentSize(new byte[8], 0, 8));
+  }
+
+  private static byte[] fragment(int i) {
+    return ("{\"id\":" + i + ",\"name\":\"user" + i + "\",\"email\":\"user" + i + "@example.com\"," +
+      "\"active\":" + (i % 2 == 0) + ",\"roles\":[\"reader\",\"writer\"],\"country\":\"FR\"}")
+      .getBytes(StandardCharsets.UTF_8);
+  }
+}